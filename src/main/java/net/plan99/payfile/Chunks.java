@@ -0,0 +1,33 @@
+package net.plan99.payfile;
+
+/**
+ * Chunk size and pricing rules that client and server have to agree on. Clients can download in chunks of any power of
+ * two size the server allows, but a file's price is quoted per Manifest.chunk_size bytes, so whatever size is used the
+ * price per byte comes out the same.
+ */
+public class Chunks {
+    /** Returns true if the size is a power of two between min and max inclusive. */
+    public static boolean isValidSize(int size, int min, int max) {
+        return size >= min && size <= max && Integer.bitCount(size) == 1;
+    }
+
+    /**
+     * Returns the largest valid chunk size that's no bigger than target and that divides offset, so that a download
+     * which has got as far as offset can carry on in chunks of that size. Returns min if there isn't one.
+     */
+    public static int sizeFor(long target, long offset, int min, int max) {
+        long size = Long.highestOneBit(Math.max(min, Math.min(max, target)));
+        if (offset != 0)
+            size = Math.min(size, Long.lowestOneBit(offset));
+        return (int) Math.max(size, min);
+    }
+
+    /**
+     * Returns what the given number of bytes cost, rounded up to a whole satoshi. To avoid rounding up on every chunk,
+     * callers that keep a running total should pass pricePerChunk = 1 and the sum of price_per_chunk * bytes.
+     */
+    public static long price(long pricePerChunk, int chunkSize, long bytes) {
+        final long weighted = pricePerChunk * bytes;
+        return (weighted + chunkSize - 1) / chunkSize;
+    }
+}
@@ -0,0 +1,144 @@
+package net.plan99.payfile;
+
+import com.google.protobuf.CodedInputStream;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Reads length prefixed frames off a blocking stream, for the read loops of both the server and the client. Reads
+ * are done in big gulps into a buffer borrowed from a process wide pool, messages are parsed straight out of that
+ * buffer with a {@link CodedInputStream}, and raw DATA payloads are copied from it to their destination without any
+ * intermediate arrays. So once it's warmed up, reading a frame doesn't allocate anything beyond the parsed message.</p>
+ *
+ * <p>Not thread safe: one reader thread per stream. {@link #close()} gives the buffer back to the pool but leaves the
+ * stream open, so call it from the reader thread once it's finished.</p>
+ */
+public class FrameReader implements Closeable {
+    // Big enough for any message a client sends and for most that a server does. Bigger frames grow the buffer, and
+    // grown buffers are not pooled.
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final Queue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger poolSize = new AtomicInteger();
+
+    private final InputStream stream;
+    private byte[] buffer;
+    // Unconsumed data is buffer[position, limit).
+    private int position, limit;
+
+    public FrameReader(InputStream stream) {
+        this.stream = stream;
+        byte[] pooled = pool.poll();
+        if (pooled != null)
+            poolSize.decrementAndGet();
+        this.buffer = pooled != null ? pooled : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Reads the length prefix of the next frame, which may have {@link RawDataFrame#RAW_FLAG} set. Throws
+     * {@link EOFException} if the stream ends.
+     */
+    public int readPrefix() throws IOException {
+        return readInt();
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        final byte[] b = buffer;
+        final int p = position;
+        position += 4;
+        return (b[p] & 0xFF) << 24 | (b[p + 1] & 0xFF) << 16 | (b[p + 2] & 0xFF) << 8 | (b[p + 3] & 0xFF);
+    }
+
+    public long readLong() throws IOException {
+        final long high = readInt();
+        return high << 32 | (readInt() & 0xFFFFFFFFL);
+    }
+
+    /** Reads and parses a message of the given length, which the caller should have sanity checked. */
+    public Payfile.PayFileMessage readMessage(int length) throws IOException {
+        checkArgument(length >= 0, "Negative length");
+        require(length);
+        CodedInputStream input = CodedInputStream.newInstance(buffer, position, length);
+        position += length;
+        return Payfile.PayFileMessage.parseFrom(input);
+    }
+
+    /** Copies the next length bytes of the stream to the given output stream, in pieces as big as the buffer. */
+    public void copyTo(OutputStream output, int length) throws IOException {
+        checkArgument(length >= 0, "Negative length");
+        while (length > 0) {
+            if (position == limit) {
+                position = limit = 0;
+                fill(1);
+            }
+            final int n = Math.min(length, limit - position);
+            output.write(buffer, position, n);
+            position += n;
+            length -= n;
+        }
+    }
+
+    /** Reads the next length bytes of the stream into the given array. */
+    public void readFully(byte[] dest, int offset, int length) throws IOException {
+        checkArgument(length >= 0, "Negative length");
+        while (length > 0) {
+            if (position == limit) {
+                position = limit = 0;
+                fill(1);
+            }
+            final int n = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, dest, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // Makes sure at least n unconsumed bytes are in the buffer, reading as much as the stream has available.
+    private void require(int n) throws IOException {
+        final int buffered = limit - position;
+        if (buffered >= n)
+            return;
+        if (buffer.length - position < n) {
+            // Not enough room left at the end: move what we have to the front, growing the buffer if need be.
+            byte[] dest = buffer.length < n ? new byte[n] : buffer;
+            System.arraycopy(buffer, position, dest, 0, buffered);
+            buffer = dest;
+            position = 0;
+            limit = buffered;
+        }
+        fill(n - buffered);
+    }
+
+    private void fill(int atLeast) throws IOException {
+        final int target = limit + atLeast;
+        while (limit < target) {
+            final int read = stream.read(buffer, limit, buffer.length - limit);
+            if (read < 0)
+                throw new EOFException();
+            limit += read;
+        }
+    }
+
+    @Override
+    public void close() {
+        final byte[] b = buffer;
+        buffer = null;
+        if (b == null || b.length != BUFFER_SIZE)
+            return;
+        if (poolSize.incrementAndGet() <= MAX_POOLED_BUFFERS)
+            pool.add(b);
+        else
+            poolSize.decrementAndGet();
+    }
+}
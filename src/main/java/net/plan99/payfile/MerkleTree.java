@@ -0,0 +1,142 @@
+package net.plan99.payfile;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The Merkle tree rules that client and server have to agree on, as described for File.merkle_root. Nodes are
+ * numbered by level, with the leaves at level 0, and by index within the level. A chunk of 2^level leaves is the node
+ * at that level with the chunk's id as its index, so the server can prove it belongs to the file with one hash per
+ * level above it, and the client can check that without having seen anything else of the file.
+ */
+public class MerkleTree {
+    /** Bytes of the file under each leaf. The smallest chunk that can be checked. */
+    public static final int LEAF_SIZE = 8 * 1024;
+    public static final int HASH_SIZE = 32;
+
+    private static final byte LEAF_PREFIX = 0, NODE_PREFIX = 1;
+
+    public static long numLeaves(long fileSize) {
+        return Math.max(1, (fileSize + LEAF_SIZE - 1) / LEAF_SIZE);
+    }
+
+    /** Returns how many nodes there are at the given level of a tree with this many leaves. */
+    public static long width(long leaves, int level) {
+        return ((leaves - 1) >> level) + 1;
+    }
+
+    /** Returns the level of the root, which is the only node on it. */
+    public static int height(long leaves) {
+        return 64 - Long.numberOfLeadingZeros(leaves - 1);
+    }
+
+    /** Returns the level at which chunks of the given size are nodes. */
+    public static int levelFor(int chunkSize) {
+        checkArgument(chunkSize >= LEAF_SIZE && Integer.bitCount(chunkSize) == 1, "Bad chunk size: %s", chunkSize);
+        return Integer.numberOfTrailingZeros(chunkSize / LEAF_SIZE);
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);   // Every JVM has it.
+        }
+    }
+
+    /** Hashes up to LEAF_SIZE bytes of the file, consuming them from the buffer. */
+    public static byte[] leaf(MessageDigest digest, ByteBuffer data) {
+        digest.update(LEAF_PREFIX);
+        digest.update(data);
+        return digest.digest();
+    }
+
+    public static byte[] node(MessageDigest digest, byte[] left, byte[] right) {
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    /**
+     * Combines the hashes in nodes, which are a level of a tree or a run of one starting at an even index, into the
+     * level above, and returns how many there are now. A node left over at the end moves up as it is.
+     */
+    public static int combine(MessageDigest digest, byte[][] nodes, int count) {
+        int out = 0;
+        for (int i = 0; i < count; i += 2)
+            nodes[out++] = i + 1 < count ? node(digest, nodes[i], nodes[i + 1]) : nodes[i];
+        return out;
+    }
+
+    /**
+     * Returns the hash of the subtree formed by the given chunk of a file: everything from the buffer's position to its
+     * limit, which is consumed. That's its node in the tree of the whole file, as long as the chunk starts at a
+     * multiple of its size and is either that size or the end of the file.
+     */
+    public static byte[] hashChunk(MessageDigest digest, ByteBuffer chunk) {
+        final int leaves = (int) numLeaves(chunk.remaining());
+        final byte[][] nodes = new byte[leaves][];
+        final int end = chunk.limit();
+        for (int i = 0; i < leaves; i++) {
+            chunk.limit(Math.min(end, chunk.position() + LEAF_SIZE));
+            nodes[i] = leaf(digest, chunk);
+        }
+        chunk.limit(end);
+        int count = leaves;
+        while (count > 1)
+            count = combine(digest, nodes, count);
+        return nodes[0];
+    }
+
+    /**
+     * Returns how many hashes the proof for the node at the given level and index of a file of the given size has:
+     * one for each level from there up where the node has a partner.
+     */
+    public static int proofLength(long fileSize, int level, long index) {
+        final long leaves = numLeaves(fileSize);
+        int length = 0;
+        for (int l = level; l < height(leaves); l++, index >>= 1) {
+            if ((index & 1) == 1 || index + 1 < width(leaves, l))
+                length++;
+        }
+        return length;
+    }
+
+    /**
+     * Returns true if the chunk, with the given id and size, is part of the file with the given root and size
+     * according to the proof. The chunk is consumed.
+     */
+    public static boolean verify(byte[] root, long fileSize, int chunkSize, long chunkId, ByteBuffer chunk,
+                                 ByteString proof) {
+        final int level = levelFor(chunkSize);
+        final long leaves = numLeaves(fileSize);
+        final long offset = chunkId * chunkSize;
+        if (chunkId < 0 || offset > fileSize || chunk.remaining() != Math.min(chunkSize, fileSize - offset))
+            return false;
+        if (offset == fileSize && fileSize != 0)
+            return false;
+        if (proof.size() != proofLength(fileSize, level, chunkId) * HASH_SIZE)
+            return false;
+        final MessageDigest digest = newDigest();
+        byte[] hash = hashChunk(digest, chunk);
+        long index = chunkId;
+        int next = 0;
+        for (int l = level; l < height(leaves); l++, index >>= 1) {
+            if ((index & 1) == 1) {
+                hash = node(digest, proof.substring(next, next + HASH_SIZE).toByteArray(), hash);
+                next += HASH_SIZE;
+            } else if (index + 1 < width(leaves, l)) {
+                hash = node(digest, hash, proof.substring(next, next + HASH_SIZE).toByteArray());
+                next += HASH_SIZE;
+            }
+        }
+        return Arrays.equals(hash, root);
+    }
+}
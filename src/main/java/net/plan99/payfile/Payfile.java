@@ -100,6 +100,34 @@ public final class Payfile {
      * <code>optional .net.plan99.payfile.Error error = 7;</code>
      */
     net.plan99.payfile.Payfile.ErrorOrBuilder getErrorOrBuilder();
+
+    // optional .net.plan99.payfile.Credit credit = 8;
+    /**
+     * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+     */
+    boolean hasCredit();
+    /**
+     * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+     */
+    net.plan99.payfile.Payfile.Credit getCredit();
+    /**
+     * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+     */
+    net.plan99.payfile.Payfile.CreditOrBuilder getCreditOrBuilder();
+
+    // optional .net.plan99.payfile.MerkleProof proof = 9;
+    /**
+     * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+     */
+    boolean hasProof();
+    /**
+     * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+     */
+    net.plan99.payfile.Payfile.MerkleProof getProof();
+    /**
+     * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+     */
+    net.plan99.payfile.Payfile.MerkleProofOrBuilder getProofOrBuilder();
   }
   /**
    * Protobuf type {@code net.plan99.payfile.PayFileMessage}
@@ -233,6 +261,32 @@ public final class Payfile {
               bitField0_ |= 0x00000040;
               break;
             }
+            case 66: {
+              net.plan99.payfile.Payfile.Credit.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000080) == 0x00000080)) {
+                subBuilder = credit_.toBuilder();
+              }
+              credit_ = input.readMessage(net.plan99.payfile.Payfile.Credit.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(credit_);
+                credit_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000080;
+              break;
+            }
+            case 74: {
+              net.plan99.payfile.Payfile.MerkleProof.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000100) == 0x00000100)) {
+                subBuilder = proof_.toBuilder();
+              }
+              proof_ = input.readMessage(net.plan99.payfile.Payfile.MerkleProof.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(proof_);
+                proof_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000100;
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -308,8 +362,8 @@ public final class Payfile {
        * <code>DOWNLOAD_CHUNK = 4;</code>
        *
        * <pre>
-       * Client sends a DOWNLOAD_CHUNK message asking for a part of the given file, including
-       * a micropayment for doing so.
+       * Client sends a DOWNLOAD_CHUNK message asking for a part of the given file. The client should
+       * have sent a micropayment for the chunk beforehand.
        * </pre>
        */
       DOWNLOAD_CHUNK(3, 4),
@@ -317,7 +371,9 @@ public final class Payfile {
        * <code>DATA = 5;</code>
        *
        * <pre>
-       * Server sends back a DATA message containing the requested chunk.
+       * Server sends back a DATA message containing the requested chunk. If the client asked for it in
+       * QUERY_FILES, the server may instead send a raw DATA frame which isn't a protobuf at all: see
+       * the RawDataFrame class for the layout.
        * </pre>
        */
       DATA(4, 5),
@@ -329,6 +385,23 @@ public final class Payfile {
        * </pre>
        */
       ERROR(5, 6),
+      /**
+       * <code>CREDIT = 7;</code>
+       *
+       * <pre>
+       * Server tells a client that set QueryFiles.credit_grants how much it may download: see Credit.
+       * </pre>
+       */
+      CREDIT(6, 7),
+      /**
+       * <code>PROOF = 8;</code>
+       *
+       * <pre>
+       * Server proves that the chunk in the DATA that follows belongs to the file, for clients that set
+       * QueryFiles.merkle_proofs: see MerkleProof.
+       * </pre>
+       */
+      PROOF(7, 8),
       ;
 
       /**
@@ -362,8 +435,8 @@ public final class Payfile {
        * <code>DOWNLOAD_CHUNK = 4;</code>
        *
        * <pre>
-       * Client sends a DOWNLOAD_CHUNK message asking for a part of the given file, including
-       * a micropayment for doing so.
+       * Client sends a DOWNLOAD_CHUNK message asking for a part of the given file. The client should
+       * have sent a micropayment for the chunk beforehand.
        * </pre>
        */
       public static final int DOWNLOAD_CHUNK_VALUE = 4;
@@ -371,7 +444,9 @@ public final class Payfile {
        * <code>DATA = 5;</code>
        *
        * <pre>
-       * Server sends back a DATA message containing the requested chunk.
+       * Server sends back a DATA message containing the requested chunk. If the client asked for it in
+       * QUERY_FILES, the server may instead send a raw DATA frame which isn't a protobuf at all: see
+       * the RawDataFrame class for the layout.
        * </pre>
        */
       public static final int DATA_VALUE = 5;
@@ -383,6 +458,23 @@ public final class Payfile {
        * </pre>
        */
       public static final int ERROR_VALUE = 6;
+      /**
+       * <code>CREDIT = 7;</code>
+       *
+       * <pre>
+       * Server tells a client that set QueryFiles.credit_grants how much it may download: see Credit.
+       * </pre>
+       */
+      public static final int CREDIT_VALUE = 7;
+      /**
+       * <code>PROOF = 8;</code>
+       *
+       * <pre>
+       * Server proves that the chunk in the DATA that follows belongs to the file, for clients that set
+       * QueryFiles.merkle_proofs: see MerkleProof.
+       * </pre>
+       */
+      public static final int PROOF_VALUE = 8;
 
 
       public final int getNumber() { return value; }
@@ -395,6 +487,8 @@ public final class Payfile {
           case 4: return DOWNLOAD_CHUNK;
           case 5: return DATA;
           case 6: return ERROR;
+          case 7: return CREDIT;
+          case 8: return PROOF;
           default: return null;
         }
       }
@@ -589,6 +683,50 @@ public final class Payfile {
       return error_;
     }
 
+    // optional .net.plan99.payfile.Credit credit = 8;
+    public static final int CREDIT_FIELD_NUMBER = 8;
+    private net.plan99.payfile.Payfile.Credit credit_;
+    /**
+     * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+     */
+    public boolean hasCredit() {
+      return ((bitField0_ & 0x00000080) == 0x00000080);
+    }
+    /**
+     * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+     */
+    public net.plan99.payfile.Payfile.Credit getCredit() {
+      return credit_;
+    }
+    /**
+     * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+     */
+    public net.plan99.payfile.Payfile.CreditOrBuilder getCreditOrBuilder() {
+      return credit_;
+    }
+
+    // optional .net.plan99.payfile.MerkleProof proof = 9;
+    public static final int PROOF_FIELD_NUMBER = 9;
+    private net.plan99.payfile.Payfile.MerkleProof proof_;
+    /**
+     * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+     */
+    public boolean hasProof() {
+      return ((bitField0_ & 0x00000100) == 0x00000100);
+    }
+    /**
+     * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+     */
+    public net.plan99.payfile.Payfile.MerkleProof getProof() {
+      return proof_;
+    }
+    /**
+     * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+     */
+    public net.plan99.payfile.Payfile.MerkleProofOrBuilder getProofOrBuilder() {
+      return proof_;
+    }
+
     private void initFields() {
       type_ = net.plan99.payfile.Payfile.PayFileMessage.Type.QUERY_FILES;
       queryFiles_ = net.plan99.payfile.Payfile.QueryFiles.getDefaultInstance();
@@ -597,6 +735,8 @@ public final class Payfile {
       downloadChunk_ = net.plan99.payfile.Payfile.DownloadChunk.getDefaultInstance();
       data_ = net.plan99.payfile.Payfile.Data.getDefaultInstance();
       error_ = net.plan99.payfile.Payfile.Error.getDefaultInstance();
+      credit_ = net.plan99.payfile.Payfile.Credit.getDefaultInstance();
+      proof_ = net.plan99.payfile.Payfile.MerkleProof.getDefaultInstance();
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -637,6 +777,18 @@ public final class Payfile {
           return false;
         }
       }
+      if (hasCredit()) {
+        if (!getCredit().isInitialized()) {
+          memoizedIsInitialized = 0;
+          return false;
+        }
+      }
+      if (hasProof()) {
+        if (!getProof().isInitialized()) {
+          memoizedIsInitialized = 0;
+          return false;
+        }
+      }
       memoizedIsInitialized = 1;
       return true;
     }
@@ -665,6 +817,12 @@ public final class Payfile {
       if (((bitField0_ & 0x00000040) == 0x00000040)) {
         output.writeMessage(7, error_);
       }
+      if (((bitField0_ & 0x00000080) == 0x00000080)) {
+        output.writeMessage(8, credit_);
+      }
+      if (((bitField0_ & 0x00000100) == 0x00000100)) {
+        output.writeMessage(9, proof_);
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -702,6 +860,14 @@ public final class Payfile {
         size += com.google.protobuf.CodedOutputStream
           .computeMessageSize(7, error_);
       }
+      if (((bitField0_ & 0x00000080) == 0x00000080)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(8, credit_);
+      }
+      if (((bitField0_ & 0x00000100) == 0x00000100)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(9, proof_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -815,6 +981,8 @@ public final class Payfile {
           getDownloadChunkFieldBuilder();
           getDataFieldBuilder();
           getErrorFieldBuilder();
+          getCreditFieldBuilder();
+          getProofFieldBuilder();
         }
       }
       private static Builder create() {
@@ -857,6 +1025,18 @@ public final class Payfile {
           errorBuilder_.clear();
         }
         bitField0_ = (bitField0_ & ~0x00000040);
+        if (creditBuilder_ == null) {
+          credit_ = net.plan99.payfile.Payfile.Credit.getDefaultInstance();
+        } else {
+          creditBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000080);
+        if (proofBuilder_ == null) {
+          proof_ = net.plan99.payfile.Payfile.MerkleProof.getDefaultInstance();
+        } else {
+          proofBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000100);
         return this;
       }
 
@@ -933,6 +1113,22 @@ public final class Payfile {
         } else {
           result.error_ = errorBuilder_.build();
         }
+        if (((from_bitField0_ & 0x00000080) == 0x00000080)) {
+          to_bitField0_ |= 0x00000080;
+        }
+        if (creditBuilder_ == null) {
+          result.credit_ = credit_;
+        } else {
+          result.credit_ = creditBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00000100) == 0x00000100)) {
+          to_bitField0_ |= 0x00000100;
+        }
+        if (proofBuilder_ == null) {
+          result.proof_ = proof_;
+        } else {
+          result.proof_ = proofBuilder_.build();
+        }
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -970,6 +1166,12 @@ public final class Payfile {
         if (other.hasError()) {
           mergeError(other.getError());
         }
+        if (other.hasCredit()) {
+          mergeCredit(other.getCredit());
+        }
+        if (other.hasProof()) {
+          mergeProof(other.getProof());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -1009,6 +1211,18 @@ public final class Payfile {
             return false;
           }
         }
+        if (hasCredit()) {
+          if (!getCredit().isInitialized()) {
+            
+            return false;
+          }
+        }
+        if (hasProof()) {
+          if (!getProof().isInitialized()) {
+            
+            return false;
+          }
+        }
         return true;
       }
 
@@ -1688,6 +1902,240 @@ public final class Payfile {
         return errorBuilder_;
       }
 
+      // optional .net.plan99.payfile.Credit credit = 8;
+      private net.plan99.payfile.Payfile.Credit credit_ = net.plan99.payfile.Payfile.Credit.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          net.plan99.payfile.Payfile.Credit, net.plan99.payfile.Payfile.Credit.Builder, net.plan99.payfile.Payfile.CreditOrBuilder> creditBuilder_;
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      public boolean hasCredit() {
+        return ((bitField0_ & 0x00000080) == 0x00000080);
+      }
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      public net.plan99.payfile.Payfile.Credit getCredit() {
+        if (creditBuilder_ == null) {
+          return credit_;
+        } else {
+          return creditBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      public Builder setCredit(net.plan99.payfile.Payfile.Credit value) {
+        if (creditBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          credit_ = value;
+          onChanged();
+        } else {
+          creditBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000080;
+        return this;
+      }
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      public Builder setCredit(
+          net.plan99.payfile.Payfile.Credit.Builder builderForValue) {
+        if (creditBuilder_ == null) {
+          credit_ = builderForValue.build();
+          onChanged();
+        } else {
+          creditBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000080;
+        return this;
+      }
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      public Builder mergeCredit(net.plan99.payfile.Payfile.Credit value) {
+        if (creditBuilder_ == null) {
+          if (((bitField0_ & 0x00000080) == 0x00000080) &&
+              credit_ != net.plan99.payfile.Payfile.Credit.getDefaultInstance()) {
+            credit_ =
+              net.plan99.payfile.Payfile.Credit.newBuilder(credit_).mergeFrom(value).buildPartial();
+          } else {
+            credit_ = value;
+          }
+          onChanged();
+        } else {
+          creditBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000080;
+        return this;
+      }
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      public Builder clearCredit() {
+        if (creditBuilder_ == null) {
+          credit_ = net.plan99.payfile.Payfile.Credit.getDefaultInstance();
+          onChanged();
+        } else {
+          creditBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000080);
+        return this;
+      }
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      public net.plan99.payfile.Payfile.Credit.Builder getCreditBuilder() {
+        bitField0_ |= 0x00000080;
+        onChanged();
+        return getCreditFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      public net.plan99.payfile.Payfile.CreditOrBuilder getCreditOrBuilder() {
+        if (creditBuilder_ != null) {
+          return creditBuilder_.getMessageOrBuilder();
+        } else {
+          return credit_;
+        }
+      }
+      /**
+       * <code>optional .net.plan99.payfile.Credit credit = 8;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          net.plan99.payfile.Payfile.Credit, net.plan99.payfile.Payfile.Credit.Builder, net.plan99.payfile.Payfile.CreditOrBuilder> 
+          getCreditFieldBuilder() {
+        if (creditBuilder_ == null) {
+          creditBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              net.plan99.payfile.Payfile.Credit, net.plan99.payfile.Payfile.Credit.Builder, net.plan99.payfile.Payfile.CreditOrBuilder>(
+                  credit_,
+                  getParentForChildren(),
+                  isClean());
+          credit_ = null;
+        }
+        return creditBuilder_;
+      }
+
+      // optional .net.plan99.payfile.MerkleProof proof = 9;
+      private net.plan99.payfile.Payfile.MerkleProof proof_ = net.plan99.payfile.Payfile.MerkleProof.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          net.plan99.payfile.Payfile.MerkleProof, net.plan99.payfile.Payfile.MerkleProof.Builder, net.plan99.payfile.Payfile.MerkleProofOrBuilder> proofBuilder_;
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      public boolean hasProof() {
+        return ((bitField0_ & 0x00000100) == 0x00000100);
+      }
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      public net.plan99.payfile.Payfile.MerkleProof getProof() {
+        if (proofBuilder_ == null) {
+          return proof_;
+        } else {
+          return proofBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      public Builder setProof(net.plan99.payfile.Payfile.MerkleProof value) {
+        if (proofBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          proof_ = value;
+          onChanged();
+        } else {
+          proofBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000100;
+        return this;
+      }
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      public Builder setProof(
+          net.plan99.payfile.Payfile.MerkleProof.Builder builderForValue) {
+        if (proofBuilder_ == null) {
+          proof_ = builderForValue.build();
+          onChanged();
+        } else {
+          proofBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000100;
+        return this;
+      }
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      public Builder mergeProof(net.plan99.payfile.Payfile.MerkleProof value) {
+        if (proofBuilder_ == null) {
+          if (((bitField0_ & 0x00000100) == 0x00000100) &&
+              proof_ != net.plan99.payfile.Payfile.MerkleProof.getDefaultInstance()) {
+            proof_ =
+              net.plan99.payfile.Payfile.MerkleProof.newBuilder(proof_).mergeFrom(value).buildPartial();
+          } else {
+            proof_ = value;
+          }
+          onChanged();
+        } else {
+          proofBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000100;
+        return this;
+      }
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      public Builder clearProof() {
+        if (proofBuilder_ == null) {
+          proof_ = net.plan99.payfile.Payfile.MerkleProof.getDefaultInstance();
+          onChanged();
+        } else {
+          proofBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000100);
+        return this;
+      }
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      public net.plan99.payfile.Payfile.MerkleProof.Builder getProofBuilder() {
+        bitField0_ |= 0x00000100;
+        onChanged();
+        return getProofFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      public net.plan99.payfile.Payfile.MerkleProofOrBuilder getProofOrBuilder() {
+        if (proofBuilder_ != null) {
+          return proofBuilder_.getMessageOrBuilder();
+        } else {
+          return proof_;
+        }
+      }
+      /**
+       * <code>optional .net.plan99.payfile.MerkleProof proof = 9;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          net.plan99.payfile.Payfile.MerkleProof, net.plan99.payfile.Payfile.MerkleProof.Builder, net.plan99.payfile.Payfile.MerkleProofOrBuilder> 
+          getProofFieldBuilder() {
+        if (proofBuilder_ == null) {
+          proofBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              net.plan99.payfile.Payfile.MerkleProof, net.plan99.payfile.Payfile.MerkleProof.Builder, net.plan99.payfile.Payfile.MerkleProofOrBuilder>(
+                  proof_,
+                  getParentForChildren(),
+                  isClean());
+          proof_ = null;
+        }
+        return proofBuilder_;
+      }
+
       // @@protoc_insertion_point(builder_scope:net.plan99.payfile.PayFileMessage)
     }
 
@@ -1736,6 +2184,10 @@ public final class Payfile {
      * <pre>
      * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
      * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+     * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+     *
+     * org.bitcoin.production
+     * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
      * </pre>
      */
     boolean hasBitcoinNetwork();
@@ -1745,6 +2197,10 @@ public final class Payfile {
      * <pre>
      * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
      * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+     * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+     *
+     * org.bitcoin.production
+     * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
      * </pre>
      */
     java.lang.String getBitcoinNetwork();
@@ -1754,39 +2210,170 @@ public final class Payfile {
      * <pre>
      * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
      * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+     * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+     *
+     * org.bitcoin.production
+     * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
      * </pre>
      */
     com.google.protobuf.ByteString
         getBitcoinNetworkBytes();
-  }
-  /**
-   * Protobuf type {@code net.plan99.payfile.QueryFiles}
-   */
-  public static final class QueryFiles extends
-      com.google.protobuf.GeneratedMessage
-      implements QueryFilesOrBuilder {
-    // Use QueryFiles.newBuilder() to construct.
-    private QueryFiles(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
-      super(builder);
-      this.unknownFields = builder.getUnknownFields();
-    }
-    private QueryFiles(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
 
-    private static final QueryFiles defaultInstance;
-    public static QueryFiles getDefaultInstance() {
-      return defaultInstance;
-    }
-
-    public QueryFiles getDefaultInstanceForType() {
-      return defaultInstance;
-    }
+    // optional bool raw_data = 3;
+    /**
+     * <code>optional bool raw_data = 3;</code>
+     *
+     * <pre>
+     * Set if the client understands raw DATA frames.
+     * </pre>
+     */
+    boolean hasRawData();
+    /**
+     * <code>optional bool raw_data = 3;</code>
+     *
+     * <pre>
+     * Set if the client understands raw DATA frames.
+     * </pre>
+     */
+    boolean getRawData();
 
-    private final com.google.protobuf.UnknownFieldSet unknownFields;
-    @java.lang.Override
-    public final com.google.protobuf.UnknownFieldSet
-        getUnknownFields() {
-      return this.unknownFields;
-    }
+    // optional string cursor = 4;
+    /**
+     * <code>optional string cursor = 4;</code>
+     *
+     * <pre>
+     * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+     * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+     * If page_size isn't set the whole catalog comes back in one MANIFEST.
+     * </pre>
+     */
+    boolean hasCursor();
+    /**
+     * <code>optional string cursor = 4;</code>
+     *
+     * <pre>
+     * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+     * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+     * If page_size isn't set the whole catalog comes back in one MANIFEST.
+     * </pre>
+     */
+    java.lang.String getCursor();
+    /**
+     * <code>optional string cursor = 4;</code>
+     *
+     * <pre>
+     * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+     * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+     * If page_size isn't set the whole catalog comes back in one MANIFEST.
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getCursorBytes();
+
+    // optional uint32 page_size = 5;
+    /**
+     * <code>optional uint32 page_size = 5;</code>
+     */
+    boolean hasPageSize();
+    /**
+     * <code>optional uint32 page_size = 5;</code>
+     */
+    int getPageSize();
+
+    // optional string known_version = 6;
+    /**
+     * <code>optional string known_version = 6;</code>
+     *
+     * <pre>
+     * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+     * it replies with a MANIFEST that has not_modified set and no files.
+     * </pre>
+     */
+    boolean hasKnownVersion();
+    /**
+     * <code>optional string known_version = 6;</code>
+     *
+     * <pre>
+     * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+     * it replies with a MANIFEST that has not_modified set and no files.
+     * </pre>
+     */
+    java.lang.String getKnownVersion();
+    /**
+     * <code>optional string known_version = 6;</code>
+     *
+     * <pre>
+     * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+     * it replies with a MANIFEST that has not_modified set and no files.
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getKnownVersionBytes();
+
+    // optional bool credit_grants = 7;
+    /**
+     * <code>optional bool credit_grants = 7;</code>
+     *
+     * <pre>
+     * Set if the client wants CREDIT messages. A server that sends them sends one straight away, before the MANIFEST.
+     * </pre>
+     */
+    boolean hasCreditGrants();
+    /**
+     * <code>optional bool credit_grants = 7;</code>
+     *
+     * <pre>
+     * Set if the client wants CREDIT messages. A server that sends them sends one straight away, before the MANIFEST.
+     * </pre>
+     */
+    boolean getCreditGrants();
+
+    // optional bool merkle_proofs = 8;
+    /**
+     * <code>optional bool merkle_proofs = 8;</code>
+     *
+     * <pre>
+     * Set if the client wants a PROOF before the DATA for every chunk of a file that has a File.merkle_root.
+     * </pre>
+     */
+    boolean hasMerkleProofs();
+    /**
+     * <code>optional bool merkle_proofs = 8;</code>
+     *
+     * <pre>
+     * Set if the client wants a PROOF before the DATA for every chunk of a file that has a File.merkle_root.
+     * </pre>
+     */
+    boolean getMerkleProofs();
+  }
+  /**
+   * Protobuf type {@code net.plan99.payfile.QueryFiles}
+   */
+  public static final class QueryFiles extends
+      com.google.protobuf.GeneratedMessage
+      implements QueryFilesOrBuilder {
+    // Use QueryFiles.newBuilder() to construct.
+    private QueryFiles(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private QueryFiles(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final QueryFiles defaultInstance;
+    public static QueryFiles getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public QueryFiles getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
     private QueryFiles(
         com.google.protobuf.CodedInputStream input,
         com.google.protobuf.ExtensionRegistryLite extensionRegistry)
@@ -1820,6 +2407,36 @@ public final class Payfile {
               bitcoinNetwork_ = input.readBytes();
               break;
             }
+            case 24: {
+              bitField0_ |= 0x00000004;
+              rawData_ = input.readBool();
+              break;
+            }
+            case 34: {
+              bitField0_ |= 0x00000008;
+              cursor_ = input.readBytes();
+              break;
+            }
+            case 40: {
+              bitField0_ |= 0x00000010;
+              pageSize_ = input.readUInt32();
+              break;
+            }
+            case 50: {
+              bitField0_ |= 0x00000020;
+              knownVersion_ = input.readBytes();
+              break;
+            }
+            case 56: {
+              bitField0_ |= 0x00000040;
+              creditGrants_ = input.readBool();
+              break;
+            }
+            case 64: {
+              bitField0_ |= 0x00000080;
+              merkleProofs_ = input.readBool();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -1924,6 +2541,10 @@ public final class Payfile {
      * <pre>
      * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
      * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+     * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+     *
+     * org.bitcoin.production
+     * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
      * </pre>
      */
     public boolean hasBitcoinNetwork() {
@@ -1935,6 +2556,10 @@ public final class Payfile {
      * <pre>
      * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
      * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+     * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+     *
+     * org.bitcoin.production
+     * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
      * </pre>
      */
     public java.lang.String getBitcoinNetwork() {
@@ -1957,6 +2582,10 @@ public final class Payfile {
      * <pre>
      * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
      * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+     * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+     *
+     * org.bitcoin.production
+     * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
      * </pre>
      */
     public com.google.protobuf.ByteString
@@ -1973,9 +2602,222 @@ public final class Payfile {
       }
     }
 
+    // optional bool raw_data = 3;
+    public static final int RAW_DATA_FIELD_NUMBER = 3;
+    private boolean rawData_;
+    /**
+     * <code>optional bool raw_data = 3;</code>
+     *
+     * <pre>
+     * Set if the client understands raw DATA frames.
+     * </pre>
+     */
+    public boolean hasRawData() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional bool raw_data = 3;</code>
+     *
+     * <pre>
+     * Set if the client understands raw DATA frames.
+     * </pre>
+     */
+    public boolean getRawData() {
+      return rawData_;
+    }
+
+    // optional string cursor = 4;
+    public static final int CURSOR_FIELD_NUMBER = 4;
+    private java.lang.Object cursor_;
+    /**
+     * <code>optional string cursor = 4;</code>
+     *
+     * <pre>
+     * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+     * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+     * If page_size isn't set the whole catalog comes back in one MANIFEST.
+     * </pre>
+     */
+    public boolean hasCursor() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional string cursor = 4;</code>
+     *
+     * <pre>
+     * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+     * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+     * If page_size isn't set the whole catalog comes back in one MANIFEST.
+     * </pre>
+     */
+    public java.lang.String getCursor() {
+      java.lang.Object ref = cursor_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          cursor_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string cursor = 4;</code>
+     *
+     * <pre>
+     * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+     * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+     * If page_size isn't set the whole catalog comes back in one MANIFEST.
+     * </pre>
+     */
+    public com.google.protobuf.ByteString
+        getCursorBytes() {
+      java.lang.Object ref = cursor_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        cursor_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional uint32 page_size = 5;
+    public static final int PAGE_SIZE_FIELD_NUMBER = 5;
+    private int pageSize_;
+    /**
+     * <code>optional uint32 page_size = 5;</code>
+     */
+    public boolean hasPageSize() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>optional uint32 page_size = 5;</code>
+     */
+    public int getPageSize() {
+      return pageSize_;
+    }
+
+    // optional string known_version = 6;
+    public static final int KNOWN_VERSION_FIELD_NUMBER = 6;
+    private java.lang.Object knownVersion_;
+    /**
+     * <code>optional string known_version = 6;</code>
+     *
+     * <pre>
+     * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+     * it replies with a MANIFEST that has not_modified set and no files.
+     * </pre>
+     */
+    public boolean hasKnownVersion() {
+      return ((bitField0_ & 0x00000020) == 0x00000020);
+    }
+    /**
+     * <code>optional string known_version = 6;</code>
+     *
+     * <pre>
+     * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+     * it replies with a MANIFEST that has not_modified set and no files.
+     * </pre>
+     */
+    public java.lang.String getKnownVersion() {
+      java.lang.Object ref = knownVersion_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          knownVersion_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string known_version = 6;</code>
+     *
+     * <pre>
+     * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+     * it replies with a MANIFEST that has not_modified set and no files.
+     * </pre>
+     */
+    public com.google.protobuf.ByteString
+        getKnownVersionBytes() {
+      java.lang.Object ref = knownVersion_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        knownVersion_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional bool credit_grants = 7;
+    public static final int CREDIT_GRANTS_FIELD_NUMBER = 7;
+    private boolean creditGrants_;
+    /**
+     * <code>optional bool credit_grants = 7;</code>
+     *
+     * <pre>
+     * Set if the client wants CREDIT messages. A server that sends them sends one straight away, before the MANIFEST.
+     * </pre>
+     */
+    public boolean hasCreditGrants() {
+      return ((bitField0_ & 0x00000040) == 0x00000040);
+    }
+    /**
+     * <code>optional bool credit_grants = 7;</code>
+     *
+     * <pre>
+     * Set if the client wants CREDIT messages. A server that sends them sends one straight away, before the MANIFEST.
+     * </pre>
+     */
+    public boolean getCreditGrants() {
+      return creditGrants_;
+    }
+
+    // optional bool merkle_proofs = 8;
+    public static final int MERKLE_PROOFS_FIELD_NUMBER = 8;
+    private boolean merkleProofs_;
+    /**
+     * <code>optional bool merkle_proofs = 8;</code>
+     *
+     * <pre>
+     * Set if the client wants a PROOF before the DATA for every chunk of a file that has a File.merkle_root.
+     * </pre>
+     */
+    public boolean hasMerkleProofs() {
+      return ((bitField0_ & 0x00000080) == 0x00000080);
+    }
+    /**
+     * <code>optional bool merkle_proofs = 8;</code>
+     *
+     * <pre>
+     * Set if the client wants a PROOF before the DATA for every chunk of a file that has a File.merkle_root.
+     * </pre>
+     */
+    public boolean getMerkleProofs() {
+      return merkleProofs_;
+    }
+
     private void initFields() {
       userAgent_ = "";
       bitcoinNetwork_ = "";
+      rawData_ = false;
+      cursor_ = "";
+      pageSize_ = 0;
+      knownVersion_ = "";
+      creditGrants_ = false;
+      merkleProofs_ = false;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -2003,6 +2845,24 @@ public final class Payfile {
       if (((bitField0_ & 0x00000002) == 0x00000002)) {
         output.writeBytes(2, getBitcoinNetworkBytes());
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBool(3, rawData_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBytes(4, getCursorBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeUInt32(5, pageSize_);
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        output.writeBytes(6, getKnownVersionBytes());
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        output.writeBool(7, creditGrants_);
+      }
+      if (((bitField0_ & 0x00000080) == 0x00000080)) {
+        output.writeBool(8, merkleProofs_);
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -2020,11 +2880,35 @@ public final class Payfile {
         size += com.google.protobuf.CodedOutputStream
           .computeBytesSize(2, getBitcoinNetworkBytes());
       }
-      size += getUnknownFields().getSerializedSize();
-      memoizedSerializedSize = size;
-      return size;
-    }
-
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(3, rawData_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(4, getCursorBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(5, pageSize_);
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(6, getKnownVersionBytes());
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(7, creditGrants_);
+      }
+      if (((bitField0_ & 0x00000080) == 0x00000080)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(8, merkleProofs_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
     private static final long serialVersionUID = 0L;
     @java.lang.Override
     protected java.lang.Object writeReplace()
@@ -2140,6 +3024,18 @@ public final class Payfile {
         bitField0_ = (bitField0_ & ~0x00000001);
         bitcoinNetwork_ = "";
         bitField0_ = (bitField0_ & ~0x00000002);
+        rawData_ = false;
+        bitField0_ = (bitField0_ & ~0x00000004);
+        cursor_ = "";
+        bitField0_ = (bitField0_ & ~0x00000008);
+        pageSize_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000010);
+        knownVersion_ = "";
+        bitField0_ = (bitField0_ & ~0x00000020);
+        creditGrants_ = false;
+        bitField0_ = (bitField0_ & ~0x00000040);
+        merkleProofs_ = false;
+        bitField0_ = (bitField0_ & ~0x00000080);
         return this;
       }
 
@@ -2176,6 +3072,30 @@ public final class Payfile {
           to_bitField0_ |= 0x00000002;
         }
         result.bitcoinNetwork_ = bitcoinNetwork_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.rawData_ = rawData_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.cursor_ = cursor_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.pageSize_ = pageSize_;
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000020;
+        }
+        result.knownVersion_ = knownVersion_;
+        if (((from_bitField0_ & 0x00000040) == 0x00000040)) {
+          to_bitField0_ |= 0x00000040;
+        }
+        result.creditGrants_ = creditGrants_;
+        if (((from_bitField0_ & 0x00000080) == 0x00000080)) {
+          to_bitField0_ |= 0x00000080;
+        }
+        result.merkleProofs_ = merkleProofs_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -2202,6 +3122,28 @@ public final class Payfile {
           bitcoinNetwork_ = other.bitcoinNetwork_;
           onChanged();
         }
+        if (other.hasRawData()) {
+          setRawData(other.getRawData());
+        }
+        if (other.hasCursor()) {
+          bitField0_ |= 0x00000008;
+          cursor_ = other.cursor_;
+          onChanged();
+        }
+        if (other.hasPageSize()) {
+          setPageSize(other.getPageSize());
+        }
+        if (other.hasKnownVersion()) {
+          bitField0_ |= 0x00000020;
+          knownVersion_ = other.knownVersion_;
+          onChanged();
+        }
+        if (other.hasCreditGrants()) {
+          setCreditGrants(other.getCreditGrants());
+        }
+        if (other.hasMerkleProofs()) {
+          setMerkleProofs(other.getMerkleProofs());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -2343,6 +3285,10 @@ public final class Payfile {
        * <pre>
        * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
        * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+       * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+       *
+       * org.bitcoin.production
+       * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
        * </pre>
        */
       public boolean hasBitcoinNetwork() {
@@ -2354,6 +3300,10 @@ public final class Payfile {
        * <pre>
        * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
        * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+       * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+       *
+       * org.bitcoin.production
+       * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
        * </pre>
        */
       public java.lang.String getBitcoinNetwork() {
@@ -2373,6 +3323,10 @@ public final class Payfile {
        * <pre>
        * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
        * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+       * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+       *
+       * org.bitcoin.production
+       * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
        * </pre>
        */
       public com.google.protobuf.ByteString
@@ -2394,6 +3348,10 @@ public final class Payfile {
        * <pre>
        * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
        * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+       * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+       *
+       * org.bitcoin.production
+       * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
        * </pre>
        */
       public Builder setBitcoinNetwork(
@@ -2412,6 +3370,10 @@ public final class Payfile {
        * <pre>
        * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
        * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+       * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+       *
+       * org.bitcoin.production
+       * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
        * </pre>
        */
       public Builder clearBitcoinNetwork() {
@@ -2426,6 +3388,10 @@ public final class Payfile {
        * <pre>
        * Verify up-front that we're on the same Bitcoin network (main, test, regtest, litecoin, etc).
        * If this doesn't match the server network we'll get an ERROR after QUERY_FILES.
+       * The strings are from the ID field of the bitcoinj NetworkParameters objects:
+       *
+       * org.bitcoin.production
+       * org.bitcoin.test   (this is used for both testnet and regtest mode but that may change in future)
        * </pre>
        */
       public Builder setBitcoinNetworkBytes(
@@ -2439,95 +3405,494 @@ public final class Payfile {
         return this;
       }
 
-      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.QueryFiles)
-    }
-
-    static {
-      defaultInstance = new QueryFiles(true);
-      defaultInstance.initFields();
-    }
+      // optional bool raw_data = 3;
+      private boolean rawData_ ;
+      /**
+       * <code>optional bool raw_data = 3;</code>
+       *
+       * <pre>
+       * Set if the client understands raw DATA frames.
+       * </pre>
+       */
+      public boolean hasRawData() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional bool raw_data = 3;</code>
+       *
+       * <pre>
+       * Set if the client understands raw DATA frames.
+       * </pre>
+       */
+      public boolean getRawData() {
+        return rawData_;
+      }
+      /**
+       * <code>optional bool raw_data = 3;</code>
+       *
+       * <pre>
+       * Set if the client understands raw DATA frames.
+       * </pre>
+       */
+      public Builder setRawData(boolean value) {
+        bitField0_ |= 0x00000004;
+        rawData_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool raw_data = 3;</code>
+       *
+       * <pre>
+       * Set if the client understands raw DATA frames.
+       * </pre>
+       */
+      public Builder clearRawData() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        rawData_ = false;
+        onChanged();
+        return this;
+      }
 
-    // @@protoc_insertion_point(class_scope:net.plan99.payfile.QueryFiles)
+      // optional string cursor = 4;
+      private java.lang.Object cursor_ = "";
+      /**
+       * <code>optional string cursor = 4;</code>
+       *
+       * <pre>
+       * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+       * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+       * If page_size isn't set the whole catalog comes back in one MANIFEST.
+       * </pre>
+       */
+      public boolean hasCursor() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional string cursor = 4;</code>
+       *
+       * <pre>
+       * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+       * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+       * If page_size isn't set the whole catalog comes back in one MANIFEST.
+       * </pre>
+       */
+      public java.lang.String getCursor() {
+        java.lang.Object ref = cursor_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          cursor_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string cursor = 4;</code>
+       *
+       * <pre>
+       * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+       * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+       * If page_size isn't set the whole catalog comes back in one MANIFEST.
+       * </pre>
+       */
+      public com.google.protobuf.ByteString
+          getCursorBytes() {
+        java.lang.Object ref = cursor_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          cursor_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string cursor = 4;</code>
+       *
+       * <pre>
+       * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+       * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+       * If page_size isn't set the whole catalog comes back in one MANIFEST.
+       * </pre>
+       */
+      public Builder setCursor(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
   }
+  bitField0_ |= 0x00000008;
+        cursor_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string cursor = 4;</code>
+       *
+       * <pre>
+       * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+       * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+       * If page_size isn't set the whole catalog comes back in one MANIFEST.
+       * </pre>
+       */
+      public Builder clearCursor() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        cursor_ = getDefaultInstance().getCursor();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string cursor = 4;</code>
+       *
+       * <pre>
+       * For paging through big catalogs. If page_size is set, the server replies with at most that many files (maybe
+       * fewer) in file name order, starting after the file named by cursor, or from the start if there's no cursor.
+       * If page_size isn't set the whole catalog comes back in one MANIFEST.
+       * </pre>
+       */
+      public Builder setCursorBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+        cursor_ = value;
+        onChanged();
+        return this;
+      }
 
-  public interface FileOrBuilder
-      extends com.google.protobuf.MessageOrBuilder {
-
-    // required string file_name = 1;
-    /**
-     * <code>required string file_name = 1;</code>
-     *
-     * <pre>
-     * A unique file name.
-     * </pre>
-     */
-    boolean hasFileName();
-    /**
-     * <code>required string file_name = 1;</code>
-     *
-     * <pre>
-     * A unique file name.
-     * </pre>
-     */
-    java.lang.String getFileName();
-    /**
-     * <code>required string file_name = 1;</code>
-     *
-     * <pre>
-     * A unique file name.
-     * </pre>
-     */
-    com.google.protobuf.ByteString
-        getFileNameBytes();
-
-    // required int64 size = 2;
-    /**
-     * <code>required int64 size = 2;</code>
-     *
-     * <pre>
-     * In bytes.
-     * </pre>
-     */
-    boolean hasSize();
-    /**
-     * <code>required int64 size = 2;</code>
-     *
-     * <pre>
-     * In bytes.
-     * </pre>
-     */
-    long getSize();
-
-    // optional string description = 3;
-    /**
-     * <code>optional string description = 3;</code>
-     */
-    boolean hasDescription();
-    /**
-     * <code>optional string description = 3;</code>
-     */
-    java.lang.String getDescription();
-    /**
-     * <code>optional string description = 3;</code>
-     */
-    com.google.protobuf.ByteString
-        getDescriptionBytes();
+      // optional uint32 page_size = 5;
+      private int pageSize_ ;
+      /**
+       * <code>optional uint32 page_size = 5;</code>
+       */
+      public boolean hasPageSize() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>optional uint32 page_size = 5;</code>
+       */
+      public int getPageSize() {
+        return pageSize_;
+      }
+      /**
+       * <code>optional uint32 page_size = 5;</code>
+       */
+      public Builder setPageSize(int value) {
+        bitField0_ |= 0x00000010;
+        pageSize_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint32 page_size = 5;</code>
+       */
+      public Builder clearPageSize() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        pageSize_ = 0;
+        onChanged();
+        return this;
+      }
 
-    // required int32 price_per_chunk = 4;
-    /**
-     * <code>required int32 price_per_chunk = 4;</code>
-     *
-     * <pre>
-     * Satoshis per chunk charged for this file.
-     * </pre>
-     */
-    boolean hasPricePerChunk();
-    /**
-     * <code>required int32 price_per_chunk = 4;</code>
-     *
-     * <pre>
-     * Satoshis per chunk charged for this file.
-     * </pre>
+      // optional string known_version = 6;
+      private java.lang.Object knownVersion_ = "";
+      /**
+       * <code>optional string known_version = 6;</code>
+       *
+       * <pre>
+       * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+       * it replies with a MANIFEST that has not_modified set and no files.
+       * </pre>
+       */
+      public boolean hasKnownVersion() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      /**
+       * <code>optional string known_version = 6;</code>
+       *
+       * <pre>
+       * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+       * it replies with a MANIFEST that has not_modified set and no files.
+       * </pre>
+       */
+      public java.lang.String getKnownVersion() {
+        java.lang.Object ref = knownVersion_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          knownVersion_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string known_version = 6;</code>
+       *
+       * <pre>
+       * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+       * it replies with a MANIFEST that has not_modified set and no files.
+       * </pre>
+       */
+      public com.google.protobuf.ByteString
+          getKnownVersionBytes() {
+        java.lang.Object ref = knownVersion_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          knownVersion_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string known_version = 6;</code>
+       *
+       * <pre>
+       * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+       * it replies with a MANIFEST that has not_modified set and no files.
+       * </pre>
+       */
+      public Builder setKnownVersion(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        knownVersion_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string known_version = 6;</code>
+       *
+       * <pre>
+       * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+       * it replies with a MANIFEST that has not_modified set and no files.
+       * </pre>
+       */
+      public Builder clearKnownVersion() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        knownVersion_ = getDefaultInstance().getKnownVersion();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string known_version = 6;</code>
+       *
+       * <pre>
+       * The Manifest.version of a catalog the client has cached. If the server's catalog is still at that version
+       * it replies with a MANIFEST that has not_modified set and no files.
+       * </pre>
+       */
+      public Builder setKnownVersionBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        knownVersion_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional bool credit_grants = 7;
+      private boolean creditGrants_ ;
+      /**
+       * <code>optional bool credit_grants = 7;</code>
+       *
+       * <pre>
+       * Set if the client wants CREDIT messages. A server that sends them sends one straight away, before the MANIFEST.
+       * </pre>
+       */
+      public boolean hasCreditGrants() {
+        return ((bitField0_ & 0x00000040) == 0x00000040);
+      }
+      /**
+       * <code>optional bool credit_grants = 7;</code>
+       *
+       * <pre>
+       * Set if the client wants CREDIT messages. A server that sends them sends one straight away, before the MANIFEST.
+       * </pre>
+       */
+      public boolean getCreditGrants() {
+        return creditGrants_;
+      }
+      /**
+       * <code>optional bool credit_grants = 7;</code>
+       *
+       * <pre>
+       * Set if the client wants CREDIT messages. A server that sends them sends one straight away, before the MANIFEST.
+       * </pre>
+       */
+      public Builder setCreditGrants(boolean value) {
+        bitField0_ |= 0x00000040;
+        creditGrants_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool credit_grants = 7;</code>
+       *
+       * <pre>
+       * Set if the client wants CREDIT messages. A server that sends them sends one straight away, before the MANIFEST.
+       * </pre>
+       */
+      public Builder clearCreditGrants() {
+        bitField0_ = (bitField0_ & ~0x00000040);
+        creditGrants_ = false;
+        onChanged();
+        return this;
+      }
+
+      // optional bool merkle_proofs = 8;
+      private boolean merkleProofs_ ;
+      /**
+       * <code>optional bool merkle_proofs = 8;</code>
+       *
+       * <pre>
+       * Set if the client wants a PROOF before the DATA for every chunk of a file that has a File.merkle_root.
+       * </pre>
+       */
+      public boolean hasMerkleProofs() {
+        return ((bitField0_ & 0x00000080) == 0x00000080);
+      }
+      /**
+       * <code>optional bool merkle_proofs = 8;</code>
+       *
+       * <pre>
+       * Set if the client wants a PROOF before the DATA for every chunk of a file that has a File.merkle_root.
+       * </pre>
+       */
+      public boolean getMerkleProofs() {
+        return merkleProofs_;
+      }
+      /**
+       * <code>optional bool merkle_proofs = 8;</code>
+       *
+       * <pre>
+       * Set if the client wants a PROOF before the DATA for every chunk of a file that has a File.merkle_root.
+       * </pre>
+       */
+      public Builder setMerkleProofs(boolean value) {
+        bitField0_ |= 0x00000080;
+        merkleProofs_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool merkle_proofs = 8;</code>
+       *
+       * <pre>
+       * Set if the client wants a PROOF before the DATA for every chunk of a file that has a File.merkle_root.
+       * </pre>
+       */
+      public Builder clearMerkleProofs() {
+        bitField0_ = (bitField0_ & ~0x00000080);
+        merkleProofs_ = false;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.QueryFiles)
+    }
+
+    static {
+      defaultInstance = new QueryFiles(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:net.plan99.payfile.QueryFiles)
+  }
+
+  public interface FileOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // required string file_name = 1;
+    /**
+     * <code>required string file_name = 1;</code>
+     *
+     * <pre>
+     * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+     * a relative path, with / as the separator.
+     * </pre>
+     */
+    boolean hasFileName();
+    /**
+     * <code>required string file_name = 1;</code>
+     *
+     * <pre>
+     * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+     * a relative path, with / as the separator.
+     * </pre>
+     */
+    java.lang.String getFileName();
+    /**
+     * <code>required string file_name = 1;</code>
+     *
+     * <pre>
+     * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+     * a relative path, with / as the separator.
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getFileNameBytes();
+
+    // required int64 size = 2;
+    /**
+     * <code>required int64 size = 2;</code>
+     *
+     * <pre>
+     * In bytes.
+     * </pre>
+     */
+    boolean hasSize();
+    /**
+     * <code>required int64 size = 2;</code>
+     *
+     * <pre>
+     * In bytes.
+     * </pre>
+     */
+    long getSize();
+
+    // optional string description = 3;
+    /**
+     * <code>optional string description = 3;</code>
+     */
+    boolean hasDescription();
+    /**
+     * <code>optional string description = 3;</code>
+     */
+    java.lang.String getDescription();
+    /**
+     * <code>optional string description = 3;</code>
+     */
+    com.google.protobuf.ByteString
+        getDescriptionBytes();
+
+    // required int32 price_per_chunk = 4;
+    /**
+     * <code>required int32 price_per_chunk = 4;</code>
+     *
+     * <pre>
+     * Satoshis charged for each Manifest.chunk_size bytes of this file. Clients that download in chunks of a different
+     * size pay the same price per byte.
+     * </pre>
+     */
+    boolean hasPricePerChunk();
+    /**
+     * <code>required int32 price_per_chunk = 4;</code>
+     *
+     * <pre>
+     * Satoshis charged for each Manifest.chunk_size bytes of this file. Clients that download in chunks of a different
+     * size pay the same price per byte.
+     * </pre>
      */
     int getPricePerChunk();
 
@@ -2548,6 +3913,32 @@ public final class Payfile {
      * </pre>
      */
     int getHandle();
+
+    // optional bytes merkle_root = 6;
+    /**
+     * <code>optional bytes merkle_root = 6;</code>
+     *
+     * <pre>
+     * Root of a Merkle tree over the contents, if the server has hashed the file. The leaves are the SHA-256 of 0x00
+     * followed by each 8KB of the file in turn (the last may be shorter, and an empty file has one empty leaf), and each
+     * node above is the SHA-256 of 0x01 followed by its two children. A node without a partner at the end of a level
+     * moves up unchanged. So any chunk of a power of two size of at least 8KB is a whole subtree, which a client can
+     * check on its own against the root with a MerkleProof, as soon as it arrives.
+     * </pre>
+     */
+    boolean hasMerkleRoot();
+    /**
+     * <code>optional bytes merkle_root = 6;</code>
+     *
+     * <pre>
+     * Root of a Merkle tree over the contents, if the server has hashed the file. The leaves are the SHA-256 of 0x00
+     * followed by each 8KB of the file in turn (the last may be shorter, and an empty file has one empty leaf), and each
+     * node above is the SHA-256 of 0x01 followed by its two children. A node without a partner at the end of a level
+     * moves up unchanged. So any chunk of a power of two size of at least 8KB is a whole subtree, which a client can
+     * check on its own against the root with a MerkleProof, as soon as it arrives.
+     * </pre>
+     */
+    com.google.protobuf.ByteString getMerkleRoot();
   }
   /**
    * Protobuf type {@code net.plan99.payfile.File}
@@ -2625,6 +4016,11 @@ public final class Payfile {
               handle_ = input.readInt32();
               break;
             }
+            case 50: {
+              bitField0_ |= 0x00000020;
+              merkleRoot_ = input.readBytes();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -2672,7 +4068,8 @@ public final class Payfile {
      * <code>required string file_name = 1;</code>
      *
      * <pre>
-     * A unique file name.
+     * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+     * a relative path, with / as the separator.
      * </pre>
      */
     public boolean hasFileName() {
@@ -2682,7 +4079,8 @@ public final class Payfile {
      * <code>required string file_name = 1;</code>
      *
      * <pre>
-     * A unique file name.
+     * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+     * a relative path, with / as the separator.
      * </pre>
      */
     public java.lang.String getFileName() {
@@ -2703,7 +4101,8 @@ public final class Payfile {
      * <code>required string file_name = 1;</code>
      *
      * <pre>
-     * A unique file name.
+     * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+     * a relative path, with / as the separator.
      * </pre>
      */
     public com.google.protobuf.ByteString
@@ -2794,7 +4193,8 @@ public final class Payfile {
      * <code>required int32 price_per_chunk = 4;</code>
      *
      * <pre>
-     * Satoshis per chunk charged for this file.
+     * Satoshis charged for each Manifest.chunk_size bytes of this file. Clients that download in chunks of a different
+     * size pay the same price per byte.
      * </pre>
      */
     public boolean hasPricePerChunk() {
@@ -2804,7 +4204,8 @@ public final class Payfile {
      * <code>required int32 price_per_chunk = 4;</code>
      *
      * <pre>
-     * Satoshis per chunk charged for this file.
+     * Satoshis charged for each Manifest.chunk_size bytes of this file. Clients that download in chunks of a different
+     * size pay the same price per byte.
      * </pre>
      */
     public int getPricePerChunk() {
@@ -2835,12 +4236,45 @@ public final class Payfile {
       return handle_;
     }
 
+    // optional bytes merkle_root = 6;
+    public static final int MERKLE_ROOT_FIELD_NUMBER = 6;
+    private com.google.protobuf.ByteString merkleRoot_;
+    /**
+     * <code>optional bytes merkle_root = 6;</code>
+     *
+     * <pre>
+     * Root of a Merkle tree over the contents, if the server has hashed the file. The leaves are the SHA-256 of 0x00
+     * followed by each 8KB of the file in turn (the last may be shorter, and an empty file has one empty leaf), and each
+     * node above is the SHA-256 of 0x01 followed by its two children. A node without a partner at the end of a level
+     * moves up unchanged. So any chunk of a power of two size of at least 8KB is a whole subtree, which a client can
+     * check on its own against the root with a MerkleProof, as soon as it arrives.
+     * </pre>
+     */
+    public boolean hasMerkleRoot() {
+      return ((bitField0_ & 0x00000020) == 0x00000020);
+    }
+    /**
+     * <code>optional bytes merkle_root = 6;</code>
+     *
+     * <pre>
+     * Root of a Merkle tree over the contents, if the server has hashed the file. The leaves are the SHA-256 of 0x00
+     * followed by each 8KB of the file in turn (the last may be shorter, and an empty file has one empty leaf), and each
+     * node above is the SHA-256 of 0x01 followed by its two children. A node without a partner at the end of a level
+     * moves up unchanged. So any chunk of a power of two size of at least 8KB is a whole subtree, which a client can
+     * check on its own against the root with a MerkleProof, as soon as it arrives.
+     * </pre>
+     */
+    public com.google.protobuf.ByteString getMerkleRoot() {
+      return merkleRoot_;
+    }
+
     private void initFields() {
       fileName_ = "";
       size_ = 0L;
       description_ = "";
       pricePerChunk_ = 0;
       handle_ = 0;
+      merkleRoot_ = com.google.protobuf.ByteString.EMPTY;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -2885,6 +4319,9 @@ public final class Payfile {
       if (((bitField0_ & 0x00000010) == 0x00000010)) {
         output.writeInt32(5, handle_);
       }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        output.writeBytes(6, merkleRoot_);
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -2914,6 +4351,10 @@ public final class Payfile {
         size += com.google.protobuf.CodedOutputStream
           .computeInt32Size(5, handle_);
       }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(6, merkleRoot_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -3040,6 +4481,8 @@ public final class Payfile {
         bitField0_ = (bitField0_ & ~0x00000008);
         handle_ = 0;
         bitField0_ = (bitField0_ & ~0x00000010);
+        merkleRoot_ = com.google.protobuf.ByteString.EMPTY;
+        bitField0_ = (bitField0_ & ~0x00000020);
         return this;
       }
 
@@ -3088,6 +4531,10 @@ public final class Payfile {
           to_bitField0_ |= 0x00000010;
         }
         result.handle_ = handle_;
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000020;
+        }
+        result.merkleRoot_ = merkleRoot_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -3123,6 +4570,9 @@ public final class Payfile {
         if (other.hasHandle()) {
           setHandle(other.getHandle());
         }
+        if (other.hasMerkleRoot()) {
+          setMerkleRoot(other.getMerkleRoot());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -3172,7 +4622,8 @@ public final class Payfile {
        * <code>required string file_name = 1;</code>
        *
        * <pre>
-       * A unique file name.
+       * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+       * a relative path, with / as the separator.
        * </pre>
        */
       public boolean hasFileName() {
@@ -3182,7 +4633,8 @@ public final class Payfile {
        * <code>required string file_name = 1;</code>
        *
        * <pre>
-       * A unique file name.
+       * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+       * a relative path, with / as the separator.
        * </pre>
        */
       public java.lang.String getFileName() {
@@ -3200,7 +4652,8 @@ public final class Payfile {
        * <code>required string file_name = 1;</code>
        *
        * <pre>
-       * A unique file name.
+       * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+       * a relative path, with / as the separator.
        * </pre>
        */
       public com.google.protobuf.ByteString
@@ -3220,7 +4673,8 @@ public final class Payfile {
        * <code>required string file_name = 1;</code>
        *
        * <pre>
-       * A unique file name.
+       * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+       * a relative path, with / as the separator.
        * </pre>
        */
       public Builder setFileName(
@@ -3237,7 +4691,8 @@ public final class Payfile {
        * <code>required string file_name = 1;</code>
        *
        * <pre>
-       * A unique file name.
+       * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+       * a relative path, with / as the separator.
        * </pre>
        */
       public Builder clearFileName() {
@@ -3250,7 +4705,8 @@ public final class Payfile {
        * <code>required string file_name = 1;</code>
        *
        * <pre>
-       * A unique file name.
+       * A unique file name. Can contain spaces, arbitrary UTF-8, any extension etc. Files in subdirectories have
+       * a relative path, with / as the separator.
        * </pre>
        */
       public Builder setFileNameBytes(
@@ -3393,7 +4849,8 @@ public final class Payfile {
        * <code>required int32 price_per_chunk = 4;</code>
        *
        * <pre>
-       * Satoshis per chunk charged for this file.
+       * Satoshis charged for each Manifest.chunk_size bytes of this file. Clients that download in chunks of a different
+       * size pay the same price per byte.
        * </pre>
        */
       public boolean hasPricePerChunk() {
@@ -3403,7 +4860,8 @@ public final class Payfile {
        * <code>required int32 price_per_chunk = 4;</code>
        *
        * <pre>
-       * Satoshis per chunk charged for this file.
+       * Satoshis charged for each Manifest.chunk_size bytes of this file. Clients that download in chunks of a different
+       * size pay the same price per byte.
        * </pre>
        */
       public int getPricePerChunk() {
@@ -3413,7 +4871,8 @@ public final class Payfile {
        * <code>required int32 price_per_chunk = 4;</code>
        *
        * <pre>
-       * Satoshis per chunk charged for this file.
+       * Satoshis charged for each Manifest.chunk_size bytes of this file. Clients that download in chunks of a different
+       * size pay the same price per byte.
        * </pre>
        */
       public Builder setPricePerChunk(int value) {
@@ -3426,7 +4885,8 @@ public final class Payfile {
        * <code>required int32 price_per_chunk = 4;</code>
        *
        * <pre>
-       * Satoshis per chunk charged for this file.
+       * Satoshis charged for each Manifest.chunk_size bytes of this file. Clients that download in chunks of a different
+       * size pay the same price per byte.
        * </pre>
        */
       public Builder clearPricePerChunk() {
@@ -3485,9 +4945,77 @@ public final class Payfile {
         return this;
       }
 
-      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.File)
-    }
-
+      // optional bytes merkle_root = 6;
+      private com.google.protobuf.ByteString merkleRoot_ = com.google.protobuf.ByteString.EMPTY;
+      /**
+       * <code>optional bytes merkle_root = 6;</code>
+       *
+       * <pre>
+       * Root of a Merkle tree over the contents, if the server has hashed the file. The leaves are the SHA-256 of 0x00
+       * followed by each 8KB of the file in turn (the last may be shorter, and an empty file has one empty leaf), and each
+       * node above is the SHA-256 of 0x01 followed by its two children. A node without a partner at the end of a level
+       * moves up unchanged. So any chunk of a power of two size of at least 8KB is a whole subtree, which a client can
+       * check on its own against the root with a MerkleProof, as soon as it arrives.
+       * </pre>
+       */
+      public boolean hasMerkleRoot() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      /**
+       * <code>optional bytes merkle_root = 6;</code>
+       *
+       * <pre>
+       * Root of a Merkle tree over the contents, if the server has hashed the file. The leaves are the SHA-256 of 0x00
+       * followed by each 8KB of the file in turn (the last may be shorter, and an empty file has one empty leaf), and each
+       * node above is the SHA-256 of 0x01 followed by its two children. A node without a partner at the end of a level
+       * moves up unchanged. So any chunk of a power of two size of at least 8KB is a whole subtree, which a client can
+       * check on its own against the root with a MerkleProof, as soon as it arrives.
+       * </pre>
+       */
+      public com.google.protobuf.ByteString getMerkleRoot() {
+        return merkleRoot_;
+      }
+      /**
+       * <code>optional bytes merkle_root = 6;</code>
+       *
+       * <pre>
+       * Root of a Merkle tree over the contents, if the server has hashed the file. The leaves are the SHA-256 of 0x00
+       * followed by each 8KB of the file in turn (the last may be shorter, and an empty file has one empty leaf), and each
+       * node above is the SHA-256 of 0x01 followed by its two children. A node without a partner at the end of a level
+       * moves up unchanged. So any chunk of a power of two size of at least 8KB is a whole subtree, which a client can
+       * check on its own against the root with a MerkleProof, as soon as it arrives.
+       * </pre>
+       */
+      public Builder setMerkleRoot(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        merkleRoot_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bytes merkle_root = 6;</code>
+       *
+       * <pre>
+       * Root of a Merkle tree over the contents, if the server has hashed the file. The leaves are the SHA-256 of 0x00
+       * followed by each 8KB of the file in turn (the last may be shorter, and an empty file has one empty leaf), and each
+       * node above is the SHA-256 of 0x01 followed by its two children. A node without a partner at the end of a level
+       * moves up unchanged. So any chunk of a power of two size of at least 8KB is a whole subtree, which a client can
+       * check on its own against the root with a MerkleProof, as soon as it arrives.
+       * </pre>
+       */
+      public Builder clearMerkleRoot() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        merkleRoot_ = getDefaultInstance().getMerkleRoot();
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.File)
+    }
+
     static {
       defaultInstance = new File(true);
       defaultInstance.initFields();
@@ -3529,7 +5057,7 @@ public final class Payfile {
      * <code>required int32 chunk_size = 2;</code>
      *
      * <pre>
-     * Usually 1kb.
+     * Size in bytes of each chunk, unless the client picks another size with DownloadChunk.chunk_size.
      * </pre>
      */
     boolean hasChunkSize();
@@ -3537,10 +5065,131 @@ public final class Payfile {
      * <code>required int32 chunk_size = 2;</code>
      *
      * <pre>
-     * Usually 1kb.
+     * Size in bytes of each chunk, unless the client picks another size with DownloadChunk.chunk_size.
      * </pre>
      */
     int getChunkSize();
+
+    // optional bool raw_data = 3;
+    /**
+     * <code>optional bool raw_data = 3;</code>
+     *
+     * <pre>
+     * Set if the server will send chunks as raw DATA frames, in response to QueryFiles.raw_data.
+     * </pre>
+     */
+    boolean hasRawData();
+    /**
+     * <code>optional bool raw_data = 3;</code>
+     *
+     * <pre>
+     * Set if the server will send chunks as raw DATA frames, in response to QueryFiles.raw_data.
+     * </pre>
+     */
+    boolean getRawData();
+
+    // optional string next_cursor = 4;
+    /**
+     * <code>optional string next_cursor = 4;</code>
+     *
+     * <pre>
+     * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+     * </pre>
+     */
+    boolean hasNextCursor();
+    /**
+     * <code>optional string next_cursor = 4;</code>
+     *
+     * <pre>
+     * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+     * </pre>
+     */
+    java.lang.String getNextCursor();
+    /**
+     * <code>optional string next_cursor = 4;</code>
+     *
+     * <pre>
+     * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getNextCursorBytes();
+
+    // optional string version = 5;
+    /**
+     * <code>optional string version = 5;</code>
+     *
+     * <pre>
+     * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+     * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+     * </pre>
+     */
+    boolean hasVersion();
+    /**
+     * <code>optional string version = 5;</code>
+     *
+     * <pre>
+     * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+     * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+     * </pre>
+     */
+    java.lang.String getVersion();
+    /**
+     * <code>optional string version = 5;</code>
+     *
+     * <pre>
+     * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+     * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getVersionBytes();
+
+    // optional bool not_modified = 6;
+    /**
+     * <code>optional bool not_modified = 6;</code>
+     *
+     * <pre>
+     * Set in reply to QueryFiles.known_version when the client's copy is still current.
+     * </pre>
+     */
+    boolean hasNotModified();
+    /**
+     * <code>optional bool not_modified = 6;</code>
+     *
+     * <pre>
+     * Set in reply to QueryFiles.known_version when the client's copy is still current.
+     * </pre>
+     */
+    boolean getNotModified();
+
+    // optional int32 min_chunk_size = 7;
+    /**
+     * <code>optional int32 min_chunk_size = 7;</code>
+     *
+     * <pre>
+     * If set, the server lets clients pick any power of two chunk size between these two, inclusive.
+     * </pre>
+     */
+    boolean hasMinChunkSize();
+    /**
+     * <code>optional int32 min_chunk_size = 7;</code>
+     *
+     * <pre>
+     * If set, the server lets clients pick any power of two chunk size between these two, inclusive.
+     * </pre>
+     */
+    int getMinChunkSize();
+
+    // optional int32 max_chunk_size = 8;
+    /**
+     * <code>optional int32 max_chunk_size = 8;</code>
+     */
+    boolean hasMaxChunkSize();
+    /**
+     * <code>optional int32 max_chunk_size = 8;</code>
+     */
+    int getMaxChunkSize();
   }
   /**
    * Protobuf type {@code net.plan99.payfile.Manifest}
@@ -3606,6 +5255,36 @@ public final class Payfile {
               chunkSize_ = input.readInt32();
               break;
             }
+            case 24: {
+              bitField0_ |= 0x00000002;
+              rawData_ = input.readBool();
+              break;
+            }
+            case 34: {
+              bitField0_ |= 0x00000004;
+              nextCursor_ = input.readBytes();
+              break;
+            }
+            case 42: {
+              bitField0_ |= 0x00000008;
+              version_ = input.readBytes();
+              break;
+            }
+            case 48: {
+              bitField0_ |= 0x00000010;
+              notModified_ = input.readBool();
+              break;
+            }
+            case 56: {
+              bitField0_ |= 0x00000020;
+              minChunkSize_ = input.readInt32();
+              break;
+            }
+            case 64: {
+              bitField0_ |= 0x00000040;
+              maxChunkSize_ = input.readInt32();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -3692,7 +5371,7 @@ public final class Payfile {
      * <code>required int32 chunk_size = 2;</code>
      *
      * <pre>
-     * Usually 1kb.
+     * Size in bytes of each chunk, unless the client picks another size with DownloadChunk.chunk_size.
      * </pre>
      */
     public boolean hasChunkSize() {
@@ -3702,71 +5381,320 @@ public final class Payfile {
      * <code>required int32 chunk_size = 2;</code>
      *
      * <pre>
-     * Usually 1kb.
+     * Size in bytes of each chunk, unless the client picks another size with DownloadChunk.chunk_size.
      * </pre>
      */
     public int getChunkSize() {
       return chunkSize_;
     }
 
-    private void initFields() {
-      files_ = java.util.Collections.emptyList();
-      chunkSize_ = 0;
+    // optional bool raw_data = 3;
+    public static final int RAW_DATA_FIELD_NUMBER = 3;
+    private boolean rawData_;
+    /**
+     * <code>optional bool raw_data = 3;</code>
+     *
+     * <pre>
+     * Set if the server will send chunks as raw DATA frames, in response to QueryFiles.raw_data.
+     * </pre>
+     */
+    public boolean hasRawData() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional bool raw_data = 3;</code>
+     *
+     * <pre>
+     * Set if the server will send chunks as raw DATA frames, in response to QueryFiles.raw_data.
+     * </pre>
+     */
+    public boolean getRawData() {
+      return rawData_;
     }
-    private byte memoizedIsInitialized = -1;
-    public final boolean isInitialized() {
-      byte isInitialized = memoizedIsInitialized;
-      if (isInitialized != -1) return isInitialized == 1;
 
-      if (!hasChunkSize()) {
-        memoizedIsInitialized = 0;
-        return false;
-      }
-      for (int i = 0; i < getFilesCount(); i++) {
-        if (!getFiles(i).isInitialized()) {
-          memoizedIsInitialized = 0;
-          return false;
+    // optional string next_cursor = 4;
+    public static final int NEXT_CURSOR_FIELD_NUMBER = 4;
+    private java.lang.Object nextCursor_;
+    /**
+     * <code>optional string next_cursor = 4;</code>
+     *
+     * <pre>
+     * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+     * </pre>
+     */
+    public boolean hasNextCursor() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional string next_cursor = 4;</code>
+     *
+     * <pre>
+     * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+     * </pre>
+     */
+    public java.lang.String getNextCursor() {
+      java.lang.Object ref = nextCursor_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          nextCursor_ = s;
         }
+        return s;
       }
-      memoizedIsInitialized = 1;
-      return true;
     }
-
-    public void writeTo(com.google.protobuf.CodedOutputStream output)
-                        throws java.io.IOException {
-      getSerializedSize();
-      for (int i = 0; i < files_.size(); i++) {
-        output.writeMessage(1, files_.get(i));
-      }
-      if (((bitField0_ & 0x00000001) == 0x00000001)) {
-        output.writeInt32(2, chunkSize_);
+    /**
+     * <code>optional string next_cursor = 4;</code>
+     *
+     * <pre>
+     * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+     * </pre>
+     */
+    public com.google.protobuf.ByteString
+        getNextCursorBytes() {
+      java.lang.Object ref = nextCursor_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        nextCursor_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
       }
-      getUnknownFields().writeTo(output);
     }
 
-    private int memoizedSerializedSize = -1;
-    public int getSerializedSize() {
-      int size = memoizedSerializedSize;
-      if (size != -1) return size;
-
-      size = 0;
-      for (int i = 0; i < files_.size(); i++) {
-        size += com.google.protobuf.CodedOutputStream
-          .computeMessageSize(1, files_.get(i));
+    // optional string version = 5;
+    public static final int VERSION_FIELD_NUMBER = 5;
+    private java.lang.Object version_;
+    /**
+     * <code>optional string version = 5;</code>
+     *
+     * <pre>
+     * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+     * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+     * </pre>
+     */
+    public boolean hasVersion() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional string version = 5;</code>
+     *
+     * <pre>
+     * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+     * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+     * </pre>
+     */
+    public java.lang.String getVersion() {
+      java.lang.Object ref = version_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          version_ = s;
+        }
+        return s;
       }
-      if (((bitField0_ & 0x00000001) == 0x00000001)) {
-        size += com.google.protobuf.CodedOutputStream
-          .computeInt32Size(2, chunkSize_);
+    }
+    /**
+     * <code>optional string version = 5;</code>
+     *
+     * <pre>
+     * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+     * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+     * </pre>
+     */
+    public com.google.protobuf.ByteString
+        getVersionBytes() {
+      java.lang.Object ref = version_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        version_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
       }
-      size += getUnknownFields().getSerializedSize();
-      memoizedSerializedSize = size;
-      return size;
     }
 
-    private static final long serialVersionUID = 0L;
-    @java.lang.Override
-    protected java.lang.Object writeReplace()
-        throws java.io.ObjectStreamException {
+    // optional bool not_modified = 6;
+    public static final int NOT_MODIFIED_FIELD_NUMBER = 6;
+    private boolean notModified_;
+    /**
+     * <code>optional bool not_modified = 6;</code>
+     *
+     * <pre>
+     * Set in reply to QueryFiles.known_version when the client's copy is still current.
+     * </pre>
+     */
+    public boolean hasNotModified() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>optional bool not_modified = 6;</code>
+     *
+     * <pre>
+     * Set in reply to QueryFiles.known_version when the client's copy is still current.
+     * </pre>
+     */
+    public boolean getNotModified() {
+      return notModified_;
+    }
+
+    // optional int32 min_chunk_size = 7;
+    public static final int MIN_CHUNK_SIZE_FIELD_NUMBER = 7;
+    private int minChunkSize_;
+    /**
+     * <code>optional int32 min_chunk_size = 7;</code>
+     *
+     * <pre>
+     * If set, the server lets clients pick any power of two chunk size between these two, inclusive.
+     * </pre>
+     */
+    public boolean hasMinChunkSize() {
+      return ((bitField0_ & 0x00000020) == 0x00000020);
+    }
+    /**
+     * <code>optional int32 min_chunk_size = 7;</code>
+     *
+     * <pre>
+     * If set, the server lets clients pick any power of two chunk size between these two, inclusive.
+     * </pre>
+     */
+    public int getMinChunkSize() {
+      return minChunkSize_;
+    }
+
+    // optional int32 max_chunk_size = 8;
+    public static final int MAX_CHUNK_SIZE_FIELD_NUMBER = 8;
+    private int maxChunkSize_;
+    /**
+     * <code>optional int32 max_chunk_size = 8;</code>
+     */
+    public boolean hasMaxChunkSize() {
+      return ((bitField0_ & 0x00000040) == 0x00000040);
+    }
+    /**
+     * <code>optional int32 max_chunk_size = 8;</code>
+     */
+    public int getMaxChunkSize() {
+      return maxChunkSize_;
+    }
+
+    private void initFields() {
+      files_ = java.util.Collections.emptyList();
+      chunkSize_ = 0;
+      rawData_ = false;
+      nextCursor_ = "";
+      version_ = "";
+      notModified_ = false;
+      minChunkSize_ = 0;
+      maxChunkSize_ = 0;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      if (!hasChunkSize()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      for (int i = 0; i < getFilesCount(); i++) {
+        if (!getFiles(i).isInitialized()) {
+          memoizedIsInitialized = 0;
+          return false;
+        }
+      }
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      for (int i = 0; i < files_.size(); i++) {
+        output.writeMessage(1, files_.get(i));
+      }
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeInt32(2, chunkSize_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBool(3, rawData_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(4, getNextCursorBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBytes(5, getVersionBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeBool(6, notModified_);
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        output.writeInt32(7, minChunkSize_);
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        output.writeInt32(8, maxChunkSize_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      for (int i = 0; i < files_.size(); i++) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(1, files_.get(i));
+      }
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(2, chunkSize_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(3, rawData_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(4, getNextCursorBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(5, getVersionBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(6, notModified_);
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(7, minChunkSize_);
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(8, maxChunkSize_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
       return super.writeReplace();
     }
 
@@ -3883,6 +5811,18 @@ public final class Payfile {
         }
         chunkSize_ = 0;
         bitField0_ = (bitField0_ & ~0x00000002);
+        rawData_ = false;
+        bitField0_ = (bitField0_ & ~0x00000004);
+        nextCursor_ = "";
+        bitField0_ = (bitField0_ & ~0x00000008);
+        version_ = "";
+        bitField0_ = (bitField0_ & ~0x00000010);
+        notModified_ = false;
+        bitField0_ = (bitField0_ & ~0x00000020);
+        minChunkSize_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000040);
+        maxChunkSize_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000080);
         return this;
       }
 
@@ -3924,6 +5864,30 @@ public final class Payfile {
           to_bitField0_ |= 0x00000001;
         }
         result.chunkSize_ = chunkSize_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.rawData_ = rawData_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.nextCursor_ = nextCursor_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.version_ = version_;
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.notModified_ = notModified_;
+        if (((from_bitField0_ & 0x00000040) == 0x00000040)) {
+          to_bitField0_ |= 0x00000020;
+        }
+        result.minChunkSize_ = minChunkSize_;
+        if (((from_bitField0_ & 0x00000080) == 0x00000080)) {
+          to_bitField0_ |= 0x00000040;
+        }
+        result.maxChunkSize_ = maxChunkSize_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -3969,6 +5933,28 @@ public final class Payfile {
         if (other.hasChunkSize()) {
           setChunkSize(other.getChunkSize());
         }
+        if (other.hasRawData()) {
+          setRawData(other.getRawData());
+        }
+        if (other.hasNextCursor()) {
+          bitField0_ |= 0x00000008;
+          nextCursor_ = other.nextCursor_;
+          onChanged();
+        }
+        if (other.hasVersion()) {
+          bitField0_ |= 0x00000010;
+          version_ = other.version_;
+          onChanged();
+        }
+        if (other.hasNotModified()) {
+          setNotModified(other.getNotModified());
+        }
+        if (other.hasMinChunkSize()) {
+          setMinChunkSize(other.getMinChunkSize());
+        }
+        if (other.hasMaxChunkSize()) {
+          setMaxChunkSize(other.getMaxChunkSize());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -4252,7 +6238,7 @@ public final class Payfile {
        * <code>required int32 chunk_size = 2;</code>
        *
        * <pre>
-       * Usually 1kb.
+       * Size in bytes of each chunk, unless the client picks another size with DownloadChunk.chunk_size.
        * </pre>
        */
       public boolean hasChunkSize() {
@@ -4262,7 +6248,7 @@ public final class Payfile {
        * <code>required int32 chunk_size = 2;</code>
        *
        * <pre>
-       * Usually 1kb.
+       * Size in bytes of each chunk, unless the client picks another size with DownloadChunk.chunk_size.
        * </pre>
        */
       public int getChunkSize() {
@@ -4272,7 +6258,7 @@ public final class Payfile {
        * <code>required int32 chunk_size = 2;</code>
        *
        * <pre>
-       * Usually 1kb.
+       * Size in bytes of each chunk, unless the client picks another size with DownloadChunk.chunk_size.
        * </pre>
        */
       public Builder setChunkSize(int value) {
@@ -4285,7 +6271,7 @@ public final class Payfile {
        * <code>required int32 chunk_size = 2;</code>
        *
        * <pre>
-       * Usually 1kb.
+       * Size in bytes of each chunk, unless the client picks another size with DownloadChunk.chunk_size.
        * </pre>
        */
       public Builder clearChunkSize() {
@@ -4295,36 +6281,418 @@ public final class Payfile {
         return this;
       }
 
-      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.Manifest)
-    }
-
-    static {
-      defaultInstance = new Manifest(true);
-      defaultInstance.initFields();
-    }
+      // optional bool raw_data = 3;
+      private boolean rawData_ ;
+      /**
+       * <code>optional bool raw_data = 3;</code>
+       *
+       * <pre>
+       * Set if the server will send chunks as raw DATA frames, in response to QueryFiles.raw_data.
+       * </pre>
+       */
+      public boolean hasRawData() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional bool raw_data = 3;</code>
+       *
+       * <pre>
+       * Set if the server will send chunks as raw DATA frames, in response to QueryFiles.raw_data.
+       * </pre>
+       */
+      public boolean getRawData() {
+        return rawData_;
+      }
+      /**
+       * <code>optional bool raw_data = 3;</code>
+       *
+       * <pre>
+       * Set if the server will send chunks as raw DATA frames, in response to QueryFiles.raw_data.
+       * </pre>
+       */
+      public Builder setRawData(boolean value) {
+        bitField0_ |= 0x00000004;
+        rawData_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool raw_data = 3;</code>
+       *
+       * <pre>
+       * Set if the server will send chunks as raw DATA frames, in response to QueryFiles.raw_data.
+       * </pre>
+       */
+      public Builder clearRawData() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        rawData_ = false;
+        onChanged();
+        return this;
+      }
 
-    // @@protoc_insertion_point(class_scope:net.plan99.payfile.Manifest)
+      // optional string next_cursor = 4;
+      private java.lang.Object nextCursor_ = "";
+      /**
+       * <code>optional string next_cursor = 4;</code>
+       *
+       * <pre>
+       * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+       * </pre>
+       */
+      public boolean hasNextCursor() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional string next_cursor = 4;</code>
+       *
+       * <pre>
+       * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+       * </pre>
+       */
+      public java.lang.String getNextCursor() {
+        java.lang.Object ref = nextCursor_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          nextCursor_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string next_cursor = 4;</code>
+       *
+       * <pre>
+       * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+       * </pre>
+       */
+      public com.google.protobuf.ByteString
+          getNextCursorBytes() {
+        java.lang.Object ref = nextCursor_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          nextCursor_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string next_cursor = 4;</code>
+       *
+       * <pre>
+       * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+       * </pre>
+       */
+      public Builder setNextCursor(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
   }
-
-  public interface DownloadChunkOrBuilder
-      extends com.google.protobuf.MessageOrBuilder {
-
-    // required int32 handle = 1;
-    /**
-     * <code>required int32 handle = 1;</code>
-     *
-     * <pre>
-     * File handle we're downloading.
-     * </pre>
-     */
-    boolean hasHandle();
-    /**
-     * <code>required int32 handle = 1;</code>
-     *
-     * <pre>
-     * File handle we're downloading.
-     * </pre>
-     */
+  bitField0_ |= 0x00000008;
+        nextCursor_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string next_cursor = 4;</code>
+       *
+       * <pre>
+       * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+       * </pre>
+       */
+      public Builder clearNextCursor() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        nextCursor_ = getDefaultInstance().getNextCursor();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string next_cursor = 4;</code>
+       *
+       * <pre>
+       * Set if this is one page of the catalog and there are more to come: send it back as QueryFiles.cursor.
+       * </pre>
+       */
+      public Builder setNextCursorBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+        nextCursor_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string version = 5;
+      private java.lang.Object version_ = "";
+      /**
+       * <code>optional string version = 5;</code>
+       *
+       * <pre>
+       * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+       * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+       * </pre>
+       */
+      public boolean hasVersion() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>optional string version = 5;</code>
+       *
+       * <pre>
+       * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+       * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+       * </pre>
+       */
+      public java.lang.String getVersion() {
+        java.lang.Object ref = version_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          version_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string version = 5;</code>
+       *
+       * <pre>
+       * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+       * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+       * </pre>
+       */
+      public com.google.protobuf.ByteString
+          getVersionBytes() {
+        java.lang.Object ref = version_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          version_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string version = 5;</code>
+       *
+       * <pre>
+       * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+       * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+       * </pre>
+       */
+      public Builder setVersion(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000010;
+        version_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string version = 5;</code>
+       *
+       * <pre>
+       * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+       * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+       * </pre>
+       */
+      public Builder clearVersion() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        version_ = getDefaultInstance().getVersion();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string version = 5;</code>
+       *
+       * <pre>
+       * Identifies this version of the catalog: it changes whenever a file is added, changed or removed. Every
+       * page carries it, so clients can tell if the catalog changed whilst they were paging through it.
+       * </pre>
+       */
+      public Builder setVersionBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000010;
+        version_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional bool not_modified = 6;
+      private boolean notModified_ ;
+      /**
+       * <code>optional bool not_modified = 6;</code>
+       *
+       * <pre>
+       * Set in reply to QueryFiles.known_version when the client's copy is still current.
+       * </pre>
+       */
+      public boolean hasNotModified() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      /**
+       * <code>optional bool not_modified = 6;</code>
+       *
+       * <pre>
+       * Set in reply to QueryFiles.known_version when the client's copy is still current.
+       * </pre>
+       */
+      public boolean getNotModified() {
+        return notModified_;
+      }
+      /**
+       * <code>optional bool not_modified = 6;</code>
+       *
+       * <pre>
+       * Set in reply to QueryFiles.known_version when the client's copy is still current.
+       * </pre>
+       */
+      public Builder setNotModified(boolean value) {
+        bitField0_ |= 0x00000020;
+        notModified_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool not_modified = 6;</code>
+       *
+       * <pre>
+       * Set in reply to QueryFiles.known_version when the client's copy is still current.
+       * </pre>
+       */
+      public Builder clearNotModified() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        notModified_ = false;
+        onChanged();
+        return this;
+      }
+
+      // optional int32 min_chunk_size = 7;
+      private int minChunkSize_ ;
+      /**
+       * <code>optional int32 min_chunk_size = 7;</code>
+       *
+       * <pre>
+       * If set, the server lets clients pick any power of two chunk size between these two, inclusive.
+       * </pre>
+       */
+      public boolean hasMinChunkSize() {
+        return ((bitField0_ & 0x00000040) == 0x00000040);
+      }
+      /**
+       * <code>optional int32 min_chunk_size = 7;</code>
+       *
+       * <pre>
+       * If set, the server lets clients pick any power of two chunk size between these two, inclusive.
+       * </pre>
+       */
+      public int getMinChunkSize() {
+        return minChunkSize_;
+      }
+      /**
+       * <code>optional int32 min_chunk_size = 7;</code>
+       *
+       * <pre>
+       * If set, the server lets clients pick any power of two chunk size between these two, inclusive.
+       * </pre>
+       */
+      public Builder setMinChunkSize(int value) {
+        bitField0_ |= 0x00000040;
+        minChunkSize_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional int32 min_chunk_size = 7;</code>
+       *
+       * <pre>
+       * If set, the server lets clients pick any power of two chunk size between these two, inclusive.
+       * </pre>
+       */
+      public Builder clearMinChunkSize() {
+        bitField0_ = (bitField0_ & ~0x00000040);
+        minChunkSize_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // optional int32 max_chunk_size = 8;
+      private int maxChunkSize_ ;
+      /**
+       * <code>optional int32 max_chunk_size = 8;</code>
+       */
+      public boolean hasMaxChunkSize() {
+        return ((bitField0_ & 0x00000080) == 0x00000080);
+      }
+      /**
+       * <code>optional int32 max_chunk_size = 8;</code>
+       */
+      public int getMaxChunkSize() {
+        return maxChunkSize_;
+      }
+      /**
+       * <code>optional int32 max_chunk_size = 8;</code>
+       */
+      public Builder setMaxChunkSize(int value) {
+        bitField0_ |= 0x00000080;
+        maxChunkSize_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional int32 max_chunk_size = 8;</code>
+       */
+      public Builder clearMaxChunkSize() {
+        bitField0_ = (bitField0_ & ~0x00000080);
+        maxChunkSize_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.Manifest)
+    }
+
+    static {
+      defaultInstance = new Manifest(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:net.plan99.payfile.Manifest)
+  }
+
+  public interface DownloadChunkOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // required int32 handle = 1;
+    /**
+     * <code>required int32 handle = 1;</code>
+     *
+     * <pre>
+     * File handle we're downloading.
+     * </pre>
+     */
+    boolean hasHandle();
+    /**
+     * <code>required int32 handle = 1;</code>
+     *
+     * <pre>
+     * File handle we're downloading.
+     * </pre>
+     */
     int getHandle();
 
     // required int64 chunk_id = 2;
@@ -4350,7 +6718,8 @@ public final class Payfile {
      * <code>optional int32 num_chunks = 3 [default = 1];</code>
      *
      * <pre>
-     * Number of chunks to download at once.
+     * Number of chunks to download at once. The server sends them back in order, one DATA message each, stopping at
+     * the end of the file.
      * </pre>
      */
     boolean hasNumChunks();
@@ -4358,10 +6727,51 @@ public final class Payfile {
      * <code>optional int32 num_chunks = 3 [default = 1];</code>
      *
      * <pre>
-     * Number of chunks to download at once.
+     * Number of chunks to download at once. The server sends them back in order, one DATA message each, stopping at
+     * the end of the file.
      * </pre>
      */
     int getNumChunks();
+
+    // optional int32 chunk_size = 4;
+    /**
+     * <code>optional int32 chunk_size = 4;</code>
+     *
+     * <pre>
+     * Size of the chunks, from the range given in the Manifest. Chunk ids are in units of this size, and so are those
+     * of the DATA replies. If not set, Manifest.chunk_size is used.
+     * </pre>
+     */
+    boolean hasChunkSize();
+    /**
+     * <code>optional int32 chunk_size = 4;</code>
+     *
+     * <pre>
+     * Size of the chunks, from the range given in the Manifest. Chunk ids are in units of this size, and so are those
+     * of the DATA replies. If not set, Manifest.chunk_size is used.
+     * </pre>
+     */
+    int getChunkSize();
+
+    // optional bool resend = 5;
+    /**
+     * <code>optional bool resend = 5;</code>
+     *
+     * <pre>
+     * Asks for one chunk again, because the copy that was sent didn't match the file's Merkle root. Only allowed for a
+     * chunk the server sent on this connection recently, and only once for each, but then it costs nothing.
+     * </pre>
+     */
+    boolean hasResend();
+    /**
+     * <code>optional bool resend = 5;</code>
+     *
+     * <pre>
+     * Asks for one chunk again, because the copy that was sent didn't match the file's Merkle root. Only allowed for a
+     * chunk the server sent on this connection recently, and only once for each, but then it costs nothing.
+     * </pre>
+     */
+    boolean getResend();
   }
   /**
    * Protobuf type {@code net.plan99.payfile.DownloadChunk}
@@ -4429,6 +6839,16 @@ public final class Payfile {
               numChunks_ = input.readInt32();
               break;
             }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              chunkSize_ = input.readInt32();
+              break;
+            }
+            case 40: {
+              bitField0_ |= 0x00000010;
+              resend_ = input.readBool();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -4524,7 +6944,8 @@ public final class Payfile {
      * <code>optional int32 num_chunks = 3 [default = 1];</code>
      *
      * <pre>
-     * Number of chunks to download at once.
+     * Number of chunks to download at once. The server sends them back in order, one DATA message each, stopping at
+     * the end of the file.
      * </pre>
      */
     public boolean hasNumChunks() {
@@ -4534,22 +6955,77 @@ public final class Payfile {
      * <code>optional int32 num_chunks = 3 [default = 1];</code>
      *
      * <pre>
-     * Number of chunks to download at once.
+     * Number of chunks to download at once. The server sends them back in order, one DATA message each, stopping at
+     * the end of the file.
      * </pre>
      */
     public int getNumChunks() {
       return numChunks_;
     }
 
-    private void initFields() {
-      handle_ = 0;
-      chunkId_ = 0L;
-      numChunks_ = 1;
+    // optional int32 chunk_size = 4;
+    public static final int CHUNK_SIZE_FIELD_NUMBER = 4;
+    private int chunkSize_;
+    /**
+     * <code>optional int32 chunk_size = 4;</code>
+     *
+     * <pre>
+     * Size of the chunks, from the range given in the Manifest. Chunk ids are in units of this size, and so are those
+     * of the DATA replies. If not set, Manifest.chunk_size is used.
+     * </pre>
+     */
+    public boolean hasChunkSize() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
     }
-    private byte memoizedIsInitialized = -1;
-    public final boolean isInitialized() {
-      byte isInitialized = memoizedIsInitialized;
-      if (isInitialized != -1) return isInitialized == 1;
+    /**
+     * <code>optional int32 chunk_size = 4;</code>
+     *
+     * <pre>
+     * Size of the chunks, from the range given in the Manifest. Chunk ids are in units of this size, and so are those
+     * of the DATA replies. If not set, Manifest.chunk_size is used.
+     * </pre>
+     */
+    public int getChunkSize() {
+      return chunkSize_;
+    }
+
+    // optional bool resend = 5;
+    public static final int RESEND_FIELD_NUMBER = 5;
+    private boolean resend_;
+    /**
+     * <code>optional bool resend = 5;</code>
+     *
+     * <pre>
+     * Asks for one chunk again, because the copy that was sent didn't match the file's Merkle root. Only allowed for a
+     * chunk the server sent on this connection recently, and only once for each, but then it costs nothing.
+     * </pre>
+     */
+    public boolean hasResend() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>optional bool resend = 5;</code>
+     *
+     * <pre>
+     * Asks for one chunk again, because the copy that was sent didn't match the file's Merkle root. Only allowed for a
+     * chunk the server sent on this connection recently, and only once for each, but then it costs nothing.
+     * </pre>
+     */
+    public boolean getResend() {
+      return resend_;
+    }
+
+    private void initFields() {
+      handle_ = 0;
+      chunkId_ = 0L;
+      numChunks_ = 1;
+      chunkSize_ = 0;
+      resend_ = false;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
 
       if (!hasHandle()) {
         memoizedIsInitialized = 0;
@@ -4575,6 +7051,12 @@ public final class Payfile {
       if (((bitField0_ & 0x00000004) == 0x00000004)) {
         output.writeInt32(3, numChunks_);
       }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeInt32(4, chunkSize_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeBool(5, resend_);
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -4596,6 +7078,14 @@ public final class Payfile {
         size += com.google.protobuf.CodedOutputStream
           .computeInt32Size(3, numChunks_);
       }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(4, chunkSize_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(5, resend_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -4718,6 +7208,10 @@ public final class Payfile {
         bitField0_ = (bitField0_ & ~0x00000002);
         numChunks_ = 1;
         bitField0_ = (bitField0_ & ~0x00000004);
+        chunkSize_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000008);
+        resend_ = false;
+        bitField0_ = (bitField0_ & ~0x00000010);
         return this;
       }
 
@@ -4758,6 +7252,14 @@ public final class Payfile {
           to_bitField0_ |= 0x00000004;
         }
         result.numChunks_ = numChunks_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.chunkSize_ = chunkSize_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.resend_ = resend_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -4783,6 +7285,12 @@ public final class Payfile {
         if (other.hasNumChunks()) {
           setNumChunks(other.getNumChunks());
         }
+        if (other.hasChunkSize()) {
+          setChunkSize(other.getChunkSize());
+        }
+        if (other.hasResend()) {
+          setResend(other.getResend());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -4922,7 +7430,8 @@ public final class Payfile {
        * <code>optional int32 num_chunks = 3 [default = 1];</code>
        *
        * <pre>
-       * Number of chunks to download at once.
+       * Number of chunks to download at once. The server sends them back in order, one DATA message each, stopping at
+       * the end of the file.
        * </pre>
        */
       public boolean hasNumChunks() {
@@ -4932,7 +7441,8 @@ public final class Payfile {
        * <code>optional int32 num_chunks = 3 [default = 1];</code>
        *
        * <pre>
-       * Number of chunks to download at once.
+       * Number of chunks to download at once. The server sends them back in order, one DATA message each, stopping at
+       * the end of the file.
        * </pre>
        */
       public int getNumChunks() {
@@ -4942,7 +7452,8 @@ public final class Payfile {
        * <code>optional int32 num_chunks = 3 [default = 1];</code>
        *
        * <pre>
-       * Number of chunks to download at once.
+       * Number of chunks to download at once. The server sends them back in order, one DATA message each, stopping at
+       * the end of the file.
        * </pre>
        */
       public Builder setNumChunks(int value) {
@@ -4955,7 +7466,8 @@ public final class Payfile {
        * <code>optional int32 num_chunks = 3 [default = 1];</code>
        *
        * <pre>
-       * Number of chunks to download at once.
+       * Number of chunks to download at once. The server sends them back in order, one DATA message each, stopping at
+       * the end of the file.
        * </pre>
        */
       public Builder clearNumChunks() {
@@ -4965,6 +7477,112 @@ public final class Payfile {
         return this;
       }
 
+      // optional int32 chunk_size = 4;
+      private int chunkSize_ ;
+      /**
+       * <code>optional int32 chunk_size = 4;</code>
+       *
+       * <pre>
+       * Size of the chunks, from the range given in the Manifest. Chunk ids are in units of this size, and so are those
+       * of the DATA replies. If not set, Manifest.chunk_size is used.
+       * </pre>
+       */
+      public boolean hasChunkSize() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional int32 chunk_size = 4;</code>
+       *
+       * <pre>
+       * Size of the chunks, from the range given in the Manifest. Chunk ids are in units of this size, and so are those
+       * of the DATA replies. If not set, Manifest.chunk_size is used.
+       * </pre>
+       */
+      public int getChunkSize() {
+        return chunkSize_;
+      }
+      /**
+       * <code>optional int32 chunk_size = 4;</code>
+       *
+       * <pre>
+       * Size of the chunks, from the range given in the Manifest. Chunk ids are in units of this size, and so are those
+       * of the DATA replies. If not set, Manifest.chunk_size is used.
+       * </pre>
+       */
+      public Builder setChunkSize(int value) {
+        bitField0_ |= 0x00000008;
+        chunkSize_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional int32 chunk_size = 4;</code>
+       *
+       * <pre>
+       * Size of the chunks, from the range given in the Manifest. Chunk ids are in units of this size, and so are those
+       * of the DATA replies. If not set, Manifest.chunk_size is used.
+       * </pre>
+       */
+      public Builder clearChunkSize() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        chunkSize_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // optional bool resend = 5;
+      private boolean resend_ ;
+      /**
+       * <code>optional bool resend = 5;</code>
+       *
+       * <pre>
+       * Asks for one chunk again, because the copy that was sent didn't match the file's Merkle root. Only allowed for a
+       * chunk the server sent on this connection recently, and only once for each, but then it costs nothing.
+       * </pre>
+       */
+      public boolean hasResend() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>optional bool resend = 5;</code>
+       *
+       * <pre>
+       * Asks for one chunk again, because the copy that was sent didn't match the file's Merkle root. Only allowed for a
+       * chunk the server sent on this connection recently, and only once for each, but then it costs nothing.
+       * </pre>
+       */
+      public boolean getResend() {
+        return resend_;
+      }
+      /**
+       * <code>optional bool resend = 5;</code>
+       *
+       * <pre>
+       * Asks for one chunk again, because the copy that was sent didn't match the file's Merkle root. Only allowed for a
+       * chunk the server sent on this connection recently, and only once for each, but then it costs nothing.
+       * </pre>
+       */
+      public Builder setResend(boolean value) {
+        bitField0_ |= 0x00000010;
+        resend_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool resend = 5;</code>
+       *
+       * <pre>
+       * Asks for one chunk again, because the copy that was sent didn't match the file's Merkle root. Only allowed for a
+       * chunk the server sent on this connection recently, and only once for each, but then it costs nothing.
+       * </pre>
+       */
+      public Builder clearResend() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        resend_ = false;
+        onChanged();
+        return this;
+      }
+
       // @@protoc_insertion_point(builder_scope:net.plan99.payfile.DownloadChunk)
     }
 
@@ -5011,6 +7629,10 @@ public final class Payfile {
   }
   /**
    * Protobuf type {@code net.plan99.payfile.Data}
+   *
+   * <pre>
+   * Sent back from the server to the client.
+   * </pre>
    */
   public static final class Data extends
       com.google.protobuf.GeneratedMessage
@@ -5302,6 +7924,10 @@ public final class Payfile {
     }
     /**
      * Protobuf type {@code net.plan99.payfile.Data}
+     *
+     * <pre>
+     * Sent back from the server to the client.
+     * </pre>
      */
     public static final class Builder extends
         com.google.protobuf.GeneratedMessage.Builder<Builder>
@@ -5561,58 +8187,72 @@ public final class Payfile {
     // @@protoc_insertion_point(class_scope:net.plan99.payfile.Data)
   }
 
-  public interface ErrorOrBuilder
+  public interface MerkleProofOrBuilder
       extends com.google.protobuf.MessageOrBuilder {
 
-    // required string code = 1;
+    // required int32 handle = 1;
     /**
-     * <code>required string code = 1;</code>
+     * <code>required int32 handle = 1;</code>
      */
-    boolean hasCode();
+    boolean hasHandle();
     /**
-     * <code>required string code = 1;</code>
+     * <code>required int32 handle = 1;</code>
      */
-    java.lang.String getCode();
+    int getHandle();
+
+    // required int64 chunk_id = 2;
     /**
-     * <code>required string code = 1;</code>
+     * <code>required int64 chunk_id = 2;</code>
      */
-    com.google.protobuf.ByteString
-        getCodeBytes();
-
-    // optional string explanation = 2;
+    boolean hasChunkId();
     /**
-     * <code>optional string explanation = 2;</code>
+     * <code>required int64 chunk_id = 2;</code>
      */
-    boolean hasExplanation();
+    long getChunkId();
+
+    // required bytes hashes = 3;
     /**
-     * <code>optional string explanation = 2;</code>
+     * <code>required bytes hashes = 3;</code>
+     *
+     * <pre>
+     * The siblings of the chunk's subtree and of each node above it, bottom up, each 32 bytes, leaving out the levels
+     * where the node has no partner and so moves up unchanged.
+     * </pre>
      */
-    java.lang.String getExplanation();
+    boolean hasHashes();
     /**
-     * <code>optional string explanation = 2;</code>
+     * <code>required bytes hashes = 3;</code>
+     *
+     * <pre>
+     * The siblings of the chunk's subtree and of each node above it, bottom up, each 32 bytes, leaving out the levels
+     * where the node has no partner and so moves up unchanged.
+     * </pre>
      */
-    com.google.protobuf.ByteString
-        getExplanationBytes();
+    com.google.protobuf.ByteString getHashes();
   }
   /**
-   * Protobuf type {@code net.plan99.payfile.Error}
+   * Protobuf type {@code net.plan99.payfile.MerkleProof}
+   *
+   * <pre>
+   * Sent before the DATA for a chunk: the hashes needed to get from the root of the chunk's subtree to File.merkle_root.
+   * </pre>
    */
-  public static final class Error extends
+  public static final class MerkleProof extends
       com.google.protobuf.GeneratedMessage
-      implements ErrorOrBuilder {
-    // Use Error.newBuilder() to construct.
-    private Error(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      implements MerkleProofOrBuilder {
+    // Use MerkleProof.newBuilder() to construct.
+    private MerkleProof(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
       super(builder);
       this.unknownFields = builder.getUnknownFields();
     }
-    private Error(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+    private MerkleProof(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
 
-    private static final Error defaultInstance;
-    public static Error getDefaultInstance() {
+    private static final MerkleProof defaultInstance;
+    public static MerkleProof getDefaultInstance() {
       return defaultInstance;
     }
 
-    public Error getDefaultInstanceForType() {
+    public MerkleProof getDefaultInstanceForType() {
       return defaultInstance;
     }
 
@@ -5622,7 +8262,7 @@ public final class Payfile {
         getUnknownFields() {
       return this.unknownFields;
     }
-    private Error(
+    private MerkleProof(
         com.google.protobuf.CodedInputStream input,
         com.google.protobuf.ExtensionRegistryLite extensionRegistry)
         throws com.google.protobuf.InvalidProtocolBufferException {
@@ -5645,14 +8285,19 @@ public final class Payfile {
               }
               break;
             }
-            case 10: {
+            case 8: {
               bitField0_ |= 0x00000001;
-              code_ = input.readBytes();
+              handle_ = input.readInt32();
               break;
             }
-            case 18: {
+            case 16: {
               bitField0_ |= 0x00000002;
-              explanation_ = input.readBytes();
+              chunkId_ = input.readInt64();
+              break;
+            }
+            case 26: {
+              bitField0_ |= 0x00000004;
+              hashes_ = input.readBytes();
               break;
             }
           }
@@ -5669,46 +8314,2001 @@ public final class Payfile {
     }
     public static final com.google.protobuf.Descriptors.Descriptor
         getDescriptor() {
-      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_descriptor;
+      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_MerkleProof_descriptor;
     }
 
     protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
         internalGetFieldAccessorTable() {
-      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_fieldAccessorTable
+      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_MerkleProof_fieldAccessorTable
           .ensureFieldAccessorsInitialized(
-              net.plan99.payfile.Payfile.Error.class, net.plan99.payfile.Payfile.Error.Builder.class);
+              net.plan99.payfile.Payfile.MerkleProof.class, net.plan99.payfile.Payfile.MerkleProof.Builder.class);
     }
 
-    public static com.google.protobuf.Parser<Error> PARSER =
-        new com.google.protobuf.AbstractParser<Error>() {
-      public Error parsePartialFrom(
+    public static com.google.protobuf.Parser<MerkleProof> PARSER =
+        new com.google.protobuf.AbstractParser<MerkleProof>() {
+      public MerkleProof parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new MerkleProof(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<MerkleProof> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // required int32 handle = 1;
+    public static final int HANDLE_FIELD_NUMBER = 1;
+    private int handle_;
+    /**
+     * <code>required int32 handle = 1;</code>
+     */
+    public boolean hasHandle() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>required int32 handle = 1;</code>
+     */
+    public int getHandle() {
+      return handle_;
+    }
+
+    // required int64 chunk_id = 2;
+    public static final int CHUNK_ID_FIELD_NUMBER = 2;
+    private long chunkId_;
+    /**
+     * <code>required int64 chunk_id = 2;</code>
+     */
+    public boolean hasChunkId() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>required int64 chunk_id = 2;</code>
+     */
+    public long getChunkId() {
+      return chunkId_;
+    }
+
+    // required bytes hashes = 3;
+    public static final int HASHES_FIELD_NUMBER = 3;
+    private com.google.protobuf.ByteString hashes_;
+    /**
+     * <code>required bytes hashes = 3;</code>
+     *
+     * <pre>
+     * The siblings of the chunk's subtree and of each node above it, bottom up, each 32 bytes, leaving out the levels
+     * where the node has no partner and so moves up unchanged.
+     * </pre>
+     */
+    public boolean hasHashes() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>required bytes hashes = 3;</code>
+     *
+     * <pre>
+     * The siblings of the chunk's subtree and of each node above it, bottom up, each 32 bytes, leaving out the levels
+     * where the node has no partner and so moves up unchanged.
+     * </pre>
+     */
+    public com.google.protobuf.ByteString getHashes() {
+      return hashes_;
+    }
+
+    private void initFields() {
+      handle_ = 0;
+      chunkId_ = 0L;
+      hashes_ = com.google.protobuf.ByteString.EMPTY;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      if (!hasHandle()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      if (!hasChunkId()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      if (!hasHashes()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeInt32(1, handle_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeInt64(2, chunkId_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(3, hashes_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(1, handle_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt64Size(2, chunkId_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(3, hashes_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static net.plan99.payfile.Payfile.MerkleProof parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.MerkleProof parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(net.plan99.payfile.Payfile.MerkleProof prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code net.plan99.payfile.MerkleProof}
+     *
+     * <pre>
+     * Sent before the DATA for a chunk: the hashes needed to get from the root of the chunk's subtree to File.merkle_root.
+     * </pre>
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements net.plan99.payfile.Payfile.MerkleProofOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_MerkleProof_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_MerkleProof_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                net.plan99.payfile.Payfile.MerkleProof.class, net.plan99.payfile.Payfile.MerkleProof.Builder.class);
+      }
+
+      // Construct using net.plan99.payfile.Payfile.MerkleProof.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        handle_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000001);
+        chunkId_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000002);
+        hashes_ = com.google.protobuf.ByteString.EMPTY;
+        bitField0_ = (bitField0_ & ~0x00000004);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_MerkleProof_descriptor;
+      }
+
+      public net.plan99.payfile.Payfile.MerkleProof getDefaultInstanceForType() {
+        return net.plan99.payfile.Payfile.MerkleProof.getDefaultInstance();
+      }
+
+      public net.plan99.payfile.Payfile.MerkleProof build() {
+        net.plan99.payfile.Payfile.MerkleProof result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public net.plan99.payfile.Payfile.MerkleProof buildPartial() {
+        net.plan99.payfile.Payfile.MerkleProof result = new net.plan99.payfile.Payfile.MerkleProof(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.handle_ = handle_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.chunkId_ = chunkId_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.hashes_ = hashes_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof net.plan99.payfile.Payfile.MerkleProof) {
+          return mergeFrom((net.plan99.payfile.Payfile.MerkleProof)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(net.plan99.payfile.Payfile.MerkleProof other) {
+        if (other == net.plan99.payfile.Payfile.MerkleProof.getDefaultInstance()) return this;
+        if (other.hasHandle()) {
+          setHandle(other.getHandle());
+        }
+        if (other.hasChunkId()) {
+          setChunkId(other.getChunkId());
+        }
+        if (other.hasHashes()) {
+          setHashes(other.getHashes());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        if (!hasHandle()) {
+          
+          return false;
+        }
+        if (!hasChunkId()) {
+          
+          return false;
+        }
+        if (!hasHashes()) {
+          
+          return false;
+        }
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        net.plan99.payfile.Payfile.MerkleProof parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (net.plan99.payfile.Payfile.MerkleProof) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // required int32 handle = 1;
+      private int handle_ ;
+      /**
+       * <code>required int32 handle = 1;</code>
+       */
+      public boolean hasHandle() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>required int32 handle = 1;</code>
+       */
+      public int getHandle() {
+        return handle_;
+      }
+      /**
+       * <code>required int32 handle = 1;</code>
+       */
+      public Builder setHandle(int value) {
+        bitField0_ |= 0x00000001;
+        handle_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required int32 handle = 1;</code>
+       */
+      public Builder clearHandle() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        handle_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // required int64 chunk_id = 2;
+      private long chunkId_ ;
+      /**
+       * <code>required int64 chunk_id = 2;</code>
+       */
+      public boolean hasChunkId() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>required int64 chunk_id = 2;</code>
+       */
+      public long getChunkId() {
+        return chunkId_;
+      }
+      /**
+       * <code>required int64 chunk_id = 2;</code>
+       */
+      public Builder setChunkId(long value) {
+        bitField0_ |= 0x00000002;
+        chunkId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required int64 chunk_id = 2;</code>
+       */
+      public Builder clearChunkId() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        chunkId_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // required bytes hashes = 3;
+      private com.google.protobuf.ByteString hashes_ = com.google.protobuf.ByteString.EMPTY;
+      /**
+       * <code>required bytes hashes = 3;</code>
+       *
+       * <pre>
+       * The siblings of the chunk's subtree and of each node above it, bottom up, each 32 bytes, leaving out the levels
+       * where the node has no partner and so moves up unchanged.
+       * </pre>
+       */
+      public boolean hasHashes() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>required bytes hashes = 3;</code>
+       *
+       * <pre>
+       * The siblings of the chunk's subtree and of each node above it, bottom up, each 32 bytes, leaving out the levels
+       * where the node has no partner and so moves up unchanged.
+       * </pre>
+       */
+      public com.google.protobuf.ByteString getHashes() {
+        return hashes_;
+      }
+      /**
+       * <code>required bytes hashes = 3;</code>
+       *
+       * <pre>
+       * The siblings of the chunk's subtree and of each node above it, bottom up, each 32 bytes, leaving out the levels
+       * where the node has no partner and so moves up unchanged.
+       * </pre>
+       */
+      public Builder setHashes(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        hashes_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required bytes hashes = 3;</code>
+       *
+       * <pre>
+       * The siblings of the chunk's subtree and of each node above it, bottom up, each 32 bytes, leaving out the levels
+       * where the node has no partner and so moves up unchanged.
+       * </pre>
+       */
+      public Builder clearHashes() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        hashes_ = getDefaultInstance().getHashes();
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.MerkleProof)
+    }
+
+    static {
+      defaultInstance = new MerkleProof(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:net.plan99.payfile.MerkleProof)
+  }
+
+  public interface CreditOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // required int64 granted = 1;
+    /**
+     * <code>required int64 granted = 1;</code>
+     *
+     * <pre>
+     * Total value in satoshis of the data this connection may be sent, counting from when it was opened. Data is
+     * charged for at File.price_per_chunk per Manifest.chunk_size bytes, with the total rounded up to a whole satoshi.
+     * </pre>
+     */
+    boolean hasGranted();
+    /**
+     * <code>required int64 granted = 1;</code>
+     *
+     * <pre>
+     * Total value in satoshis of the data this connection may be sent, counting from when it was opened. Data is
+     * charged for at File.price_per_chunk per Manifest.chunk_size bytes, with the total rounded up to a whole satoshi.
+     * </pre>
+     */
+    long getGranted();
+  }
+  /**
+   * Protobuf type {@code net.plan99.payfile.Credit}
+   *
+   * <pre>
+   * The server only serves paid for files up to what it's been paid, and sends this every time that goes up, so the
+   * client knows how far it can get ahead with its requests without any of them being refused.
+   * </pre>
+   */
+  public static final class Credit extends
+      com.google.protobuf.GeneratedMessage
+      implements CreditOrBuilder {
+    // Use Credit.newBuilder() to construct.
+    private Credit(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private Credit(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final Credit defaultInstance;
+    public static Credit getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public Credit getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private Credit(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 8: {
+              bitField0_ |= 0x00000001;
+              granted_ = input.readInt64();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Credit_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Credit_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              net.plan99.payfile.Payfile.Credit.class, net.plan99.payfile.Payfile.Credit.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<Credit> PARSER =
+        new com.google.protobuf.AbstractParser<Credit>() {
+      public Credit parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new Credit(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<Credit> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // required int64 granted = 1;
+    public static final int GRANTED_FIELD_NUMBER = 1;
+    private long granted_;
+    /**
+     * <code>required int64 granted = 1;</code>
+     *
+     * <pre>
+     * Total value in satoshis of the data this connection may be sent, counting from when it was opened. Data is
+     * charged for at File.price_per_chunk per Manifest.chunk_size bytes, with the total rounded up to a whole satoshi.
+     * </pre>
+     */
+    public boolean hasGranted() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>required int64 granted = 1;</code>
+     *
+     * <pre>
+     * Total value in satoshis of the data this connection may be sent, counting from when it was opened. Data is
+     * charged for at File.price_per_chunk per Manifest.chunk_size bytes, with the total rounded up to a whole satoshi.
+     * </pre>
+     */
+    public long getGranted() {
+      return granted_;
+    }
+
+    private void initFields() {
+      granted_ = 0L;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      if (!hasGranted()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeInt64(1, granted_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt64Size(1, granted_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static net.plan99.payfile.Payfile.Credit parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.Credit parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(net.plan99.payfile.Payfile.Credit prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code net.plan99.payfile.Credit}
+     *
+     * <pre>
+     * The server only serves paid for files up to what it's been paid, and sends this every time that goes up, so the
+     * client knows how far it can get ahead with its requests without any of them being refused.
+     * </pre>
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements net.plan99.payfile.Payfile.CreditOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Credit_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Credit_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                net.plan99.payfile.Payfile.Credit.class, net.plan99.payfile.Payfile.Credit.Builder.class);
+      }
+
+      // Construct using net.plan99.payfile.Payfile.Credit.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        granted_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000001);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Credit_descriptor;
+      }
+
+      public net.plan99.payfile.Payfile.Credit getDefaultInstanceForType() {
+        return net.plan99.payfile.Payfile.Credit.getDefaultInstance();
+      }
+
+      public net.plan99.payfile.Payfile.Credit build() {
+        net.plan99.payfile.Payfile.Credit result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public net.plan99.payfile.Payfile.Credit buildPartial() {
+        net.plan99.payfile.Payfile.Credit result = new net.plan99.payfile.Payfile.Credit(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.granted_ = granted_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof net.plan99.payfile.Payfile.Credit) {
+          return mergeFrom((net.plan99.payfile.Payfile.Credit)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(net.plan99.payfile.Payfile.Credit other) {
+        if (other == net.plan99.payfile.Payfile.Credit.getDefaultInstance()) return this;
+        if (other.hasGranted()) {
+          setGranted(other.getGranted());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        if (!hasGranted()) {
+          
+          return false;
+        }
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        net.plan99.payfile.Payfile.Credit parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (net.plan99.payfile.Payfile.Credit) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // required int64 granted = 1;
+      private long granted_ ;
+      /**
+       * <code>required int64 granted = 1;</code>
+       *
+       * <pre>
+       * Total value in satoshis of the data this connection may be sent, counting from when it was opened. Data is
+       * charged for at File.price_per_chunk per Manifest.chunk_size bytes, with the total rounded up to a whole satoshi.
+       * </pre>
+       */
+      public boolean hasGranted() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>required int64 granted = 1;</code>
+       *
+       * <pre>
+       * Total value in satoshis of the data this connection may be sent, counting from when it was opened. Data is
+       * charged for at File.price_per_chunk per Manifest.chunk_size bytes, with the total rounded up to a whole satoshi.
+       * </pre>
+       */
+      public long getGranted() {
+        return granted_;
+      }
+      /**
+       * <code>required int64 granted = 1;</code>
+       *
+       * <pre>
+       * Total value in satoshis of the data this connection may be sent, counting from when it was opened. Data is
+       * charged for at File.price_per_chunk per Manifest.chunk_size bytes, with the total rounded up to a whole satoshi.
+       * </pre>
+       */
+      public Builder setGranted(long value) {
+        bitField0_ |= 0x00000001;
+        granted_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required int64 granted = 1;</code>
+       *
+       * <pre>
+       * Total value in satoshis of the data this connection may be sent, counting from when it was opened. Data is
+       * charged for at File.price_per_chunk per Manifest.chunk_size bytes, with the total rounded up to a whole satoshi.
+       * </pre>
+       */
+      public Builder clearGranted() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        granted_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.Credit)
+    }
+
+    static {
+      defaultInstance = new Credit(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:net.plan99.payfile.Credit)
+  }
+
+  public interface ErrorOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // required string code = 1;
+    /**
+     * <code>required string code = 1;</code>
+     *
+     * <pre>
+     * From ProtocolException.Code, one of:
+     *
+     *   GENERIC
+     *   NETWORK_MISMATCH
+     *   INTERNAL_ERROR
+     *
+     * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+     * part of the system.
+     * </pre>
+     */
+    boolean hasCode();
+    /**
+     * <code>required string code = 1;</code>
+     *
+     * <pre>
+     * From ProtocolException.Code, one of:
+     *
+     *   GENERIC
+     *   NETWORK_MISMATCH
+     *   INTERNAL_ERROR
+     *
+     * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+     * part of the system.
+     * </pre>
+     */
+    java.lang.String getCode();
+    /**
+     * <code>required string code = 1;</code>
+     *
+     * <pre>
+     * From ProtocolException.Code, one of:
+     *
+     *   GENERIC
+     *   NETWORK_MISMATCH
+     *   INTERNAL_ERROR
+     *
+     * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+     * part of the system.
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getCodeBytes();
+
+    // optional string explanation = 2;
+    /**
+     * <code>optional string explanation = 2;</code>
+     */
+    boolean hasExplanation();
+    /**
+     * <code>optional string explanation = 2;</code>
+     */
+    java.lang.String getExplanation();
+    /**
+     * <code>optional string explanation = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getExplanationBytes();
+  }
+  /**
+   * Protobuf type {@code net.plan99.payfile.Error}
+   */
+  public static final class Error extends
+      com.google.protobuf.GeneratedMessage
+      implements ErrorOrBuilder {
+    // Use Error.newBuilder() to construct.
+    private Error(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private Error(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final Error defaultInstance;
+    public static Error getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public Error getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private Error(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              code_ = input.readBytes();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              explanation_ = input.readBytes();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              net.plan99.payfile.Payfile.Error.class, net.plan99.payfile.Payfile.Error.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<Error> PARSER =
+        new com.google.protobuf.AbstractParser<Error>() {
+      public Error parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new Error(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<Error> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // required string code = 1;
+    public static final int CODE_FIELD_NUMBER = 1;
+    private java.lang.Object code_;
+    /**
+     * <code>required string code = 1;</code>
+     *
+     * <pre>
+     * From ProtocolException.Code, one of:
+     *
+     *   GENERIC
+     *   NETWORK_MISMATCH
+     *   INTERNAL_ERROR
+     *
+     * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+     * part of the system.
+     * </pre>
+     */
+    public boolean hasCode() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>required string code = 1;</code>
+     *
+     * <pre>
+     * From ProtocolException.Code, one of:
+     *
+     *   GENERIC
+     *   NETWORK_MISMATCH
+     *   INTERNAL_ERROR
+     *
+     * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+     * part of the system.
+     * </pre>
+     */
+    public java.lang.String getCode() {
+      java.lang.Object ref = code_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          code_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>required string code = 1;</code>
+     *
+     * <pre>
+     * From ProtocolException.Code, one of:
+     *
+     *   GENERIC
+     *   NETWORK_MISMATCH
+     *   INTERNAL_ERROR
+     *
+     * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+     * part of the system.
+     * </pre>
+     */
+    public com.google.protobuf.ByteString
+        getCodeBytes() {
+      java.lang.Object ref = code_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        code_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string explanation = 2;
+    public static final int EXPLANATION_FIELD_NUMBER = 2;
+    private java.lang.Object explanation_;
+    /**
+     * <code>optional string explanation = 2;</code>
+     */
+    public boolean hasExplanation() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string explanation = 2;</code>
+     */
+    public java.lang.String getExplanation() {
+      java.lang.Object ref = explanation_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          explanation_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string explanation = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getExplanationBytes() {
+      java.lang.Object ref = explanation_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        explanation_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    private void initFields() {
+      code_ = "";
+      explanation_ = "";
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      if (!hasCode()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeBytes(1, getCodeBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getExplanationBytes());
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(1, getCodeBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getExplanationBytes());
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static net.plan99.payfile.Payfile.Error parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static net.plan99.payfile.Payfile.Error parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.Error parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static net.plan99.payfile.Payfile.Error parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.Error parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.Error parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.Error parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.Error parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static net.plan99.payfile.Payfile.Error parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static net.plan99.payfile.Payfile.Error parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(net.plan99.payfile.Payfile.Error prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code net.plan99.payfile.Error}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements net.plan99.payfile.Payfile.ErrorOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                net.plan99.payfile.Payfile.Error.class, net.plan99.payfile.Payfile.Error.Builder.class);
+      }
+
+      // Construct using net.plan99.payfile.Payfile.Error.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        code_ = "";
+        bitField0_ = (bitField0_ & ~0x00000001);
+        explanation_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_descriptor;
+      }
+
+      public net.plan99.payfile.Payfile.Error getDefaultInstanceForType() {
+        return net.plan99.payfile.Payfile.Error.getDefaultInstance();
+      }
+
+      public net.plan99.payfile.Payfile.Error build() {
+        net.plan99.payfile.Payfile.Error result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public net.plan99.payfile.Payfile.Error buildPartial() {
+        net.plan99.payfile.Payfile.Error result = new net.plan99.payfile.Payfile.Error(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.code_ = code_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.explanation_ = explanation_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof net.plan99.payfile.Payfile.Error) {
+          return mergeFrom((net.plan99.payfile.Payfile.Error)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(net.plan99.payfile.Payfile.Error other) {
+        if (other == net.plan99.payfile.Payfile.Error.getDefaultInstance()) return this;
+        if (other.hasCode()) {
+          bitField0_ |= 0x00000001;
+          code_ = other.code_;
+          onChanged();
+        }
+        if (other.hasExplanation()) {
+          bitField0_ |= 0x00000002;
+          explanation_ = other.explanation_;
+          onChanged();
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        if (!hasCode()) {
+          
+          return false;
+        }
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        net.plan99.payfile.Payfile.Error parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (net.plan99.payfile.Payfile.Error) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // required string code = 1;
+      private java.lang.Object code_ = "";
+      /**
+       * <code>required string code = 1;</code>
+       *
+       * <pre>
+       * From ProtocolException.Code, one of:
+       *
+       *   GENERIC
+       *   NETWORK_MISMATCH
+       *   INTERNAL_ERROR
+       *
+       * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+       * part of the system.
+       * </pre>
+       */
+      public boolean hasCode() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>required string code = 1;</code>
+       *
+       * <pre>
+       * From ProtocolException.Code, one of:
+       *
+       *   GENERIC
+       *   NETWORK_MISMATCH
+       *   INTERNAL_ERROR
+       *
+       * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+       * part of the system.
+       * </pre>
+       */
+      public java.lang.String getCode() {
+        java.lang.Object ref = code_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          code_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>required string code = 1;</code>
+       *
+       * <pre>
+       * From ProtocolException.Code, one of:
+       *
+       *   GENERIC
+       *   NETWORK_MISMATCH
+       *   INTERNAL_ERROR
+       *
+       * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+       * part of the system.
+       * </pre>
+       */
+      public com.google.protobuf.ByteString
+          getCodeBytes() {
+        java.lang.Object ref = code_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          code_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>required string code = 1;</code>
+       *
+       * <pre>
+       * From ProtocolException.Code, one of:
+       *
+       *   GENERIC
+       *   NETWORK_MISMATCH
+       *   INTERNAL_ERROR
+       *
+       * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+       * part of the system.
+       * </pre>
+       */
+      public Builder setCode(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        code_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required string code = 1;</code>
+       *
+       * <pre>
+       * From ProtocolException.Code, one of:
+       *
+       *   GENERIC
+       *   NETWORK_MISMATCH
+       *   INTERNAL_ERROR
+       *
+       * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+       * part of the system.
+       * </pre>
+       */
+      public Builder clearCode() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        code_ = getDefaultInstance().getCode();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required string code = 1;</code>
+       *
+       * <pre>
+       * From ProtocolException.Code, one of:
+       *
+       *   GENERIC
+       *   NETWORK_MISMATCH
+       *   INTERNAL_ERROR
+       *
+       * Note that the micropayment protocol has its own internal error messages, so this is just for the non payments
+       * part of the system.
+       * </pre>
+       */
+      public Builder setCodeBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        code_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string explanation = 2;
+      private java.lang.Object explanation_ = "";
+      /**
+       * <code>optional string explanation = 2;</code>
+       */
+      public boolean hasExplanation() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string explanation = 2;</code>
+       */
+      public java.lang.String getExplanation() {
+        java.lang.Object ref = explanation_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          explanation_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string explanation = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getExplanationBytes() {
+        java.lang.Object ref = explanation_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          explanation_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string explanation = 2;</code>
+       */
+      public Builder setExplanation(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        explanation_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string explanation = 2;</code>
+       */
+      public Builder clearExplanation() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        explanation_ = getDefaultInstance().getExplanation();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string explanation = 2;</code>
+       */
+      public Builder setExplanationBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        explanation_ = value;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.Error)
+    }
+
+    static {
+      defaultInstance = new Error(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:net.plan99.payfile.Error)
+  }
+
+  public interface DownloadProgressOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // required string server = 1;
+    /**
+     * <code>required string server = 1;</code>
+     *
+     * <pre>
+     * host:port of the server it's being downloaded from.
+     * </pre>
+     */
+    boolean hasServer();
+    /**
+     * <code>required string server = 1;</code>
+     *
+     * <pre>
+     * host:port of the server it's being downloaded from.
+     * </pre>
+     */
+    java.lang.String getServer();
+    /**
+     * <code>required string server = 1;</code>
+     *
+     * <pre>
+     * host:port of the server it's being downloaded from.
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getServerBytes();
+
+    // required int32 handle = 2;
+    /**
+     * <code>required int32 handle = 2;</code>
+     *
+     * <pre>
+     * The server gives a file a new handle whenever its contents change, so a partial download is only carried on
+     * with if the handle, name and size all still match, and the Merkle root too if the server has one.
+     * </pre>
+     */
+    boolean hasHandle();
+    /**
+     * <code>required int32 handle = 2;</code>
+     *
+     * <pre>
+     * The server gives a file a new handle whenever its contents change, so a partial download is only carried on
+     * with if the handle, name and size all still match, and the Merkle root too if the server has one.
+     * </pre>
+     */
+    int getHandle();
+
+    // required string file_name = 3;
+    /**
+     * <code>required string file_name = 3;</code>
+     */
+    boolean hasFileName();
+    /**
+     * <code>required string file_name = 3;</code>
+     */
+    java.lang.String getFileName();
+    /**
+     * <code>required string file_name = 3;</code>
+     */
+    com.google.protobuf.ByteString
+        getFileNameBytes();
+
+    // required uint64 size = 4;
+    /**
+     * <code>required uint64 size = 4;</code>
+     */
+    boolean hasSize();
+    /**
+     * <code>required uint64 size = 4;</code>
+     */
+    long getSize();
+
+    // required uint32 unit_size = 5;
+    /**
+     * <code>required uint32 unit_size = 5;</code>
+     *
+     * <pre>
+     * Bit i (in little endian order) of received is set when bytes [i * unit_size, (i + 1) * unit_size) of the file
+     * are safely on disk. The unit is the server's minimum chunk size, which every chunk is a multiple of.
+     * </pre>
+     */
+    boolean hasUnitSize();
+    /**
+     * <code>required uint32 unit_size = 5;</code>
+     *
+     * <pre>
+     * Bit i (in little endian order) of received is set when bytes [i * unit_size, (i + 1) * unit_size) of the file
+     * are safely on disk. The unit is the server's minimum chunk size, which every chunk is a multiple of.
+     * </pre>
+     */
+    int getUnitSize();
+
+    // required bytes received = 6;
+    /**
+     * <code>required bytes received = 6;</code>
+     */
+    boolean hasReceived();
+    /**
+     * <code>required bytes received = 6;</code>
+     */
+    com.google.protobuf.ByteString getReceived();
+
+    // optional bytes merkle_root = 7;
+    /**
+     * <code>optional bytes merkle_root = 7;</code>
+     */
+    boolean hasMerkleRoot();
+    /**
+     * <code>optional bytes merkle_root = 7;</code>
+     */
+    com.google.protobuf.ByteString getMerkleRoot();
+  }
+  /**
+   * Protobuf type {@code net.plan99.payfile.DownloadProgress}
+   *
+   * <pre>
+   * Never sent over the wire: clients keep one of these next to a file that's partly downloaded, so that after the
+   * connection drops or the program is restarted the download can carry on from where it got to.
+   * </pre>
+   */
+  public static final class DownloadProgress extends
+      com.google.protobuf.GeneratedMessage
+      implements DownloadProgressOrBuilder {
+    // Use DownloadProgress.newBuilder() to construct.
+    private DownloadProgress(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private DownloadProgress(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final DownloadProgress defaultInstance;
+    public static DownloadProgress getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public DownloadProgress getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private DownloadProgress(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              server_ = input.readBytes();
+              break;
+            }
+            case 16: {
+              bitField0_ |= 0x00000002;
+              handle_ = input.readInt32();
+              break;
+            }
+            case 26: {
+              bitField0_ |= 0x00000004;
+              fileName_ = input.readBytes();
+              break;
+            }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              size_ = input.readUInt64();
+              break;
+            }
+            case 40: {
+              bitField0_ |= 0x00000010;
+              unitSize_ = input.readUInt32();
+              break;
+            }
+            case 50: {
+              bitField0_ |= 0x00000020;
+              received_ = input.readBytes();
+              break;
+            }
+            case 58: {
+              bitField0_ |= 0x00000040;
+              merkleRoot_ = input.readBytes();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_DownloadProgress_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_DownloadProgress_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              net.plan99.payfile.Payfile.DownloadProgress.class, net.plan99.payfile.Payfile.DownloadProgress.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<DownloadProgress> PARSER =
+        new com.google.protobuf.AbstractParser<DownloadProgress>() {
+      public DownloadProgress parsePartialFrom(
           com.google.protobuf.CodedInputStream input,
           com.google.protobuf.ExtensionRegistryLite extensionRegistry)
           throws com.google.protobuf.InvalidProtocolBufferException {
-        return new Error(input, extensionRegistry);
+        return new DownloadProgress(input, extensionRegistry);
       }
     };
 
     @java.lang.Override
-    public com.google.protobuf.Parser<Error> getParserForType() {
+    public com.google.protobuf.Parser<DownloadProgress> getParserForType() {
       return PARSER;
     }
 
     private int bitField0_;
-    // required string code = 1;
-    public static final int CODE_FIELD_NUMBER = 1;
-    private java.lang.Object code_;
+    // required string server = 1;
+    public static final int SERVER_FIELD_NUMBER = 1;
+    private java.lang.Object server_;
     /**
-     * <code>required string code = 1;</code>
+     * <code>required string server = 1;</code>
+     *
+     * <pre>
+     * host:port of the server it's being downloaded from.
+     * </pre>
      */
-    public boolean hasCode() {
+    public boolean hasServer() {
       return ((bitField0_ & 0x00000001) == 0x00000001);
     }
     /**
-     * <code>required string code = 1;</code>
+     * <code>required string server = 1;</code>
+     *
+     * <pre>
+     * host:port of the server it's being downloaded from.
+     * </pre>
      */
-    public java.lang.String getCode() {
-      java.lang.Object ref = code_;
+    public java.lang.String getServer() {
+      java.lang.Object ref = server_;
       if (ref instanceof java.lang.String) {
         return (java.lang.String) ref;
       } else {
@@ -5716,42 +10316,72 @@ public final class Payfile {
             (com.google.protobuf.ByteString) ref;
         java.lang.String s = bs.toStringUtf8();
         if (bs.isValidUtf8()) {
-          code_ = s;
+          server_ = s;
         }
         return s;
       }
     }
     /**
-     * <code>required string code = 1;</code>
+     * <code>required string server = 1;</code>
+     *
+     * <pre>
+     * host:port of the server it's being downloaded from.
+     * </pre>
      */
     public com.google.protobuf.ByteString
-        getCodeBytes() {
-      java.lang.Object ref = code_;
+        getServerBytes() {
+      java.lang.Object ref = server_;
       if (ref instanceof java.lang.String) {
         com.google.protobuf.ByteString b = 
             com.google.protobuf.ByteString.copyFromUtf8(
                 (java.lang.String) ref);
-        code_ = b;
+        server_ = b;
         return b;
       } else {
         return (com.google.protobuf.ByteString) ref;
       }
     }
 
-    // optional string explanation = 2;
-    public static final int EXPLANATION_FIELD_NUMBER = 2;
-    private java.lang.Object explanation_;
+    // required int32 handle = 2;
+    public static final int HANDLE_FIELD_NUMBER = 2;
+    private int handle_;
     /**
-     * <code>optional string explanation = 2;</code>
+     * <code>required int32 handle = 2;</code>
+     *
+     * <pre>
+     * The server gives a file a new handle whenever its contents change, so a partial download is only carried on
+     * with if the handle, name and size all still match, and the Merkle root too if the server has one.
+     * </pre>
      */
-    public boolean hasExplanation() {
+    public boolean hasHandle() {
       return ((bitField0_ & 0x00000002) == 0x00000002);
     }
     /**
-     * <code>optional string explanation = 2;</code>
+     * <code>required int32 handle = 2;</code>
+     *
+     * <pre>
+     * The server gives a file a new handle whenever its contents change, so a partial download is only carried on
+     * with if the handle, name and size all still match, and the Merkle root too if the server has one.
+     * </pre>
      */
-    public java.lang.String getExplanation() {
-      java.lang.Object ref = explanation_;
+    public int getHandle() {
+      return handle_;
+    }
+
+    // required string file_name = 3;
+    public static final int FILE_NAME_FIELD_NUMBER = 3;
+    private java.lang.Object fileName_;
+    /**
+     * <code>required string file_name = 3;</code>
+     */
+    public boolean hasFileName() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>required string file_name = 3;</code>
+     */
+    public java.lang.String getFileName() {
+      java.lang.Object ref = fileName_;
       if (ref instanceof java.lang.String) {
         return (java.lang.String) ref;
       } else {
@@ -5759,38 +10389,137 @@ public final class Payfile {
             (com.google.protobuf.ByteString) ref;
         java.lang.String s = bs.toStringUtf8();
         if (bs.isValidUtf8()) {
-          explanation_ = s;
+          fileName_ = s;
         }
         return s;
       }
     }
     /**
-     * <code>optional string explanation = 2;</code>
+     * <code>required string file_name = 3;</code>
      */
     public com.google.protobuf.ByteString
-        getExplanationBytes() {
-      java.lang.Object ref = explanation_;
+        getFileNameBytes() {
+      java.lang.Object ref = fileName_;
       if (ref instanceof java.lang.String) {
         com.google.protobuf.ByteString b = 
             com.google.protobuf.ByteString.copyFromUtf8(
                 (java.lang.String) ref);
-        explanation_ = b;
+        fileName_ = b;
         return b;
       } else {
         return (com.google.protobuf.ByteString) ref;
       }
     }
 
+    // required uint64 size = 4;
+    public static final int SIZE_FIELD_NUMBER = 4;
+    private long size_;
+    /**
+     * <code>required uint64 size = 4;</code>
+     */
+    public boolean hasSize() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>required uint64 size = 4;</code>
+     */
+    public long getSize() {
+      return size_;
+    }
+
+    // required uint32 unit_size = 5;
+    public static final int UNIT_SIZE_FIELD_NUMBER = 5;
+    private int unitSize_;
+    /**
+     * <code>required uint32 unit_size = 5;</code>
+     *
+     * <pre>
+     * Bit i (in little endian order) of received is set when bytes [i * unit_size, (i + 1) * unit_size) of the file
+     * are safely on disk. The unit is the server's minimum chunk size, which every chunk is a multiple of.
+     * </pre>
+     */
+    public boolean hasUnitSize() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>required uint32 unit_size = 5;</code>
+     *
+     * <pre>
+     * Bit i (in little endian order) of received is set when bytes [i * unit_size, (i + 1) * unit_size) of the file
+     * are safely on disk. The unit is the server's minimum chunk size, which every chunk is a multiple of.
+     * </pre>
+     */
+    public int getUnitSize() {
+      return unitSize_;
+    }
+
+    // required bytes received = 6;
+    public static final int RECEIVED_FIELD_NUMBER = 6;
+    private com.google.protobuf.ByteString received_;
+    /**
+     * <code>required bytes received = 6;</code>
+     */
+    public boolean hasReceived() {
+      return ((bitField0_ & 0x00000020) == 0x00000020);
+    }
+    /**
+     * <code>required bytes received = 6;</code>
+     */
+    public com.google.protobuf.ByteString getReceived() {
+      return received_;
+    }
+
+    // optional bytes merkle_root = 7;
+    public static final int MERKLE_ROOT_FIELD_NUMBER = 7;
+    private com.google.protobuf.ByteString merkleRoot_;
+    /**
+     * <code>optional bytes merkle_root = 7;</code>
+     */
+    public boolean hasMerkleRoot() {
+      return ((bitField0_ & 0x00000040) == 0x00000040);
+    }
+    /**
+     * <code>optional bytes merkle_root = 7;</code>
+     */
+    public com.google.protobuf.ByteString getMerkleRoot() {
+      return merkleRoot_;
+    }
+
     private void initFields() {
-      code_ = "";
-      explanation_ = "";
+      server_ = "";
+      handle_ = 0;
+      fileName_ = "";
+      size_ = 0L;
+      unitSize_ = 0;
+      received_ = com.google.protobuf.ByteString.EMPTY;
+      merkleRoot_ = com.google.protobuf.ByteString.EMPTY;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
       byte isInitialized = memoizedIsInitialized;
       if (isInitialized != -1) return isInitialized == 1;
 
-      if (!hasCode()) {
+      if (!hasServer()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      if (!hasHandle()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      if (!hasFileName()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      if (!hasSize()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      if (!hasUnitSize()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      if (!hasReceived()) {
         memoizedIsInitialized = 0;
         return false;
       }
@@ -5802,10 +10531,25 @@ public final class Payfile {
                         throws java.io.IOException {
       getSerializedSize();
       if (((bitField0_ & 0x00000001) == 0x00000001)) {
-        output.writeBytes(1, getCodeBytes());
+        output.writeBytes(1, getServerBytes());
       }
       if (((bitField0_ & 0x00000002) == 0x00000002)) {
-        output.writeBytes(2, getExplanationBytes());
+        output.writeInt32(2, handle_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(3, getFileNameBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeUInt64(4, size_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeUInt32(5, unitSize_);
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        output.writeBytes(6, received_);
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        output.writeBytes(7, merkleRoot_);
       }
       getUnknownFields().writeTo(output);
     }
@@ -5818,11 +10562,31 @@ public final class Payfile {
       size = 0;
       if (((bitField0_ & 0x00000001) == 0x00000001)) {
         size += com.google.protobuf.CodedOutputStream
-          .computeBytesSize(1, getCodeBytes());
+          .computeBytesSize(1, getServerBytes());
       }
       if (((bitField0_ & 0x00000002) == 0x00000002)) {
         size += com.google.protobuf.CodedOutputStream
-          .computeBytesSize(2, getExplanationBytes());
+          .computeInt32Size(2, handle_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(3, getFileNameBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(4, size_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(5, unitSize_);
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(6, received_);
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(7, merkleRoot_);
       }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
@@ -5836,53 +10600,53 @@ public final class Payfile {
       return super.writeReplace();
     }
 
-    public static net.plan99.payfile.Payfile.Error parseFrom(
+    public static net.plan99.payfile.Payfile.DownloadProgress parseFrom(
         com.google.protobuf.ByteString data)
         throws com.google.protobuf.InvalidProtocolBufferException {
       return PARSER.parseFrom(data);
     }
-    public static net.plan99.payfile.Payfile.Error parseFrom(
+    public static net.plan99.payfile.Payfile.DownloadProgress parseFrom(
         com.google.protobuf.ByteString data,
         com.google.protobuf.ExtensionRegistryLite extensionRegistry)
         throws com.google.protobuf.InvalidProtocolBufferException {
       return PARSER.parseFrom(data, extensionRegistry);
     }
-    public static net.plan99.payfile.Payfile.Error parseFrom(byte[] data)
+    public static net.plan99.payfile.Payfile.DownloadProgress parseFrom(byte[] data)
         throws com.google.protobuf.InvalidProtocolBufferException {
       return PARSER.parseFrom(data);
     }
-    public static net.plan99.payfile.Payfile.Error parseFrom(
+    public static net.plan99.payfile.Payfile.DownloadProgress parseFrom(
         byte[] data,
         com.google.protobuf.ExtensionRegistryLite extensionRegistry)
         throws com.google.protobuf.InvalidProtocolBufferException {
       return PARSER.parseFrom(data, extensionRegistry);
     }
-    public static net.plan99.payfile.Payfile.Error parseFrom(java.io.InputStream input)
+    public static net.plan99.payfile.Payfile.DownloadProgress parseFrom(java.io.InputStream input)
         throws java.io.IOException {
       return PARSER.parseFrom(input);
     }
-    public static net.plan99.payfile.Payfile.Error parseFrom(
+    public static net.plan99.payfile.Payfile.DownloadProgress parseFrom(
         java.io.InputStream input,
         com.google.protobuf.ExtensionRegistryLite extensionRegistry)
         throws java.io.IOException {
       return PARSER.parseFrom(input, extensionRegistry);
     }
-    public static net.plan99.payfile.Payfile.Error parseDelimitedFrom(java.io.InputStream input)
+    public static net.plan99.payfile.Payfile.DownloadProgress parseDelimitedFrom(java.io.InputStream input)
         throws java.io.IOException {
       return PARSER.parseDelimitedFrom(input);
     }
-    public static net.plan99.payfile.Payfile.Error parseDelimitedFrom(
+    public static net.plan99.payfile.Payfile.DownloadProgress parseDelimitedFrom(
         java.io.InputStream input,
         com.google.protobuf.ExtensionRegistryLite extensionRegistry)
         throws java.io.IOException {
       return PARSER.parseDelimitedFrom(input, extensionRegistry);
     }
-    public static net.plan99.payfile.Payfile.Error parseFrom(
+    public static net.plan99.payfile.Payfile.DownloadProgress parseFrom(
         com.google.protobuf.CodedInputStream input)
         throws java.io.IOException {
       return PARSER.parseFrom(input);
     }
-    public static net.plan99.payfile.Payfile.Error parseFrom(
+    public static net.plan99.payfile.Payfile.DownloadProgress parseFrom(
         com.google.protobuf.CodedInputStream input,
         com.google.protobuf.ExtensionRegistryLite extensionRegistry)
         throws java.io.IOException {
@@ -5891,7 +10655,7 @@ public final class Payfile {
 
     public static Builder newBuilder() { return Builder.create(); }
     public Builder newBuilderForType() { return newBuilder(); }
-    public static Builder newBuilder(net.plan99.payfile.Payfile.Error prototype) {
+    public static Builder newBuilder(net.plan99.payfile.Payfile.DownloadProgress prototype) {
       return newBuilder().mergeFrom(prototype);
     }
     public Builder toBuilder() { return newBuilder(this); }
@@ -5903,24 +10667,29 @@ public final class Payfile {
       return builder;
     }
     /**
-     * Protobuf type {@code net.plan99.payfile.Error}
+     * Protobuf type {@code net.plan99.payfile.DownloadProgress}
+     *
+     * <pre>
+     * Never sent over the wire: clients keep one of these next to a file that's partly downloaded, so that after the
+     * connection drops or the program is restarted the download can carry on from where it got to.
+     * </pre>
      */
     public static final class Builder extends
         com.google.protobuf.GeneratedMessage.Builder<Builder>
-       implements net.plan99.payfile.Payfile.ErrorOrBuilder {
+       implements net.plan99.payfile.Payfile.DownloadProgressOrBuilder {
       public static final com.google.protobuf.Descriptors.Descriptor
           getDescriptor() {
-        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_descriptor;
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_DownloadProgress_descriptor;
       }
 
       protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
           internalGetFieldAccessorTable() {
-        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_fieldAccessorTable
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_DownloadProgress_fieldAccessorTable
             .ensureFieldAccessorsInitialized(
-                net.plan99.payfile.Payfile.Error.class, net.plan99.payfile.Payfile.Error.Builder.class);
+                net.plan99.payfile.Payfile.DownloadProgress.class, net.plan99.payfile.Payfile.DownloadProgress.Builder.class);
       }
 
-      // Construct using net.plan99.payfile.Payfile.Error.newBuilder()
+      // Construct using net.plan99.payfile.Payfile.DownloadProgress.newBuilder()
       private Builder() {
         maybeForceBuilderInitialization();
       }
@@ -5940,10 +10709,20 @@ public final class Payfile {
 
       public Builder clear() {
         super.clear();
-        code_ = "";
+        server_ = "";
         bitField0_ = (bitField0_ & ~0x00000001);
-        explanation_ = "";
+        handle_ = 0;
         bitField0_ = (bitField0_ & ~0x00000002);
+        fileName_ = "";
+        bitField0_ = (bitField0_ & ~0x00000004);
+        size_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000008);
+        unitSize_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000010);
+        received_ = com.google.protobuf.ByteString.EMPTY;
+        bitField0_ = (bitField0_ & ~0x00000020);
+        merkleRoot_ = com.google.protobuf.ByteString.EMPTY;
+        bitField0_ = (bitField0_ & ~0x00000040);
         return this;
       }
 
@@ -5953,65 +10732,120 @@ public final class Payfile {
 
       public com.google.protobuf.Descriptors.Descriptor
           getDescriptorForType() {
-        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_Error_descriptor;
+        return net.plan99.payfile.Payfile.internal_static_net_plan99_payfile_DownloadProgress_descriptor;
       }
 
-      public net.plan99.payfile.Payfile.Error getDefaultInstanceForType() {
-        return net.plan99.payfile.Payfile.Error.getDefaultInstance();
+      public net.plan99.payfile.Payfile.DownloadProgress getDefaultInstanceForType() {
+        return net.plan99.payfile.Payfile.DownloadProgress.getDefaultInstance();
       }
 
-      public net.plan99.payfile.Payfile.Error build() {
-        net.plan99.payfile.Payfile.Error result = buildPartial();
+      public net.plan99.payfile.Payfile.DownloadProgress build() {
+        net.plan99.payfile.Payfile.DownloadProgress result = buildPartial();
         if (!result.isInitialized()) {
           throw newUninitializedMessageException(result);
         }
         return result;
       }
 
-      public net.plan99.payfile.Payfile.Error buildPartial() {
-        net.plan99.payfile.Payfile.Error result = new net.plan99.payfile.Payfile.Error(this);
+      public net.plan99.payfile.Payfile.DownloadProgress buildPartial() {
+        net.plan99.payfile.Payfile.DownloadProgress result = new net.plan99.payfile.Payfile.DownloadProgress(this);
         int from_bitField0_ = bitField0_;
         int to_bitField0_ = 0;
         if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
           to_bitField0_ |= 0x00000001;
         }
-        result.code_ = code_;
+        result.server_ = server_;
         if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
           to_bitField0_ |= 0x00000002;
         }
-        result.explanation_ = explanation_;
+        result.handle_ = handle_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.fileName_ = fileName_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.size_ = size_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.unitSize_ = unitSize_;
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000020;
+        }
+        result.received_ = received_;
+        if (((from_bitField0_ & 0x00000040) == 0x00000040)) {
+          to_bitField0_ |= 0x00000040;
+        }
+        result.merkleRoot_ = merkleRoot_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
       }
 
       public Builder mergeFrom(com.google.protobuf.Message other) {
-        if (other instanceof net.plan99.payfile.Payfile.Error) {
-          return mergeFrom((net.plan99.payfile.Payfile.Error)other);
+        if (other instanceof net.plan99.payfile.Payfile.DownloadProgress) {
+          return mergeFrom((net.plan99.payfile.Payfile.DownloadProgress)other);
         } else {
           super.mergeFrom(other);
           return this;
         }
       }
 
-      public Builder mergeFrom(net.plan99.payfile.Payfile.Error other) {
-        if (other == net.plan99.payfile.Payfile.Error.getDefaultInstance()) return this;
-        if (other.hasCode()) {
+      public Builder mergeFrom(net.plan99.payfile.Payfile.DownloadProgress other) {
+        if (other == net.plan99.payfile.Payfile.DownloadProgress.getDefaultInstance()) return this;
+        if (other.hasServer()) {
           bitField0_ |= 0x00000001;
-          code_ = other.code_;
+          server_ = other.server_;
+          onChanged();
+        }
+        if (other.hasHandle()) {
+          setHandle(other.getHandle());
+        }
+        if (other.hasFileName()) {
+          bitField0_ |= 0x00000004;
+          fileName_ = other.fileName_;
           onChanged();
         }
-        if (other.hasExplanation()) {
-          bitField0_ |= 0x00000002;
-          explanation_ = other.explanation_;
-          onChanged();
+        if (other.hasSize()) {
+          setSize(other.getSize());
+        }
+        if (other.hasUnitSize()) {
+          setUnitSize(other.getUnitSize());
+        }
+        if (other.hasReceived()) {
+          setReceived(other.getReceived());
+        }
+        if (other.hasMerkleRoot()) {
+          setMerkleRoot(other.getMerkleRoot());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        if (!hasServer()) {
+          
+          return false;
+        }
+        if (!hasHandle()) {
+          
+          return false;
+        }
+        if (!hasFileName()) {
+          
+          return false;
+        }
+        if (!hasSize()) {
+          
+          return false;
+        }
+        if (!hasUnitSize()) {
+          
+          return false;
         }
-        this.mergeUnknownFields(other.getUnknownFields());
-        return this;
-      }
-
-      public final boolean isInitialized() {
-        if (!hasCode()) {
+        if (!hasReceived()) {
           
           return false;
         }
@@ -6022,11 +10856,11 @@ public final class Payfile {
           com.google.protobuf.CodedInputStream input,
           com.google.protobuf.ExtensionRegistryLite extensionRegistry)
           throws java.io.IOException {
-        net.plan99.payfile.Payfile.Error parsedMessage = null;
+        net.plan99.payfile.Payfile.DownloadProgress parsedMessage = null;
         try {
           parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
         } catch (com.google.protobuf.InvalidProtocolBufferException e) {
-          parsedMessage = (net.plan99.payfile.Payfile.Error) e.getUnfinishedMessage();
+          parsedMessage = (net.plan99.payfile.Payfile.DownloadProgress) e.getUnfinishedMessage();
           throw e;
         } finally {
           if (parsedMessage != null) {
@@ -6037,163 +10871,398 @@ public final class Payfile {
       }
       private int bitField0_;
 
-      // required string code = 1;
-      private java.lang.Object code_ = "";
+      // required string server = 1;
+      private java.lang.Object server_ = "";
       /**
-       * <code>required string code = 1;</code>
+       * <code>required string server = 1;</code>
+       *
+       * <pre>
+       * host:port of the server it's being downloaded from.
+       * </pre>
        */
-      public boolean hasCode() {
+      public boolean hasServer() {
         return ((bitField0_ & 0x00000001) == 0x00000001);
       }
       /**
-       * <code>required string code = 1;</code>
+       * <code>required string server = 1;</code>
+       *
+       * <pre>
+       * host:port of the server it's being downloaded from.
+       * </pre>
        */
-      public java.lang.String getCode() {
-        java.lang.Object ref = code_;
+      public java.lang.String getServer() {
+        java.lang.Object ref = server_;
         if (!(ref instanceof java.lang.String)) {
           java.lang.String s = ((com.google.protobuf.ByteString) ref)
               .toStringUtf8();
-          code_ = s;
+          server_ = s;
           return s;
         } else {
           return (java.lang.String) ref;
         }
       }
       /**
-       * <code>required string code = 1;</code>
+       * <code>required string server = 1;</code>
+       *
+       * <pre>
+       * host:port of the server it's being downloaded from.
+       * </pre>
        */
       public com.google.protobuf.ByteString
-          getCodeBytes() {
-        java.lang.Object ref = code_;
+          getServerBytes() {
+        java.lang.Object ref = server_;
         if (ref instanceof String) {
           com.google.protobuf.ByteString b = 
               com.google.protobuf.ByteString.copyFromUtf8(
                   (java.lang.String) ref);
-          code_ = b;
+          server_ = b;
           return b;
         } else {
           return (com.google.protobuf.ByteString) ref;
         }
       }
       /**
-       * <code>required string code = 1;</code>
+       * <code>required string server = 1;</code>
+       *
+       * <pre>
+       * host:port of the server it's being downloaded from.
+       * </pre>
        */
-      public Builder setCode(
+      public Builder setServer(
           java.lang.String value) {
         if (value == null) {
     throw new NullPointerException();
   }
   bitField0_ |= 0x00000001;
-        code_ = value;
+        server_ = value;
         onChanged();
         return this;
       }
       /**
-       * <code>required string code = 1;</code>
+       * <code>required string server = 1;</code>
+       *
+       * <pre>
+       * host:port of the server it's being downloaded from.
+       * </pre>
        */
-      public Builder clearCode() {
+      public Builder clearServer() {
         bitField0_ = (bitField0_ & ~0x00000001);
-        code_ = getDefaultInstance().getCode();
+        server_ = getDefaultInstance().getServer();
         onChanged();
         return this;
       }
       /**
-       * <code>required string code = 1;</code>
+       * <code>required string server = 1;</code>
+       *
+       * <pre>
+       * host:port of the server it's being downloaded from.
+       * </pre>
        */
-      public Builder setCodeBytes(
+      public Builder setServerBytes(
           com.google.protobuf.ByteString value) {
         if (value == null) {
     throw new NullPointerException();
   }
   bitField0_ |= 0x00000001;
-        code_ = value;
+        server_ = value;
         onChanged();
         return this;
       }
 
-      // optional string explanation = 2;
-      private java.lang.Object explanation_ = "";
+      // required int32 handle = 2;
+      private int handle_ ;
       /**
-       * <code>optional string explanation = 2;</code>
+       * <code>required int32 handle = 2;</code>
+       *
+       * <pre>
+       * The server gives a file a new handle whenever its contents change, so a partial download is only carried on
+       * with if the handle, name and size all still match, and the Merkle root too if the server has one.
+       * </pre>
        */
-      public boolean hasExplanation() {
+      public boolean hasHandle() {
         return ((bitField0_ & 0x00000002) == 0x00000002);
       }
       /**
-       * <code>optional string explanation = 2;</code>
+       * <code>required int32 handle = 2;</code>
+       *
+       * <pre>
+       * The server gives a file a new handle whenever its contents change, so a partial download is only carried on
+       * with if the handle, name and size all still match, and the Merkle root too if the server has one.
+       * </pre>
        */
-      public java.lang.String getExplanation() {
-        java.lang.Object ref = explanation_;
+      public int getHandle() {
+        return handle_;
+      }
+      /**
+       * <code>required int32 handle = 2;</code>
+       *
+       * <pre>
+       * The server gives a file a new handle whenever its contents change, so a partial download is only carried on
+       * with if the handle, name and size all still match, and the Merkle root too if the server has one.
+       * </pre>
+       */
+      public Builder setHandle(int value) {
+        bitField0_ |= 0x00000002;
+        handle_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required int32 handle = 2;</code>
+       *
+       * <pre>
+       * The server gives a file a new handle whenever its contents change, so a partial download is only carried on
+       * with if the handle, name and size all still match, and the Merkle root too if the server has one.
+       * </pre>
+       */
+      public Builder clearHandle() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        handle_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // required string file_name = 3;
+      private java.lang.Object fileName_ = "";
+      /**
+       * <code>required string file_name = 3;</code>
+       */
+      public boolean hasFileName() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>required string file_name = 3;</code>
+       */
+      public java.lang.String getFileName() {
+        java.lang.Object ref = fileName_;
         if (!(ref instanceof java.lang.String)) {
           java.lang.String s = ((com.google.protobuf.ByteString) ref)
               .toStringUtf8();
-          explanation_ = s;
+          fileName_ = s;
           return s;
         } else {
           return (java.lang.String) ref;
         }
       }
       /**
-       * <code>optional string explanation = 2;</code>
+       * <code>required string file_name = 3;</code>
        */
       public com.google.protobuf.ByteString
-          getExplanationBytes() {
-        java.lang.Object ref = explanation_;
+          getFileNameBytes() {
+        java.lang.Object ref = fileName_;
         if (ref instanceof String) {
           com.google.protobuf.ByteString b = 
               com.google.protobuf.ByteString.copyFromUtf8(
                   (java.lang.String) ref);
-          explanation_ = b;
+          fileName_ = b;
           return b;
         } else {
           return (com.google.protobuf.ByteString) ref;
         }
       }
       /**
-       * <code>optional string explanation = 2;</code>
+       * <code>required string file_name = 3;</code>
        */
-      public Builder setExplanation(
+      public Builder setFileName(
           java.lang.String value) {
         if (value == null) {
     throw new NullPointerException();
   }
-  bitField0_ |= 0x00000002;
-        explanation_ = value;
+  bitField0_ |= 0x00000004;
+        fileName_ = value;
         onChanged();
         return this;
       }
       /**
-       * <code>optional string explanation = 2;</code>
+       * <code>required string file_name = 3;</code>
        */
-      public Builder clearExplanation() {
-        bitField0_ = (bitField0_ & ~0x00000002);
-        explanation_ = getDefaultInstance().getExplanation();
+      public Builder clearFileName() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        fileName_ = getDefaultInstance().getFileName();
         onChanged();
         return this;
       }
       /**
-       * <code>optional string explanation = 2;</code>
+       * <code>required string file_name = 3;</code>
        */
-      public Builder setExplanationBytes(
+      public Builder setFileNameBytes(
           com.google.protobuf.ByteString value) {
         if (value == null) {
     throw new NullPointerException();
   }
-  bitField0_ |= 0x00000002;
-        explanation_ = value;
+  bitField0_ |= 0x00000004;
+        fileName_ = value;
         onChanged();
         return this;
       }
 
-      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.Error)
+      // required uint64 size = 4;
+      private long size_ ;
+      /**
+       * <code>required uint64 size = 4;</code>
+       */
+      public boolean hasSize() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>required uint64 size = 4;</code>
+       */
+      public long getSize() {
+        return size_;
+      }
+      /**
+       * <code>required uint64 size = 4;</code>
+       */
+      public Builder setSize(long value) {
+        bitField0_ |= 0x00000008;
+        size_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required uint64 size = 4;</code>
+       */
+      public Builder clearSize() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        size_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // required uint32 unit_size = 5;
+      private int unitSize_ ;
+      /**
+       * <code>required uint32 unit_size = 5;</code>
+       *
+       * <pre>
+       * Bit i (in little endian order) of received is set when bytes [i * unit_size, (i + 1) * unit_size) of the file
+       * are safely on disk. The unit is the server's minimum chunk size, which every chunk is a multiple of.
+       * </pre>
+       */
+      public boolean hasUnitSize() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>required uint32 unit_size = 5;</code>
+       *
+       * <pre>
+       * Bit i (in little endian order) of received is set when bytes [i * unit_size, (i + 1) * unit_size) of the file
+       * are safely on disk. The unit is the server's minimum chunk size, which every chunk is a multiple of.
+       * </pre>
+       */
+      public int getUnitSize() {
+        return unitSize_;
+      }
+      /**
+       * <code>required uint32 unit_size = 5;</code>
+       *
+       * <pre>
+       * Bit i (in little endian order) of received is set when bytes [i * unit_size, (i + 1) * unit_size) of the file
+       * are safely on disk. The unit is the server's minimum chunk size, which every chunk is a multiple of.
+       * </pre>
+       */
+      public Builder setUnitSize(int value) {
+        bitField0_ |= 0x00000010;
+        unitSize_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required uint32 unit_size = 5;</code>
+       *
+       * <pre>
+       * Bit i (in little endian order) of received is set when bytes [i * unit_size, (i + 1) * unit_size) of the file
+       * are safely on disk. The unit is the server's minimum chunk size, which every chunk is a multiple of.
+       * </pre>
+       */
+      public Builder clearUnitSize() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        unitSize_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // required bytes received = 6;
+      private com.google.protobuf.ByteString received_ = com.google.protobuf.ByteString.EMPTY;
+      /**
+       * <code>required bytes received = 6;</code>
+       */
+      public boolean hasReceived() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      /**
+       * <code>required bytes received = 6;</code>
+       */
+      public com.google.protobuf.ByteString getReceived() {
+        return received_;
+      }
+      /**
+       * <code>required bytes received = 6;</code>
+       */
+      public Builder setReceived(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        received_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>required bytes received = 6;</code>
+       */
+      public Builder clearReceived() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        received_ = getDefaultInstance().getReceived();
+        onChanged();
+        return this;
+      }
+
+      // optional bytes merkle_root = 7;
+      private com.google.protobuf.ByteString merkleRoot_ = com.google.protobuf.ByteString.EMPTY;
+      /**
+       * <code>optional bytes merkle_root = 7;</code>
+       */
+      public boolean hasMerkleRoot() {
+        return ((bitField0_ & 0x00000040) == 0x00000040);
+      }
+      /**
+       * <code>optional bytes merkle_root = 7;</code>
+       */
+      public com.google.protobuf.ByteString getMerkleRoot() {
+        return merkleRoot_;
+      }
+      /**
+       * <code>optional bytes merkle_root = 7;</code>
+       */
+      public Builder setMerkleRoot(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000040;
+        merkleRoot_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bytes merkle_root = 7;</code>
+       */
+      public Builder clearMerkleRoot() {
+        bitField0_ = (bitField0_ & ~0x00000040);
+        merkleRoot_ = getDefaultInstance().getMerkleRoot();
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:net.plan99.payfile.DownloadProgress)
     }
 
     static {
-      defaultInstance = new Error(true);
+      defaultInstance = new DownloadProgress(true);
       defaultInstance.initFields();
     }
 
-    // @@protoc_insertion_point(class_scope:net.plan99.payfile.Error)
+    // @@protoc_insertion_point(class_scope:net.plan99.payfile.DownloadProgress)
   }
 
   private static com.google.protobuf.Descriptors.Descriptor
@@ -6226,11 +11295,26 @@ public final class Payfile {
   private static
     com.google.protobuf.GeneratedMessage.FieldAccessorTable
       internal_static_net_plan99_payfile_Data_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_net_plan99_payfile_MerkleProof_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_net_plan99_payfile_MerkleProof_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_net_plan99_payfile_Credit_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_net_plan99_payfile_Credit_fieldAccessorTable;
   private static com.google.protobuf.Descriptors.Descriptor
     internal_static_net_plan99_payfile_Error_descriptor;
   private static
     com.google.protobuf.GeneratedMessage.FieldAccessorTable
       internal_static_net_plan99_payfile_Error_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_net_plan99_payfile_DownloadProgress_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_net_plan99_payfile_DownloadProgress_fieldAccessorTable;
 
   public static com.google.protobuf.Descriptors.FileDescriptor
       getDescriptor() {
@@ -6240,7 +11324,7 @@ public final class Payfile {
       descriptor;
   static {
     java.lang.String[] descriptorData = {
-      "\n\rpayfile.proto\022\022net.plan99.payfile\"\247\003\n\016" +
+      "\n\rpayfile.proto\022\022net.plan99.payfile\"\232\004\n\016" +
       "PayFileMessage\0225\n\004type\030\001 \002(\0162\'.net.plan9" +
       "9.payfile.PayFileMessage.Type\0223\n\013query_f" +
       "iles\030\002 \001(\0132\036.net.plan99.payfile.QueryFil" +
@@ -6249,19 +11333,36 @@ public final class Payfile {
       "chunk\030\005 \001(\0132!.net.plan99.payfile.Downloa" +
       "dChunk\022&\n\004data\030\006 \001(\0132\030.net.plan99.payfil" +
       "e.Data\022(\n\005error\030\007 \001(\0132\031.net.plan99.payfi" +
-      "le.Error\"[\n\004Type\022\017\n\013QUERY_FILES\020\001\022\014\n\010MAN",
-      "IFEST\020\002\022\013\n\007PAYMENT\020\003\022\022\n\016DOWNLOAD_CHUNK\020\004" +
-      "\022\010\n\004DATA\020\005\022\t\n\005ERROR\020\006\"9\n\nQueryFiles\022\022\n\nu" +
-      "ser_agent\030\001 \002(\t\022\027\n\017bitcoin_network\030\002 \002(\t" +
-      "\"e\n\004File\022\021\n\tfile_name\030\001 \002(\t\022\014\n\004size\030\002 \002(" +
-      "\003\022\023\n\013description\030\003 \001(\t\022\027\n\017price_per_chun" +
-      "k\030\004 \002(\005\022\016\n\006handle\030\005 \002(\005\"G\n\010Manifest\022\'\n\005f" +
-      "iles\030\001 \003(\0132\030.net.plan99.payfile.File\022\022\n\n" +
-      "chunk_size\030\002 \002(\005\"H\n\rDownloadChunk\022\016\n\006han" +
-      "dle\030\001 \002(\005\022\020\n\010chunk_id\030\002 \002(\003\022\025\n\nnum_chunk" +
-      "s\030\003 \001(\005:\0011\"6\n\004Data\022\016\n\006handle\030\001 \002(\005\022\020\n\010ch",
-      "unk_id\030\002 \002(\003\022\014\n\004data\030\003 \002(\014\"*\n\005Error\022\014\n\004c" +
-      "ode\030\001 \002(\t\022\023\n\013explanation\030\002 \001(\t"
+      "le.Error\022*\n\006credit\030\010 \001(\0132\032.net.plan99.pa",
+      "yfile.Credit\022.\n\005proof\030\t \001(\0132\037.net.plan99" +
+      ".payfile.MerkleProof\"r\n\004Type\022\017\n\013QUERY_FI" +
+      "LES\020\001\022\014\n\010MANIFEST\020\002\022\013\n\007PAYMENT\020\003\022\022\n\016DOWN" +
+      "LOAD_CHUNK\020\004\022\010\n\004DATA\020\005\022\t\n\005ERROR\020\006\022\n\n\006CRE" +
+      "DIT\020\007\022\t\n\005PROOF\020\010\"\263\001\n\nQueryFiles\022\022\n\nuser_" +
+      "agent\030\001 \002(\t\022\027\n\017bitcoin_network\030\002 \002(\t\022\020\n\010" +
+      "raw_data\030\003 \001(\010\022\016\n\006cursor\030\004 \001(\t\022\021\n\tpage_s" +
+      "ize\030\005 \001(\r\022\025\n\rknown_version\030\006 \001(\t\022\025\n\rcred" +
+      "it_grants\030\007 \001(\010\022\025\n\rmerkle_proofs\030\010 \001(\010\"z" +
+      "\n\004File\022\021\n\tfile_name\030\001 \002(\t\022\014\n\004size\030\002 \002(\003\022",
+      "\023\n\013description\030\003 \001(\t\022\027\n\017price_per_chunk\030" +
+      "\004 \002(\005\022\016\n\006handle\030\005 \002(\005\022\023\n\013merkle_root\030\006 \001" +
+      "(\014\"\305\001\n\010Manifest\022\'\n\005files\030\001 \003(\0132\030.net.pla" +
+      "n99.payfile.File\022\022\n\nchunk_size\030\002 \002(\005\022\020\n\010" +
+      "raw_data\030\003 \001(\010\022\023\n\013next_cursor\030\004 \001(\t\022\017\n\007v" +
+      "ersion\030\005 \001(\t\022\024\n\014not_modified\030\006 \001(\010\022\026\n\016mi" +
+      "n_chunk_size\030\007 \001(\005\022\026\n\016max_chunk_size\030\010 \001" +
+      "(\005\"l\n\rDownloadChunk\022\016\n\006handle\030\001 \002(\005\022\020\n\010c" +
+      "hunk_id\030\002 \002(\003\022\025\n\nnum_chunks\030\003 \001(\005:\0011\022\022\n\n" +
+      "chunk_size\030\004 \001(\005\022\016\n\006resend\030\005 \001(\010\"6\n\004Data",
+      "\022\016\n\006handle\030\001 \002(\005\022\020\n\010chunk_id\030\002 \002(\003\022\014\n\004da" +
+      "ta\030\003 \002(\014\"?\n\013MerkleProof\022\016\n\006handle\030\001 \002(\005\022" +
+      "\020\n\010chunk_id\030\002 \002(\003\022\016\n\006hashes\030\003 \002(\014\"\031\n\006Cre" +
+      "dit\022\017\n\007granted\030\001 \002(\003\"*\n\005Error\022\014\n\004code\030\001 " +
+      "\002(\t\022\023\n\013explanation\030\002 \001(\t\"\215\001\n\020DownloadPro" +
+      "gress\022\016\n\006server\030\001 \002(\t\022\016\n\006handle\030\002 \002(\005\022\021\n" +
+      "\tfile_name\030\003 \002(\t\022\014\n\004size\030\004 \002(\004\022\021\n\tunit_s" +
+      "ize\030\005 \002(\r\022\020\n\010received\030\006 \002(\014\022\023\n\013merkle_ro" +
+      "ot\030\007 \001(\014"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -6273,43 +11374,61 @@ public final class Payfile {
           internal_static_net_plan99_payfile_PayFileMessage_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_net_plan99_payfile_PayFileMessage_descriptor,
-              new java.lang.String[] { "Type", "QueryFiles", "Manifest", "Payment", "DownloadChunk", "Data", "Error", });
+              new java.lang.String[] { "Type", "QueryFiles", "Manifest", "Payment", "DownloadChunk", "Data", "Error", "Credit", "Proof", });
           internal_static_net_plan99_payfile_QueryFiles_descriptor =
             getDescriptor().getMessageTypes().get(1);
           internal_static_net_plan99_payfile_QueryFiles_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_net_plan99_payfile_QueryFiles_descriptor,
-              new java.lang.String[] { "UserAgent", "BitcoinNetwork", });
+              new java.lang.String[] { "UserAgent", "BitcoinNetwork", "RawData", "Cursor", "PageSize", "KnownVersion", "CreditGrants", "MerkleProofs", });
           internal_static_net_plan99_payfile_File_descriptor =
             getDescriptor().getMessageTypes().get(2);
           internal_static_net_plan99_payfile_File_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_net_plan99_payfile_File_descriptor,
-              new java.lang.String[] { "FileName", "Size", "Description", "PricePerChunk", "Handle", });
+              new java.lang.String[] { "FileName", "Size", "Description", "PricePerChunk", "Handle", "MerkleRoot", });
           internal_static_net_plan99_payfile_Manifest_descriptor =
             getDescriptor().getMessageTypes().get(3);
           internal_static_net_plan99_payfile_Manifest_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_net_plan99_payfile_Manifest_descriptor,
-              new java.lang.String[] { "Files", "ChunkSize", });
+              new java.lang.String[] { "Files", "ChunkSize", "RawData", "NextCursor", "Version", "NotModified", "MinChunkSize", "MaxChunkSize", });
           internal_static_net_plan99_payfile_DownloadChunk_descriptor =
             getDescriptor().getMessageTypes().get(4);
           internal_static_net_plan99_payfile_DownloadChunk_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_net_plan99_payfile_DownloadChunk_descriptor,
-              new java.lang.String[] { "Handle", "ChunkId", "NumChunks", });
+              new java.lang.String[] { "Handle", "ChunkId", "NumChunks", "ChunkSize", "Resend", });
           internal_static_net_plan99_payfile_Data_descriptor =
             getDescriptor().getMessageTypes().get(5);
           internal_static_net_plan99_payfile_Data_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_net_plan99_payfile_Data_descriptor,
               new java.lang.String[] { "Handle", "ChunkId", "Data", });
-          internal_static_net_plan99_payfile_Error_descriptor =
+          internal_static_net_plan99_payfile_MerkleProof_descriptor =
             getDescriptor().getMessageTypes().get(6);
+          internal_static_net_plan99_payfile_MerkleProof_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_net_plan99_payfile_MerkleProof_descriptor,
+              new java.lang.String[] { "Handle", "ChunkId", "Hashes", });
+          internal_static_net_plan99_payfile_Credit_descriptor =
+            getDescriptor().getMessageTypes().get(7);
+          internal_static_net_plan99_payfile_Credit_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_net_plan99_payfile_Credit_descriptor,
+              new java.lang.String[] { "Granted", });
+          internal_static_net_plan99_payfile_Error_descriptor =
+            getDescriptor().getMessageTypes().get(8);
           internal_static_net_plan99_payfile_Error_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_net_plan99_payfile_Error_descriptor,
               new java.lang.String[] { "Code", "Explanation", });
+          internal_static_net_plan99_payfile_DownloadProgress_descriptor =
+            getDescriptor().getMessageTypes().get(9);
+          internal_static_net_plan99_payfile_DownloadProgress_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_net_plan99_payfile_DownloadProgress_descriptor,
+              new java.lang.String[] { "Server", "Handle", "FileName", "Size", "UnitSize", "Received", "MerkleRoot", });
           return null;
         }
       };
@@ -0,0 +1,45 @@
+package net.plan99.payfile;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A raw DATA frame carries the same information as a {@link Payfile.Data} message, but puts the chunk straight
+ * after a small fixed size header instead of wrapping it in a protobuf. That lets the server send it with
+ * {@link java.nio.channels.FileChannel#transferTo} (sendfile) and the client write it to disk without parsing it.
+ * Servers only send raw frames to clients that set QueryFiles.raw_data, and say they will by setting
+ * Manifest.raw_data.</p>
+ *
+ * <p>Normal frames start with a big endian length prefix for the protobuf that follows. Raw frames set the top bit of
+ * that prefix, which can never be set for a real length, so the layout is:</p>
+ *
+ * <pre>
+ *   int32  RAW_FLAG | payload length
+ *   int32  handle
+ *   int64  chunk id
+ *   bytes  payload
+ * </pre>
+ */
+public class RawDataFrame {
+    public static final int RAW_FLAG = 0x80000000;
+    /** Size of the header, including the length prefix. */
+    public static final int HEADER_SIZE = 4 + 4 + 8;
+
+    public static boolean isRaw(int prefix) {
+        return (prefix & RAW_FLAG) != 0;
+    }
+
+    public static int payloadLength(int prefix) {
+        return prefix & ~RAW_FLAG;
+    }
+
+    /** Returns a buffer containing the header, ready to be written. */
+    public static ByteBuffer header(int handle, long chunkId, int payloadLength) {
+        checkArgument(payloadLength >= 0, "Negative payload length");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(RAW_FLAG | payloadLength).putInt(handle).putLong(chunkId);
+        header.flip();
+        return header;
+    }
+}
@@ -30,25 +30,35 @@ import joptsimple.BuiltinHelpFormatter;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static joptsimple.util.RegexMatcher.regex;
 
 public class CLI {
     public static NetworkParameters params;
     private static String filePrefix;
+    private static int connections = 1;
+    private static List<String> mirrorAddresses = new ArrayList<>();
 
     private PayFileClient client;
+    // Other servers with the same files, which get downloads from them too.
+    private List<PayFileClient> mirrors = new ArrayList<>();
     private List<PayFileClient.File> files;
     private WalletAppKit appkit;
 
-    public CLI(Socket socket) throws IOException {
+    public CLI(Socket socket, boolean virtualThreads) throws IOException {
         appkit = new WalletAppKit(params, new File("."), filePrefix + "payfile-cli") {
             @Override
             protected void addWalletExtensions() throws Exception {
@@ -80,18 +90,34 @@ public class CLI {
         });
         System.out.println("Send coins to " + appkit.wallet().getKeys().get(0).toAddress(params));
         System.out.println("Your balance is " + Utils.bitcoinValueToFriendlyString(appkit.wallet().getBalance()));
-        client = new PayFileClient(socket, appkit.wallet());
+        client = new PayFileClient(socket, appkit.wallet(), virtualThreads);
+        client.setManifestCache(new ManifestCache(new File(".", filePrefix + "payfile-cli-manifests")));
+        for (String address : mirrorAddresses) {
+            final int colon = address.lastIndexOf(':');
+            final String host = colon < 0 ? address : address.substring(0, colon);
+            final int port = colon < 0 ? PayFileClient.PORT : Integer.parseInt(address.substring(colon + 1));
+            System.out.println("Connecting to mirror " + address);
+            PayFileClient mirror = new PayFileClient(new Socket(host, port), appkit.wallet(), virtualThreads);
+            mirror.setManifestCache(new ManifestCache(new File(".", filePrefix + "payfile-cli-manifests")));
+            mirrors.add(mirror);
+        }
     }
 
     public void shutdown() {
         client.disconnect();
+        for (PayFileClient mirror : mirrors)
+            mirror.disconnect();
         appkit.stopAndWait();
     }
 
     @Command(description = "Show the files advertised by the remote server")
     public void ls() throws Exception {
-        files = client.queryFiles().get();
-        for (PayFileClient.File file : files) {
+        // Print each page as it arrives rather than waiting for the whole catalog.
+        files = new ArrayList<>();
+        Iterator<PayFileClient.File> it = client.iterateFiles();
+        while (it.hasNext()) {
+            PayFileClient.File file = it.next();
+            files.add(file);
             String priceMessage = Utils.bitcoinValueToFriendlyString(BigInteger.valueOf(file.getPrice()));
             String affordability = file.isAffordable() ? "" : ", unaffordable";
             String str = String.format("%d)  [%d bytes, %s%s] \"%s\" :  %s", file.getHandle(),
@@ -126,22 +152,92 @@ public class CLI {
             System.out.println("Unknown file handle " + handle);
             return;
         }
-        File output = new File(dir, fileName);
+        File output = serverFile.getLocalFile(dir);
         final PayFileClient.File fServerFile = serverFile;
-        FileOutputStream stream = new FileOutputStream(output) {
-            @Override
-            public void write(byte[] b) throws IOException {
-                super.write(b);
-                final long bytesDownloaded = fServerFile.getBytesDownloaded();
-                double percentDone = bytesDownloaded / (double) fServerFile.getSize() * 100;
-                System.out.println(String.format("Downloaded %d kilobytes [%.2f%% done]", bytesDownloaded / 1024, percentDone));
+        if (!mirrors.isEmpty()) {
+            List<SwarmDownload.Source> sources = new ArrayList<>();
+            sources.add(new SwarmDownload.Source(client, serverFile));
+            // A mirror has to match every source so far, not just the first, in case only some have Merkle roots.
+            List<PayFileClient.File> matched = new ArrayList<>();
+            matched.add(serverFile);
+            for (PayFileClient mirror : mirrors) {
+                for (PayFileClient.File f : mirror.queryFiles().get()) {
+                    if (matched.stream().allMatch(m -> SwarmDownload.isSameFile(f, m))) {
+                        sources.add(new SwarmDownload.Source(mirror, f));
+                        matched.add(f);
+                        break;
+                    }
+                }
             }
-        };
-        client.downloadFile(serverFile, stream).get();
+            System.out.println(String.format("Downloading from %d servers", sources.size()));
+            final AtomicLong bytesDownloaded = new AtomicLong();
+            SwarmDownload.start(sources, output, (bytes) -> {
+                double percentDone = bytesDownloaded.addAndGet(bytes) / (double) fServerFile.getSize() * 100;
+                System.out.println(String.format("Downloaded %d kilobytes [%.2f%% done]", bytesDownloaded.get() / 1024, percentDone));
+            }).get();
+            System.out.println(String.format("Downloaded %s successfully.", fileName));
+            System.out.println(String.format("You have %s remaining.", Utils.bitcoinValueToFriendlyString(client.getRemainingBalance())));
+            return;
+        }
+        if (connections > 1) {
+            final AtomicLong bytesDownloaded = new AtomicLong();
+            SegmentedDownload.start(client, serverFile, output, connections, (bytes) -> {
+                double percentDone = bytesDownloaded.addAndGet(bytes) / (double) fServerFile.getSize() * 100;
+                System.out.println(String.format("Downloaded %d kilobytes [%.2f%% done]", bytesDownloaded.get() / 1024, percentDone));
+            }).get();
+            System.out.println(String.format("Downloaded %s successfully.", fileName));
+            System.out.println(String.format("You have %s remaining.", Utils.bitcoinValueToFriendlyString(client.getRemainingBalance())));
+            return;
+        }
+        // Picks up where it left off, if an earlier attempt to download the file here was cut short.
+        final AtomicLong bytesDownloaded = new AtomicLong();
+        client.downloadFile(serverFile, output, (bytes) -> {
+            double percentDone = bytesDownloaded.addAndGet(bytes) / (double) fServerFile.getSize() * 100;
+            System.out.println(String.format("Downloaded %d kilobytes [%.2f%% done]", bytesDownloaded.get() / 1024, percentDone));
+        }).get();
         System.out.println(String.format("Downloaded %s successfully.", fileName));
         System.out.println(String.format("You have %s remaining.", Utils.bitcoinValueToFriendlyString(client.getRemainingBalance())));
     }
 
+    @Command(description = "Download every file the server has to the given directory, all at the same time")
+    public void getAll(
+            @Param(name="directory", description="Directory to save the files to") String directory) throws Exception {
+        if (files == null) {
+            System.out.println("Fetching file list ...");
+            files = client.queryFiles().get();
+        }
+        File dir = new File(directory);
+        if (!dir.isDirectory()) {
+            System.out.println(directory + " is not a directory");
+            return;
+        }
+        List<CompletableFuture<Void>> downloads = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (PayFileClient.File f : files) {
+            if (!f.isAffordable()) {
+                System.out.println(String.format("Skipping %s, which you can't afford", f.getFileName()));
+                continue;
+            }
+            downloads.add(client.downloadFile(f, f.getLocalFile(dir), null).whenComplete((v, ex) -> {
+                if (ex == null) {
+                    System.out.println(String.format("Downloaded %s", f.getFileName()));
+                } else {
+                    failures.incrementAndGet();
+                    System.out.println(String.format("Failed to download %s: %s", f.getFileName(), ex.getMessage()));
+                }
+            }));
+        }
+        for (CompletableFuture<Void> download : downloads) {
+            try {
+                download.get();
+            } catch (ExecutionException ignored) {
+                // Already reported.
+            }
+        }
+        System.out.println(String.format("Downloaded %d of %d files.", downloads.size() - failures.get(), downloads.size()));
+        System.out.println(String.format("You have %s remaining.", Utils.bitcoinValueToFriendlyString(client.getRemainingBalance())));
+    }
+
     @Command(description = "Print info about your wallet")
     public void wallet() {
         System.out.println(appkit.wallet().toString(false, true, true, appkit.chain()));
@@ -155,6 +251,17 @@ public class CLI {
         OptionParser parser = new OptionParser();
         parser.accepts("network").withRequiredArg().withValuesConvertedBy(regex("(mainnet)|(testnet)|(regtest)")).defaultsTo("mainnet");
         parser.accepts("server").withRequiredArg().required();
+        parser.accepts("virtual-threads", "Read from the server on a virtual thread");
+        OptionSpec<Integer> window = parser.accepts("window-kb", "Kilobytes to request ahead of what has arrived, 0 to tune automatically")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<Integer> prepaidChunks = parser.accepts("prepaid-chunks", "How many chunks to pay for in advance with each payment")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(PayFileClient.DEFAULT_PREPAID_CHUNKS);
+        OptionSpec<Long> maxAtRisk = parser.accepts("max-at-risk", "Most satoshis to have paid for data not yet received")
+                .withRequiredArg().ofType(Long.class).defaultsTo(PayFileClient.DEFAULT_MAX_AMOUNT_AT_RISK);
+        OptionSpec<Integer> connectionsOption = parser.accepts("connections", "Connections to download each file over with get")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec<String> mirror = parser.accepts("mirror", "Another server with the same files, for get to download from too (host[:port], repeatable)")
+                .withRequiredArg();
         parser.accepts("help").forHelp();
         parser.formatHelpWith(new BuiltinHelpFormatter(120, 10));
         OptionSet options;
@@ -184,10 +291,19 @@ public class CLI {
             filePrefix = "regtest-";
         }
 
+        connections = options.valueOf(connectionsOption);
+        mirrorAddresses = options.valuesOf(mirror);
+        if (connections < 1 || connections > PayFileClient.MAX_CONNECTIONS) {
+            System.err.println("--connections must be between 1 and " + PayFileClient.MAX_CONNECTIONS);
+            return;
+        }
+
         String server = options.valueOf("server").toString();
         System.out.println("Connecting to " + server);
         Socket socket = new Socket(server, 18754);
-        final CLI cli = new CLI(socket);
+        final CLI cli = new CLI(socket, options.has("virtual-threads"));
+        cli.client.setDownloadWindow(options.valueOf(window) * 1024L);
+        cli.client.setPaymentBatching(options.valueOf(prepaidChunks), options.valueOf(maxAtRisk));
         ShellFactory.createConsoleShell(server, "PayFile", cli).commandLoop();
         cli.shutdown();
     }
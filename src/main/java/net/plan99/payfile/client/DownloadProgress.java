@@ -0,0 +1,234 @@
+package net.plan99.payfile.client;
+
+import com.google.protobuf.ByteString;
+import net.plan99.payfile.Payfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Remembers which parts of a download are on disk, in a file next to it, so that if the connection drops or the
+ * program is stopped part way through, {@link PayFileClient#downloadFile(PayFileClient.File, java.io.File,
+ * java.util.function.LongConsumer)} can carry on from the first missing chunk rather than paying for the whole file
+ * again. The record is only brought up to date after the data it covers has been forced to disk, so it may be a bit
+ * behind the file but is never ahead of it.
+ */
+class DownloadProgress {
+    private static final Logger log = LoggerFactory.getLogger(DownloadProgress.class);
+    private static final String SUFFIX = ".payfile-progress";
+    // Forcing the file to disk isn't free, so the record is saved at most this often whilst data is coming in.
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final java.io.File destination;
+    private final String server;
+    private final int handle;
+    private final String fileName;
+    private final long size;
+    @Nullable private final byte[] merkleRoot;
+    private final int unitSize;
+    // Guards received and the writer below, which are used by the reader thread and whoever gives up on the download.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final BitSet received;
+
+    private DownloadProgress(java.io.File destination, String server, int handle, String fileName, long size,
+                             @Nullable byte[] merkleRoot, int unitSize, BitSet received) {
+        this.destination = destination;
+        this.server = server;
+        this.handle = handle;
+        this.fileName = fileName;
+        this.size = size;
+        this.merkleRoot = merkleRoot;
+        this.unitSize = unitSize;
+        this.received = received;
+    }
+
+    /**
+     * Returns the progress of downloading the file from the given server into destination, picking up what was saved
+     * last time if it's for the same file and the partial file is still there, or starting from nothing if not.
+     */
+    static DownloadProgress open(java.io.File destination, String server, PayFileClient.File file,
+                                 @Nullable byte[] merkleRoot, int unitSize) {
+        checkArgument(unitSize > 0, "Bad unit size: %s", unitSize);
+        final DownloadProgress progress = new DownloadProgress(destination, server, file.getHandle(),
+                file.getFileName(), file.getSize(), merkleRoot, unitSize, new BitSet());
+        final Payfile.DownloadProgress saved = load(destination);
+        if (saved == null)
+            return progress;
+        // A file that's been rewritten since keeps its name and maybe its size, but gets a new handle, and splicing
+        // its new contents onto the old ones would give a file that's neither.
+        final boolean rootChanged = saved.hasMerkleRoot() && merkleRoot != null &&
+                !Arrays.equals(saved.getMerkleRoot().toByteArray(), merkleRoot);
+        if (!saved.getServer().equals(server) || saved.getHandle() != file.getHandle() ||
+                !saved.getFileName().equals(file.getFileName()) || saved.getSize() != file.getSize() ||
+                rootChanged || saved.getUnitSize() <= 0) {
+            log.info("Not resuming {}: the partial download is of a different file", destination);
+            return progress;
+        }
+        // Only ever resume from the first gap, rounded down to a chunk boundary in case the server's minimum chunk
+        // size has changed since, and only as far as the partial file actually goes.
+        final BitSet savedBits = BitSet.valueOf(saved.getReceived().toByteArray());
+        long resumeAt = Math.min(file.getSize(), (long) savedBits.nextClearBit(0) * saved.getUnitSize());
+        resumeAt = Math.min(resumeAt, destination.length());
+        if (resumeAt < file.getSize())
+            resumeAt -= resumeAt % unitSize;
+        progress.markReceived(0, resumeAt);
+        return progress;
+    }
+
+    /** Where to carry on from: the start of the first part that isn't on disk, or the size if it's all there. */
+    long getResumeOffset() {
+        lock.lock();
+        try {
+            return Math.min(size, (long) received.nextClearBit(0) * unitSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens the destination for writing from the given offset. Bytes before it are kept, and anything after it is cut
+     * off, as it's going to be downloaded again.
+     */
+    OutputStream openStream(long offset) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(destination, "rw");
+        try {
+            file.setLength(offset);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        return new Writer(file, offset);
+    }
+
+    /** Removes the record, once the download is finished and there's nothing left to resume. */
+    void delete() {
+        final java.io.File file = sidecarFor(destination);
+        if (file.exists() && !file.delete())
+            log.warn("Could not delete {}", file);
+    }
+
+    private static java.io.File sidecarFor(java.io.File destination) {
+        return new java.io.File(destination.getParentFile(), destination.getName() + SUFFIX);
+    }
+
+    @Nullable
+    private static Payfile.DownloadProgress load(java.io.File destination) {
+        final java.io.File file = sidecarFor(destination);
+        if (!file.exists() || !destination.exists())
+            return null;
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            return Payfile.DownloadProgress.parseFrom(stream);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable download progress {}: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    // Marks every unit that lies wholly within [start, end) as received, along with the last one if end is the end of
+    // the file.
+    private void markReceived(long start, long end) {
+        final long first = (start + unitSize - 1) / unitSize;
+        final long last = end == size ? (end + unitSize - 1) / unitSize : end / unitSize;
+        if (first < last)
+            received.set((int) first, (int) last);
+    }
+
+    private void save() {
+        final java.io.File file = sidecarFor(destination);
+        final Payfile.DownloadProgress.Builder record = Payfile.DownloadProgress.newBuilder()
+                .setServer(server)
+                .setHandle(handle)
+                .setFileName(fileName)
+                .setSize(size)
+                .setUnitSize(unitSize)
+                .setReceived(ByteString.copyFrom(received.toByteArray()));
+        if (merkleRoot != null)
+            record.setMerkleRoot(ByteString.copyFrom(merkleRoot));
+        try {
+            // Write to the side then move into place, so a crash can't leave a truncated record behind.
+            final java.io.File temp = new java.io.File(file.getParentFile(), file.getName() + ".tmp");
+            try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(temp))) {
+                record.build().writeTo(stream);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save download progress {}: {}", file, e.toString());
+        }
+    }
+
+    // Writes the data into place in the destination and keeps track of how far it's got. The server sends a download's
+    // data in order, so everything between the starting offset and the current position is there.
+    private class Writer extends OutputStream {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long start;
+        private long position;
+        private long lastSavedAt = System.nanoTime();
+        private boolean closed;
+
+        private Writer(RandomAccessFile file, long start) {
+            this.file = file;
+            this.channel = file.getChannel();
+            this.start = start;
+            this.position = start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                if (closed)
+                    throw new IOException("Download output is closed");
+                final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining())
+                    position += channel.write(buffer, position);
+                if (System.nanoTime() - lastSavedAt >= SAVE_INTERVAL_NANOS)
+                    checkpoint();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Makes sure everything written so far is on disk before recording that it is.
+        private void checkpoint() throws IOException {
+            channel.force(false);
+            markReceived(start, position);
+            save();
+            lastSavedAt = System.nanoTime();
+        }
+
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                if (closed)
+                    return;
+                closed = true;
+                try {
+                    checkpoint();
+                } finally {
+                    file.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package net.plan99.payfile.client;
+
+/**
+ * <p>Decides how many bytes worth of DOWNLOAD_CHUNK requests may be outstanding at once, so that the pipe to the server
+ * stays full instead of going idle for a round trip after every request. It's tuned much like a TCP congestion window:
+ * it starts small and doubles every round trip (slow start) until the responses start taking noticeably longer than
+ * the quickest one seen, which means requests are queueing up somewhere rather than making things faster. Then it
+ * halves, and from there on grows by about one request per round trip.</p>
+ *
+ * <p>Alternatively it can be given a fixed size, in which case none of that happens.</p>
+ */
+class DownloadWindow {
+    private static final long INITIAL_BYTES = 256 * 1024;
+    private static final long MIN_BYTES = 64 * 1024;
+    private static final long MAX_BYTES = 16 * 1024 * 1024;
+    // Responses taking this much longer than the quickest one seen mean we're just filling up queues.
+    private static final double QUEUEING_FACTOR = 2.0;
+    private static final long QUEUEING_SLACK_NANOS = 5_000_000L;
+
+    private final long fixedBytes;
+    private long windowBytes = INITIAL_BYTES;
+    private long slowStartThreshold = Long.MAX_VALUE;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    // Don't shrink again for requests sent before the last time we shrank, as they were sent into the old window.
+    private long lastShrinkAt = System.nanoTime();
+
+    /** @param fixedBytes the window size to use, or zero to tune it automatically. */
+    DownloadWindow(long fixedBytes) {
+        this.fixedBytes = fixedBytes;
+    }
+
+    /** True if another request can be sent whilst the given number of bytes are still to arrive. */
+    boolean hasRoom(long bytesInFlight) {
+        return bytesInFlight < getSize();
+    }
+
+    long getSize() {
+        return fixedBytes > 0 ? fixedBytes : windowBytes;
+    }
+
+    /**
+     * Called when a request that was sent at sentAt (a System.nanoTime() value) has been answered in full. Latency is
+     * how long it took for the first of its data to arrive.
+     */
+    void completed(long bytes, long sentAt, long latencyNanos) {
+        if (fixedBytes > 0)
+            return;
+        minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+        if (latencyNanos > minLatencyNanos * QUEUEING_FACTOR + QUEUEING_SLACK_NANOS) {
+            if (sentAt - lastShrinkAt > 0) {
+                slowStartThreshold = Math.max(MIN_BYTES, windowBytes / 2);
+                windowBytes = slowStartThreshold;
+                lastShrinkAt = System.nanoTime();
+            }
+        } else if (windowBytes < slowStartThreshold) {
+            windowBytes += bytes;
+        } else {
+            windowBytes += Math.max(1, bytes * bytes / windowBytes);
+        }
+        windowBytes = Math.min(windowBytes, MAX_BYTES);
+    }
+}
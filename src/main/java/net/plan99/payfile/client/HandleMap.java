@@ -0,0 +1,128 @@
+package net.plan99.payfile.client;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A map from file handles to values, for looking up the download every DATA message belongs to. Handles are ints, so
+ * they're kept unboxed in an open addressed table with linear probing, and lookups neither allocate nor scan all the
+ * downloads in progress. Not thread safe.
+ */
+class HandleMap<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size;
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(int handle) {
+        final int mask = keys.length - 1;
+        for (int i = slot(handle, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == handle)
+                return (V) values[i];
+        }
+        return null;
+    }
+
+    /** Maps the handle to the value, returning the previous one or null. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V put(int handle, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        // Keep it at most half full, so probe sequences stay short.
+        if ((size + 1) * 2 > keys.length)
+            resize(keys.length * 2);
+        final int mask = keys.length - 1;
+        int i = slot(handle, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == handle) {
+                final V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = handle;
+        values[i] = value;
+        size++;
+        return null;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V remove(int handle) {
+        final int mask = keys.length - 1;
+        int i = slot(handle, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == handle)
+                break;
+        }
+        final V removed = (V) values[i];
+        if (removed == null)
+            return null;
+        values[i] = null;
+        size--;
+        // Move back any entries after it that would no longer be found, rather than leaving a tombstone.
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            final int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns a copy of the values, in no particular order. */
+    @SuppressWarnings("unchecked")
+    List<V> values() {
+        final List<V> result = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null)
+                result.add((V) value);
+        }
+        return result;
+    }
+
+    void clear() {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        final int[] oldKeys = keys;
+        final Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null)
+                continue;
+            int j = slot(oldKeys[i], mask);
+            while (values[j] != null)
+                j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    // Handles are usually small consecutive numbers, which would all land together without mixing.
+    private static int slot(int handle, int mask) {
+        final int hash = handle * 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
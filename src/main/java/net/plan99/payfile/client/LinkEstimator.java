@@ -0,0 +1,77 @@
+package net.plan99.payfile.client;
+
+import net.plan99.payfile.Chunks;
+
+/**
+ * Keeps smoothed estimates of the round trip time and bandwidth of a connection, measured from the requests it makes,
+ * and uses them to pick a chunk size and how many chunks to ask for at once. The aim is requests big enough that a
+ * download isn't dominated by round trips, made of chunks no bigger than a fraction of a second's worth of data, so
+ * that a dropped connection on a slow link doesn't throw away much that was already paid for.
+ */
+class LinkEstimator {
+    // Aim for chunks that take this many round trips' worth of time to arrive ...
+    private static final int TARGET_ROUND_TRIPS = 4;
+    // ... but no more than this long.
+    private static final long MAX_CHUNK_NANOS = 250_000_000L;
+    // Most we ask for in one request, well under what servers allow.
+    private static final long MAX_RANGE_BYTES = 4 * 1024 * 1024;
+    // Weight given to each new sample, as in TCP's smoothed RTT.
+    private static final double GAIN = 0.125;
+
+    private double rttNanos = -1;
+    private double bytesPerNano = -1;
+
+    /** Records the time taken by a request that had a small reply, which is as good as a round trip. */
+    void roundTrip(long nanos) {
+        rttNanos = smooth(rttNanos, Math.max(1, nanos));
+    }
+
+    /** Records the time between asking for some data and the last of it arriving. */
+    void transfer(long bytes, long nanos) {
+        if (rttNanos < 0 || nanos <= rttNanos) {
+            // Arrived quicker than we thought a round trip took, so the link is faster than we know and the transfer
+            // time tells us nothing about bandwidth.
+            roundTrip(nanos);
+            return;
+        }
+        bytesPerNano = smooth(bytesPerNano, bytes / (nanos - rttNanos));
+    }
+
+    /** Records that the given number of bytes arrived over the given time, with the connection busy throughout. */
+    void delivered(long bytes, long nanos) {
+        bytesPerNano = smooth(bytesPerNano, bytes / (double) Math.max(1, nanos));
+    }
+
+    private static double smooth(double average, double sample) {
+        return average < 0 ? sample : average + GAIN * (sample - average);
+    }
+
+    /** The smoothed round trip time in nanoseconds, or -1 if there's been no measurement yet. */
+    long getRoundTripNanos() {
+        return (long) rttNanos;
+    }
+
+    /** The smoothed bandwidth in bytes per second, or -1 if there's been no measurement yet. */
+    long getBytesPerSecond() {
+        return bytesPerNano < 0 ? -1 : (long) (bytesPerNano * 1_000_000_000L);
+    }
+
+    /**
+     * Returns the chunk size to carry on with from the given offset into a file, which is a power of two between min
+     * and max, or the default if nothing has been measured yet.
+     */
+    int chunkSize(long offset, int defaultSize, int min, int max) {
+        long target = defaultSize;
+        if (rttNanos >= 0 && bytesPerNano >= 0)
+            target = (long) (bytesPerNano * Math.min(rttNanos * TARGET_ROUND_TRIPS, MAX_CHUNK_NANOS));
+        return Chunks.sizeFor(target, offset, min, max);
+    }
+
+    /** Returns how many chunks of the given size to ask for in one request. */
+    int rangeChunks(int chunkSize) {
+        if (rttNanos < 0 || bytesPerNano < 0)
+            return 1;
+        final double target = Math.min(bytesPerNano * rttNanos * TARGET_ROUND_TRIPS, MAX_RANGE_BYTES);
+        return (int) Math.max(1, target / chunkSize);
+    }
+}
@@ -0,0 +1,64 @@
+package net.plan99.payfile.client;
+
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.protobuf.CodedInputStream;
+import net.plan99.payfile.Payfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps the last complete catalog seen from each server on disk. When we reconnect, {@link PayFileClient} sends the
+ * cached version along with its first QUERY_FILES and if the catalog hasn't changed the server just says so, which for
+ * a server with a big catalog is a lot quicker than listing it all again.
+ */
+public class ManifestCache {
+    private static final Logger log = LoggerFactory.getLogger(ManifestCache.class);
+
+    private final File directory;
+
+    public ManifestCache(File directory) {
+        this.directory = directory;
+    }
+
+    private File fileFor(Sha256Hash serverID) {
+        return new File(directory, serverID + ".manifest");
+    }
+
+    /** Returns the cached catalog for the given server, or null if there isn't a usable one. */
+    @Nullable
+    Payfile.Manifest get(Sha256Hash serverID) {
+        final File file = fileFor(serverID);
+        if (!file.exists())
+            return null;
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            CodedInputStream input = CodedInputStream.newInstance(stream);
+            input.setSizeLimit(Integer.MAX_VALUE);   // The default 64MB isn't enough for really big catalogs.
+            return Payfile.Manifest.parseFrom(input);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable manifest cache {}: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    /** Stores a complete catalog, which should have its version set. */
+    void put(Sha256Hash serverID, Payfile.Manifest manifest) {
+        final File file = fileFor(serverID);
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Could not create " + directory);
+            // Write to the side then move into place, so a crash can't leave a truncated cache behind.
+            final File temp = new File(directory, file.getName() + ".tmp");
+            try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(temp))) {
+                manifest.writeTo(stream);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save manifest cache {}: {}", file, e.toString());
+        }
+    }
+}
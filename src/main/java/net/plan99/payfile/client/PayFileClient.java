@@ -2,12 +2,17 @@ package net.plan99.payfile.client;
 
 import com.google.bitcoin.core.*;
 import com.google.bitcoin.protocols.channels.PaymentChannelClient;
+import com.google.bitcoin.protocols.channels.PaymentChannelClientState;
 import com.google.bitcoin.protocols.channels.PaymentChannelCloseException;
 import com.google.bitcoin.protocols.channels.StoredPaymentChannelClientStates;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
+import net.plan99.payfile.Chunks;
+import net.plan99.payfile.FrameReader;
+import net.plan99.payfile.MerkleTree;
 import net.plan99.payfile.Payfile;
 import net.plan99.payfile.ProtocolException;
+import net.plan99.payfile.RawDataFrame;
 import org.bitcoin.paymentchannel.Protos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,12 +22,17 @@ import java.io.*;
 import java.math.BigInteger;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static net.plan99.payfile.utils.Exceptions.evalUnchecked;
@@ -32,34 +42,92 @@ public class PayFileClient {
     private static final Logger log = LoggerFactory.getLogger(PayFileClient.class);
 
     public static final int PORT = 18754;
+    // How many files to ask for per MANIFEST when listing a server's catalog.
+    public static final int PAGE_SIZE = 1000;
+    public static final int DEFAULT_PREPAID_CHUNKS = 20;
+    public static final long DEFAULT_MAX_AMOUNT_AT_RISK = 10000;   // Satoshis.
+    // Most connections one download may be spread over. Each has its own payment channel with the server.
+    public static final int MAX_CONNECTIONS = 16;
+    // Big enough for a DATA message holding the largest chunk a server will let us ask for.
+    private static final int MAX_FRAME_SIZE = 2 * 1024 * 1024;
+    // A server that sends this many chunks of one download that don't match its Merkle root is sending junk.
+    private static final int MAX_BAD_CHUNKS = 8;
+    // Chunks of files with a Merkle root are checked on these threads, so that hashing them never holds up the reader
+    // thread. Chunks of one download are checked in parallel but written out in order.
+    private static final ExecutorService verifierPool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "Chunk verifier");
+                thread.setDaemon(true);
+                return thread;
+            });
 
-    private final DataInputStream input;
+    private final InputStream input;
+    // Only used by the reader thread, which returns its buffer to the pool when it exits.
+    private final FrameReader reader;
     private final Socket socket;
     private final DataOutputStream output;
+    // Guards output. Not synchronized, so that a blocked write doesn't pin a virtual thread to its carrier.
+    private final ReentrantLock writeLock = new ReentrantLock();
     private final Wallet wallet;
-    private CompletableFuture<List<File>> currentQuery;
-    private CompletableFuture currentFuture;
-    private int chunkSize;
-    private List<File> currentDownloads = new CopyOnWriteArrayList<>();
+    private final boolean virtualThread;
+    private CompletableFuture<Page> currentQuery;
+    @Nullable private ManifestCache manifestCache;
+    // The server's default chunk size, which prices are quoted against, and the range we can pick from instead.
+    private int chunkSize, minChunkSize, maxChunkSize;
+    private final LinkEstimator link = new LinkEstimator();
+    // Bookkeeping for downloads and the requests in flight for them, which is done both by whoever starts a download
+    // and by the reader thread. Everything down to lastDeliveryAt is guarded by it.
+    private final ReentrantLock downloadLock = new ReentrantLock();
+    // Every download that data may still arrive for, by handle.
+    private final HandleMap<File> downloads = new HandleMap<>();
+    // The downloads that have more to ask for, in the order they'll get their next turn. Each turn is one request, so
+    // lots of small files and a few big ones all make progress together.
+    private final ArrayDeque<File> schedule = new ArrayDeque<>();
+    private DownloadWindow window = new DownloadWindow(0);
+    private long bytesInFlight;
+    private long lastDeliveryAt;
+    private long queryStartedAt;
     private PaymentChannelClient paymentChannelClient;
+    // Completes once the payment channel is open, shared by all the downloads that were waiting for it.
+    @Nullable private CompletableFuture<Void> paymentsFuture;
     private volatile boolean running;
     private Consumer<Long> onPaymentMade;
-    private boolean freshChannel;
-    private long numPurchasedChunks;
+    // Which of the connections to this server this is, and so which payment channel it uses. Zero unless it's one of
+    // the extra connections of a SegmentedDownload, which also gives it a channel size and a budget to share.
+    private int channelIndex;
+    private long channelSize;
+    @Nullable private PaymentBudget budget;
+    // Bytes asked for and received since the payment channel opened, each weighted by its file's price per chunk, and
+    // how much had already been spent on the channel at that point. The server works out what we owe in the same way.
+    private long pricedBytes, receivedPricedBytes;
+    private long paymentBaseline;
+    // Set once the server sends CREDIT messages, after which we stick to the total value it says it will serve.
+    private boolean serverGrantsCredit;
+    private long grantedCredit;
+    // Every payment signs a new transaction here and has its signature checked by the server, so rather than paying
+    // for each request as it's made we pay for this many chunks at a time. But never so far ahead that more than
+    // maxAmountAtRisk satoshis have been paid for data that hasn't arrived yet, as the server could just keep it.
+    private int prepaidChunks = DEFAULT_PREPAID_CHUNKS;
+    private long maxAmountAtRisk = DEFAULT_MAX_AMOUNT_AT_RISK;
 
     private boolean settling;
     private CompletableFuture<Void> settlementFuture;
 
     public PayFileClient(Socket socket, Wallet wallet) {
+        this(socket, wallet, false);
+    }
+
+    /** If virtualThread is true, the socket is read from a virtual thread rather than a platform daemon thread. */
+    public PayFileClient(Socket socket, Wallet wallet, boolean virtualThread) {
         this.socket = socket;
-        this.input = new DataInputStream(evalUnchecked(socket::getInputStream));
+        this.input = evalUnchecked(socket::getInputStream);
+        this.reader = new FrameReader(input);
         this.output = new DataOutputStream(evalUnchecked(socket::getOutputStream));
         this.wallet = wallet;
+        this.virtualThread = virtualThread;
 
-        ClientThread thread = new ClientThread();
-        thread.setName(socket.toString());
-        thread.setDaemon(true);
-        thread.start();
+        Thread.Builder builder = virtualThread ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+        builder.name(socket.toString()).start(new ClientThread());
     }
 
     public void disconnect() {
@@ -70,11 +138,42 @@ public class PayFileClient {
         runUnchecked(output::close);
     }
 
+    /**
+     * Settles the payment channel with this server, along with any that the extra connections of segmented downloads
+     * left behind, as otherwise the money in those stays locked up until they expire.
+     */
     public CompletableFuture<Void> settlePaymentChannel() {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(settleOwnChannel());
+        if (channelIndex == 0) {
+            for (int i = 1; i <= MAX_CONNECTIONS; i++)
+                futures.add(settleExtraChannel(i));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
+    }
+
+    // Reconnects under the given connection index just long enough to settle its channel, if it has one with money in.
+    private CompletableFuture<Void> settleExtraChannel(int index) {
+        final StoredPaymentChannelClientStates extension = StoredPaymentChannelClientStates.getFromWallet(wallet);
+        checkNotNull(extension);
+        if (extension.getBalanceForServer(getChannelID(getHost(), socket.getPort(), index)).signum() == 0)
+            return CompletableFuture.completedFuture(null);
+        final PayFileClient client;
+        try {
+            client = openConnection(index, 1, 0, null);
+        } catch (IOException e) {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return client.settleOwnChannel().whenComplete((v, t) -> client.disconnect());
+    }
+
+    private CompletableFuture<Void> settleOwnChannel() {
         // Tell it to terminate the payment relationship and thus broadcast the micropayment transactions. We will
         // resume control in destroyConnection below.
         settling = true;
-        currentFuture = settlementFuture = new CompletableFuture<Void>();
+        settlementFuture = new CompletableFuture<Void>();
         if (paymentChannelClient == null) {
             // Have to connect first.
             return initializePayments().thenCompose((v) -> {
@@ -94,33 +193,79 @@ public class PayFileClient {
     public BigInteger getRemainingBalance() {
         final StoredPaymentChannelClientStates extension = StoredPaymentChannelClientStates.getFromWallet(wallet);
         checkNotNull(extension);
-        BigInteger valueRefunded = extension.getBalanceForServer(getServerID());
+        BigInteger valueRefunded = getBalanceForServer(extension, getHost(), socket.getPort());
         return wallet.getBalance().add(valueRefunded);
     }
 
     /**
-     * Returns how much money is still stuck in a channel with the given server. Does NOT include wallet balance.
+     * Returns how much money is still stuck in channels with the given server. Does NOT include wallet balance.
      */
     public static BigInteger getBalanceForServer(String serverName, int port, Wallet wallet) {
         final StoredPaymentChannelClientStates extension = StoredPaymentChannelClientStates.getFromWallet(wallet);
         checkNotNull(extension);
-        return extension.getBalanceForServer(getServerID(serverName, port));
+        return getBalanceForServer(extension, serverName, port);
+    }
+
+    // Includes the channels of any extra connections made for segmented downloads.
+    private static BigInteger getBalanceForServer(StoredPaymentChannelClientStates extension, String host, int port) {
+        BigInteger balance = BigInteger.ZERO;
+        for (int i = 0; i <= MAX_CONNECTIONS; i++)
+            balance = balance.add(extension.getBalanceForServer(getChannelID(host, port, i)));
+        return balance;
     }
 
     /**
-     * Returns how long you have to wait until this channel will either be settled by the server, or can be auto-settled
-     * by the client (us).
+     * Returns how long you have to wait until the channels with this server, including those of the extra connections
+     * made for segmented downloads, will either be settled by the server, or can be auto-settled by the client (us).
      */
     public static long getSecondsUntilExpiry(String serverName, int port, Wallet wallet) {
         final StoredPaymentChannelClientStates extension = StoredPaymentChannelClientStates.getFromWallet(wallet);
         checkNotNull(extension);
-        return extension.getSecondsUntilExpiry(getServerID(serverName, port));
+        long seconds = 0;
+        for (int i = 0; i <= MAX_CONNECTIONS; i++) {
+            final Sha256Hash id = getChannelID(serverName, port, i);
+            if (extension.getBalanceForServer(id).signum() > 0)
+                seconds = Math.max(seconds, extension.getSecondsUntilExpiry(id));
+        }
+        return seconds;
     }
 
     public void setOnPaymentMade(Consumer<Long> onPaymentMade) {
         this.onPaymentMade = onPaymentMade;
     }
 
+    /**
+     * Sets how far ahead to pay for downloads: each payment covers the request being made plus this many chunks, at
+     * the server's default chunk size, but never so much that more than maxAmountAtRisk satoshis are paid for data
+     * that hasn't arrived. The window of requests in flight is also kept within maxAmountAtRisk. Fewer, bigger
+     * payments save a lot of CPU time on both ends, in exchange for trusting the server with a bounded amount of money.
+     * Pass zero chunks to pay for each request separately.
+     */
+    public void setPaymentBatching(int prepaidChunks, long maxAmountAtRisk) {
+        checkArgument(prepaidChunks >= 0 && maxAmountAtRisk >= 0, "Negative payment batching parameters");
+        downloadLock.lock();
+        try {
+            this.prepaidChunks = prepaidChunks;
+            this.maxAmountAtRisk = maxAmountAtRisk;
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
+    /**
+     * Sets how many bytes may be requested from the server ahead of what has arrived. Zero, the default, means tune it
+     * automatically from the response times seen, starting small and growing until the pipe to the server is full.
+     */
+    public void setDownloadWindow(long bytes) {
+        checkArgument(bytes >= 0, "Negative window");
+        downloadLock.lock();
+        try {
+            window = new DownloadWindow(bytes);
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
     public class File {
         private String fileName;
         private String description;
@@ -129,9 +274,28 @@ public class PayFileClient {
         private long pricePerChunk;
 
         private long bytesDownloaded;
-        private long nextChunk;
-        private OutputStream downloadStream;
+        // Where the next request starts, and the size of chunks it will most likely ask for.
+        private long nextOffset;
+        private int requestChunkSize;
+        // Where this download stops, which is the end of the file unless only a segment of it is wanted.
+        private long endOffset;
+        // Requests that haven't been answered in full yet, oldest first. The server answers them in order, so data
+        // always belongs to the one at the head. Guarded by downloadLock.
+        private final ArrayDeque<Request> requests = new ArrayDeque<>();
+        private DownloadStream downloadStream;
         private CompletableFuture<Void> completionFuture;
+        // Why the download failed, if it did. Guarded by downloadLock.
+        @Nullable private Throwable failure;
+        // The root of the file's Merkle tree, if the server has one, and whether this download is checking chunks
+        // against it. If so the PROOF for each chunk comes just before its data, and is only touched by the reader
+        // thread. The rest is guarded by downloadLock: written completes once every chunk received so far has been
+        // checked and written out.
+        @Nullable private byte[] merkleRoot;
+        private boolean verifying;
+        @Nullable private Payfile.MerkleProof proof;
+        private CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+        private int badChunks;
+        private boolean finishing;
 
         public File(String fileName, String description, int handle, long size, long pricePerChunk) {
             this.fileName = fileName;
@@ -139,6 +303,7 @@ public class PayFileClient {
             this.handle = handle;
             this.size = size;
             this.pricePerChunk = pricePerChunk;
+            this.endOffset = size;
         }
 
         @Override
@@ -166,9 +331,24 @@ public class PayFileClient {
             return size;
         }
 
+        /** The root of the file's Merkle tree, or null if the server hasn't hashed it. Not to be modified. */
+        @Nullable
+        byte[] getMerkleRoot() {
+            return merkleRoot;
+        }
+
         public void reset() {
             bytesDownloaded = 0;
-            nextChunk = 0;
+            downloadLock.lock();
+            try {
+                nextOffset = 0;
+                endOffset = size;
+                for (Request request : requests)
+                    bytesInFlight -= request.bytes;
+                requests.clear();
+            } finally {
+                downloadLock.unlock();
+            }
             downloadStream = null;
         }
 
@@ -181,18 +361,294 @@ public class PayFileClient {
         }
 
         public long getPrice() {
-            return pricePerChunk * (size / chunkSize);
+            return Chunks.price(pricePerChunk, PayFileClient.this.chunkSize, size);
+        }
+
+        /**
+         * Returns where this file should be saved under the given directory, creating any subdirectories its name
+         * calls for. Throws if the name would put it somewhere outside the directory.
+         */
+        public java.io.File getLocalFile(java.io.File directory) throws IOException {
+            java.io.File file = new java.io.File(directory, fileName);
+            if (!file.getCanonicalPath().startsWith(directory.getCanonicalPath() + java.io.File.separator))
+                throw new IOException("Server sent a file name that points outside the download directory: " + fileName);
+            java.io.File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs())
+                throw new IOException("Could not create directory " + parent);
+            return file;
+        }
+    }
+
+    // Passes a download's data on to wherever the user wants it. If that fails, so does the download, but the rest of
+    // what the server sends for it still has to be read off the connection, so from then on it's just dropped.
+    private static class DownloadStream extends OutputStream {
+        private final OutputStream out;
+        @Nullable private IOException failure;
+        private boolean discarding;
+
+        private DownloadStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (discarding)
+                return;
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+                discarding = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // A DOWNLOAD_CHUNK that's been sent: chunks [nextChunk, endChunk) are still to come.
+    private static class Request {
+        private final long endChunk;
+        private final int chunkSize;
+        private final long bytes;
+        private final long sentAt;
+        // True if nothing else was in flight, so the time to the first data was a plain round trip.
+        private final boolean sentIntoIdlePipe;
+        private long nextChunk;
+        private long latency = -1;
+        // If this is asking for a chunk that failed its Merkle check to be resent, that chunk, and where the new copy
+        // goes once it arrives.
+        @Nullable private Chunk resendOf;
+        @Nullable private CompletableFuture<Chunk> replacement;
+
+        private Request(long firstChunk, long endChunk, int chunkSize, long bytes, boolean sentIntoIdlePipe) {
+            this.nextChunk = firstChunk;
+            this.endChunk = endChunk;
+            this.chunkSize = chunkSize;
+            this.bytes = bytes;
+            this.sentIntoIdlePipe = sentIntoIdlePipe;
+            this.sentAt = System.nanoTime();
+        }
+    }
+
+    // A chunk of a file with a Merkle root, which is only written out once it's been checked against it.
+    private static class Chunk {
+        private final long chunkId;
+        private final int chunkSize;
+        private final byte[] data;
+        // Whether it was paid for, or is a free resend of one that was, and so counts as received once it's checked.
+        private final boolean paid;
+        private final boolean resent;
+        private final CompletableFuture<Boolean> verified;
+
+        private Chunk(File file, long chunkId, int chunkSize, byte[] data, Payfile.MerkleProof proof, boolean paid,
+                      boolean resent) {
+            this.chunkId = chunkId;
+            this.chunkSize = chunkSize;
+            this.data = data;
+            this.paid = paid;
+            this.resent = resent;
+            final byte[] root = checkNotNull(file.merkleRoot);
+            // A proof too broken to even check is as bad as one that doesn't match.
+            this.verified = CompletableFuture.supplyAsync(() -> MerkleTree.verify(root, file.getSize(), chunkSize,
+                    chunkId, ByteBuffer.wrap(data), proof.getHashes()), verifierPool).exceptionally(t -> false);
+        }
+    }
+
+    /** One page of a server's catalog, as returned by {@link #queryFiles(String)}. */
+    public static class Page {
+        private final List<File> files;
+        private final List<Payfile.File> protos;
+        @Nullable private final String nextCursor;
+        @Nullable private final String version;
+        private final boolean notModified;
+
+        private Page(List<File> files, List<Payfile.File> protos, @Nullable String nextCursor, @Nullable String version,
+                     boolean notModified) {
+            this.files = files;
+            this.protos = protos;
+            this.nextCursor = nextCursor;
+            this.version = version;
+            this.notModified = notModified;
+        }
+
+        public List<File> getFiles() {
+            return files;
+        }
+
+        /** Pass this to {@link #queryFiles(String)} to get the next page. Null if this was the last one. */
+        @Nullable
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean isLast() {
+            return nextCursor == null;
         }
     }
 
+    /**
+     * Keeps the last catalog listed from each server in the given cache, and asks the server whether it's changed
+     * before listing it all over again.
+     */
+    public void setManifestCache(@Nullable ManifestCache manifestCache) {
+        this.manifestCache = manifestCache;
+    }
+
+    // Collects the pages of one listing, so that it can be cached once it's complete.
+    private class Listing {
+        private final Payfile.Manifest.Builder manifest = Payfile.Manifest.newBuilder();
+        private final List<File> files = new ArrayList<>();
+        private boolean first = true, consistent = true;
+
+        void add(Page page) {
+            if (first) {
+                first = false;
+                if (page.version != null)
+                    manifest.setVersion(page.version);
+            } else if (page.version == null || !page.version.equals(manifest.getVersion())) {
+                consistent = false;   // The catalog changed whilst we were paging through it.
+            }
+            files.addAll(page.files);
+            manifest.addAllFiles(page.protos);
+        }
+
+        void finish() {
+            if (manifestCache != null && consistent && manifest.hasVersion())
+                manifestCache.put(getServerID(), manifest.setChunkSize(chunkSize).setMinChunkSize(minChunkSize)
+                        .setMaxChunkSize(maxChunkSize).build());
+        }
+    }
+
+    @Nullable
+    private Payfile.Manifest getCachedManifest() {
+        Payfile.Manifest cached = manifestCache == null ? null : manifestCache.get(getServerID());
+        return cached != null && cached.hasVersion() ? cached : null;
+    }
+
+    private List<File> filesFrom(Payfile.Manifest manifest) {
+        log.info("{}: Catalog is unchanged, using cached copy of {} files", socket, manifest.getFilesCount());
+        setChunkSizes(manifest);
+        List<File> files = new ArrayList<>(manifest.getFilesCount());
+        for (Payfile.File f : manifest.getFilesList())
+            files.add(fileFrom(f));
+        return files;
+    }
+
+    /** Returns the whole catalog, fetching it page by page or from the manifest cache if it's still current. */
     public CompletableFuture<List<File>> queryFiles() {
+        return listFiles(1);
+    }
+
+    private CompletableFuture<List<File>> listFiles(int attempt) {
+        final Payfile.Manifest cached = getCachedManifest();
+        return queryPage(null, cached).thenCompose(first -> {
+            if (first.notModified)
+                return CompletableFuture.completedFuture(filesFrom(cached));
+            Listing listing = new Listing();
+            listing.add(first);
+            return collectPages(first, listing).thenCompose(v -> {
+                if (!listing.consistent && attempt < 3) {
+                    log.info("{}: Catalog changed whilst being listed, starting again", socket);
+                    return listFiles(attempt + 1);
+                }
+                listing.finish();
+                return CompletableFuture.completedFuture(listing.files);
+            });
+        });
+    }
+
+    private CompletableFuture<Void> collectPages(Page previous, Listing listing) {
+        if (previous.isLast())
+            return CompletableFuture.completedFuture(null);
+        return queryFiles(previous.getNextCursor()).thenCompose(page -> {
+            listing.add(page);
+            return collectPages(page, listing);
+        });
+    }
+
+    /**
+     * Returns an iterator over the whole catalog that only fetches a page when the caller gets to it, so it's cheap to
+     * stop early. hasNext() blocks whilst a page is being fetched.
+     */
+    public Iterator<File> iterateFiles() {
+        return new Iterator<File>() {
+            private Iterator<File> page = Collections.emptyIterator();
+            @Nullable private String cursor;
+            private boolean last;
+            @Nullable private Listing listing;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !last) {
+                    if (listing == null) {
+                        final Payfile.Manifest cached = getCachedManifest();
+                        Page first = evalUnchecked(() -> queryPage(null, cached).get());
+                        if (first.notModified) {
+                            page = filesFrom(cached).iterator();
+                            last = true;
+                            break;
+                        }
+                        listing = new Listing();
+                        accept(first);
+                    } else {
+                        accept(evalUnchecked(() -> queryFiles(cursor).get()));
+                    }
+                    if (last)
+                        listing.finish();
+                }
+                return page.hasNext();
+            }
+
+            private void accept(Page next) {
+                listing.add(next);
+                page = next.getFiles().iterator();
+                cursor = next.getNextCursor();
+                last = next.isLast();
+            }
+
+            @Override
+            public File next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return page.next();
+            }
+        };
+    }
+
+    /** Asks for the page of the catalog that comes after the given cursor, or the first page if it's null. */
+    public CompletableFuture<Page> queryFiles(@Nullable String cursor) {
+        return queryPage(cursor, null);
+    }
+
+    private CompletableFuture<Page> queryPage(@Nullable String cursor, @Nullable Payfile.Manifest cached) {
+        return queryPage(cursor, cached, PAGE_SIZE);
+    }
+
+    private CompletableFuture<Page> queryPage(@Nullable String cursor, @Nullable Payfile.Manifest cached, int pageSize) {
         if (currentQuery != null)
             throw new IllegalStateException("Already running a query");
-        CompletableFuture<List<File>> future = new CompletableFuture<>();
-        currentFuture = currentQuery = future;
+        CompletableFuture<Page> future = new CompletableFuture<>();
+        currentQuery = future;
+        queryStartedAt = System.nanoTime();
         final Payfile.QueryFiles.Builder queryFiles = Payfile.QueryFiles.newBuilder()
                 .setUserAgent("Basic client v1.0")
-                .setBitcoinNetwork(wallet.getParams().getId());
+                .setBitcoinNetwork(wallet.getParams().getId())
+                .setRawData(true)
+                .setCreditGrants(true)
+                .setMerkleProofs(true)
+                .setPageSize(pageSize);
+        if (cursor != null)
+            queryFiles.setCursor(cursor);
+        if (cached != null)
+            queryFiles.setKnownVersion(cached.getVersion());
         final Payfile.PayFileMessage.Builder msg = Payfile.PayFileMessage.newBuilder()
                 .setType(Payfile.PayFileMessage.Type.QUERY_FILES)
                 .setQueryFiles(queryFiles);
@@ -204,44 +660,131 @@ public class PayFileClient {
         return future;
     }
 
+    /**
+     * Starts downloading the file to the given stream, which is closed once it's all there. Any number of files can be
+     * downloaded at once: their requests take turns, and each download's future fails on its own if something goes
+     * wrong with just that file, such as the stream throwing.
+     */
     public CompletableFuture<Void> downloadFile(File file, OutputStream outputStream) throws IOException, InsufficientMoneyException {
-        if (file.downloadStream != null)
-            throw new IllegalStateException("Already downloading this file");
-        file.downloadStream = outputStream;
+        if (file.getPrice() > 0 && !file.isAffordable())
+            throw new InsufficientMoneyException(BigInteger.valueOf(file.getPrice() - getRemainingBalance().longValue()), "Cannot afford this file");
+        return downloadRange(file, 0, file.getSize(), outputStream);
+    }
+
+    /**
+     * Starts downloading the file to destination, keeping a record next to it of how far it's got. If a download of
+     * the same file from this server into the same place was cut short before, it carries on from the first chunk
+     * that's missing and only that part is paid for. The record is deleted once the file is complete. onProgress, if
+     * set, is given the number of bytes already there when the download starts, and then the size of every write.
+     */
+    public CompletableFuture<Void> downloadFile(File file, java.io.File destination, @Nullable LongConsumer onProgress)
+            throws IOException, InsufficientMoneyException {
+        final String server = String.format("%s:%d", getHost(), socket.getPort());
+        final DownloadProgress progress = DownloadProgress.open(destination, server, file, file.merkleRoot,
+                minChunkSize);
+        final long start = progress.getResumeOffset();
+        final long price = Chunks.price(file.pricePerChunk, chunkSize, file.getSize() - start);
+        final long balance = getRemainingBalance().longValue();
+        if (price > balance)
+            throw new InsufficientMoneyException(BigInteger.valueOf(price - balance), "Cannot afford this file");
+        if (start > 0)
+            log.info("Resuming {} from byte {} of {}", file.getFileName(), start, file.getSize());
+        if (onProgress != null)
+            onProgress.accept(start);
+        final OutputStream stream = new ProgressStream(progress.openStream(start), onProgress);
+        final CompletableFuture<Void> future;
+        try {
+            future = downloadRange(file, start, file.getSize(), stream);
+        } catch (RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        future.whenComplete((v, ex) -> {
+            if (ex == null) {
+                progress.delete();
+            } else {
+                // Usually closed already, which saved the progress, but not if the future was just cancelled.
+                try {
+                    stream.close();
+                } catch (IOException ignored) {}
+            }
+        });
+        return future;
+    }
 
-        currentFuture = file.completionFuture = new CompletableFuture<>();
-        file.completionFuture.whenComplete((v, exception) -> { file.reset(); });
+    /**
+     * Downloads just the bytes from start to end of the file. Both have to be multiples of the largest chunk size the
+     * server allows, apart from an end that's the end of the file, so that requests never run past it. A download
+     * that's being resumed can start at any multiple of the smallest chunk size.
+     */
+    CompletableFuture<Void> downloadRange(File file, long start, long end, OutputStream outputStream) {
+        checkArgument(start >= 0 && start <= end && end <= file.getSize(), "Bad range");
+        checkArgument((start == 0 && end == file.getSize()) ||
+                (end == file.getSize() && start % minChunkSize == 0) ||
+                (start % maxChunkSize == 0 && end % maxChunkSize == 0),
+                "Range not aligned to chunks");
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        downloadLock.lock();
+        try {
+            if (file.downloadStream != null || downloads.get(file.getHandle()) != null)
+                throw new IllegalStateException("Already downloading this file");
+            file.nextOffset = start;
+            file.endOffset = end;
+            file.bytesDownloaded = start;
+            file.downloadStream = new DownloadStream(outputStream);
+            file.completionFuture = future;
+            file.failure = null;
+            // Chunks can only be checked if they're whole subtrees, which they are if none is smaller than a leaf.
+            file.verifying = file.merkleRoot != null && minChunkSize >= MerkleTree.LEAF_SIZE;
+            if (file.merkleRoot != null && !file.verifying)
+                log.warn("Not checking {} against its Merkle root, as the server allows chunks that are too small",
+                        file.getFileName());
+            file.proof = null;
+            file.written = CompletableFuture.completedFuture(null);
+            file.badChunks = 0;
+            file.finishing = false;
+            downloads.put(file.getHandle(), file);
+        } finally {
+            downloadLock.unlock();
+        }
+        future.whenComplete((v, exception) -> { file.reset(); });
 
         // Set up payments and then start the download.
-        if (file.getPrice() > 0) {
-            if (!file.isAffordable())
-                throw new InsufficientMoneyException(BigInteger.valueOf(file.getPrice() - getRemainingBalance().longValue()), "Cannot afford this file");
+        if (file.pricePerChunk > 0 && start < end) {
             log.info("Price is {}, ensuring payments are initialised ... ", file.getPrice());
-            initializePayments().handle((v, ex) -> {
+            initializePayments().whenComplete((v, ex) -> {
                 if (ex == null) {
                     log.info("Payments initialised. Downloading file {} {}", file.getHandle(), file.getFileName());
-                    currentDownloads.add(file);
-                    runUnchecked(() -> downloadNextChunk(file));
+                    startDownload(file);
                 } else {
-                    currentFuture.completeExceptionally(ex);
+                    failDownload(file, ex);
                 }
-                return null;
             });
         } else {
             log.info("Downloading file {} {}", file.getHandle(), file.getFileName());
-            currentDownloads.add(file);
-            downloadNextChunk(file);
+            startDownload(file);
         }
-        return file.completionFuture;
+        return future;
     }
 
     private CompletableFuture<Void> initializePayments() {
-        if (paymentChannelClient != null)
-            return CompletableFuture.completedFuture(null);
+        downloadLock.lock();
+        try {
+            if (paymentsFuture == null)
+                paymentsFuture = openPaymentChannel();
+            return paymentsFuture;
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
+    private CompletableFuture<Void> openPaymentChannel() {
         log.info("{}: Init payments", socket);
-        Sha256Hash serverID = getServerID();
-        // Lock up our entire balance into the channel for this server, minus the reference tx fee.
-        final BigInteger channelSize = wallet.getBalance().subtract(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE);
+        Sha256Hash serverID = getChannelID(getHost(), socket.getPort(), channelIndex);
+        // Lock up our entire balance into the channel for this server, minus the reference tx fee, unless this is one
+        // of several connections that have to share it.
+        final BigInteger channelSize = this.channelSize > 0 ? BigInteger.valueOf(this.channelSize) :
+                wallet.getBalance().subtract(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE);
 
         final CompletableFuture<Void> future = new CompletableFuture<>();
         paymentChannelClient = new PaymentChannelClient(wallet, wallet.getKeys().get(0), channelSize,
@@ -262,8 +805,12 @@ public class PayFileClient {
                     if (reason == PaymentChannelCloseException.CloseReason.SERVER_REQUESTED_TOO_MUCH_VALUE) {
                         future.completeExceptionally(new InsufficientMoneyException(paymentChannelClient.getMissing()));
                     } else {
-                        if (currentFuture != null)
-                            currentFuture.completeExceptionally(new PaymentChannelCloseException("Unexpected payment channel termination", reason));
+                        final PaymentChannelCloseException e =
+                                new PaymentChannelCloseException("Unexpected payment channel termination", reason);
+                        future.completeExceptionally(e);
+                        failPaidDownloads(e);
+                        if (settling)
+                            settlementFuture.completeExceptionally(e);
                     }
                 } else {
                     checkState(settling);
@@ -271,13 +818,24 @@ public class PayFileClient {
                     settlementFuture.complete(null);
                 }
                 paymentChannelClient.connectionClosed();
-                paymentChannelClient = null;
+                downloadLock.lock();
+                try {
+                    paymentChannelClient = null;
+                    paymentsFuture = null;
+                } finally {
+                    downloadLock.unlock();
+                }
             }
 
             @Override
             public void channelOpen(boolean wasInitiated) {
                 log.info("{}: Payment channel negotiated{}", socket, wasInitiated ? ", was initiated" : "");
-                freshChannel = wasInitiated;
+                // Opening a fresh channel automatically makes a minimum payment equal to the dust limit, which we can
+                // spend on chunks. Anything spent on a resumed channel went on earlier connections.
+                pricedBytes = receivedPricedBytes = 0;
+                paymentBaseline = wasInitiated ? 0 : paymentChannelClient.state().getValueSpent().longValue();
+                if (wasInitiated && budget != null)
+                    budget.reserve(paymentChannelClient.state().getValueSpent().longValue(), 0);
                 future.complete(null);
             }
         });
@@ -285,76 +843,252 @@ public class PayFileClient {
         return future;
     }
 
+    private String getHost() {
+        return socket.getInetAddress().getHostName();
+    }
+
     private Sha256Hash getServerID() {
-        return getServerID(socket.getInetAddress().getHostName(), socket.getPort());
+        return getServerID(getHost(), socket.getPort());
     }
 
     private static Sha256Hash getServerID(String host, int port) {
         return Sha256Hash.create(String.format("%s:%d", host, port).getBytes());
     }
 
-    private void downloadNextChunk(File file) throws IOException {
-        if (currentFuture.isCompletedExceptionally())
-            return;
-        if (paymentChannelClient != null) {
-            // Write two messages, one after the other: possibly add to our balance, then spend it.
-            if (freshChannel) {
-                freshChannel = false;
-                // If we opened a fresh channel, we have automatically made a min payment on the channel equal
-                // to the dust limit. Divide to find out how many chunks that's worth here. We might end up
-                // overpaying slightly this way: a smarter approach would handle the remainder from the division.
-                numPurchasedChunks = paymentChannelClient.state().getValueSpent().longValue() / file.pricePerChunk;
-                log.info("New channel, have pre-paid {} chunks", numPurchasedChunks);
+    // bitcoinj won't let two connections use the same channel at once, and would open each extra connection a new one
+    // with all our money in it, so the extra connections of a segmented download get channels under IDs of their own.
+    // They're numbered, so the next segmented download picks up the same ones again.
+    private static Sha256Hash getChannelID(String host, int port, int index) {
+        if (index == 0)
+            return getServerID(host, port);
+        return Sha256Hash.create(String.format("%s:%d#%d", host, port, index).getBytes());
+    }
+
+    /**
+     * Opens another connection to the same server for a segmented download, with its own payment channel of the given
+     * size, paying out of the given budget. It gets its share of this one's limit on the amount at risk.
+     */
+    PayFileClient openConnection(int index, int connections, long channelSize, PaymentBudget budget) throws IOException {
+        checkArgument(index > 0 && index <= MAX_CONNECTIONS, "Bad connection index: %s", index);
+        final PayFileClient client = new PayFileClient(new Socket(socket.getInetAddress(), socket.getPort()), wallet,
+                virtualThread);
+        client.channelIndex = index;
+        client.sharePayments(channelSize, budget);
+        client.onPaymentMade = onPaymentMade;
+        client.setPaymentBatching(prepaidChunks, maxAmountAtRisk / connections);
+        return client;
+    }
+
+    /**
+     * Has this client pay out of a budget shared with other connections, and if it has to open a payment channel, make
+     * it the given size rather than putting the whole wallet into it. Zero and null go back to the defaults.
+     */
+    void sharePayments(long channelSize, @Nullable PaymentBudget budget) {
+        downloadLock.lock();
+        try {
+            this.channelSize = channelSize;
+            this.budget = budget;
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
+    /** Stops a download made with {@link #downloadRange}, whose future then fails with a CancellationException. */
+    void cancelDownload(File file) {
+        failDownload(file, new CancellationException("Download cancelled"));
+    }
+
+    /** Asks for the smallest page of the catalog possible, which is all a connection needs to be able to download. */
+    CompletableFuture<Void> handshake() {
+        return queryPage(null, null, 1).thenApply(page -> null);
+    }
+
+    /** Returns a copy of a file listed by another connection to the same server, for downloading over this one. */
+    File adopt(File file) {
+        final File copy = new File(file.fileName, file.description, file.handle, file.size, file.pricePerChunk);
+        copy.merkleRoot = file.merkleRoot;
+        return copy;
+    }
+
+    int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    Wallet getWallet() {
+        return wallet;
+    }
+
+    private void startDownload(File file) {
+        downloadLock.lock();
+        try {
+            if (file.failure != null)
+                return;   // The connection went whilst the payment channel was being opened.
+            if (file.nextOffset >= file.endOffset) {
+                finishDownload(file);
+                return;
             }
-            if (numPurchasedChunks == 0) {
-                /* ValueOutOfRangeException */ runUnchecked(() ->
-                    paymentChannelClient.incrementPayment(BigInteger.valueOf(file.pricePerChunk))
-                );
-                numPurchasedChunks++;
-                if (onPaymentMade != null)
-                    onPaymentMade.accept(file.pricePerChunk);
+            schedule.add(file);
+            fillWindow();
+        } catch (IOException e) {
+            failAll(e);
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
+    // Sends requests until the window is full, one for each download in turn.
+    private void fillWindow() throws IOException {
+        downloadLock.lock();
+        try {
+            while (!schedule.isEmpty() && window.hasRoom(bytesInFlight) &&
+                    (bytesInFlight == 0 || getAmountInFlight() < maxAmountAtRisk)) {
+                final File file = schedule.poll();
+                final boolean sent;
+                try {
+                    sent = downloadNextRange(file);
+                } catch (RuntimeException e) {
+                    // Couldn't pay for it. Other downloads might be cheaper or free, so let them carry on.
+                    failDownload(file, e);
+                    continue;
+                }
+                if (!sent) {
+                    // Waiting for credit, which everything else will need too. It keeps its turn for when it comes.
+                    schedule.addFirst(file);
+                    break;
+                }
+                if (file.nextOffset < file.endOffset)
+                    schedule.add(file);
             }
-            numPurchasedChunks--;
+        } finally {
+            downloadLock.unlock();
         }
+    }
+
+    // Asks for the next contiguous run of chunks, which the server streams back in one go. Returns false if it has to
+    // wait for the server to grant more credit first.
+    private boolean downloadNextRange(File file) throws IOException {
+        checkState(downloadLock.isHeldByCurrentThread());
+        // Re-pick the sizes for every request, so that the download speeds up or slows down with the connection.
+        // Ranges are kept to a fraction of the window, so there's always more than one in flight.
+        file.requestChunkSize = link.chunkSize(file.nextOffset, chunkSize, minChunkSize, maxChunkSize);
+        final long remaining = file.endOffset - file.nextOffset;
+        final int size = file.requestChunkSize;
+        final long numChunks = Math.max(1, Math.min(Math.min(link.rangeChunks(size), window.getSize() / 4 / size),
+                (remaining + size - 1) / size));
+        final long bytes = Math.min(numChunks * file.requestChunkSize, remaining);
+        if (!payFor(file, bytes))
+            return false;
         Payfile.DownloadChunk.Builder downloadChunk = Payfile.DownloadChunk.newBuilder();
         downloadChunk.setHandle(file.getHandle());
-        // For now do one chunk at a time, although the protocol allows for more.
-        downloadChunk.setChunkId(file.nextChunk++);
+        downloadChunk.setChunkId(file.nextOffset / file.requestChunkSize);
+        downloadChunk.setNumChunks((int) numChunks);
+        if (file.requestChunkSize != chunkSize)
+            downloadChunk.setChunkSize(file.requestChunkSize);
+        file.requests.add(new Request(downloadChunk.getChunkId(), downloadChunk.getChunkId() + numChunks,
+                file.requestChunkSize, bytes, bytesInFlight == 0));
+        bytesInFlight += bytes;
+        file.nextOffset += numChunks * file.requestChunkSize;
         Payfile.PayFileMessage.Builder msg = Payfile.PayFileMessage.newBuilder();
         msg.setType(Payfile.PayFileMessage.Type.DOWNLOAD_CHUNK);
         msg.setDownloadChunk(downloadChunk);
         writeMessage(msg.build());
+        return true;
+    }
+
+    // What's been paid for data that was asked for but hasn't arrived yet.
+    private long getAmountInFlight() {
+        return Chunks.price(1, chunkSize, pricedBytes) - Chunks.price(1, chunkSize, receivedPricedBytes);
+    }
+
+    // Pays for the given number of bytes of the file, if earlier payments don't already cover them. Prices are per
+    // byte, so this only rounds up to a whole satoshi once, on the running total. Returns false if the bytes shouldn't
+    // be asked for yet, because the server hasn't granted the credit for them.
+    private boolean payFor(File file, long bytes) {
+        if (paymentChannelClient == null)
+            return true;
+        final long priced = pricedBytes + file.pricePerChunk * bytes;
+        final long owed = Chunks.price(1, chunkSize, priced);
+        final PaymentChannelClientState state = paymentChannelClient.state();
+        final long paid = state.getValueSpent().longValue() - paymentBaseline;
+        if (owed > paid)
+            pay(file, bytes, owed, paid, state);
+        // A server that grants credit would refuse the request until it has caught up with our payments, so wait for
+        // the CREDIT. Ones that don't will have seen the payment by the time they get the request.
+        if (serverGrantsCredit && owed > grantedCredit)
+            return false;
+        pricedBytes = priced;
+        return true;
+    }
+
+    private void pay(File file, long bytes, long owed, long paid, PaymentChannelClientState state) {
+        // Pay ahead for some more chunks whilst we're at it, but not beyond the end of the file, and only as far as the
+        // amount at risk and the channel allow.
+        final long received = Chunks.price(1, chunkSize, receivedPricedBytes);
+        final long restOfFile = Chunks.price(file.pricePerChunk, chunkSize, file.endOffset - file.nextOffset - bytes);
+        long target = owed + Math.min(prepaidChunks * file.pricePerChunk, restOfFile);
+        target = Math.min(target, Math.max(owed, received + maxAmountAtRisk));
+        target = Math.min(target, paid + state.getValueRefunded().longValue());
+        long amount = Math.max(target, owed) - paid;
+        // Other connections paying for the same download might have used up what there is to pay ahead with.
+        if (budget != null)
+            amount = budget.reserve(owed - paid, amount);
+        final long fAmount = amount;
+        /* ValueOutOfRangeException */ runUnchecked(() ->
+            paymentChannelClient.incrementPayment(BigInteger.valueOf(fAmount))
+        );
+        log.debug("{}: Paid {} satoshis, {} ahead of what we owe", socket, amount, paid + amount - owed);
+        if (onPaymentMade != null)
+            onPaymentMade.accept(amount);
+    }
+
+    private void handleCredit(Payfile.Credit credit) throws IOException {
+        downloadLock.lock();
+        try {
+            serverGrantsCredit = true;
+            grantedCredit = Math.max(grantedCredit, credit.getGranted());
+            // Carry on with anything that was waiting for it.
+            fillWindow();
+        } finally {
+            downloadLock.unlock();
+        }
     }
 
     private void writeMessage(Payfile.PayFileMessage msg) throws IOException {
         byte[] bits = msg.toByteArray();
-        output.writeInt(bits.length);
-        output.write(bits);
+        writeLock.lock();
+        try {
+            output.writeInt(bits.length);
+            output.write(bits);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private class ClientThread extends Thread {
+    private class ClientThread implements Runnable {
         @Override
         public void run() {
             try {
                 running = true;
                 while (true) {
-                    int len = input.readInt();
-                    if (len < 0 || len > 1024*1024)
+                    int len = reader.readPrefix();
+                    if (RawDataFrame.isRaw(len)) {
+                        handleRawData(RawDataFrame.payloadLength(len));
+                        continue;
+                    }
+                    if (len < 0 || len > MAX_FRAME_SIZE)
                         throw new ProtocolException("Server sent message that's too large: " + len);
-                    byte[] bits = new byte[len];
-                    input.readFully(bits);
-                    Payfile.PayFileMessage msg = Payfile.PayFileMessage.parseFrom(bits);
-                    handle(msg);
+                    handle(reader.readMessage(len));
                 }
             } catch (EOFException | SocketException e) {
                 if (running)
                     e.printStackTrace();
+                failAll(e);
             } catch (Throwable t) {
-                // Server flagged an error.
-                if (currentFuture != null)
-                    currentFuture.completeExceptionally(t);
-                else
+                // Server flagged an error, after which it hangs up, so everything in progress has failed.
+                if (!failAll(t))
                     t.printStackTrace();
+            } finally {
+                reader.close();
             }
         }
     }
@@ -373,6 +1107,12 @@ public class PayFileClient {
             case PAYMENT:
                 handlePayment(msg.getPayment());
                 break;
+            case CREDIT:
+                handleCredit(msg.getCredit());
+                break;
+            case PROOF:
+                handleProof(msg.getProof());
+                break;
             default:
                 throw new ProtocolException("Unhandled message");
         }
@@ -401,48 +1141,313 @@ public class PayFileClient {
         }
     }
 
-    @Nullable
-    private File handleToFile(int handle) {
-        for (File file : currentDownloads) {
-            if (file.getHandle() == handle) {
-                return file;
+    private void handleData(Payfile.Data data) throws IOException, ProtocolException {
+        File file = checkDataIsExpected(data.getHandle(), data.getChunkId());
+        final ByteString bits = data.getData();
+        if (file.verifying) {
+            verify(file, data.getChunkId(), bits.toByteArray());
+        } else {
+            file.bytesDownloaded += bits.size();
+            bits.writeTo(file.downloadStream);
+            if (file.downloadStream.failure != null)
+                failDownload(file, file.downloadStream.failure);
+        }
+        chunkReceived(file, bits.size());
+    }
+
+    // The header has been read already, so what's left on the wire is the handle, chunk id and payload. The payload
+    // is copied from the read buffer to the download stream in pieces, without ever being parsed.
+    private void handleRawData(int length) throws IOException, ProtocolException {
+        if (length > MAX_FRAME_SIZE)
+            throw new ProtocolException("Server sent raw DATA frame that's too large: " + length);
+        final int handle = reader.readInt();
+        final long chunkId = reader.readLong();
+        File file = checkDataIsExpected(handle, chunkId);
+        if (file.verifying) {
+            // It can't go straight to the stream, as it has to be checked first.
+            final byte[] data = new byte[length];
+            reader.readFully(data, 0, length);
+            verify(file, chunkId, data);
+        } else {
+            reader.copyTo(file.downloadStream, length);
+            file.bytesDownloaded += length;
+            if (file.downloadStream.failure != null)
+                failDownload(file, file.downloadStream.failure);
+        }
+        chunkReceived(file, length);
+    }
+
+    private void handleProof(Payfile.MerkleProof proof) throws ProtocolException {
+        File file = checkDataIsExpected(proof.getHandle(), proof.getChunkId());
+        if (!file.verifying)
+            throw new ProtocolException("Server sent a PROOF that wasn't asked for");
+        file.proof = proof;
+    }
+
+    // Starts checking a chunk that just arrived on the verifier pool, and queues it to be written out after the ones
+    // before it, or if it's a resend of a bad one, hands it to whatever is waiting for that.
+    private void verify(File file, long chunkId, byte[] data) throws ProtocolException {
+        final Payfile.MerkleProof proof = file.proof;
+        file.proof = null;
+        if (proof == null || proof.getChunkId() != chunkId)
+            throw new ProtocolException("Server sent DATA without a PROOF");
+        downloadLock.lock();
+        try {
+            final Request request = file.requests.peek();
+            if (request.replacement != null) {
+                request.replacement.complete(new Chunk(file, chunkId, request.chunkSize, data, proof,
+                        checkNotNull(request.resendOf).paid, true));
+                return;
             }
+            file.bytesDownloaded += data.length;
+            final Chunk chunk = new Chunk(file, chunkId, request.chunkSize, data, proof, paymentChannelClient != null,
+                    false);
+            file.written = file.written.thenCompose(v -> commit(file, chunk));
+        } finally {
+            downloadLock.unlock();
         }
-        return null;
     }
 
-    private void handleData(Payfile.Data data) throws IOException, ProtocolException {
-        File file = handleToFile(data.getHandle());
-        if (file == null)
-            throw new ProtocolException("Unknown handle");
-        if (data.getChunkId() == file.nextChunk - 1) {
-            final byte[] bits = data.getData().toByteArray();
-            file.bytesDownloaded += bits.length;
-            file.downloadStream.write(bits);
-            if ((data.getChunkId() + 1) * chunkSize >= file.getSize()) {
-                // File is done.
-                file.downloadStream.close();
-                currentDownloads.remove(file);
-                file.completionFuture.complete(null);
-                currentFuture = null;
+    // Writes the chunk out once it's been checked, or if it's bad, gets it again.
+    private CompletableFuture<Void> commit(File file, Chunk chunk) {
+        return chunk.verified.thenCompose(ok -> {
+            if (!ok)
+                return resend(file, chunk);
+            file.downloadStream.write(chunk.data, 0, chunk.data.length);
+            downloadLock.lock();
+            try {
+                // Only now does what was paid for it stop counting as at risk, so a server sending junk doesn't get
+                // paid any further ahead.
+                if (chunk.paid)
+                    receivedPricedBytes += file.pricePerChunk * chunk.data.length;
+                if (file.downloadStream.failure != null)
+                    failDownload(file, file.downloadStream.failure);
+                fillWindow();
+            } catch (IOException e) {
+                failAll(e);
+            } finally {
+                downloadLock.unlock();
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    // Asks for a chunk that didn't match the Merkle root again. The server sends it for free, once, and the download
+    // waits for it before writing anything that came after it. A server that sends it wrong again, or sends too many
+    // bad chunks, fails the download rather than being asked (and paid) for any more.
+    private CompletableFuture<Void> resend(File file, Chunk bad) {
+        final CompletableFuture<Chunk> replacement = new CompletableFuture<>();
+        downloadLock.lock();
+        try {
+            if (file.failure != null || file.completionFuture.isDone())
+                return CompletableFuture.completedFuture(null);
+            if (bad.resent || ++file.badChunks > MAX_BAD_CHUNKS) {
+                failDownload(file, new ProtocolException("Server sent data for " + file.getFileName() +
+                        " that doesn't match its Merkle root"));
+                return CompletableFuture.completedFuture(null);
+            }
+            log.warn("{}: Chunk {} of {} doesn't match its Merkle root, asking for it again", socket, bad.chunkId,
+                    file.getFileName());
+            final Request request = new Request(bad.chunkId, bad.chunkId + 1, bad.chunkSize, bad.data.length,
+                    bytesInFlight == 0);
+            request.resendOf = bad;
+            request.replacement = replacement;
+            file.requests.add(request);
+            bytesInFlight += request.bytes;
+            Payfile.DownloadChunk.Builder downloadChunk = Payfile.DownloadChunk.newBuilder()
+                    .setHandle(file.getHandle())
+                    .setChunkId(bad.chunkId)
+                    .setResend(true);
+            if (bad.chunkSize != chunkSize)
+                downloadChunk.setChunkSize(bad.chunkSize);
+            writeMessage(Payfile.PayFileMessage.newBuilder()
+                    .setType(Payfile.PayFileMessage.Type.DOWNLOAD_CHUNK)
+                    .setDownloadChunk(downloadChunk)
+                    .build());
+        } catch (IOException e) {
+            failAll(e);
+        } finally {
+            downloadLock.unlock();
+        }
+        return replacement.thenCompose(chunk -> commit(file, chunk));
+    }
+
+    private File checkDataIsExpected(int handle, long chunkId) throws ProtocolException {
+        downloadLock.lock();
+        try {
+            final File file = downloads.get(handle);
+            if (file == null)
+                throw new ProtocolException("Unknown handle");
+            Request request = file.requests.peek();
+            if (request == null || chunkId != request.nextChunk)
+                throw new ProtocolException("Server sent wrong part of file");
+            if (request.latency < 0)
+                request.latency = System.nanoTime() - request.sentAt;
+            return file;
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
+    private void chunkReceived(File file, int length) throws IOException {
+        downloadLock.lock();
+        try {
+            // Chunks that are being checked count as received once they have been.
+            if (paymentChannelClient != null && !file.verifying)
+                receivedPricedBytes += file.pricePerChunk * length;
+            Request request = file.requests.peek();
+            if (++request.nextChunk < request.endChunk)
+                return;   // More of the range to come.
+            file.requests.poll();
+            bytesInFlight -= request.bytes;
+            final long now = System.nanoTime();
+            if (request.sentIntoIdlePipe) {
+                link.roundTrip(request.latency);
+                link.transfer(request.bytes, now - request.sentAt);
             } else {
-                downloadNextChunk(file);
+                // The pipe was busy the whole time since the last request was finished, so this is how long the
+                // bytes of this one took to come through.
+                link.delivered(request.bytes, now - lastDeliveryAt);
             }
-        } else {
-            throw new ProtocolException("Server sent wrong part of file");
+            lastDeliveryAt = now;
+            window.completed(request.bytes, request.sentAt, request.latency);
+            if (file.requests.isEmpty()) {
+                if (file.failure != null) {
+                    // Everything that was asked for before it failed has now been thrown away.
+                    downloads.remove(file.getHandle());
+                    file.completionFuture.completeExceptionally(file.failure);
+                } else if (file.nextOffset >= file.endOffset && !file.finishing) {
+                    // Everything has arrived, but maybe not been checked and written out yet.
+                    file.finishing = true;
+                    file.written.thenRun(() -> {
+                        downloadLock.lock();
+                        try {
+                            if (file.failure == null)
+                                finishDownload(file);
+                        } finally {
+                            downloadLock.unlock();
+                        }
+                    });
+                }
+            }
+            fillWindow();
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
+    private void finishDownload(File file) {
+        checkState(downloadLock.isHeldByCurrentThread());
+        downloads.remove(file.getHandle());
+        try {
+            file.downloadStream.close();
+        } catch (IOException e) {
+            file.completionFuture.completeExceptionally(e);
+            return;
+        }
+        log.info("{}: Downloaded file {} {}", socket, file.getHandle(), file.getFileName());
+        file.completionFuture.complete(null);
+    }
+
+    /**
+     * Fails one download and stops asking for more of it. If some of it is still on the way, the download stays
+     * registered until that has arrived and been dropped, as otherwise it would look like the server was sending
+     * data nobody asked for.
+     */
+    private void failDownload(File file, Throwable t) {
+        downloadLock.lock();
+        try {
+            if (file.failure != null || file.completionFuture.isDone())
+                return;
+            log.warn("{}: Download of {} failed: {}", socket, file.getFileName(), t.toString());
+            file.failure = t;
+            file.downloadStream.discarding = true;
+            schedule.remove(file);
+            if (file.requests.isEmpty()) {
+                downloads.remove(file.getHandle());
+                closeQuietly(file);
+                file.completionFuture.completeExceptionally(t);
+            }
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
+    private void failPaidDownloads(Throwable t) {
+        downloadLock.lock();
+        try {
+            for (File file : downloads.values()) {
+                if (file.getPrice() > 0)
+                    failDownload(file, t);
+            }
+        } finally {
+            downloadLock.unlock();
         }
     }
 
+    /**
+     * Fails everything in progress, because the connection has gone. Returns false if there wasn't anything to fail.
+     */
+    private boolean failAll(Throwable t) {
+        boolean failedAny = false;
+        downloadLock.lock();
+        try {
+            final List<File> failed = downloads.values();
+            downloads.clear();
+            schedule.clear();
+            for (File file : failed) {
+                file.failure = t;
+                file.requests.clear();   // None of it is coming now.
+                closeQuietly(file);
+                failedAny |= file.completionFuture.completeExceptionally(t);
+            }
+            bytesInFlight = 0;
+        } finally {
+            downloadLock.unlock();
+        }
+        final CompletableFuture<Page> query = currentQuery;
+        if (query != null) {
+            currentQuery = null;
+            failedAny |= query.completeExceptionally(t);
+        }
+        if (settling && settlementFuture != null)
+            failedAny |= settlementFuture.completeExceptionally(t);
+        return failedAny;
+    }
+
+    private static void closeQuietly(File file) {
+        try {
+            file.downloadStream.close();
+        } catch (IOException ignored) {}
+    }
+
     private void handleManifest(Payfile.Manifest manifest) throws ProtocolException {
         if (currentQuery == null)
             throw new ProtocolException("Got MANIFEST before QUERY_FILES");
         List<File> files = new ArrayList<>(manifest.getFilesCount());
-        for (Payfile.File f : manifest.getFilesList()) {
-            File file = new File(f.getFileName(), f.getDescription(), f.getHandle(), f.getSize(), f.getPricePerChunk());
-            files.add(file);
-        }
+        for (Payfile.File f : manifest.getFilesList())
+            files.add(fileFrom(f));
+        link.transfer(manifest.getSerializedSize(), System.nanoTime() - queryStartedAt);
+        setChunkSizes(manifest);
+        // Old servers don't do paging or versions, and send everything in one go.
+        final Page page = new Page(files, manifest.getFilesList(), manifest.hasNextCursor() ? manifest.getNextCursor() : null,
+                manifest.hasVersion() ? manifest.getVersion() : null, manifest.getNotModified());
+        final CompletableFuture<Page> query = currentQuery;
+        currentQuery = null;
+        query.complete(page);
+    }
+
+    private File fileFrom(Payfile.File f) {
+        File file = new File(f.getFileName(), f.getDescription(), f.getHandle(), f.getSize(), f.getPricePerChunk());
+        if (f.hasMerkleRoot() && f.getMerkleRoot().size() == MerkleTree.HASH_SIZE)
+            file.merkleRoot = f.getMerkleRoot().toByteArray();
+        return file;
+    }
+
+    private void setChunkSizes(Payfile.Manifest manifest) {
         chunkSize = manifest.getChunkSize();
-        currentFuture = null;
-        currentQuery.complete(files);
+        // Old servers only do the one size.
+        minChunkSize = manifest.hasMinChunkSize() ? manifest.getMinChunkSize() : chunkSize;
+        maxChunkSize = manifest.hasMaxChunkSize() ? manifest.getMaxChunkSize() : chunkSize;
     }
 }
@@ -0,0 +1,35 @@
+package net.plan99.payfile.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on what several connections paying for parts of the same download may pay between them. Each connection
+ * pays ahead for its own part independently, so without this they could together get well ahead of what the whole
+ * download costs. Payments for data that's already been asked for always go through: the limit only trims how far
+ * ahead they pay.
+ */
+class PaymentBudget {
+    private final long limit;
+    private final AtomicLong committed = new AtomicLong();
+
+    PaymentBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Reserves between min and max satoshis, as much as the limit allows but never less than min, and returns how
+     * much that was.
+     */
+    long reserve(long min, long max) {
+        while (true) {
+            final long before = committed.get();
+            final long amount = Math.max(min, Math.min(max, limit - before));
+            if (committed.compareAndSet(before, before + amount))
+                return amount;
+        }
+    }
+
+    long getCommitted() {
+        return committed.get();
+    }
+}
@@ -0,0 +1,37 @@
+package net.plan99.payfile.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes one part of a file into its place, for downloads that fetch several parts at once. Positional writes don't
+ * interfere with each other, so the parts don't need to coordinate. Closing it does nothing, as the file is shared.
+ */
+class PositionedOutputStream extends OutputStream {
+    private final FileChannel channel;
+    private long position;
+
+    PositionedOutputStream(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    @Override
+    public void close() {
+        // Whoever opened the file closes it once all the parts are done.
+    }
+}
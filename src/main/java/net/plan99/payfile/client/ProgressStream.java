@@ -0,0 +1,25 @@
+package net.plan99.payfile.client;
+
+import javax.annotation.Nullable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+/** Forwards to another stream and tells onProgress, if set, the size of every write. */
+class ProgressStream extends FilterOutputStream {
+    @Nullable private final LongConsumer onProgress;
+
+    ProgressStream(OutputStream out, @Nullable LongConsumer onProgress) {
+        super(out);
+        this.onProgress = onProgress;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would otherwise forward this one byte at a time.
+        out.write(b, off, len);
+        if (onProgress != null)
+            onProgress.accept(len);
+    }
+}
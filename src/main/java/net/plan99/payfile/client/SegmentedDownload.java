@@ -0,0 +1,121 @@
+package net.plan99.payfile.client;
+
+import com.google.bitcoin.core.InsufficientMoneyException;
+import com.google.bitcoin.core.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static net.plan99.payfile.utils.Exceptions.evalUnchecked;
+
+/**
+ * <p>Downloads one file over several connections to the same server at once. A single TCP connection to a server far
+ * away can't fill a fast pipe, as it's limited by its window and the round trip time, but several together can. The
+ * file is split into one contiguous segment per connection, and each is written straight into its place in an output
+ * file that's been made the full size up front.</p>
+ *
+ * <p>Every connection pays for its own segment over its own payment channel. Those are funded by splitting the wallet
+ * between them, and a {@link PaymentBudget} stops them paying ahead for more than the file costs between them. The
+ * channels are kept, so the next segmented download from the same server uses them again.</p>
+ */
+public class SegmentedDownload {
+    private static final Logger log = LoggerFactory.getLogger(SegmentedDownload.class);
+
+    /**
+     * Starts downloading the file, as listed by the given client, into destination over up to the given number of
+     * connections. The client's own connection isn't used, unless the file is too small to split or the wallet can't
+     * fund a channel for every connection, in which case it's downloaded over that as usual, and resumed if it was cut
+     * short before. onProgress, if set, is given the size of every write, plus what was already there in that case.
+     */
+    public static CompletableFuture<Void> start(PayFileClient client, PayFileClient.File file, File destination,
+                                                int connections, @Nullable LongConsumer onProgress)
+            throws IOException, InsufficientMoneyException {
+        checkArgument(connections >= 1 && connections <= PayFileClient.MAX_CONNECTIONS,
+                "Bad number of connections: %s", connections);
+        // Segments are whole numbers of the largest chunks, so no request for one can run into the next.
+        final long align = client.getMaxChunkSize();
+        final long alignedChunks = (file.getSize() + align - 1) / align;
+        final int segments = (int) Math.min(connections, alignedChunks);
+        final long price = file.getPrice();
+        final long fee = Transaction.REFERENCE_DEFAULT_MIN_TX_FEE.longValue();
+        final long channelSize = segments < 2 ? 0 :
+                (client.getWallet().getBalance().longValue() - segments * fee) / segments;
+        // Besides its share of the price, each channel needs room for the minimum payment that opens it.
+        if (segments < 2 || (price > 0 && channelSize < (price + segments - 1) / segments + fee)) {
+            log.info("Downloading {} over a single connection", file.getFileName());
+            return client.downloadFile(file, destination, onProgress);
+        }
+        final long segmentSize = (alignedChunks + segments - 1) / segments * align;
+        if (price > 0 && !file.isAffordable())
+            throw new InsufficientMoneyException(BigInteger.valueOf(price - client.getRemainingBalance().longValue()),
+                    "Cannot afford this file");
+
+        log.info("Downloading {} over {} connections", file.getFileName(), segments);
+        final RandomAccessFile output = new RandomAccessFile(destination, "rw");
+        try {
+            output.setLength(file.getSize());
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+        final FileChannel channel = output.getChannel();
+        // Every connection rounds what it owes up to a whole satoshi.
+        final PaymentBudget budget = new PaymentBudget(price + segments);
+        final Queue<PayFileClient> clients = new ConcurrentLinkedQueue<>();
+        final List<CompletableFuture<Void>> parts = new ArrayList<>();
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        for (int i = 0; i < segments; i++) {
+            final int index = i + 1;
+            final long start = i * segmentSize;
+            final long end = Math.min(file.getSize(), start + segmentSize);
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                final PayFileClient connection = evalUnchecked(() ->
+                        client.openConnection(index, segments, channelSize, budget));
+                clients.add(connection);
+                if (result.isCompletedExceptionally())
+                    disconnectAll(clients);   // Another segment failed whilst this one was connecting.
+                return connection;
+            }).thenCompose(connection -> connection.handshake().thenCompose(v ->
+                    connection.downloadRange(connection.adopt(file), start, end,
+                            new ProgressStream(new PositionedOutputStream(channel, start), onProgress))
+            )).whenComplete((v, ex) -> {
+                if (ex != null)
+                    result.completeExceptionally(ex);
+            }));
+        }
+        // One segment failing means the whole download has, as does cancelling it, so don't let the others carry on
+        // spending.
+        result.whenComplete((v, ex) -> {
+            if (ex != null)
+                disconnectAll(clients);
+        });
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture[parts.size()])).whenComplete((v, ex) -> {
+            disconnectAll(clients);
+            try {
+                output.close();
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+            log.info("{}: paid {} satoshis over {} connections", file.getFileName(), budget.getCommitted(), segments);
+            result.complete(null);
+        });
+        return result;
+    }
+
+    private static void disconnectAll(Queue<PayFileClient> clients) {
+        PayFileClient client;
+        while ((client = clients.poll()) != null)
+            client.disconnect();
+    }
+}
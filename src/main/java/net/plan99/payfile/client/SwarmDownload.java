@@ -0,0 +1,274 @@
+package net.plan99.payfile.client;
+
+import com.google.bitcoin.core.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Downloads one file from several servers at once, so that it isn't limited by what any one of them can send. The
+ * file is cut into pieces of a few of the largest chunks, and each server is given another piece whenever it finishes
+ * one, so fast servers end up doing most of the work and a slow one just does less. Each server is paid over its own
+ * payment channel, for the pieces it sends.</p>
+ *
+ * <p>Once there are no pieces left to hand out, a server that runs out of work joins in on the piece that's been
+ * going longest with the fewest servers on it (endgame mode), so that a slow server can't hold up the end of the
+ * download. Whichever finishes first wins and the others are cancelled. That means paying twice for a few pieces,
+ * which a shared {@link PaymentBudget} keeps from turning into paying ahead twice as well.</p>
+ *
+ * <p>Listings from different servers are matched up by {@link #isSameFile}. Servers that hash their files give them a
+ * Merkle root, which identifies the contents. Otherwise the name and size are all there is to go on.</p>
+ */
+public class SwarmDownload {
+    private static final Logger log = LoggerFactory.getLogger(SwarmDownload.class);
+    // Pieces are this many of the largest chunk any of the servers allows.
+    private static final int PIECE_CHUNKS = 4;
+
+    /** A server and the file as that server lists it. */
+    public static class Source {
+        private final PayFileClient client;
+        private final PayFileClient.File file;
+        // The piece it's working on, or -1, and the copy of the file it's downloading it with. Guarded by lock.
+        private int piece = -1;
+        @Nullable private PayFileClient.File current;
+        private long startedAt;
+        private boolean failed;
+
+        public Source(PayFileClient client, PayFileClient.File file) {
+            this.client = client;
+            this.file = file;
+        }
+    }
+
+    private final List<Source> sources;
+    private final long size;
+    private final long pieceSize;
+    private final int numPieces;
+    @Nullable private final LongConsumer onProgress;
+    private final RandomAccessFile output;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Everything below is guarded by lock.
+    private final ArrayDeque<Integer> unassigned = new ArrayDeque<>();
+    private final boolean[] done;
+    private int remaining;
+
+    /**
+     * Returns true if two servers' listings look like the same file: the same name and size, and the same Merkle root
+     * if both servers have one.
+     */
+    public static boolean isSameFile(PayFileClient.File a, PayFileClient.File b) {
+        if (!a.getFileName().equals(b.getFileName()) || a.getSize() != b.getSize())
+            return false;
+        final byte[] rootA = a.getMerkleRoot(), rootB = b.getMerkleRoot();
+        return rootA == null || rootB == null || Arrays.equals(rootA, rootB);
+    }
+
+    /**
+     * Starts downloading the file to destination from all the given sources, which have to be on different servers.
+     * onProgress, if set, is given the size of each piece as it's finished.
+     */
+    public static CompletableFuture<Void> start(List<Source> sources, File destination, @Nullable LongConsumer onProgress)
+            throws IOException {
+        checkArgument(!sources.isEmpty(), "No sources");
+        // Every pair, as two sources with roots can differ even if the first source has no root to compare with.
+        for (int i = 0; i < sources.size(); i++) {
+            for (int j = i + 1; j < sources.size(); j++)
+                checkArgument(isSameFile(sources.get(i).file, sources.get(j).file), "Sources have different files");
+        }
+        final SwarmDownload download = new SwarmDownload(sources, destination, onProgress);
+        download.begin();
+        return download.result;
+    }
+
+    private SwarmDownload(List<Source> sources, File destination, @Nullable LongConsumer onProgress) throws IOException {
+        this.sources = new ArrayList<>(sources);
+        this.size = sources.get(0).file.getSize();
+        this.onProgress = onProgress;
+        // Powers of two, so a multiple of the largest is a multiple of all of them, and pieces never split a chunk.
+        int maxChunkSize = 0;
+        for (Source source : sources)
+            maxChunkSize = Math.max(maxChunkSize, source.client.getMaxChunkSize());
+        this.pieceSize = (long) maxChunkSize * PIECE_CHUNKS;
+        this.numPieces = (int) ((size + pieceSize - 1) / pieceSize);
+        this.done = new boolean[numPieces];
+        this.remaining = numPieces;
+        for (int i = 0; i < numPieces; i++)
+            unassigned.add(i);
+        this.output = new RandomAccessFile(destination, "rw");
+        output.setLength(size);
+    }
+
+    private void begin() {
+        // Each server has a channel of its own, so split the wallet between them, and have them share a budget for
+        // paying ahead. Servers that already have a channel open with us just carry on using it.
+        final long fee = Transaction.REFERENCE_DEFAULT_MIN_TX_FEE.longValue();
+        final long channelSize = (sources.get(0).client.getWallet().getBalance().longValue() - sources.size() * fee) /
+                sources.size();
+        final PaymentBudget budget = new PaymentBudget(sources.get(0).file.getPrice() + sources.size());
+        for (Source source : sources)
+            source.client.sharePayments(channelSize, budget);
+        // Cancelling the download, or it failing, stops every server. Either way the clients go back to paying for
+        // things on their own.
+        result.whenComplete((v, ex) -> {
+            if (ex != null)
+                cancelAll();
+            for (Source source : sources)
+                source.client.sharePayments(0, null);
+            try {
+                output.close();
+            } catch (IOException ignored) {}
+        });
+        if (numPieces == 0) {
+            result.complete(null);
+            return;
+        }
+        for (Source source : sources)
+            next(source);
+    }
+
+    // Gives the source its next piece, if there's anything left for it to do.
+    private void next(Source source) {
+        final int piece;
+        final PayFileClient.File copy;
+        lock.lock();
+        try {
+            if (result.isDone() || source.failed || source.piece >= 0)
+                return;
+            Integer unassignedPiece = unassigned.poll();
+            piece = unassignedPiece != null ? unassignedPiece : endgamePiece(source);
+            if (piece < 0)
+                return;   // Idle until a piece comes back from a server that failed, or it's all done.
+            copy = source.client.adopt(source.file);
+            source.piece = piece;
+            source.current = copy;
+            source.startedAt = System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+        final long start = piece * pieceSize;
+        final long end = Math.min(size, start + pieceSize);
+        source.client.downloadRange(copy, start, end, new PositionedOutputStream(output.getChannel(), start))
+                .whenComplete((v, ex) -> finished(source, piece, ex));
+    }
+
+    // Picks the in progress piece with the fewest servers on it, and of those the one that's been going longest, or
+    // returns -1 if the source is already on all of them.
+    private int endgamePiece(Source source) {
+        int best = -1, bestWorkers = Integer.MAX_VALUE;
+        long bestStartedAt = Long.MAX_VALUE;
+        for (int piece = 0; piece < numPieces; piece++) {
+            if (done[piece])
+                continue;
+            int workers = 0;
+            long startedAt = Long.MAX_VALUE;
+            boolean mine = false;
+            for (Source other : sources) {
+                if (other.piece == piece) {
+                    workers++;
+                    startedAt = Math.min(startedAt, other.startedAt);
+                    mine |= other == source;
+                }
+            }
+            if (mine || workers == 0)
+                continue;   // Pieces nobody's on are in the unassigned queue.
+            if (workers < bestWorkers || (workers == bestWorkers && startedAt - bestStartedAt < 0)) {
+                best = piece;
+                bestWorkers = workers;
+                bestStartedAt = startedAt;
+            }
+        }
+        if (best >= 0)
+            log.info("Endgame: also asking {} for piece {}", source.file.getFileName(), best);
+        return best;
+    }
+
+    private void finished(Source source, int piece, @Nullable Throwable ex) {
+        final List<Source> wake = new ArrayList<>();
+        final List<Source> losers = new ArrayList<>();
+        boolean complete = false;
+        Throwable failure = null;
+        lock.lock();
+        try {
+            source.piece = -1;
+            source.current = null;
+            if (ex == null) {
+                if (!done[piece]) {
+                    done[piece] = true;
+                    remaining--;
+                    complete = remaining == 0;
+                    if (onProgress != null)
+                        onProgress.accept(Math.min(size, (piece + 1) * pieceSize) - piece * pieceSize);
+                    // Anyone else still on it in endgame mode lost the race.
+                    for (Source other : sources) {
+                        if (other.piece == piece)
+                            losers.add(other);
+                    }
+                }
+                wake.add(source);
+            } else if (done[piece]) {
+                wake.add(source);   // Lost the race and was cancelled.
+            } else if (!result.isDone()) {
+                log.warn("Dropping a server from the swarm download of {}: {}", source.file.getFileName(), ex.toString());
+                source.failed = true;
+                boolean othersOnIt = false;
+                for (Source other : sources)
+                    othersOnIt |= other.piece == piece;
+                if (!othersOnIt)
+                    unassigned.addFirst(piece);
+                boolean anyLeft = false;
+                for (Source other : sources) {
+                    if (!other.failed) {
+                        anyLeft = true;
+                        if (other.piece < 0)
+                            wake.add(other);   // Was idle in endgame mode, and now there's a piece going spare.
+                    }
+                }
+                if (!anyLeft)
+                    failure = ex;
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Source loser : losers)
+            cancel(loser);
+        if (failure != null)
+            result.completeExceptionally(failure);
+        else if (complete)
+            result.complete(null);
+        else
+            for (Source s : wake)
+                next(s);
+    }
+
+    private void cancelAll() {
+        for (Source source : sources)
+            cancel(source);
+    }
+
+    private void cancel(Source source) {
+        final PayFileClient.File copy;
+        lock.lock();
+        try {
+            copy = source.current;
+        } finally {
+            lock.unlock();
+        }
+        if (copy != null)
+            source.client.cancelDownload(copy);
+    }
+}
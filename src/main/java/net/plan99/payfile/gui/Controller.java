@@ -35,10 +35,10 @@ import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
 import javafx.util.Duration;
 import net.plan99.payfile.client.PayFileClient;
+import net.plan99.payfile.client.SegmentedDownload;
 import net.plan99.payfile.gui.controls.ClickableBitcoinAddress;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.math.BigInteger;
 import java.util.Date;
 import java.util.List;
@@ -112,7 +112,8 @@ public class Controller {
         File destination = null;
         try {
             final PayFileClient.File downloadingFile = checkNotNull(selectedFile.get());
-            if (downloadingFile.getPrice() > getBalance().longValue())
+            // A resumed download only costs what's left of it, which downloadFile works out for itself.
+            if (Main.downloadConnections > 1 && downloadingFile.getPrice() > getBalance().longValue())
                 throw new InsufficientMoneyException(BigInteger.valueOf(downloadingFile.getPrice() - getBalance().longValue()));
             // Ask the user where to put it.
             DirectoryChooser chooser = new DirectoryChooser();
@@ -120,20 +121,24 @@ public class Controller {
             File directory = chooser.showDialog(Main.instance.mainWindow);
             if (directory == null)
                 return;
-            destination = new File(directory, downloadingFile.getFileName());
-            FileOutputStream fileStream = new FileOutputStream(destination);
+            destination = downloadingFile.getLocalFile(directory);
             final long startTime = System.currentTimeMillis();
             cancelBtn.setVisible(true);
             progressBarLabel.setText("Downloading " + downloadingFile.getFileName());
             // Make the UI update whilst the download is in progress: progress bar and balance label.
-            ProgressOutputStream stream = new ProgressOutputStream(fileStream, downloadingFile.getSize());
-            progressBar.progressProperty().bind(stream.progressProperty());
+            final boolean segmented = Main.downloadConnections > 1;
+            ProgressCounter progress = new ProgressCounter(downloadingFile.getSize());
+            progressBar.progressProperty().bind(progress.progressProperty());
             Main.client.setOnPaymentMade((amt) -> Platform.runLater(this::refreshBalanceLabel));
             // Swap in the progress bar with an animation.
             animateSwap();
             // ... and start the download.
             Settings.setLastPaidServer(Main.serverAddress);
-            downloadFuture = Main.client.downloadFile(downloadingFile, stream);
+            if (segmented)
+                downloadFuture = SegmentedDownload.start(Main.client, downloadingFile, destination,
+                        Main.downloadConnections, progress);
+            else
+                downloadFuture = Main.client.downloadFile(downloadingFile, destination, progress);   // Resumes.
             final File fDestination = destination;
             // When we're done ...
             downloadFuture.handleAsync((ok, exception) -> {
@@ -150,8 +155,9 @@ public class Controller {
                 return null;
             }, Platform::runLater);
         } catch (InsufficientMoneyException e) {
-            if (destination != null)
-                destination.delete();
+            // Nothing has been written yet, and the file might be a partial download worth keeping, so leave it be.
+            if (!controlsBoxOnScreen)
+                animateSwap();
             final String price = Utils.bitcoinValueToFriendlyString(BigInteger.valueOf(selectedFile.get().getPrice()));
             final String missing = String.valueOf(e.missing);
             informationalAlert("Insufficient funds",
@@ -39,6 +39,8 @@ import joptsimple.BuiltinHelpFormatter;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import net.plan99.payfile.client.ManifestCache;
 import net.plan99.payfile.client.PayFileClient;
 import net.plan99.payfile.gui.utils.TextFieldValidator;
 
@@ -71,9 +73,6 @@ import static net.plan99.payfile.utils.Exceptions.runUnchecked;
 // - Find/beg/buy/borrow/steal a nice icon.
 // - Find a way to dual boot Windows on my laptop.
 // - Build, sign and test native packages!
-//
-// Future ideas:
-// - Merkle tree validators for files, to avoid a server maliciously serving junk instead of the real deal.
 
 
 public class Main extends Application {
@@ -86,6 +85,8 @@ public class Main extends Application {
     public static Main instance;
     public static PayFileClient client;
     public static HostAndPort serverAddress;
+    // How many connections to download each file over. More than one means a SegmentedDownload.
+    public static int downloadConnections = 1;
     private static String filePrefix;
 
     private StackPane uiStack;
@@ -231,7 +232,9 @@ public class Main extends Application {
                 final InetSocketAddress address = new InetSocketAddress(server.getHostText(), server.getPort());
                 final Socket socket = new Socket();
                 socket.connect(address, timeoutMsec);
-                return new PayFileClient(socket, bitcoin.wallet());
+                PayFileClient client = new PayFileClient(socket, bitcoin.wallet());
+                client.setManifestCache(new ManifestCache(new File(".", filePrefix + APP_NAME + "-manifests")));
+                return client;
             })
         );
     }
@@ -246,6 +249,8 @@ public class Main extends Application {
         // allow client to choose another network for testing by passing through an argument.
         OptionParser parser = new OptionParser();
         parser.accepts("network").withRequiredArg().withValuesConvertedBy(regex("(mainnet)|(testnet)|(regtest)")).defaultsTo("mainnet");
+        OptionSpec<Integer> connections = parser.accepts("connections", "Connections to download each file over")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(1);
         parser.accepts("help").forHelp();
         parser.formatHelpWith(new BuiltinHelpFormatter(120, 10));
         OptionSet options;
@@ -275,6 +280,12 @@ public class Main extends Application {
             filePrefix = "regtest-";
         }
 
+        downloadConnections = options.valueOf(connections);
+        if (downloadConnections < 1 || downloadConnections > PayFileClient.MAX_CONNECTIONS) {
+            System.err.println("--connections must be between 1 and " + PayFileClient.MAX_CONNECTIONS);
+            return;
+        }
+
         launch(args);
     }
 }
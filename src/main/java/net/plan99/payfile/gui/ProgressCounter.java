@@ -21,34 +21,27 @@ import javafx.beans.property.ReadOnlyDoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import net.plan99.payfile.gui.utils.ThrottledRunLater;
 
-import javax.annotation.Nonnull;
-import java.io.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 
 /**
- * An output stream that forwards to another, but keeps track of how many bytes were written and exposes the progress
- * as a JavaFX bindable property which is guaranteed to update at a sane rate on the UI thread.
+ * Counts the bytes a download reports as it goes, and exposes the progress as a JavaFX bindable property which is
+ * guaranteed to update at a sane rate on the UI thread. Downloads write to the file themselves, so this is just the
+ * progress callback they're given.
  */
-public class ProgressOutputStream extends FilterOutputStream {
+public class ProgressCounter implements LongConsumer {
     private final DoubleProperty progress;
     private final ThrottledRunLater throttler;
-    private final AtomicLong bytesSoFar;
+    private final AtomicLong bytesSoFar = new AtomicLong();
 
-    public ProgressOutputStream(OutputStream sink, long expectedSize) {
-        this(sink, 0, expectedSize);
-    }
-
-    public ProgressOutputStream(OutputStream sink, long bytesSoFar, long expectedSize) {
-        super(sink);
-        this.bytesSoFar = new AtomicLong(bytesSoFar);
+    public ProgressCounter(long expectedSize) {
         this.progress = new SimpleDoubleProperty();
-        this.throttler = new ThrottledRunLater(() -> progress.set(this.bytesSoFar.get() / (double) expectedSize));
+        this.throttler = new ThrottledRunLater(() -> progress.set(bytesSoFar.get() / (double) expectedSize));
     }
 
     @Override
-    public void write(@Nonnull byte[] b) throws IOException {
-        super.write(b);
-        bytesSoFar.addAndGet(b.length);
+    public void accept(long bytes) {
+        bytesSoFar.addAndGet(bytes);
         throttler.runLater();
     }
 
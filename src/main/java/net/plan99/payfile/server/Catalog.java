@@ -0,0 +1,157 @@
+package net.plan99.payfile.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import net.plan99.payfile.Chunks;
+import net.plan99.payfile.Payfile;
+import net.plan99.payfile.ProtocolException;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An immutable snapshot of the files being served, sorted by name. Looking a file up by handle is a hash lookup, and
+ * clients can page through the catalog in name order, which is a binary search. Clients that want the whole catalog in
+ * one go get a MANIFEST message that's serialized once per snapshot rather than once per client. When the set of files
+ * changes the server builds a new snapshot and swaps it in, so connections never see a half updated catalog. Each
+ * snapshot has a version, a hash of its contents, which lets clients that cached a previous listing skip downloading it
+ * again if nothing changed.
+ */
+class Catalog {
+    // Pages are cut short at this many bytes of file entries, to stay well inside what clients will accept.
+    private static final int MAX_PAGE_BYTES = 256 * 1024;
+
+    private final ImmutableList<Payfile.File> files;
+    private final String[] names;
+    private final int chunkSize, minChunkSize, maxChunkSize;
+    private final String version;
+    // Handles are never reused, so they keep growing whilst the server runs and can't index an array.
+    private final ImmutableMap<Integer, Payfile.File> byHandle;
+    // The complete frames, length prefix included, for clients that did and didn't ask for raw DATA frames. Built on
+    // first use, as clients that page through the catalog never need them.
+    private volatile byte[] manifestFrame, rawManifestFrame;
+
+    /** Clients get chunks of chunkSize bytes unless they ask for some other power of two between min and max. */
+    Catalog(List<Payfile.File> files, int chunkSize, int minChunkSize, int maxChunkSize) {
+        checkArgument(Chunks.isValidSize(chunkSize, minChunkSize, maxChunkSize), "Bad chunk sizes");
+        Payfile.File[] sorted = files.toArray(new Payfile.File[files.size()]);
+        Arrays.sort(sorted, Comparator.comparing(Payfile.File::getFileName));
+        this.files = ImmutableList.copyOf(sorted);
+        this.names = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++)
+            names[i] = sorted[i].getFileName();
+        this.chunkSize = chunkSize;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        Map<Integer, Payfile.File> byHandle = new HashMap<>();
+        for (Payfile.File file : files) {
+            checkArgument(file.getHandle() >= 0, "Negative handle");
+            checkArgument(byHandle.put(file.getHandle(), file) == null, "Duplicate handle %s", file.getHandle());
+        }
+        this.byHandle = ImmutableMap.copyOf(byHandle);
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putInt(chunkSize).putInt(minChunkSize).putInt(maxChunkSize);
+        for (Payfile.File file : sorted)
+            hasher.putBytes(file.toByteArray());
+        this.version = hasher.hash().toString();
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /** Returns the size of the chunks the client asked for, checking that it's one we allow. */
+    int chunkSize(Payfile.DownloadChunk request) throws ProtocolException {
+        if (!request.hasChunkSize())
+            return chunkSize;
+        if (!Chunks.isValidSize(request.getChunkSize(), minChunkSize, maxChunkSize))
+            throw new ProtocolException("DOWNLOAD_CHUNK: chunk_size must be a power of two from " + minChunkSize +
+                    " to " + maxChunkSize);
+        return request.getChunkSize();
+    }
+
+    // Every MANIFEST starts off like this.
+    private Payfile.Manifest.Builder manifest(boolean rawData) {
+        return Payfile.Manifest.newBuilder()
+                .setChunkSize(chunkSize)
+                .setMinChunkSize(minChunkSize)
+                .setMaxChunkSize(maxChunkSize)
+                .setRawData(rawData)
+                .setVersion(version);
+    }
+
+    private static Payfile.PayFileMessage manifestMessage(Payfile.Manifest.Builder manifest) {
+        return Payfile.PayFileMessage.newBuilder()
+                .setType(Payfile.PayFileMessage.Type.MANIFEST)
+                .setManifest(manifest)
+                .build();
+    }
+
+    List<Payfile.File> getFiles() {
+        return files;
+    }
+
+    /** Returns the file with the given handle, or null if there isn't one (any more). */
+    @Nullable
+    Payfile.File get(int handle) {
+        return byHandle.get(handle);
+    }
+
+    /** Returns a MANIFEST frame listing every file. The bytes are shared, so this is cheap. */
+    OutboundFrame manifestFrame(boolean rawData) {
+        byte[] frame = rawData ? rawManifestFrame : manifestFrame;
+        if (frame == null) {
+            // Two connections may race to build it, which is harmless.
+            frame = OutboundFrame.encode(manifestMessage(manifest(rawData).addAllFiles(files)));
+            if (rawData)
+                rawManifestFrame = frame;
+            else
+                manifestFrame = frame;
+        }
+        return new OutboundFrame(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * Returns a MANIFEST message holding up to maxFiles files whose names sort after the cursor, or from the start if
+     * the cursor is null. If there are more to come, next_cursor is set.
+     */
+    Payfile.PayFileMessage page(@Nullable String cursor, int maxFiles, boolean rawData) {
+        checkArgument(maxFiles > 0, "Page size must be positive");
+        int start = 0;
+        if (cursor != null) {
+            start = Arrays.binarySearch(names, cursor);
+            start = start >= 0 ? start + 1 : -start - 1;
+        }
+        Payfile.Manifest.Builder manifest = manifest(rawData);
+        int end = start, bytes = 0;
+        while (end < names.length && end - start < maxFiles) {
+            Payfile.File file = files.get(end);
+            bytes += file.getSerializedSize() + 8;
+            if (bytes > MAX_PAGE_BYTES && end > start)
+                break;
+            manifest.addFiles(file);
+            end++;
+        }
+        if (end < names.length)
+            manifest.setNextCursor(names[end - 1]);
+        return manifestMessage(manifest);
+    }
+
+    /** Returns a MANIFEST telling the client that the version it already has is current. */
+    Payfile.PayFileMessage notModified(boolean rawData) {
+        return manifestMessage(manifest(rawData).setNotModified(true));
+    }
+}
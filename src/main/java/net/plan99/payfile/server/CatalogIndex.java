@@ -0,0 +1,152 @@
+package net.plan99.payfile.server;
+
+import net.plan99.payfile.Payfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * <p>The catalog as it was when the server last saw it, saved in a compact binary file next to the wallet so that a
+ * restart doesn't have to look at every file again before it can accept connections. It holds the listing of every
+ * directory, which {@link DirectoryScanner} reuses for directories whose mtime hasn't changed, and the handle each
+ * file was given, so that handles (and so the catalog version clients have cached) survive restarts.</p>
+ *
+ * <p>Not thread safe: owned by the {@link CatalogWatcher}.</p>
+ */
+class CatalogIndex {
+    private static final Logger log = LoggerFactory.getLogger(CatalogIndex.class);
+    private static final int MAGIC = 0x50464331;   // "PFC1"
+    // Directories changed this close to when the index was written might not have a different mtime afterwards.
+    private static final long TIMESTAMP_SLOP_MSEC = 2000;
+
+    private final File file;
+    private Map<String, DirectoryScanner.Listing> directories = new HashMap<>();
+    // File name -> what the file looked like and the handle it had.
+    private final Map<String, ChunkStore.StoredFile> storedFiles = new HashMap<>();
+    private final Map<String, Integer> handles = new HashMap<>();
+    private int nextHandle;
+    private long writtenAt;
+
+    CatalogIndex(File file) {
+        this.file = file;
+    }
+
+    /** Loads the index if there is one. A missing or corrupt index just means starting from scratch. */
+    void load() {
+        if (!file.exists())
+            return;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC)
+                throw new IOException("Not a catalog index");
+            writtenAt = input.readLong();
+            nextHandle = input.readInt();
+            final int numDirectories = input.readInt();
+            Map<String, DirectoryScanner.Listing> loaded = new HashMap<>(numDirectories * 2);
+            for (int i = 0; i < numDirectories; i++) {
+                final String path = input.readUTF();
+                final String prefix = path.isEmpty() ? "" : path + "/";
+                final long lastModified = input.readLong();
+                final int numSubdirectories = input.readInt();
+                List<String> subdirectories = new ArrayList<>(numSubdirectories);
+                for (int j = 0; j < numSubdirectories; j++)
+                    subdirectories.add(prefix + input.readUTF());
+                final int numFiles = input.readInt();
+                List<ChunkStore.StoredFile> files = new ArrayList<>(numFiles);
+                for (int j = 0; j < numFiles; j++) {
+                    ChunkStore.StoredFile f = new ChunkStore.StoredFile(prefix + input.readUTF(), input.readLong(), input.readLong());
+                    final int handle = input.readInt();
+                    files.add(f);
+                    if (handle >= 0) {
+                        storedFiles.put(f.name, f);
+                        handles.put(f.name, handle);
+                    }
+                }
+                loaded.put(path, new DirectoryScanner.Listing(lastModified, files, subdirectories));
+            }
+            directories = loaded;
+            log.info("Loaded catalog index of {} directories from {}", numDirectories, file);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable catalog index {}: {}", file, e.toString());
+            directories = new HashMap<>();
+            storedFiles.clear();
+            handles.clear();
+            nextHandle = 0;
+        }
+    }
+
+    Map<String, DirectoryScanner.Listing> getDirectories() {
+        return directories;
+    }
+
+    void setDirectories(Map<String, DirectoryScanner.Listing> directories) {
+        this.directories = new HashMap<>(directories);
+    }
+
+    /** Listings of directories changed after this time can't be trusted to be up to date. */
+    long getTrustedBefore() {
+        return writtenAt - TIMESTAMP_SLOP_MSEC;
+    }
+
+    int getNextHandle() {
+        return nextHandle;
+    }
+
+    /** Returns the handle the file had when the index was saved, if it hasn't changed since. Each is handed out once. */
+    @Nullable
+    Integer takeHandle(ChunkStore.StoredFile now) {
+        final ChunkStore.StoredFile before = storedFiles.remove(now.name);
+        final Integer handle = handles.remove(now.name);
+        return before != null && !now.differsFrom(before) ? handle : null;
+    }
+
+    /**
+     * Forgets the listing of the directory containing the given file (or directory), so that the next startup looks
+     * at it properly. Called for anything that changed whilst we were running.
+     */
+    void invalidate(String name) {
+        final int slash = name.lastIndexOf('/');
+        directories.remove(slash < 0 ? "" : name.substring(0, slash));
+        directories.remove(name);
+    }
+
+    /** Writes out the current directory listings along with the handles of the given files. */
+    void save(Map<String, Payfile.File> files, int nextHandle) {
+        final long now = System.currentTimeMillis();
+        final File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                output.writeInt(MAGIC);
+                output.writeLong(now);
+                output.writeInt(nextHandle);
+                output.writeInt(directories.size());
+                for (Map.Entry<String, DirectoryScanner.Listing> entry : directories.entrySet()) {
+                    final String path = entry.getKey();
+                    final int prefixLength = path.isEmpty() ? 0 : path.length() + 1;
+                    final DirectoryScanner.Listing listing = entry.getValue();
+                    output.writeUTF(path);
+                    output.writeLong(listing.lastModified);
+                    output.writeInt(listing.subdirectories.size());
+                    for (String subdirectory : listing.subdirectories)
+                        output.writeUTF(subdirectory.substring(prefixLength));
+                    output.writeInt(listing.files.size());
+                    for (ChunkStore.StoredFile f : listing.files) {
+                        final Payfile.File served = files.get(f.name);
+                        output.writeUTF(f.name.substring(prefixLength));
+                        output.writeLong(f.size);
+                        output.writeLong(f.lastModified);
+                        output.writeInt(served != null ? served.getHandle() : -1);
+                    }
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writtenAt = now;
+        } catch (IOException e) {
+            log.warn("Could not save catalog index {}: {}", file, e.toString());
+        }
+    }
+}
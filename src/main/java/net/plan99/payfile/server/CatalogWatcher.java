@@ -0,0 +1,332 @@
+package net.plan99.payfile.server;
+
+import com.google.protobuf.ByteString;
+import net.plan99.payfile.Payfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * <p>Keeps the {@link Catalog} in step with the directory tree being served. {@link #scan()} builds the first snapshot,
+ * and after {@link #start()} a background thread uses a {@link WatchService} on every directory in the tree to pick up
+ * files being added, changed and deleted without a restart. Events are debounced, so a file that's still being copied
+ * in is only looked at once it has gone quiet, and then only the entries that were touched are updated.</p>
+ *
+ * <p>A changed file gets a new handle. Clients that are part way through downloading the old version find out when
+ * they next ask for a chunk of it, because the old handle is no longer in the catalog, rather than silently getting a
+ * mix of old and new data. Chunks that were already queued for sending are unaffected.</p>
+ *
+ * <p>The state of the catalog is saved in a {@link CatalogIndex}, so that the first scan after a restart only has to
+ * list directories that changed whilst the server was down. The background thread then double checks everything
+ * with a full scan, as files modified in place don't show up in their directory's mtime.</p>
+ *
+ * <p>If there's a {@link MerkleTreeStore}, every file that's added or changed is hashed so that its entry can carry the
+ * Merkle root. Hashing a big tree takes a long time, so files go into the catalog without a root straight away and are
+ * hashed on a background thread, which then publishes another snapshot with the roots filled in. Trees are kept, so
+ * after a restart that's only slow for new files.</p>
+ */
+class CatalogWatcher {
+    private static final Logger log = LoggerFactory.getLogger(CatalogWatcher.class);
+    private static final long DEBOUNCE_MSEC = 500;
+    // Saving the index of a big catalog isn't free, so after a change wait this long for things to settle.
+    private static final long INDEX_SAVE_DELAY_MSEC = 60 * 1000;
+
+    private final File directory;
+    private final ChunkStore store;
+    @Nullable private final ChunkCache chunkCache;
+    @Nullable private final MerkleTreeStore trees;
+    private final int chunkSize, minChunkSize, maxChunkSize;
+    private final int pricePerChunk;
+    private final Consumer<Catalog> publisher;
+    private final CatalogIndex index;
+
+    // Guards the state of the catalog, which the hashing thread updates as well as whichever thread is running scan()
+    // or the watcher.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ChunkStore.StoredFile> storedFiles = new HashMap<>();
+    // Sorted, so that everything under a directory can be found with a range query when the directory goes away.
+    private final TreeMap<String, Payfile.File> files = new TreeMap<>();
+    private int nextHandle;
+    @Nullable private Catalog current;
+    // One thread, so that a big batch of files is hashed in the order it was found and the disk isn't thrashed by two
+    // batches at once. MerkleTreeStore spreads each batch over several threads itself.
+    @Nullable private final ExecutorService hasher;
+    // Only touched by the watcher thread once it's started.
+    private WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private boolean indexDirty;
+
+    /** The publisher is handed every new snapshot, starting with the one built by {@link #scan()}. */
+    CatalogWatcher(File directory, ChunkStore store, @Nullable ChunkCache chunkCache, @Nullable MerkleTreeStore trees,
+                   int chunkSize, int minChunkSize, int maxChunkSize, int pricePerChunk, CatalogIndex index,
+                   Consumer<Catalog> publisher) {
+        this.directory = directory;
+        this.store = store;
+        this.chunkCache = chunkCache;
+        this.trees = trees;
+        this.chunkSize = chunkSize;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.pricePerChunk = pricePerChunk;
+        this.index = index;
+        this.publisher = publisher;
+        this.hasher = trees == null ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Merkle tree hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Builds the first catalog, reusing whatever the index says about directories that haven't changed since it was
+     * saved, publishes it and returns it.
+     */
+    Catalog scan() throws IOException {
+        index.load();
+        nextHandle = Math.max(nextHandle, index.getNextHandle());
+        final long startTime = System.currentTimeMillis();
+        DirectoryScanner scanner = new DirectoryScanner(directory, index.getDirectories(), index.getTrustedBefore());
+        Map<String, DirectoryScanner.Listing> listings = scanner.scan();
+        log.info("Scanned {} directories in {} msec, {} unchanged since the index was saved", listings.size(),
+                System.currentTimeMillis() - startTime, scanner.getReusedListings());
+        return apply(listings);
+    }
+
+    // Lists the whole tree again without trusting the index, catching anything scan() missed.
+    private Catalog rescan() throws IOException {
+        final long startTime = System.currentTimeMillis();
+        Map<String, DirectoryScanner.Listing> listings = new DirectoryScanner(directory, Collections.emptyMap(), 0).scan();
+        log.info("Verified catalog in {} msec", System.currentTimeMillis() - startTime);
+        return apply(listings);
+    }
+
+    // Updates the catalog to match the given listings of the whole tree.
+    private Catalog apply(Map<String, DirectoryScanner.Listing> listings) throws IOException {
+        Map<String, ChunkStore.StoredFile> observed = new HashMap<>();
+        for (ChunkStore.StoredFile f : DirectoryScanner.filesIn(listings))
+            observed.put(f.name, f);
+        Set<String> names = new HashSet<>(files.keySet());
+        names.addAll(observed.keySet());
+        index.setDirectories(listings);
+        indexDirty = true;
+        return update(names, observed);
+    }
+
+    /** Starts watching the directory for changes on a daemon thread. */
+    void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::watch, "Catalog watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Watches the given directory and every non-hidden directory under it.
+    private void register(Path start) throws IOException {
+        final Path root = directory.toPath();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && Files.isHidden(dir))
+                    return FileVisitResult.SKIP_SUBTREE;
+                watchedDirectories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private String nameOf(Path path) {
+        return directory.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private void watch() {
+        try {
+            // Start watching before the full scan, so nothing that changes in the meantime is missed.
+            register(directory.toPath());
+            rescan();
+            saveIndex();
+        } catch (IOException e) {
+            log.error("Failed to watch {}, the catalog will not be updated: {}", directory, e.toString());
+            return;
+        }
+        try {
+            while (true) {
+                Set<String> changed = new HashSet<>();
+                boolean overflowed = false;
+                // Block until something happens, then keep collecting until nothing has happened for a while.
+                WatchKey key = indexDirty ? watchService.poll(INDEX_SAVE_DELAY_MSEC, TimeUnit.MILLISECONDS) : watchService.take();
+                if (key == null) {
+                    saveIndex();
+                    continue;
+                }
+                do {
+                    final Path dir = watchedDirectories.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW || dir == null) {
+                            overflowed = true;
+                            continue;
+                        }
+                        final Path path = dir.resolve((Path) event.context());
+                        final String name = nameOf(path);
+                        changed.add(name);
+                        if (event.kind() == ENTRY_DELETE) {
+                            // If it was a directory, everything that was in it is gone too.
+                            lock.lock();
+                            try {
+                                changed.addAll(files.subMap(name + "/", name + "0").keySet());
+                            } finally {
+                                lock.unlock();
+                            }
+                        } else if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                            // Watch the new directory, and pick up whatever got put in it before we were watching.
+                            try {
+                                register(path);
+                                Map<String, DirectoryScanner.Listing> listings =
+                                        new DirectoryScanner(directory, Collections.emptyMap(), 0).scan(name);
+                                for (ChunkStore.StoredFile f : DirectoryScanner.filesIn(listings))
+                                    changed.add(f.name);
+                            } catch (IOException e) {
+                                log.warn("Could not watch new directory {}: {}", path, e.toString());
+                            }
+                        }
+                    }
+                    if (!key.reset()) {
+                        watchedDirectories.remove(key);
+                        if (directory.toPath().equals(dir)) {
+                            log.error("{} is no longer accessible, the catalog will not be updated any more", directory);
+                            return;
+                        }
+                    }
+                } while ((key = watchService.poll(DEBOUNCE_MSEC, TimeUnit.MILLISECONDS)) != null);
+                try {
+                    if (overflowed) {
+                        // We lost track of what changed, so look at everything.
+                        register(directory.toPath());
+                        rescan();
+                    } else {
+                        update(changed, null);
+                        for (String name : changed)
+                            index.invalidate(name);
+                        indexDirty = true;
+                    }
+                } catch (IOException e) {
+                    log.error("Failed to update the catalog: {}", e.toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shutting down.
+        }
+    }
+
+    private void saveIndex() {
+        lock.lock();
+        try {
+            index.save(files, nextHandle);
+        } finally {
+            lock.unlock();
+        }
+        indexDirty = false;
+    }
+
+    // Re-examines the named files and publishes a new snapshot if any of them changed. If observed is given, it says
+    // what's on disk now and anything not in it is gone. Otherwise each file is looked at individually.
+    private Catalog update(Set<String> names, @Nullable Map<String, ChunkStore.StoredFile> observed) throws IOException {
+        lock.lock();
+        try {
+            List<Payfile.File> removed = new ArrayList<>();
+            List<ChunkStore.StoredFile> added = new ArrayList<>();
+            for (String name : names) {
+                final ChunkStore.StoredFile now = observed != null ? observed.get(name) : store.getFile(name);
+                final ChunkStore.StoredFile before = storedFiles.get(name);
+                if (before != null && (now == null || now.differsFrom(before))) {
+                    storedFiles.remove(name);
+                    removed.add(files.remove(name));
+                }
+                if (now == null || (before != null && !now.differsFrom(before)))
+                    continue;
+                final Integer previousHandle = index.takeHandle(now);
+                final Payfile.File file = Payfile.File.newBuilder()
+                        .setFileName(now.name)
+                        .setDescription("Some cool file")
+                        .setHandle(previousHandle != null ? previousHandle : nextHandle++)
+                        .setSize(now.size)
+                        .setPricePerChunk(pricePerChunk)
+                        .build();
+                try {
+                    store.fileAdded(file);
+                } catch (IOException e) {
+                    log.error("Could not load {}, not serving it: {}", now.name, e.toString());
+                    continue;
+                }
+                storedFiles.put(now.name, now);
+                files.put(now.name, file);
+                added.add(now);
+            }
+            if (current != null && added.isEmpty() && removed.isEmpty())
+                return current;
+            publish();
+            log.info("Serving {} files ({} added or changed, {} removed or replaced)", files.size(), added.size(),
+                    removed.size());
+            // Only let go of the old versions once clients can no longer find them.
+            for (Payfile.File file : removed) {
+                store.fileRemoved(file);
+                if (trees != null)
+                    trees.fileRemoved(file);
+                if (chunkCache != null)
+                    chunkCache.invalidate(file.getHandle());
+            }
+            if (hasher != null && !added.isEmpty())
+                hasher.execute(() -> addRoots(added, trees.roots(added)));
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish() {
+        current = new Catalog(new ArrayList<>(files.values()), chunkSize, minChunkSize, maxChunkSize);
+        publisher.accept(current);
+    }
+
+    // Gives the hashed files their Merkle roots in a new snapshot. Any that changed or went away whilst they were being
+    // hashed are skipped, as the roots are for the old versions.
+    private void addRoots(List<ChunkStore.StoredFile> hashed, Map<String, ByteString> roots) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (ChunkStore.StoredFile stored : hashed) {
+                final ByteString root = roots.get(stored.name);
+                if (root == null || storedFiles.get(stored.name) != stored)
+                    continue;
+                final Payfile.File file = files.get(stored.name).toBuilder().setMerkleRoot(root).build();
+                checkNotNull(trees).fileAdded(file, stored);
+                files.put(stored.name, file);
+                count++;
+            }
+            if (count == 0)
+                return;
+            publish();
+            log.info("Added Merkle roots for {} files", count);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
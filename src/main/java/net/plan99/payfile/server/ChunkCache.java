@@ -0,0 +1,212 @@
+package net.plan99.payfile.server;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A process wide cache of hot chunks, keyed by (handle, chunk size, chunk id) and stored as ready to send raw DATA frames in
+ * direct (off-heap) buffers, so they cost neither GC time nor a trip through the Java heap when written to a socket.
+ * The total size of the cached frames is kept under a fixed byte budget.</p>
+ *
+ * <p>Our traffic is very skewed, and a plain LRU cache would let a single big sequential download flush out all the
+ * popular chunks. So this uses TinyLFU style admission: a small count-min sketch estimates how often every chunk has
+ * been asked for recently, and a new chunk only gets in if it's been more popular than the least recently used one
+ * it would displace. Chunks that aren't admitted are simply served from disk as before.</p>
+ */
+class ChunkCache {
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Everything below is guarded by lock. The map is access ordered so that iteration starts at the LRU entry.
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long bytesUsed;
+    private long hits, misses, evictions, rejections;
+
+    /** @param maxBytes the budget for cached frames; typicalFrameSize is only used to size the frequency sketch. */
+    ChunkCache(long maxBytes, int typicalFrameSize) {
+        checkArgument(maxBytes > 0 && typicalFrameSize > 0);
+        this.maxBytes = maxBytes;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(16, maxBytes / typicalFrameSize)));
+    }
+
+    // Handles keep growing for as long as the server runs, so they get the whole of an int rather than sharing a long
+    // with the chunk id, where two files could end up with the same keys.
+    private record Key(int handle, int chunkSize, long chunkId) {
+        // What the frequency sketch hashes. Unlike the key itself this can collide, which only skews popularity a bit.
+        long fingerprint() {
+            return ((long) handle << 32) ^ ((long) Integer.numberOfTrailingZeros(chunkSize) << 27) ^ chunkId;
+        }
+    }
+
+    private static Key key(int handle, int chunkSize, long chunkId) {
+        checkArgument(Integer.bitCount(chunkSize) == 1, "Chunk size not a power of two: %s", chunkSize);
+        checkArgument(chunkId >= 0, "Chunk id out of range: %s", chunkId);
+        return new Key(handle, chunkSize, chunkId);
+    }
+
+    /**
+     * Returns a read-only view of the cached frame, or null if it isn't cached. Either way the request is counted
+     * towards the chunk's popularity.
+     */
+    @Nullable
+    ByteBuffer get(int handle, int chunkSize, long chunkId) {
+        final Key key = key(handle, chunkSize, chunkId);
+        lock.lock();
+        try {
+            sketch.increment(key.fingerprint());
+            ByteBuffer frame = entries.get(key);
+            if (frame == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return frame.asReadOnlyBuffer();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if a frame of the given size for a chunk that just missed would be admitted, i.e. if it's worth
+     * reading it into memory rather than sending it straight from disk.
+     */
+    boolean wouldAdmit(int handle, int chunkSize, long chunkId, int size) {
+        lock.lock();
+        try {
+            return admits(key(handle, chunkSize, chunkId), size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Offers a frame (positioned at its start) for caching. It may still be rejected. The cache owns it afterwards. */
+    void put(int handle, int chunkSize, long chunkId, ByteBuffer frame) {
+        final Key key = key(handle, chunkSize, chunkId);
+        final int size = frame.remaining();
+        lock.lock();
+        try {
+            if (entries.containsKey(key))
+                return;
+            if (!admits(key, size)) {
+                rejections++;
+                return;
+            }
+            Iterator<ByteBuffer> it = entries.values().iterator();
+            while (bytesUsed + size > maxBytes && it.hasNext()) {
+                bytesUsed -= it.next().capacity();
+                it.remove();
+                evictions++;
+            }
+            entries.put(key, frame);
+            bytesUsed += frame.capacity();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops every cached chunk of the given file. */
+    void invalidate(int handle) {
+        lock.lock();
+        try {
+            Iterator<Map.Entry<Key, ByteBuffer>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, ByteBuffer> entry = it.next();
+                if (entry.getKey().handle() == handle) {
+                    bytesUsed -= entry.getValue().capacity();
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean admits(Key key, int size) {
+        if (size > maxBytes)
+            return false;
+        if (bytesUsed + size <= maxBytes)
+            return true;
+        // Full, so the candidate has to beat the entry it would push out. Comparing against just the eldest entry
+        // rather than everything that'd need evicting is what TinyLFU does too: it's cheap and works well enough.
+        Iterator<Key> it = entries.keySet().iterator();
+        return !it.hasNext() || sketch.frequency(key.fingerprint()) > sketch.frequency(it.next().fingerprint());
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            final long total = hits + misses;
+            return String.format("ChunkCache: %.1f%% hit rate (%d hits, %d misses), %d evictions, %d rejections, %d chunks using %d of %d KB",
+                    total == 0 ? 0 : hits * 100.0 / total, hits, misses, evictions, rejections, entries.size(),
+                    bytesUsed / 1024, maxBytes / 1024);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A count-min sketch with four rows of saturating four bit counters. Every so often all the counters are halved,
+     * so that popularity decays and yesterday's hot file doesn't stay hot forever.
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows = new byte[SEEDS.length][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            final int width = Integer.highestOneBit(Math.max(expectedEntries, 16) * 2 - 1);
+            for (int i = 0; i < rows.length; i++)
+                rows[i] = new byte[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        private int index(long key, int row) {
+            // Fold the high half back in, or keys that differ only above bit 32, like the same chunk of two files,
+            // would land in nearly the same slots.
+            long hash = (key + SEEDS[row]) * 0x9e3779b97f4a7c15L;
+            hash ^= hash >>> 32;
+            hash *= 0x9e3779b97f4a7c15L;
+            return (int) (hash >>> 32) & mask;
+        }
+
+        void increment(long key) {
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                final int index = index(key, i);
+                if (rows[i][index] < MAX_COUNT) {
+                    rows[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize)
+                age();
+        }
+
+        int frequency(long key) {
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < rows.length; i++)
+                frequency = Math.min(frequency, rows[i][index(key, i)]);
+            return frequency;
+        }
+
+        private void age() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++)
+                    row[i] >>= 1;
+            }
+            additions /= 2;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.plan99.payfile.server;
+
+import net.plan99.payfile.Payfile;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where the server gets the files it serves from. The implementation is picked at startup with --store:
+ *
+ * <ul>
+ *     <li>file: {@link FileChunkStore}, positional reads from cached open channels and sendfile for raw frames.</li>
+ *     <li>mmap: {@link MappedChunkStore}, every file is memory mapped and chunks are slices of the mapping.</li>
+ *     <li>memory: {@link MemoryChunkStore}, the whole catalog is loaded into RAM up front. Only for small catalogs!</li>
+ * </ul>
+ */
+interface ChunkStore {
+    /** What a file looked like on disk when it was listed. */
+    class StoredFile {
+        final String name;
+        final long size;
+        final long lastModified;
+
+        StoredFile(String name, long size, long lastModified) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /** True if the file looks like it changed on disk between the two listings. */
+        boolean differsFrom(StoredFile other) {
+            return size != other.size || lastModified != other.lastModified;
+        }
+    }
+
+    /** Returns the named file if it exists and can be served, or null otherwise. */
+    @Nullable
+    StoredFile getFile(String name) throws IOException;
+
+    /**
+     * Called when a file is added to the catalog under a new handle, before any client can ask for it. Stores that
+     * preload data do it here.
+     */
+    void fileAdded(Payfile.File file) throws IOException;
+
+    /**
+     * Called once a handle has been dropped from the catalog, because the file was deleted or replaced by a newer
+     * version with a different handle. The store should let go of anything it holds for it. Frames it already handed
+     * out must stay valid.
+     */
+    void fileRemoved(Payfile.File file);
+
+    /**
+     * Returns a reader for the given file. It holds on to whatever the store needs to serve the file until it's closed,
+     * so a request for a run of chunks only looks the file up once.
+     */
+    Reader open(Payfile.File file) throws IOException;
+
+    /** Reads one file. Not thread safe. */
+    interface Reader extends Closeable {
+        /** Fills the rest of dst with the contents of the file, starting at the given offset. */
+        void read(long offset, ByteBuffer dst) throws IOException;
+
+        /**
+         * Returns a frame made of the given header followed by length bytes of the file starting at offset, sent in
+         * whatever way is cheapest for this store. The frame stays valid after the reader is closed.
+         */
+        OutboundFrame frame(ByteBuffer header, long offset, int length) throws IOException;
+
+        @Override
+        void close();
+    }
+}
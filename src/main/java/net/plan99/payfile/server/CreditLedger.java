@@ -0,0 +1,64 @@
+package net.plan99.payfile.server;
+
+import net.plan99.payfile.Chunks;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What one client has paid and what it's been served, so that each DOWNLOAD_CHUNK can be checked against the
+ * difference. Payments come in from the payment channel callbacks and chunks are charged for by whichever thread
+ * serves them, so both sides are plain atomic counters: checking a request never has to take the channel's lock.
+ */
+class CreditLedger {
+    private final int chunkSize;
+    // The channel's value to us when it was opened on this connection. A resumed channel was paid that for data served
+    // on earlier connections, so none of it is credit here.
+    private volatile long baseline;
+    // Satoshis the channel has given us since then, as of the last payment we accepted.
+    private final AtomicLong paid = new AtomicLong();
+    // Bytes served, each weighted by its file's price per chunk. They cost this divided by chunkSize, rounded up.
+    private final AtomicLong pricedBytes = new AtomicLong();
+
+    /** @param chunkSize the chunk size that prices are quoted for */
+    CreditLedger(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /** Records the channel's value to us as it's opened, before any payments are made on this connection. */
+    void opened(long value) {
+        baseline = value;
+    }
+
+    /**
+     * Records that the channel's value to us is now the given total, of which only what's above its value when it was
+     * opened counts. Returns true if that's more than before.
+     */
+    boolean paid(long total) {
+        final long credit = total - baseline;
+        return paid.getAndAccumulate(credit, Math::max) < credit;
+    }
+
+    long getPaid() {
+        return paid.get();
+    }
+
+    /** What's been served so far, in satoshis. */
+    long getSpent() {
+        return Chunks.price(1, chunkSize, pricedBytes.get());
+    }
+
+    /**
+     * Charges for the given number of bytes of a file if the client has paid enough to cover them on top of
+     * everything else it's had. Returns false and charges nothing otherwise.
+     */
+    boolean trySpend(long pricePerChunk, long bytes) {
+        final long cost = pricePerChunk * bytes;
+        while (true) {
+            final long before = pricedBytes.get();
+            if (Chunks.price(1, chunkSize, before + cost) > paid.get())
+                return false;
+            if (pricedBytes.compareAndSet(before, before + cost))
+                return true;
+        }
+    }
+}
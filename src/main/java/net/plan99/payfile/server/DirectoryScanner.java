@@ -0,0 +1,132 @@
+package net.plan99.payfile.server;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists a directory tree, one fork-join task per directory so that big trees are walked by all cores at once. It can
+ * be given the listings from an earlier walk, and reuses the listing of any directory whose modification time hasn't
+ * changed since rather than looking at every file in it again: adding, removing or renaming an entry always bumps
+ * the directory's mtime. Changing a file in place doesn't though, so a listing made that way can be out of date about
+ * file sizes and should be double checked with a full walk later on.
+ */
+class DirectoryScanner {
+    // Listing directories is mostly waiting for the disk, so use more threads than there are cores.
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /** What one directory contained. Files are named by their path relative to the root of the walk. */
+    static class Listing {
+        final long lastModified;
+        final ImmutableList<ChunkStore.StoredFile> files;
+        final ImmutableList<String> subdirectories;
+
+        Listing(long lastModified, List<ChunkStore.StoredFile> files, List<String> subdirectories) {
+            this.lastModified = lastModified;
+            this.files = ImmutableList.copyOf(files);
+            this.subdirectories = ImmutableList.copyOf(subdirectories);
+        }
+    }
+
+    private final File root;
+    private final Map<String, Listing> previous;
+    private final long trustedBefore;
+    private final Map<String, Listing> result = new ConcurrentHashMap<>();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * @param previous listings from an earlier walk, keyed by directory path relative to the root ("" for the root)
+     * @param trustedBefore only reuse listings of directories last modified before this time. Filesystem timestamps
+     *                      are coarse, so a directory changed just after it was listed may still have the same mtime.
+     */
+    DirectoryScanner(File root, Map<String, Listing> previous, long trustedBefore) {
+        this.root = root;
+        this.previous = previous;
+        this.trustedBefore = trustedBefore;
+    }
+
+    /** Walks the tree and returns the listing of every non-hidden directory in it. */
+    Map<String, Listing> scan() throws IOException {
+        return scan("");
+    }
+
+    /** Walks the given subtree, named by its path relative to the root, and returns the listings of its directories. */
+    Map<String, Listing> scan(String path) throws IOException {
+        final File start = path.isEmpty() ? root : new File(root, path);
+        if (!start.isDirectory())
+            throw new IOException(start + " is not a directory");
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            pool.invoke(new ScanTask(start, path));
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /** How many directories the last scan didn't have to list. */
+    int getReusedListings() {
+        return reused.get();
+    }
+
+    /** Returns every file in the given listings. */
+    static List<ChunkStore.StoredFile> filesIn(Map<String, Listing> listings) {
+        List<ChunkStore.StoredFile> files = new ArrayList<>();
+        for (Listing listing : listings.values())
+            files.addAll(listing.files);
+        return files;
+    }
+
+    /** Lists a single directory. The given path is relative to the root of the tree being served. */
+    static Listing list(File directory, String path) {
+        final String prefix = path.isEmpty() ? "" : path + "/";
+        final long lastModified = directory.lastModified();
+        List<ChunkStore.StoredFile> files = new ArrayList<>();
+        List<String> subdirectories = new ArrayList<>();
+        final File[] entries = directory.listFiles();
+        if (entries != null) {   // Else it was deleted whilst we were looking, or is unreadable.
+            for (File f : entries) {
+                if (f.isHidden())
+                    continue;
+                if (f.isDirectory())
+                    subdirectories.add(prefix + f.getName());
+                else if (f.isFile())
+                    files.add(new ChunkStore.StoredFile(prefix + f.getName(), f.length(), f.lastModified()));
+            }
+        }
+        return new Listing(lastModified, files, subdirectories);
+    }
+
+    private class ScanTask extends RecursiveAction {
+        private final File directory;
+        private final String path;
+
+        ScanTask(File directory, String path) {
+            this.directory = directory;
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            Listing listing = previous.get(path);
+            final long lastModified = directory.lastModified();
+            if (listing != null && lastModified != 0 && listing.lastModified == lastModified && lastModified < trustedBefore)
+                reused.incrementAndGet();
+            else
+                listing = list(directory, path);
+            result.put(path, listing);
+            List<ScanTask> tasks = new ArrayList<>(listing.subdirectories.size());
+            for (String subdirectory : listing.subdirectories)
+                tasks.add(new ScanTask(new File(root, subdirectory), subdirectory));
+            invokeAll(tasks);
+        }
+    }
+}
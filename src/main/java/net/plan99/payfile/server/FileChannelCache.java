@@ -0,0 +1,191 @@
+package net.plan99.payfile.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A bounded cache of open, read-only FileChannels keyed by file handle and shared by all connections, so that serving
+ * a chunk is a positional read rather than an open/seek/read/close. The least recently used channel is evicted when
+ * the cache is full. Channels are reference counted, so eviction never closes a channel that somebody is still reading
+ * from or transferring out of: the last {@link Lease#close()} does that instead.
+ */
+class FileChannelCache {
+    private static final Logger log = LoggerFactory.getLogger(FileChannelCache.class);
+
+    private final int maxOpen;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access ordered, so iteration starts at the least recently used entry. Guarded by lock, as are the counters.
+    private final LinkedHashMap<Integer, Lease> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits, misses, evictions;
+    // Bumped by every invalidate, so that a channel opened outside the lock can tell if it might already be stale.
+    private long invalidations;
+    // Includes channels that were evicted but are still in use.
+    private final AtomicInteger openChannels = new AtomicInteger();
+
+    FileChannelCache(int maxOpen) {
+        checkArgument(maxOpen > 0, "Cache must be able to hold at least one channel");
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * A reference to a cached channel. The cache itself holds one reference for as long as the entry is in the map,
+     * and every {@link #acquire} hands out another that must be closed when the caller is done with the channel.
+     */
+    class Lease implements Closeable {
+        private final FileChannel channel;
+        private int refCount = 1;   // Guarded by lock.
+
+        private Lease(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        FileChannel channel() {
+            return channel;
+        }
+
+        /** Takes another reference to the same channel, which has to be closed in its own right. */
+        Lease retain() {
+            lock.lock();
+            try {
+                checkState(refCount > 0, "Lease already released");
+                refCount++;
+                return this;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                release();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release() {
+            checkState(lock.isHeldByCurrentThread());
+            checkState(refCount > 0, "Lease released too many times");
+            if (--refCount == 0) {
+                openChannels.decrementAndGet();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close channel: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    /** Returns a lease on a channel for the given file, opening it if it isn't already cached. */
+    Lease acquire(int handle, Path path) throws IOException {
+        while (true) {
+            final long invalidationsBefore;
+            lock.lock();
+            try {
+                Lease lease = entries.get(handle);
+                if (lease != null) {
+                    hits++;
+                    lease.refCount++;
+                    return lease;
+                }
+                misses++;
+                invalidationsBefore = invalidations;
+            } finally {
+                lock.unlock();
+            }
+            // Open outside the lock so a slow disk doesn't hold up everybody else's cache hits.
+            FileChannel channel = open(path);
+            openChannels.incrementAndGet();
+            lock.lock();
+            try {
+                if (invalidations != invalidationsBefore) {
+                    // Something was invalidated whilst we were opening, maybe this file, in which case the channel
+                    // could be for the old version of it. Throw it away and try again rather than cache it.
+                    new Lease(channel).release();
+                    continue;
+                }
+                Lease lease = entries.get(handle);
+                if (lease != null) {
+                    // Somebody else opened it whilst we weren't holding the lock, so use theirs.
+                    new Lease(channel).release();
+                } else {
+                    lease = new Lease(channel);
+                    entries.put(handle, lease);
+                    evictIfNeeded();
+                }
+                lease.refCount++;
+                return lease;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /** Drops the given handle from the cache, e.g. because the file changed on disk. */
+    void invalidate(int handle) {
+        lock.lock();
+        try {
+            invalidations++;
+            Lease lease = entries.remove(handle);
+            if (lease != null)
+                lease.release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Lease> it = entries.values().iterator();
+        while (entries.size() > maxOpen && it.hasNext()) {
+            Lease eldest = it.next();
+            it.remove();
+            eldest.release();
+            evictions++;
+        }
+    }
+
+    int getOpenChannels() {
+        return openChannels.get();
+    }
+
+    double getHitRate() {
+        lock.lock();
+        try {
+            final long total = hits + misses;
+            return total == 0 ? 0 : hits / (double) total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("FileChannelCache: %.1f%% hit rate (%d hits, %d misses), %d evictions, %d open channels",
+                    getHitRate() * 100, hits, misses, evictions, openChannels.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
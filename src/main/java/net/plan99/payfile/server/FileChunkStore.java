@@ -0,0 +1,86 @@
+package net.plan99.payfile.server;
+
+import net.plan99.payfile.Payfile;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serves files straight from a directory: positional reads from a {@link FileChannelCache}, and raw frames are sent
+ * with transferTo so the data never enters the JVM at all.
+ */
+class FileChunkStore implements ChunkStore {
+    private final File directory;
+    private final FileChannelCache channelCache;
+
+    FileChunkStore(File directory, int maxOpenFiles) {
+        this.directory = directory;
+        this.channelCache = new FileChannelCache(maxOpenFiles);
+    }
+
+    /** Returns the named file if it exists and should be served. */
+    @Nullable
+    static StoredFile stat(File directory, String name) {
+        File f = new File(directory, name);
+        if (!f.isFile())
+            return null;
+        // Neither the file nor any directory on the way to it may be hidden.
+        for (File p = f; !p.equals(directory); p = p.getParentFile()) {
+            if (p == null || p.isHidden())
+                return null;
+        }
+        return new StoredFile(name, f.length(), f.lastModified());
+    }
+
+    @Nullable
+    @Override
+    public StoredFile getFile(String name) {
+        return stat(directory, name);
+    }
+
+    @Override
+    public void fileAdded(Payfile.File file) {
+        // Channels are opened lazily.
+    }
+
+    @Override
+    public void fileRemoved(Payfile.File file) {
+        // Transfers already in flight hold their own leases, so they keep the old channel (and thus the old inode,
+        // if the file was replaced rather than modified in place) until they're done.
+        channelCache.invalidate(file.getHandle());
+    }
+
+    @Override
+    public Reader open(Payfile.File file) throws IOException {
+        final FileChannelCache.Lease lease = channelCache.acquire(file.getHandle(),
+                new File(directory, file.getFileName()).toPath());
+        return new Reader() {
+            @Override
+            public void read(long offset, ByteBuffer dst) throws IOException {
+                final long start = offset - dst.position();
+                while (dst.hasRemaining()) {
+                    if (lease.channel().read(dst, start + dst.position()) < 0)
+                        throw new IOException("File was truncated whilst being served");
+                }
+            }
+
+            @Override
+            public OutboundFrame frame(ByteBuffer header, long offset, int length) {
+                // Each frame holds its own reference and gives it back once the transfer is done.
+                return new OutboundFrame(header, lease.channel(), offset, length, lease.retain());
+            }
+
+            @Override
+            public void close() {
+                lease.close();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return channelCache.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package net.plan99.payfile.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Memory maps every file, leaving it to the kernel's page cache to decide what's actually in RAM. */
+class MappedChunkStore extends SegmentedChunkStore {
+    MappedChunkStore(File directory) {
+        super(directory);
+    }
+
+    @Override
+    protected ByteBuffer[] load(FileChannel channel, long size) throws IOException {
+        ByteBuffer[] segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            final long position = (long) i * SEGMENT_SIZE;
+            // Mappings stay valid after the channel is closed.
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,32 @@
+package net.plan99.payfile.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads every file into off-heap memory as it's added to the catalog, so serving never touches the disk.
+ * Obviously this is only suitable when everything comfortably fits in RAM (see -XX:MaxDirectMemorySize).
+ */
+class MemoryChunkStore extends SegmentedChunkStore {
+    MemoryChunkStore(File directory) {
+        super(directory);
+    }
+
+    @Override
+    protected ByteBuffer[] load(FileChannel channel, long size) throws IOException {
+        ByteBuffer[] segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            final long position = (long) i * SEGMENT_SIZE;
+            ByteBuffer segment = ByteBuffer.allocateDirect((int) Math.min(SEGMENT_SIZE, size - position));
+            while (segment.hasRemaining()) {
+                if (channel.read(segment, position + segment.position()) < 0)
+                    throw new IOException("File was truncated whilst being loaded");
+            }
+            segment.flip();
+            segments[i] = segment;
+        }
+        return segments;
+    }
+}
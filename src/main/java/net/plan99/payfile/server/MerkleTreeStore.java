@@ -0,0 +1,280 @@
+package net.plan99.payfile.server;
+
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import net.plan99.payfile.MerkleTree;
+import net.plan99.payfile.Payfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>The Merkle tree of every file being served, so that clients can check each chunk as it arrives (see
+ * {@link MerkleTree}). Hashing a file means reading all of it, so every tree is kept on disk in a directory next to
+ * the wallet, one file per version of a served file, and only built again if the file changes. All the levels are
+ * kept, as a proof for the smallest chunks needs hashes from right down at the leaves, and proofs are read out with
+ * positional reads through a {@link FileChannelCache}.</p>
+ *
+ * <p>A tree file is a header of magic, file size and modification time, then each level in turn from the leaves up.</p>
+ */
+class MerkleTreeStore {
+    private static final Logger log = LoggerFactory.getLogger(MerkleTreeStore.class);
+    private static final int MAGIC = 0x50465431;   // "PFT1"
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+    // Hashing is mostly reading, so like DirectoryScanner use more threads than there are cores.
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int READ_SIZE = 1024 * 1024;
+    // Nodes read at once when building a level from the one below. Even, so pairs never straddle two reads.
+    private static final int NODES_PER_READ = 4096;
+
+    private final File directory;
+    private final File treeDirectory;
+    private final FileChannelCache channelCache;
+    // Which tree belongs to each handle being served.
+    private final Map<Integer, File> trees = new ConcurrentHashMap<>();
+
+    MerkleTreeStore(File directory, File treeDirectory, int maxOpenFiles) {
+        this.directory = directory;
+        this.treeDirectory = treeDirectory;
+        this.channelCache = new FileChannelCache(maxOpenFiles);
+    }
+
+    private File treeFor(ChunkStore.StoredFile file) {
+        final String key = file.name + "\n" + file.size + "\n" + file.lastModified;
+        return new File(treeDirectory, Hashing.sha256().hashBytes(key.getBytes(StandardCharsets.UTF_8)) + ".tree");
+    }
+
+    /**
+     * Returns the Merkle root of each of the given files, hashing any that haven't been hashed before on several
+     * threads at once. Files that can't be read are left out, and are served without one.
+     */
+    Map<String, ByteString> roots(List<ChunkStore.StoredFile> files) {
+        final Map<String, ByteString> roots = new ConcurrentHashMap<>();
+        if (files.isEmpty())
+            return roots;
+        final long startTime = System.currentTimeMillis();
+        final List<Callable<Void>> tasks = new ArrayList<>(files.size());
+        for (ChunkStore.StoredFile file : files) {
+            tasks.add(() -> {
+                try {
+                    roots.put(file.name, root(file));
+                } catch (IOException e) {
+                    log.warn("Could not hash {}, serving it without a Merkle tree: {}", file.name, e.toString());
+                }
+                return null;
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Found Merkle trees for {} files in {} msec", roots.size(), System.currentTimeMillis() - startTime);
+        return roots;
+    }
+
+    // Loads the root from the file's tree, building the tree first if there isn't one.
+    private ByteString root(ChunkStore.StoredFile file) throws IOException {
+        final File tree = treeFor(file);
+        if (tree.exists()) {
+            try (FileChannel channel = FileChannel.open(tree.toPath(), StandardOpenOption.READ)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                header.flip();
+                if (header.getInt() == MAGIC && header.getLong() == file.size && header.getLong() == file.lastModified &&
+                        channel.size() == HEADER_SIZE + nodes(file.size) * MerkleTree.HASH_SIZE) {
+                    final ByteBuffer root = ByteBuffer.allocate(MerkleTree.HASH_SIZE);
+                    readFully(channel, root, channel.size() - MerkleTree.HASH_SIZE);
+                    root.flip();
+                    return ByteString.copyFrom(root);
+                }
+            }
+            log.warn("Rebuilding unreadable Merkle tree {} for {}", tree, file.name);
+        }
+        return build(file, tree);
+    }
+
+    // How many nodes there are in the tree of a file of this size, across all the levels.
+    private static long nodes(long fileSize) {
+        final long leaves = MerkleTree.numLeaves(fileSize);
+        long nodes = 0;
+        for (int level = 0; level <= MerkleTree.height(leaves); level++)
+            nodes += MerkleTree.width(leaves, level);
+        return nodes;
+    }
+
+    // Where the given level starts in a tree file.
+    private static long levelOffset(long leaves, int level) {
+        long offset = HEADER_SIZE;
+        for (int l = 0; l < level; l++)
+            offset += MerkleTree.width(leaves, l) * MerkleTree.HASH_SIZE;
+        return offset;
+    }
+
+    private ByteString build(ChunkStore.StoredFile file, File tree) throws IOException {
+        final long startTime = System.currentTimeMillis();
+        if (!treeDirectory.isDirectory() && !treeDirectory.mkdirs() && !treeDirectory.isDirectory())
+            throw new IOException("Could not create " + treeDirectory);
+        final long leaves = MerkleTree.numLeaves(file.size);
+        final MessageDigest digest = MerkleTree.newDigest();
+        // Written to the side then moved into place, so a crash can't leave a truncated tree behind.
+        final File temp = new File(treeDirectory, tree.getName() + ".tmp");
+        final byte[] root;
+        try (FileChannel input = FileChannel.open(new File(directory, file.name).toPath(), StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putLong(file.size).putLong(file.lastModified).flip();
+            writeFully(output, header, 0);
+            // The leaves, reading the file straight through.
+            final ByteBuffer data = ByteBuffer.allocateDirect(READ_SIZE);
+            final ByteBuffer hashes = ByteBuffer.allocate(READ_SIZE / MerkleTree.LEAF_SIZE * MerkleTree.HASH_SIZE);
+            long position = 0, writeAt = HEADER_SIZE;
+            for (long leaf = 0; leaf < leaves; ) {
+                data.clear().limit((int) Math.min(READ_SIZE, file.size - position));
+                readFully(input, data, position);
+                position += data.position();
+                data.flip();
+                hashes.clear();
+                do {
+                    final int end = data.limit();
+                    data.limit(Math.min(end, data.position() + MerkleTree.LEAF_SIZE));
+                    hashes.put(MerkleTree.leaf(digest, data));
+                    data.limit(end);
+                    leaf++;
+                } while (data.hasRemaining());
+                hashes.flip();
+                writeAt += writeFully(output, hashes, writeAt);
+            }
+            // Then each level from the one below it.
+            final byte[][] nodes = new byte[NODES_PER_READ][];
+            final ByteBuffer in = ByteBuffer.allocate(NODES_PER_READ * MerkleTree.HASH_SIZE);
+            final ByteBuffer out = ByteBuffer.allocate(NODES_PER_READ / 2 * MerkleTree.HASH_SIZE);
+            for (int level = 1; level <= MerkleTree.height(leaves); level++) {
+                final long below = MerkleTree.width(leaves, level - 1);
+                long readAt = levelOffset(leaves, level - 1);
+                for (long done = 0; done < below; ) {
+                    final int count = (int) Math.min(NODES_PER_READ, below - done);
+                    in.clear().limit(count * MerkleTree.HASH_SIZE);
+                    readFully(output, in, readAt);
+                    readAt += in.limit();
+                    in.flip();
+                    for (int i = 0; i < count; i++) {
+                        nodes[i] = new byte[MerkleTree.HASH_SIZE];
+                        in.get(nodes[i]);
+                    }
+                    final int combined = MerkleTree.combine(digest, nodes, count);
+                    out.clear();
+                    for (int i = 0; i < combined; i++)
+                        out.put(nodes[i]);
+                    out.flip();
+                    writeAt += writeFully(output, out, writeAt);
+                    done += count;
+                }
+            }
+            final ByteBuffer last = ByteBuffer.allocate(MerkleTree.HASH_SIZE);
+            readFully(output, last, writeAt - MerkleTree.HASH_SIZE);
+            root = last.array();
+            output.force(false);
+        }
+        Files.move(temp.toPath(), tree.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Hashed {} ({} bytes) in {} msec", file.name, file.size, System.currentTimeMillis() - startTime);
+        return ByteString.copyFrom(root);
+    }
+
+    /** Called when a file is added to the catalog with a Merkle root, before any client can ask for it. */
+    void fileAdded(Payfile.File file, ChunkStore.StoredFile stored) {
+        trees.put(file.getHandle(), treeFor(stored));
+    }
+
+    /** Called once a handle has been dropped from the catalog. Its tree isn't needed any more. */
+    void fileRemoved(Payfile.File file) {
+        channelCache.invalidate(file.getHandle());
+        final File tree = trees.remove(file.getHandle());
+        if (tree != null && tree.exists() && !tree.delete())
+            log.warn("Could not delete {}", tree);
+    }
+
+    /**
+     * Returns a prover for the given file, or null if it wasn't hashed. Like a {@link ChunkStore.Reader}, it holds on
+     * to the tree until it's closed.
+     */
+    @Nullable
+    Prover open(Payfile.File file) throws IOException {
+        final File tree = trees.get(file.getHandle());
+        if (tree == null || !file.hasMerkleRoot())
+            return null;
+        return new Prover(file, channelCache.acquire(file.getHandle(), tree.toPath()));
+    }
+
+    /** Reads proofs out of one file's tree. Not thread safe. */
+    static class Prover implements AutoCloseable {
+        private final long fileSize, leaves;
+        private final FileChannelCache.Lease lease;
+        private final ByteBuffer node = ByteBuffer.allocate(MerkleTree.HASH_SIZE);
+
+        private Prover(Payfile.File file, FileChannelCache.Lease lease) {
+            this.fileSize = file.getSize();
+            this.leaves = MerkleTree.numLeaves(fileSize);
+            this.lease = lease;
+        }
+
+        /** Returns the proof for the given chunk, as it goes in MerkleProof.hashes. */
+        ByteString proof(int chunkSize, long chunkId) throws IOException {
+            final int level = MerkleTree.levelFor(chunkSize);
+            final byte[] proof = new byte[MerkleTree.proofLength(fileSize, level, chunkId) * MerkleTree.HASH_SIZE];
+            long index = chunkId;
+            int next = 0;
+            for (int l = level; l < MerkleTree.height(leaves); l++, index >>= 1) {
+                final long sibling = index ^ 1;
+                if (sibling >= MerkleTree.width(leaves, l))
+                    continue;
+                node.clear();
+                readFully(lease.channel(), node, levelOffset(leaves, l) + sibling * MerkleTree.HASH_SIZE);
+                node.flip();
+                node.get(proof, next, MerkleTree.HASH_SIZE);
+                next += MerkleTree.HASH_SIZE;
+            }
+            return ByteString.copyFrom(proof);
+        }
+
+        @Override
+        public void close() {
+            lease.close();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        final long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0)
+                throw new IOException("File was truncated whilst being read");
+        }
+    }
+
+    // Returns how many bytes were written, which is all of them.
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "Merkle trees: " + channelCache;
+    }
+}
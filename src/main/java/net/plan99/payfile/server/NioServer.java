@@ -0,0 +1,297 @@
+/**
+ * Author: Mike Hearn <mhearn@bitcoinfoundation.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.plan99.payfile.server;
+
+import com.google.bitcoin.core.TransactionBroadcaster;
+import com.google.bitcoin.core.Wallet;
+import com.google.protobuf.CodedInputStream;
+import net.plan99.payfile.Payfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A non-blocking alternative to the thread per connection model in {@link Server#main}. A small fixed number of event
+ * loop threads each own a {@link Selector} and multiplex all the connections assigned to them, decoding the length
+ * prefixed frames incrementally as bytes trickle in. Decoded messages go through the same {@link Server} dispatch code
+ * as the blocking engine uses, so the wire protocol is identical and clients can't tell the difference.
+ */
+public class NioServer {
+    private static final Logger log = LoggerFactory.getLogger(NioServer.class);
+
+    // Once this much is waiting to go out to a client we stop reading its requests, and we start again when the queue
+    // has drained to the low water mark. This is what stops a slow reader from making us buffer its whole download.
+    static final int HIGH_WATER_MARK = 1024 * 1024;
+    static final int LOW_WATER_MARK = 256 * 1024;
+
+    private final Wallet wallet;
+    private final TransactionBroadcaster transactionBroadcaster;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private int nextLoop;
+
+    public NioServer(Wallet wallet, TransactionBroadcaster transactionBroadcaster, int port, int numLoops) throws IOException {
+        checkArgument(numLoops > 0, "Need at least one event loop");
+        this.wallet = wallet;
+        this.transactionBroadcaster = transactionBroadcaster;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.loops = new EventLoop[numLoops];
+        for (int i = 0; i < numLoops; i++) {
+            loops[i] = new EventLoop(i);
+            loops[i].start();
+        }
+    }
+
+    /** Accepts connections forever, handing them out to the event loops round robin. */
+    public void run() throws IOException {
+        log.info("Accepting connections using {} event loops", loops.length);
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            loops[nextLoop].register(channel);
+            nextLoop = (nextLoop + 1) % loops.length;
+        }
+    }
+
+    private class EventLoop extends Thread {
+        private final Selector selector;
+        // Work handed to us by other threads, e.g. new connections or messages from the payment channel code.
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            super("PayFile event loop " + index);
+            this.selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                } catch (IOException e) {
+                    log.error("Could not register new connection {}: {}", channel, e);
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {}
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable())
+                            connection.read();
+                        if (key.isValid() && key.isWritable())
+                            connection.flush();
+                    }
+                } catch (Throwable t) {
+                    // Connections handle their own errors, so this is a bug: log it and keep the other clients going.
+                    log.error("Unexpected error in event loop", t);
+                }
+            }
+        }
+    }
+
+    private class Connection implements Server.Output {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Server server;
+        private final String peerName;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(4 + Server.MAX_MESSAGE_SIZE);
+        // Only touched from the event loop thread.
+        private final OutboundQueue writeQueue = new OutboundQueue(HIGH_WATER_MARK, LOW_WATER_MARK);
+        private boolean closeWhenFlushed;
+        private boolean readPaused, processingFrames;
+        private volatile boolean closed;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.peerName = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+            this.server = new Server(wallet, transactionBroadcaster, peerName, this);
+            log.info("Got new connection from {}", peerName);
+        }
+
+        void read() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    log.info("Client {} disconnected", peerName);
+                    closeNow();
+                    return;
+                }
+                processFrames();
+            } catch (IOException e) {
+                log.error("{}: Failed reading message: {}", peerName, e);
+                closeNow();
+            }
+        }
+
+        // Handles every complete frame in the read buffer, unless backpressure kicks in part way through, in which
+        // case the rest stay buffered until resumeReading().
+        private void processFrames() throws IOException {
+            readBuffer.flip();
+            processingFrames = true;
+            try {
+                while (!readPaused && !closed && !closeWhenFlushed && readBuffer.remaining() >= 4) {
+                    final int start = readBuffer.position();
+                    final int len = readBuffer.getInt(start);
+                    if (len < 0 || len > Server.MAX_MESSAGE_SIZE) {
+                        log.error("Client sent over-sized message of {} bytes", len);
+                        closeNow();
+                        return;
+                    }
+                    if (readBuffer.remaining() < 4 + len)
+                        break;   // Wait for the rest of the frame to arrive.
+                    CodedInputStream stream = CodedInputStream.newInstance(readBuffer.array(), start + 4, len);
+                    Payfile.PayFileMessage msg = Payfile.PayFileMessage.parseFrom(stream);
+                    readBuffer.position(start + 4 + len);
+                    if (!server.handleMessage(msg)) {
+                        // The error message is queued up: hang up once it's sent.
+                        closeAfterFlush();
+                        return;
+                    }
+                }
+            } finally {
+                processingFrames = false;
+                readBuffer.compact();
+            }
+        }
+
+        private void pauseReading() {
+            log.debug("{}: {} bytes queued, pausing reads", peerName, writeQueue.getQueuedBytes());
+            readPaused = true;
+            if (key.isValid())
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        private void resumeReading() throws IOException {
+            log.debug("{}: Write queue drained, resuming reads", peerName);
+            readPaused = false;
+            if (!key.isValid())
+                return;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            // Requests that arrived before we paused are still sitting in the buffer. If we got here from inside
+            // processFrames then it'll carry on with them itself.
+            if (!processingFrames)
+                processFrames();
+        }
+
+        @Override
+        public void write(Payfile.PayFileMessage msg) throws IOException {
+            write(OutboundFrame.of(msg));
+        }
+
+        @Override
+        public void write(OutboundFrame frame) {
+            if (Thread.currentThread() == loop)
+                enqueue(frame);
+            else
+                loop.execute(() -> enqueue(frame));
+        }
+
+        private void enqueue(OutboundFrame frame) {
+            if (closed) {
+                frame.release();
+                return;
+            }
+            writeQueue.add(frame);
+            // Payment channel messages are queued regardless, but we stop taking new download requests.
+            if (!readPaused && !closeWhenFlushed && writeQueue.isAboveHighWaterMark())
+                pauseReading();
+            flush();
+        }
+
+        void flush() {
+            if (!key.isValid())
+                return;
+            try {
+                if (!writeQueue.flush(channel)) {
+                    // Socket buffer is full, so wait for the selector to tell us we can write again.
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                } else {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    if (closeWhenFlushed) {
+                        closeNow();
+                        return;
+                    }
+                }
+                if (readPaused && !closeWhenFlushed && writeQueue.isBelowLowWaterMark())
+                    resumeReading();
+            } catch (IOException e) {
+                log.error("{}: Failed writing message: {}", peerName, e);
+                closeNow();
+            }
+        }
+
+        /**
+         * Hangs up once everything queued so far has been sent, so that an ERROR written just before this still gets
+         * to the client. Nothing more is read from it in the meantime.
+         */
+        @Override
+        public void close() {
+            if (Thread.currentThread() == loop)
+                closeAfterFlush();
+            else
+                loop.execute(this::closeAfterFlush);
+        }
+
+        private void closeAfterFlush() {
+            if (closed || !key.isValid())
+                return;
+            closeWhenFlushed = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            flush();
+        }
+
+        private void closeNow() {
+            closed = true;
+            key.cancel();
+            writeQueue.clear();
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
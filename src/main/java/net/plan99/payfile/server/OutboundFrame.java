@@ -0,0 +1,143 @@
+package net.plan99.payfile.server;
+
+import com.google.protobuf.CodedOutputStream;
+import net.plan99.payfile.Payfile;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A frame waiting to be sent to a client: some buffers, optionally followed by a region of a file that is handed to
+ * the kernel with {@link FileChannel#transferTo} rather than being copied through the Java heap. Whoever ends up
+ * holding the frame must call {@link #release()} once it's been sent or abandoned.
+ */
+class OutboundFrame {
+    private final ByteBuffer[] buffers;
+    @Nullable private final FileChannel file;
+    private long position;
+    private long remaining;
+    @Nullable private final Closeable onRelease;
+
+    OutboundFrame(ByteBuffer... buffers) {
+        this(buffers, null, 0, 0, null);
+    }
+
+    OutboundFrame(ByteBuffer header, FileChannel file, long position, long count, @Nullable Closeable onRelease) {
+        this(new ByteBuffer[] { header }, file, position, count, onRelease);
+    }
+
+    private OutboundFrame(ByteBuffer[] buffers, @Nullable FileChannel file, long position, long count, @Nullable Closeable onRelease) {
+        this.buffers = buffers;
+        this.file = file;
+        this.position = position;
+        this.remaining = count;
+        this.onRelease = onRelease;
+    }
+
+    /** Returns a frame containing the length prefixed message. */
+    static OutboundFrame of(Payfile.PayFileMessage msg) {
+        return new OutboundFrame(ByteBuffer.wrap(encode(msg)));
+    }
+
+    /** Returns the length prefixed message. */
+    static byte[] encode(Payfile.PayFileMessage msg) {
+        final int size = msg.getSerializedSize();
+        byte[] bits = new byte[4 + size];
+        ByteBuffer.wrap(bits).putInt(size);
+        CodedOutputStream stream = CodedOutputStream.newInstance(bits, 4, size);
+        try {
+            msg.writeTo(stream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Can't happen when writing to an array.
+        }
+        stream.checkNoSpaceLeft();
+        return bits;
+    }
+
+    /** The in-memory part of the frame, which goes before the file region. */
+    ByteBuffer[] buffers() {
+        return buffers;
+    }
+
+    boolean hasBufferedBytes() {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining())
+                return true;
+        }
+        return false;
+    }
+
+    long fileBytesRemaining() {
+        return remaining;
+    }
+
+    /** How many bytes of this frame are still to be sent. */
+    long size() {
+        long size = remaining;
+        for (ByteBuffer buffer : buffers)
+            size += buffer.remaining();
+        return size;
+    }
+
+    /**
+     * Writes as much as the channel will take. Returns true once the whole frame is gone, which for a blocking
+     * channel is always the case.
+     */
+    boolean writeTo(GatheringByteChannel channel) throws IOException {
+        while (hasBufferedBytes()) {
+            if (channel.write(buffers) == 0)
+                return false;
+        }
+        while (remaining > 0) {
+            final long written = file.transferTo(position, remaining, channel);
+            if (written == 0) {
+                // Either the socket buffer is full, or the file shrank underneath us and we'd wait forever.
+                if (position >= file.size())
+                    throw new IOException("File was truncated whilst being served");
+                return false;
+            }
+            position += written;
+            remaining -= written;
+        }
+        return true;
+    }
+
+    /** For sockets that have no channel: does the same as {@link #writeTo} but copies through the heap. */
+    void copyTo(OutputStream stream) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasArray()) {
+                stream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else {
+                // Direct or read-only, e.g. from the chunk cache or a mapped file.
+                byte[] copy = new byte[buffer.remaining()];
+                buffer.get(copy);
+                stream.write(copy);
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(remaining, 64 * 1024));
+        while (remaining > 0) {
+            buf.clear();
+            buf.limit((int) Math.min(remaining, buf.capacity()));
+            final int read = file.read(buf, position);
+            if (read < 0)
+                throw new IOException("File was truncated whilst being served");
+            stream.write(buf.array(), 0, read);
+            position += read;
+            remaining -= read;
+        }
+    }
+
+    void release() {
+        if (onRelease != null) {
+            try {
+                onRelease.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
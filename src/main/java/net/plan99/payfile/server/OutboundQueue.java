@@ -0,0 +1,115 @@
+package net.plan99.payfile.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The frames waiting to be written to one connection. Flushing gathers the in-memory parts of as many queued frames
+ * as possible into a single {@link GatheringByteChannel#write(ByteBuffer[], int, int)} call, so lots of small
+ * messages don't cost a syscall each. The queue keeps count of how many bytes it holds so the owner can apply
+ * backpressure: see {@link #isAboveHighWaterMark()} and {@link #isBelowLowWaterMark()}.
+ *
+ * Not thread safe: the owner must confine it to one thread, e.g. an event loop.
+ */
+class OutboundQueue {
+    private final ArrayDeque<OutboundFrame> frames = new ArrayDeque<>();
+    private final long highWaterMark, lowWaterMark;
+    private long queuedBytes;
+    // Scratch space for gathering writes, reused so flushing doesn't allocate.
+    private ByteBuffer[] gather = new ByteBuffer[64];
+
+    OutboundQueue(long highWaterMark, long lowWaterMark) {
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    void add(OutboundFrame frame) {
+        frames.add(frame);
+        queuedBytes += frame.size();
+    }
+
+    boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /** True if the peer isn't keeping up, and so we should stop generating more data for it. */
+    boolean isAboveHighWaterMark() {
+        return queuedBytes > highWaterMark;
+    }
+
+    /** True once enough has drained that it's worth generating more data again. */
+    boolean isBelowLowWaterMark() {
+        return queuedBytes <= lowWaterMark;
+    }
+
+    /** Writes as much as the channel will take. Returns true if the queue is now empty. */
+    boolean flush(GatheringByteChannel channel) throws IOException {
+        while (!frames.isEmpty()) {
+            final int count = gatherBuffers();
+            if (count > 0) {
+                final long written = channel.write(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+                queuedBytes -= written;
+                if (written == 0)
+                    return false;
+            }
+            if (!retireSentFrames(channel))
+                return false;
+        }
+        return true;
+    }
+
+    // Collects the unsent buffers of frames from the head of the queue onwards. A frame with a file region stops the
+    // gathering, as its region has to go out before anything queued after it.
+    private int gatherBuffers() {
+        int count = 0;
+        for (OutboundFrame frame : frames) {
+            ByteBuffer[] buffers = frame.buffers();
+            if (count + buffers.length > gather.length) {
+                if (count > 0)
+                    break;
+                gather = new ByteBuffer[buffers.length];
+            }
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasRemaining())
+                    gather[count++] = buffer;
+            }
+            if (frame.fileBytesRemaining() > 0)
+                break;
+        }
+        return count;
+    }
+
+    // Releases the frames at the head of the queue that have been completely sent. If the first unfinished frame only
+    // has its file region left, transfers that. Returns false if the channel can't take any more for now.
+    private boolean retireSentFrames(GatheringByteChannel channel) throws IOException {
+        OutboundFrame head;
+        while ((head = frames.peek()) != null && !head.hasBufferedBytes()) {
+            if (head.fileBytesRemaining() > 0) {
+                final long before = head.fileBytesRemaining();
+                final boolean done = head.writeTo(channel);
+                queuedBytes -= before - head.fileBytesRemaining();
+                if (!done)
+                    return false;
+            }
+            frames.poll();
+            head.release();
+        }
+        return true;
+    }
+
+    /** Releases everything still queued, e.g. because the connection died. */
+    void clear() {
+        OutboundFrame frame;
+        while ((frame = frames.poll()) != null)
+            frame.release();
+        queuedBytes = 0;
+    }
+}
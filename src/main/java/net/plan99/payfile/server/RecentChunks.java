@@ -0,0 +1,72 @@
+package net.plan99.payfile.server;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The chunks one client has been sent lately, so that if one of them fails its Merkle check the client can have it
+ * again without paying twice (see DownloadChunk.resend). Only the last few ranges are remembered, as a client finds
+ * out whether a chunk is good straight after it arrives, and each chunk can only be resent once, so a client can't use
+ * resends to get more than it paid for.
+ */
+class RecentChunks {
+    private static final int MAX_RANGES = 1024;
+
+    private static class Range {
+        final int handle, chunkSize;
+        final long firstChunk, endChunk;
+
+        Range(int handle, int chunkSize, long firstChunk, long endChunk) {
+            this.handle = handle;
+            this.chunkSize = chunkSize;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+        }
+    }
+
+    // Requests are served by the thread reading the connection, or by the payment queue when they had to wait, so
+    // this is guarded in case those hand over to each other.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Range> ranges = new ArrayDeque<>();
+    // Resent chunks, as offsets into their files, which are bounded by the ranges.
+    private final Set<String> resent = new HashSet<>();
+
+    /** Records that the given chunks were sent. */
+    void sent(int handle, int chunkSize, long firstChunk, long numChunks) {
+        lock.lock();
+        try {
+            ranges.add(new Range(handle, chunkSize, firstChunk, firstChunk + numChunks));
+            if (ranges.size() > MAX_RANGES) {
+                final Range dropped = ranges.poll();
+                for (long chunk = dropped.firstChunk; chunk < dropped.endChunk; chunk++)
+                    resent.remove(key(dropped.handle, chunk * dropped.chunkSize));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true, and remembers that it has, if the chunk was sent recently and hasn't been resent already. The
+     * resend itself isn't recorded as sent, so it can't be resent in turn.
+     */
+    boolean takeResend(int handle, int chunkSize, long chunkId) {
+        lock.lock();
+        try {
+            for (Range range : ranges) {
+                if (range.handle == handle && range.chunkSize == chunkSize && chunkId >= range.firstChunk &&
+                        chunkId < range.endChunk)
+                    return resent.add(key(handle, chunkId * chunkSize));
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String key(int handle, long offset) {
+        return handle + ":" + offset;
+    }
+}
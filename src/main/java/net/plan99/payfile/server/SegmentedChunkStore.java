@@ -0,0 +1,107 @@
+package net.plan99.payfile.server;
+
+import net.plan99.payfile.Payfile;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class for stores that hold every file as a set of ByteBuffers, because a single buffer can't be bigger than
+ * 2GB. Chunks are served as slices of those buffers, so the only copy is the one into the socket.
+ */
+abstract class SegmentedChunkStore implements ChunkStore {
+    protected static final int SEGMENT_SIZE = 1 << 30;
+
+    private final File directory;
+    // Handle -> segments. Keyed by handle rather than name so that a replaced file's old version stays servable
+    // until the catalog has moved on to the new handle.
+    private final Map<Integer, ByteBuffer[]> files = new ConcurrentHashMap<>();
+
+    SegmentedChunkStore(File directory) {
+        this.directory = directory;
+    }
+
+    /** Returns the contents of the given file, split into segments of SEGMENT_SIZE bytes (the last may be shorter). */
+    protected abstract ByteBuffer[] load(FileChannel channel, long size) throws IOException;
+
+    @Nullable
+    @Override
+    public StoredFile getFile(String name) {
+        return FileChunkStore.stat(directory, name);
+    }
+
+    @Override
+    public void fileAdded(Payfile.File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(directory, file.getFileName()).toPath())) {
+            files.put(file.getHandle(), load(channel, Math.min(file.getSize(), channel.size())));
+        }
+    }
+
+    @Override
+    public void fileRemoved(Payfile.File file) {
+        // Slices handed out already keep their segment reachable, so in-flight frames are unaffected.
+        files.remove(file.getHandle());
+    }
+
+    @Override
+    public Reader open(Payfile.File file) throws IOException {
+        final ByteBuffer[] segments = files.get(file.getHandle());
+        if (segments == null)
+            throw new IOException("Unknown file " + file.getFileName());
+        return new Reader() {
+            @Override
+            public void read(long offset, ByteBuffer dst) throws IOException {
+                for (ByteBuffer slice : slices(file, segments, offset, dst.remaining()))
+                    dst.put(slice);
+            }
+
+            @Override
+            public OutboundFrame frame(ByteBuffer header, long offset, int length) throws IOException {
+                List<ByteBuffer> buffers = slices(file, segments, offset, length);
+                buffers.add(0, header);
+                return new OutboundFrame(buffers.toArray(new ByteBuffer[buffers.size()]));
+            }
+
+            @Override
+            public void close() {
+                // The segments stay reachable for as long as the slices taken from them do.
+            }
+        };
+    }
+
+    private static List<ByteBuffer> slices(Payfile.File file, ByteBuffer[] segments, long offset, int length) throws IOException {
+        List<ByteBuffer> slices = new ArrayList<>(2);
+        while (length > 0) {
+            final int index = (int) (offset / SEGMENT_SIZE);
+            if (index >= segments.length)
+                throw new IOException("Read beyond the end of " + file.getFileName());
+            final int start = (int) (offset % SEGMENT_SIZE);
+            ByteBuffer slice = segments[index].duplicate();
+            final int n = Math.min(length, slice.limit() - start);
+            if (n <= 0)
+                throw new IOException("Read beyond the end of " + file.getFileName());
+            slice.position(start).limit(start + n);
+            slices.add(slice.slice());
+            offset += n;
+            length -= n;
+        }
+        return slices;
+    }
+
+    @Override
+    public String toString() {
+        long bytes = 0;
+        for (ByteBuffer[] segments : files.values()) {
+            for (ByteBuffer segment : segments)
+                bytes += segment.capacity();
+        }
+        return String.format("%s: %d files, %d MB", getClass().getSimpleName(), files.size(), bytes / 1024 / 1024);
+    }
+}
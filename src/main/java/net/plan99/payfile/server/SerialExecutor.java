@@ -0,0 +1,58 @@
+package net.plan99.payfile.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on a shared executor. Each connection gets one of these
+ * on top of the same thread pool, so connections are handled in parallel but each one's tasks never overlap or get
+ * reordered. A task that throws is the task's problem: the ones after it still run.
+ */
+class SerialExecutor implements Executor {
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Both guarded by lock.
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        lock.lock();
+        try {
+            tasks.add(task);
+            if (running)
+                return;
+            running = true;
+        } finally {
+            lock.unlock();
+        }
+        executor.execute(this::drain);
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable task;
+            lock.lock();
+            try {
+                task = tasks.poll();
+                if (task == null) {
+                    running = false;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+}
@@ -26,14 +26,16 @@ import com.google.bitcoin.params.RegTestParams;
 import com.google.bitcoin.params.TestNet3Params;
 import com.google.bitcoin.protocols.channels.PaymentChannelCloseException;
 import com.google.bitcoin.protocols.channels.PaymentChannelServer;
-import com.google.bitcoin.protocols.channels.PaymentChannelServerState;
 import com.google.bitcoin.protocols.channels.StoredPaymentChannelServerStates;
 import com.google.bitcoin.utils.BriefLogFormatter;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import joptsimple.*;
+import net.plan99.payfile.FrameReader;
+import net.plan99.payfile.MerkleTree;
 import net.plan99.payfile.Payfile;
 import net.plan99.payfile.ProtocolException;
+import net.plan99.payfile.RawDataFrame;
 import org.bitcoin.paymentchannel.Protos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,56 +43,175 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.io.*;
 import java.math.BigInteger;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static joptsimple.util.RegexMatcher.regex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static net.plan99.payfile.utils.Exceptions.evalUnchecked;
 import static net.plan99.payfile.utils.Exceptions.runUnchecked;
 
 /**
  * An instance of Server handles one client. The static main method opens up a listening socket and starts a thread
  * that runs a new Server for each client that connects. This one thread per connection model is simple and
- * easy to understand, but for lots of clients you'd need to possibly minimise the stack size.
+ * easy to understand, but for lots of clients you'd need to possibly minimise the stack size. Passing --engine=virtual
+ * runs the same code on virtual threads instead, which makes tens of thousands of idle connections cheap. Alternatively,
+ * pass --engine=nio to multiplex all the connections over a few event loop threads: see {@link NioServer}.
  */
 public class Server implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(Server.class);
-    // 50kb chunk size. If we swapped in a faster ECDSA implementation then we could decrease this a lot, but
-    // bouncy castle is really slow. bitcoinj has some basic support for sipa's libsecp256k1 which would let
-    // us speed up the download significantly.
-    private static final int CHUNK_SIZE = 1024*50;
+    // The chunk size prices are quoted for, and that clients get unless they ask for something else. Clients can pick
+    // any power of two from MIN_CHUNK_SIZE to MAX_CHUNK_SIZE to suit their connection: a fast link wants big chunks so
+    // it isn't held up by round trips and by signing a payment for each one (bouncy castle ECDSA is really slow),
+    // whereas on a flaky link small chunks mean less paid for data is thrown away when one has to be fetched again.
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MIN_CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
     private static final int PORT = 18754;
     private static final int MIN_ACCEPTED_CHUNKS = 5;   // Require download of at least this many chunks.
+    static final int MAX_MESSAGE_SIZE = 64 * 1024;      // Clients have no reason to send us anything bigger.
+    private static final int MAX_PAGE_SIZE = 10000;     // Files per MANIFEST when the client is paging.
+    private static final int MAX_RANGE_SIZE = 16 * 1024 * 1024;   // Bytes per DOWNLOAD_CHUNK.
+    private static final int MAX_PENDING_PAYMENTS = 32;  // Payment messages per client waiting to be processed.
+    // Payment messages mean ECDSA signature checks and wallet updates, so they're processed here rather than by the
+    // thread reading from the connection, which can carry on serving data against credit that's already confirmed.
+    // bitcoinj checks each signature inside PaymentChannelServerState.incrementPayment and has no way to plug in a
+    // faster verifier, so spreading the checks over every core is what we can do about their cost.
+    private static final Executor paymentExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "Payment processor");
+                thread.setDaemon(true);
+                return thread;
+            });
     private static File directoryToServe;
     private static int defaultPricePerChunk = 100;  // Satoshis
-    private static ArrayList<Payfile.File> manifest;
+    // Replaced wholesale whenever the set of files changes, so read it once per request.
+    private static volatile Catalog catalog;
     private static NetworkParameters params;
-    // The client socket that we're talking to.
-    private final Socket socket;
+    private static ChunkStore chunkStore;
+    @Nullable private static ChunkCache chunkCache;
+    @Nullable private static MerkleTreeStore merkleTrees;
+    // The client socket that we're talking to, if we're using the thread per connection engine.
+    @Nullable private final Socket socket;
     private final Wallet wallet;
     private final TransactionBroadcaster transactionBroadcaster;
     private final String peerName;
-    private DataInputStream input;
-    private DataOutputStream output;
-    @Nullable private PaymentChannelServer payments;
+    private final Output output;
+    @Nullable private volatile PaymentChannelServer payments;
+    // Whether the client opened a new channel on this connection rather than resuming one.
+    private volatile boolean freshChannel;
+    // This client's payment messages, and any requests that have to wait for them, in the order they arrived.
+    private final SerialExecutor paymentQueue = new SerialExecutor(paymentExecutor);
+    private final AtomicInteger pendingPayments = new AtomicInteger();
+    private final AtomicInteger deferredDownloads = new AtomicInteger();
+    // Whether the client asked for chunks to be sent as raw DATA frames.
+    private boolean rawData;
+    // What the client has paid and been sent so far.
+    private final CreditLedger credit = new CreditLedger(CHUNK_SIZE);
+    // Whether the client asked to be told about credit with CREDIT messages.
+    private volatile boolean creditGrants;
+    // Whether the client asked for a PROOF before each chunk, and which chunks it might ask to have resent.
+    private boolean merkleProofs;
+    private final RecentChunks recentChunks = new RecentChunks();
     private static String filePrefix;
 
+    /**
+     * Somewhere to send messages to the client. The thread per connection engine writes them straight to the socket,
+     * whereas {@link NioServer} queues them up until the selector says the socket is writable again.
+     */
+    interface Output {
+        void write(Payfile.PayFileMessage msg) throws IOException;
+        /** Sends the frame and then releases it, even if sending fails. */
+        void write(OutboundFrame frame) throws IOException;
+        void close();
+    }
+
     public Server(Wallet wallet, TransactionBroadcaster transactionBroadcaster, Socket socket) {
         this.socket = socket;
         this.peerName = socket.getInetAddress().getHostAddress();
         this.wallet = wallet;
         this.transactionBroadcaster = transactionBroadcaster;
+        this.output = new SocketOutput(socket);
+    }
+
+    Server(Wallet wallet, TransactionBroadcaster transactionBroadcaster, String peerName, Output output) {
+        this.socket = null;
+        this.peerName = peerName;
+        this.wallet = wallet;
+        this.transactionBroadcaster = transactionBroadcaster;
+        this.output = output;
+    }
+
+    private static class SocketOutput implements Output {
+        private final Socket socket;
+        private final DataOutputStream stream;
+        // Payment channel callbacks can write from other threads. This is a ReentrantLock rather than synchronized
+        // because blocking on a socket inside a monitor would pin a virtual thread to its carrier.
+        private final ReentrantLock lock = new ReentrantLock();
+
+        SocketOutput(Socket socket) {
+            this.socket = socket;
+            this.stream = new DataOutputStream(evalUnchecked(socket::getOutputStream));
+        }
+
+        @Override
+        public void write(Payfile.PayFileMessage msg) throws IOException {
+            // Prefix and message go out in one write rather than two. Writes block, so a slow client holds up the
+            // thread reading its requests, which is all the backpressure this engine needs.
+            write(OutboundFrame.of(msg));
+        }
+
+        @Override
+        public void write(OutboundFrame frame) throws IOException {
+            lock.lock();
+            try {
+                final SocketChannel channel = socket.getChannel();
+                if (channel != null)
+                    frame.writeTo(channel);   // Blocking, so this sends everything.
+                else
+                    frame.copyTo(stream);
+            } finally {
+                lock.unlock();
+                frame.release();
+            }
+        }
+
+        @Override
+        public void close() {
+            runUnchecked(socket::close);
+        }
     }
 
     public static void main(String[] args) throws Exception {
         BriefLogFormatter.init();
 
-        // Usage: --file-directory=<file-directory> [--network=[mainnet|testnet|regtest]] [--port=<port>]"
+        // Usage: --file-directory=<file-directory> [--network=[mainnet|testnet|regtest]] [--port=<port>]
+        //        [--engine=[threads|virtual|nio]] [--event-loops=<n>] [--store=[file|mmap|memory]]
+        //        [--max-open-files=<n>] [--chunk-cache-mb=<n>] [--no-merkle-trees]
         OptionParser parser = new OptionParser();
         OptionSpec<File> fileDir = parser.accepts("file-directory").withRequiredArg().required().ofType(File.class);
         parser.accepts("network").withRequiredArg().withValuesConvertedBy(regex("(mainnet)|(testnet)|(regtest)")).defaultsTo("mainnet");
         parser.accepts("port").withRequiredArg().ofType(Integer.class).defaultsTo(PORT);
+        parser.accepts("engine").withRequiredArg().withValuesConvertedBy(regex("(threads)|(virtual)|(nio)")).defaultsTo("threads");
+        OptionSpec<Integer> eventLoops = parser.accepts("event-loops").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        parser.accepts("store").withRequiredArg().withValuesConvertedBy(regex("(file)|(mmap)|(memory)")).defaultsTo("file");
+        OptionSpec<Integer> maxOpenFiles = parser.accepts("max-open-files").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(256);
+        OptionSpec<Integer> chunkCacheSize = parser.accepts("chunk-cache-mb", "Off-heap memory for caching popular chunks, 0 to disable")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(64);
+        parser.accepts("no-merkle-trees", "Don't hash the files, so clients can't check chunks as they arrive");
         parser.accepts("help").forHelp();
         parser.formatHelpWith(new BuiltinHelpFormatter(120, 10));
 
@@ -111,8 +232,14 @@ public class Server implements Runnable {
         }
 
         directoryToServe = options.valueOf(fileDir);
-        if (!buildFileList())
-            return;
+        if (options.valueOf("store").equals("mmap"))
+            chunkStore = new MappedChunkStore(directoryToServe);
+        else if (options.valueOf("store").equals("memory"))
+            chunkStore = new MemoryChunkStore(directoryToServe);
+        else
+            chunkStore = new FileChunkStore(directoryToServe, options.valueOf(maxOpenFiles));
+        if (options.valueOf(chunkCacheSize) > 0)
+            chunkCache = new ChunkCache(options.valueOf(chunkCacheSize) * 1024L * 1024L, RawDataFrame.HEADER_SIZE + CHUNK_SIZE);
 
         if (options.valueOf("network").equals(("testnet"))) {
             params = TestNet3Params.get();
@@ -126,6 +253,14 @@ public class Server implements Runnable {
         }
 
         final int port = Integer.parseInt(options.valueOf("port").toString());
+        // Chunks are only checkable if they're at least a leaf.
+        if (!options.has("no-merkle-trees") && MIN_CHUNK_SIZE >= MerkleTree.LEAF_SIZE)
+            merkleTrees = new MerkleTreeStore(directoryToServe, new File(".", filePrefix + "payfile-server-" + port + ".trees"),
+                    options.valueOf(maxOpenFiles));
+
+        if (!buildFileList(new File(".", filePrefix + "payfile-server-" + port + ".catalog")))
+            return;
+        startStatsLogging();
 
         WalletAppKit appkit = new WalletAppKit(params, new File("."), filePrefix + "payfile-server-" + port) {
             @Override
@@ -141,40 +276,57 @@ public class Server implements Runnable {
 
         System.out.println(appkit.wallet().toString(false, true, true, appkit.chain()));
 
-        ServerSocket socket = new ServerSocket(port);
+        if (options.valueOf("engine").equals("nio")) {
+            new NioServer(appkit.wallet(), appkit.peerGroup(), port, options.valueOf(eventLoops)).run();
+            return;
+        }
+
+        final boolean virtualThreads = options.valueOf("engine").equals("virtual");
+        // Accept through a channel so client sockets have one too, which is what lets us use transferTo on them.
+        ServerSocketChannel socket = ServerSocketChannel.open();
+        socket.bind(new InetSocketAddress(port));
         Socket clientSocket;
         do {
-            clientSocket = socket.accept();
+            clientSocket = socket.accept().socket();
             final Server server = new Server(appkit.wallet(), appkit.peerGroup(), clientSocket);
-            Thread clientThread = new Thread(server, clientSocket.toString());
+            Thread clientThread = virtualThreads ? Thread.ofVirtual().unstarted(server) : new Thread(server);
+            clientThread.setName(clientSocket.toString());
             clientThread.start();
         } while (true);
     }
 
-    private static boolean buildFileList() {
-        final File[] files = directoryToServe.listFiles();
-        if (files == null) {
-            log.error("{} is not a directory", directoryToServe);
+    private static void startStatsLogging() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Stats logger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> {
+            log.info("{}", chunkStore);
+            if (chunkCache != null)
+                log.info("{}", chunkCache);
+            if (merkleTrees != null)
+                log.info("{}", merkleTrees);
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    private static boolean buildFileList(File indexFile) {
+        CatalogWatcher watcher = new CatalogWatcher(directoryToServe, chunkStore, chunkCache, merkleTrees, CHUNK_SIZE,
+                MIN_CHUNK_SIZE, MAX_CHUNK_SIZE, defaultPricePerChunk, new CatalogIndex(indexFile), newCatalog -> catalog = newCatalog);
+        try {
+            if (watcher.scan().getFiles().isEmpty()) {
+                log.error("{} contains no files", directoryToServe);
+                return false;
+            }
+        } catch (IOException e) {
+            log.error("Could not load files to serve: {}", e.getMessage());
             return false;
         }
-        manifest = new ArrayList<>();
-        int counter = 0;
-        for (File f : files) {
-            if (f.isDirectory() || f.isHidden()) continue;
-            Payfile.File file = Payfile.File.newBuilder()
-                    .setFileName(f.getName())
-                    .setDescription("Some cool file")
-                    .setHandle(counter++)
-                    .setSize(f.length())
-                    .setPricePerChunk(defaultPricePerChunk)
-                    .build();
-            manifest.add(file);
-        }
-        if (counter == 0) {
-            log.error("{} contains no files", directoryToServe);
-            return false;
+        try {
+            watcher.start();
+        } catch (IOException e) {
+            log.warn("Cannot watch {} for changes, restart to pick up new files: {}", directoryToServe, e.toString());
         }
-        log.info("Serving {} files", counter);
         return true;
     }
 
@@ -182,40 +334,56 @@ public class Server implements Runnable {
     public void run() {
         try {
             log.info("Got new connection from {}", peerName);
-            input = new DataInputStream(socket.getInputStream());
-            output = new DataOutputStream(socket.getOutputStream());
-
-            while (true) {
-                int len = input.readInt();
-                if (len < 0 || len > 64 * 1024) {
-                    log.error("Client sent over-sized message of {} bytes", len);
-                    return;
+            try (FrameReader input = new FrameReader(checkNotNull(socket).getInputStream())) {
+                while (true) {
+                    int len = input.readPrefix();
+                    if (len < 0 || len > MAX_MESSAGE_SIZE) {
+                        log.error("Client sent over-sized message of {} bytes", len);
+                        return;
+                    }
+                    handle(input.readMessage(len));
                 }
-                byte[] bits = new byte[len];
-                input.readFully(bits);
-                Payfile.PayFileMessage msg = Payfile.PayFileMessage.parseFrom(bits);
-                handle(msg);
             }
         } catch (EOFException ignored) {
             log.info("Client {} disconnected", peerName);
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } catch (ProtocolException e) {
-            try {
-                sendError(e);
-            } catch (IOException ignored) {}
         } catch (Throwable t) {
-            // Internal server error.
-            try {
-                sendError(new ProtocolException(ProtocolException.Code.INTERNAL_ERROR, "Internal server error: " + t.toString()));
-            } catch (IOException ignored) {}
+            sendFailure(t);
         } finally {
             forceClose();
         }
     }
 
+    /**
+     * Dispatches a message read by some engine other than {@link #run()}, reporting failures to the client in the same
+     * way. Returns false if the connection should be closed once the error has been sent.
+     */
+    boolean handleMessage(Payfile.PayFileMessage msg) {
+        try {
+            handle(msg);
+            return true;
+        } catch (Throwable t) {
+            sendFailure(t);
+            return false;
+        }
+    }
+
+    private void sendFailure(Throwable t) {
+        ProtocolException e;
+        if (t instanceof ProtocolException) {
+            e = (ProtocolException) t;
+        } else {
+            // Internal server error.
+            e = new ProtocolException(ProtocolException.Code.INTERNAL_ERROR, "Internal server error: " + t.toString());
+        }
+        try {
+            sendError(e);
+        } catch (IOException ignored) {}
+    }
+
     private void forceClose() {
-        runUnchecked(socket::close);
+        output.close();
     }
 
     private void sendError(ProtocolException e) throws IOException {
@@ -239,7 +407,9 @@ public class Server implements Runnable {
                 payment(msg.getPayment());
                 break;
             case DOWNLOAD_CHUNK:
-                downloadChunk(msg.getDownloadChunk());
+                // Requests are answered in order, so once one has had to wait for a payment the rest wait too.
+                if (deferredDownloads.get() > 0 || !downloadChunk(msg.getDownloadChunk(), true))
+                    deferDownload(msg.getDownloadChunk());
                 break;
             default:
                 throw new ProtocolException("Unknown message");
@@ -249,15 +419,24 @@ public class Server implements Runnable {
     private void queryFiles(Payfile.QueryFiles queryFiles) throws IOException, ProtocolException {
         log.info("{}: File query request from '{}'", peerName, queryFiles.getUserAgent());
         checkForNetworkMismatch(queryFiles);
-        Payfile.Manifest manifestMsg = Payfile.Manifest.newBuilder()
-                .addAllFiles(manifest)
-                .setChunkSize(CHUNK_SIZE)
-                .build();
-        Payfile.PayFileMessage msg = Payfile.PayFileMessage.newBuilder()
-                .setType(Payfile.PayFileMessage.Type.MANIFEST)
-                .setManifest(manifestMsg)
-                .build();
-        writeMessage(msg);
+        rawData = queryFiles.getRawData();
+        merkleProofs = queryFiles.getMerkleProofs() && merkleTrees != null;
+        if (queryFiles.getCreditGrants() && !creditGrants) {
+            // The first CREDIT is how the client finds out we send them at all, so it goes before the MANIFEST.
+            creditGrants = true;
+            sendCredit();
+        }
+        final Catalog catalog = Server.catalog;
+        if (queryFiles.hasKnownVersion() && queryFiles.getKnownVersion().equals(catalog.getVersion())) {
+            writeMessage(catalog.notModified(rawData));
+        } else if (queryFiles.hasPageSize()) {
+            final int pageSize = Math.min(queryFiles.getPageSize(), MAX_PAGE_SIZE);
+            if (pageSize <= 0)
+                throw new ProtocolException("QUERY_FILES: page_size must be >= 1");
+            writeMessage(catalog.page(queryFiles.hasCursor() ? queryFiles.getCursor() : null, pageSize, rawData));
+        } else {
+            writeFrame(catalog.manifestFrame(rawData));
+        }
     }
 
     private void checkForNetworkMismatch(Payfile.QueryFiles queryFiles) throws ProtocolException {
@@ -271,23 +450,71 @@ public class Server implements Runnable {
 
     private void writeMessage(Payfile.PayFileMessage msg) {
         try {
-            byte[] bits = msg.toByteArray();
-            output.writeInt(bits.length);
-            output.write(bits);
+            output.write(msg);
         } catch (IOException e) {
             log.error("{}: Failed writing message: {}", peerName, e);
             forceClose();
         }
     }
 
-    private void payment(ByteString payment) {
+    private void writeFrame(OutboundFrame frame) {
         try {
-            Protos.TwoWayChannelMessage msg = Protos.TwoWayChannelMessage.parseFrom(payment);
-            maybeInitPayments().receiveMessage(msg);
+            output.write(frame);
+        } catch (IOException e) {
+            log.error("{}: Failed writing frame: {}", peerName, e);
+            forceClose();
+        }
+    }
+
+    private void sendCredit() {
+        if (!creditGrants)
+            return;
+        writeMessage(Payfile.PayFileMessage.newBuilder()
+                .setType(Payfile.PayFileMessage.Type.CREDIT)
+                .setCredit(Payfile.Credit.newBuilder().setGranted(credit.getPaid()))
+                .build());
+    }
+
+    private void payment(ByteString payment) throws ProtocolException {
+        final Protos.TwoWayChannelMessage msg;
+        try {
+            msg = Protos.TwoWayChannelMessage.parseFrom(payment);
         } catch (InvalidProtocolBufferException e) {
             log.error("{}: Got an unreadable payment message: {}", peerName, e);
             forceClose();
+            return;
         }
+        if (pendingPayments.incrementAndGet() > MAX_PENDING_PAYMENTS)
+            throw new ProtocolException("Too many payment messages in flight");
+        paymentQueue.execute(() -> {
+            try {
+                if (msg.getType() == Protos.TwoWayChannelMessage.MessageType.PROVIDE_CONTRACT)
+                    freshChannel = true;
+                maybeInitPayments().receiveMessage(msg);
+            } catch (Throwable t) {
+                sendFailure(t);
+                forceClose();
+            } finally {
+                pendingPayments.decrementAndGet();
+            }
+        });
+    }
+
+    // Queues a request that can't be paid for yet behind the payments that are still being processed, which may cover
+    // it. Clients that wait for CREDIT never need this, but older ones send a payment and then immediately a request
+    // that relies on it.
+    private void deferDownload(Payfile.DownloadChunk downloadChunk) {
+        deferredDownloads.incrementAndGet();
+        paymentQueue.execute(() -> {
+            try {
+                downloadChunk(downloadChunk, false);
+            } catch (Throwable t) {
+                sendFailure(t);
+                forceClose();
+            } finally {
+                deferredDownloads.decrementAndGet();
+            }
+        });
     }
 
     private PaymentChannelServer maybeInitPayments() {
@@ -314,70 +541,157 @@ public class Server implements Runnable {
             @Override
             public void channelOpen(Sha256Hash contractHash) {
                 log.info("{}: Payments negotiated: {}", peerName, contractHash);
+                final long value = payments.state().getBestValueToMe().longValue();
+                if (freshChannel) {
+                    // The client's first payment came with the contract, and is ours to spend.
+                    if (credit.paid(value))
+                        sendCredit();
+                } else {
+                    // A resumed channel has value on it already, but that paid for what earlier connections were sent.
+                    credit.opened(value);
+                }
             }
 
             @Override
             public void paymentIncrease(BigInteger by, BigInteger to) {
                 log.info("{}: Increased balance by {} to {}", peerName, by, to);
+                if (credit.paid(to.longValue()))
+                    sendCredit();
             }
         });
         payments.connectionOpen();
         return payments;
     }
 
-    private void downloadChunk(Payfile.DownloadChunk downloadChunk) throws ProtocolException {
+    /**
+     * Serves the request, or if mayDefer is set and it can't be paid for until the payments that are still being
+     * processed have been, returns false having done nothing.
+     */
+    private boolean downloadChunk(Payfile.DownloadChunk downloadChunk, boolean mayDefer) throws ProtocolException {
         try {
-            Payfile.File file = null;
-            for (Payfile.File f : manifest) {
-                if (f.getHandle() == downloadChunk.getHandle()) {
-                    file = f;
-                    break;
-                }
-            }
+            final Catalog catalog = Server.catalog;
+            final Payfile.File file = catalog.get(downloadChunk.getHandle());
             if (file == null)
-                throw new ProtocolException("DOWNLOAD_CHUNK specified invalid file handle " + downloadChunk.getHandle());
+                throw new ProtocolException("DOWNLOAD_CHUNK specified invalid file handle " + downloadChunk.getHandle() +
+                        ", the file may have been changed or removed");
             if (downloadChunk.getNumChunks() <= 0)
                 throw new ProtocolException("DOWNLOAD_CHUNK: num_chunks must be >= 1");
-            if (file.getPricePerChunk() > 0) {
-                // How many chunks can the client afford with their current balance?
-                PaymentChannelServerState state = payments == null ? null : payments.state();
-                if (state == null)
+            final int chunkSize = catalog.chunkSize(downloadChunk);
+            final long firstChunk = downloadChunk.getChunkId();
+            // The chunk just past the end of the file is allowed, so that empty files can be downloaded.
+            if (firstChunk < 0 || firstChunk > file.getSize() / chunkSize)
+                throw new ProtocolException("DOWNLOAD_CHUNK: chunk_id " + firstChunk + " is beyond the end of the file");
+            if ((long) downloadChunk.getNumChunks() * chunkSize > MAX_RANGE_SIZE)
+                throw new ProtocolException("DOWNLOAD_CHUNK: asked for more than " + MAX_RANGE_SIZE + " bytes at once");
+            final long start = firstChunk * chunkSize;
+            final long bytes = Math.min((long) downloadChunk.getNumChunks() * chunkSize, file.getSize() - start);
+            // Don't send empty chunks past the end, except when that's all there is.
+            final long numChunks = Math.max(1, (bytes + chunkSize - 1) / chunkSize);
+            // A chunk that failed its Merkle check is sent again for free, but only once.
+            final boolean resend = downloadChunk.getResend();
+            if (resend && (downloadChunk.getNumChunks() != 1 ||
+                    !recentChunks.takeResend(file.getHandle(), chunkSize, firstChunk)))
+                throw new ProtocolException("DOWNLOAD_CHUNK: can only resend a chunk that was sent recently, and once");
+            if (file.getPricePerChunk() > 0 && !resend) {
+                // Has the client paid for everything it's had so far plus what it's asking for now?
+                final boolean paymentsPending = pendingPayments.get() > 0;
+                if (payments == null) {
+                    if (mayDefer && paymentsPending)
+                        return false;
                     throw new ProtocolException("Payment channel not initiated but this file is not free");
-                long balance = state.getBestValueToMe().longValue();
-                long affordableChunks = balance / file.getPricePerChunk();
-                if (affordableChunks < downloadChunk.getNumChunks())
-                    throw new ProtocolException("Insufficient payment received for requested amount of data: got " + balance);
-                balance -= downloadChunk.getNumChunks();
+                }
+                if (!credit.trySpend(file.getPricePerChunk(), bytes)) {
+                    if (mayDefer && paymentsPending)
+                        return false;
+                    throw new ProtocolException("Insufficient payment received for requested amount of data: got " +
+                            credit.getPaid() + " and already spent " + credit.getSpent());
+                }
             }
-            for (int i = 0; i < downloadChunk.getNumChunks(); i++) {
-                long chunkId = downloadChunk.getChunkId() + i;
-                if (chunkId == 0)
-                    log.info("{}: Starting download of {}", peerName, file.getFileName());
-                // This is super inefficient.
-                File diskFile = new File(directoryToServe, file.getFileName());
-                FileInputStream fis = new FileInputStream(diskFile);
-                final long offset = chunkId * CHUNK_SIZE;
-                if (fis.skip(offset) != offset)
-                    throw new IOException("Bogus seek");
-                byte[] chunk = new byte[CHUNK_SIZE];
-                final int bytesActuallyRead = fis.read(chunk);
-                if (bytesActuallyRead < 0) {
-                    log.debug("Reached EOF");
-                } else if (bytesActuallyRead > 0 && bytesActuallyRead < chunk.length) {
-                    chunk = Arrays.copyOf(chunk, bytesActuallyRead);
+            if (resend)
+                log.warn("{}: Resending chunk {} of {}, which the client says is corrupt", peerName, firstChunk,
+                        file.getFileName());
+            else if (firstChunk == 0)
+                log.info("{}: Starting download of {} in {} byte chunks", peerName, file.getFileName(), chunkSize);
+            if (merkleProofs && !resend)
+                recentChunks.sent(file.getHandle(), chunkSize, firstChunk, numChunks);
+            // The whole range is read through one reader, sequentially, so the file is only looked up once and the
+            // kernel sees a sequential read it can read ahead for.
+            try (ChunkStore.Reader reader = chunkStore.open(file);
+                 MerkleTreeStore.Prover prover = merkleProofs ? checkNotNull(merkleTrees).open(file) : null) {
+                ByteBuffer buffer = null;
+                for (long chunkId = firstChunk; chunkId < firstChunk + numChunks; chunkId++) {
+                    final long offset = chunkId * chunkSize;
+                    final int length = (int) Math.min(chunkSize, file.getSize() - offset);
+                    if (prover != null)
+                        writeMessage(proofMessage(file, chunkId, prover.proof(chunkSize, chunkId)));
+                    final ByteBuffer cached = cachedChunk(reader, file, chunkSize, chunkId, offset, length);
+                    if (rawData) {
+                        if (cached != null) {
+                            writeFrame(new OutboundFrame(cached));
+                        } else {
+                            ByteBuffer header = RawDataFrame.header(file.getHandle(), chunkId, length);
+                            writeFrame(reader.frame(header, offset, length));
+                        }
+                        continue;
+                    }
+                    ByteBuffer chunk;
+                    if (cached != null) {
+                        chunk = cached;
+                        chunk.position(RawDataFrame.HEADER_SIZE);
+                    } else {
+                        // The message gets a copy of the chunk, so the buffer can be reused for the next one.
+                        if (buffer == null)
+                            buffer = ByteBuffer.allocate(chunkSize);
+                        chunk = buffer;
+                        chunk.clear().limit(length);
+                        reader.read(offset, chunk);
+                        chunk.flip();
+                    }
+                    Payfile.PayFileMessage msg = Payfile.PayFileMessage.newBuilder()
+                            .setType(Payfile.PayFileMessage.Type.DATA)
+                            .setData(Payfile.Data.newBuilder()
+                                    .setChunkId(chunkId)
+                                    .setHandle(file.getHandle())
+                                    .setData(ByteString.copyFrom(chunk))
+                                    .build()
+                            ).build();
+                    writeMessage(msg);
                 }
-                Payfile.PayFileMessage msg = Payfile.PayFileMessage.newBuilder()
-                        .setType(Payfile.PayFileMessage.Type.DATA)
-                        .setData(Payfile.Data.newBuilder()
-                                .setChunkId(downloadChunk.getChunkId())
-                                .setHandle(file.getHandle())
-                                .setData(ByteString.copyFrom(chunk))
-                                .build()
-                        ).build();
-                writeMessage(msg);
             }
+            return true;
         } catch (IOException e) {
             throw new ProtocolException("Error reading from disk: " + e.getMessage());
         }
     }
+
+    private static Payfile.PayFileMessage proofMessage(Payfile.File file, long chunkId, ByteString hashes) {
+        return Payfile.PayFileMessage.newBuilder()
+                .setType(Payfile.PayFileMessage.Type.PROOF)
+                .setProof(Payfile.MerkleProof.newBuilder()
+                        .setHandle(file.getHandle())
+                        .setChunkId(chunkId)
+                        .setHashes(hashes))
+                .build();
+    }
+
+    /**
+     * Returns the chunk as a complete raw DATA frame from the chunk cache, reading it in if it's popular enough to be
+     * admitted. Returns null if the caller should just read it from disk as normal.
+     */
+    @Nullable
+    private static ByteBuffer cachedChunk(ChunkStore.Reader reader, Payfile.File file, int chunkSize, long chunkId,
+                                          long offset, int length) throws IOException {
+        if (chunkCache == null)
+            return null;
+        ByteBuffer frame = chunkCache.get(file.getHandle(), chunkSize, chunkId);
+        final int frameSize = RawDataFrame.HEADER_SIZE + length;
+        if (frame != null || !chunkCache.wouldAdmit(file.getHandle(), chunkSize, chunkId, frameSize))
+            return frame;
+        frame = ByteBuffer.allocateDirect(frameSize);
+        frame.put(RawDataFrame.header(file.getHandle(), chunkId, length));
+        reader.read(offset, frame);
+        frame.flip();
+        chunkCache.put(file.getHandle(), chunkSize, chunkId, frame);
+        return frame.asReadOnlyBuffer();
+    }
 }
@@ -0,0 +1,68 @@
+package net.plan99.payfile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChunksTest {
+    private static final int MIN = 8 * 1024, DEFAULT = 64 * 1024, MAX = 1024 * 1024;
+
+    @Test
+    public void priceOfWholeChunks() {
+        assertEquals(0, Chunks.price(10, DEFAULT, 0));
+        assertEquals(10, Chunks.price(10, DEFAULT, DEFAULT));
+        assertEquals(30, Chunks.price(10, DEFAULT, 3 * DEFAULT));
+    }
+
+    @Test
+    public void priceRoundsUpToAWholeSatoshi() {
+        assertEquals(1, Chunks.price(10, DEFAULT, 1));
+        assertEquals(11, Chunks.price(10, DEFAULT, DEFAULT + 1));
+        // A tenth of a chunk at 10 per chunk is exactly 1, and one byte more tips it over.
+        assertEquals(1, Chunks.price(10, 1000, 100));
+        assertEquals(2, Chunks.price(10, 1000, 101));
+    }
+
+    @Test
+    public void priceIsTheSameWhateverChunkSizeIsDownloaded() {
+        // Prices are quoted per DEFAULT bytes, so fetching a file in smaller chunks costs the same in total.
+        final long size = 5 * DEFAULT + 123;
+        long weighted = 0;
+        for (long offset = 0; offset < size; offset += MIN)
+            weighted += 10 * Math.min(MIN, size - offset);
+        assertEquals(Chunks.price(10, DEFAULT, size), Chunks.price(1, DEFAULT, weighted));
+    }
+
+    @Test
+    public void freeFilesCostNothing() {
+        assertEquals(0, Chunks.price(0, DEFAULT, 1L << 40));
+    }
+
+    @Test
+    public void validSizes() {
+        assertTrue(Chunks.isValidSize(MIN, MIN, MAX));
+        assertTrue(Chunks.isValidSize(DEFAULT, MIN, MAX));
+        assertTrue(Chunks.isValidSize(MAX, MIN, MAX));
+        assertFalse(Chunks.isValidSize(MIN / 2, MIN, MAX));
+        assertFalse(Chunks.isValidSize(MAX * 2, MIN, MAX));
+        assertFalse(Chunks.isValidSize(DEFAULT + MIN, MIN, MAX));
+        assertFalse(Chunks.isValidSize(0, 0, MAX));
+    }
+
+    @Test
+    public void sizeForIsClampedToTheRange() {
+        assertEquals(MIN, Chunks.sizeFor(1, 0, MIN, MAX));
+        assertEquals(MAX, Chunks.sizeFor(Long.MAX_VALUE, 0, MIN, MAX));
+        // Targets that aren't powers of two are rounded down to one.
+        assertEquals(DEFAULT, Chunks.sizeFor(DEFAULT + MIN, 0, MIN, MAX));
+    }
+
+    @Test
+    public void sizeForDividesTheOffset() {
+        assertEquals(MAX, Chunks.sizeFor(MAX, 3L * MAX, MIN, MAX));
+        assertEquals(DEFAULT, Chunks.sizeFor(MAX, MAX + DEFAULT, MIN, MAX));
+        assertEquals(MIN, Chunks.sizeFor(MAX, MAX + MIN, MIN, MAX));
+        // No valid size divides an offset that isn't a multiple of the minimum.
+        assertEquals(MIN, Chunks.sizeFor(MAX, 100, MIN, MAX));
+    }
+}
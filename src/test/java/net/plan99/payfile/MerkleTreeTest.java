@@ -0,0 +1,202 @@
+package net.plan99.payfile;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static net.plan99.payfile.MerkleTree.HASH_SIZE;
+import static net.plan99.payfile.MerkleTree.LEAF_SIZE;
+import static org.junit.Assert.*;
+
+public class MerkleTreeTest {
+    // Includes empty files, partial last leaves and odd leaf counts, where lone nodes move up a level unchanged.
+    private static final int[] SIZES = {0, 1, LEAF_SIZE - 1, LEAF_SIZE, LEAF_SIZE + 1, 2 * LEAF_SIZE, 3 * LEAF_SIZE,
+            5 * LEAF_SIZE + 7, 7 * LEAF_SIZE, 8 * LEAF_SIZE, 9 * LEAF_SIZE - 1, 13 * LEAF_SIZE + 100};
+    private static final int[] CHUNK_SIZES = {LEAF_SIZE, 2 * LEAF_SIZE, 4 * LEAF_SIZE, 16 * LEAF_SIZE};
+
+    // Every level of the tree of data, built the slow and obvious way, with the leaves first and the root last.
+    private static List<byte[][]> buildTree(byte[] data) {
+        final MessageDigest digest = MerkleTree.newDigest();
+        final int leaves = (int) MerkleTree.numLeaves(data.length);
+        byte[][] level = new byte[leaves][];
+        for (int i = 0; i < leaves; i++) {
+            digest.update((byte) 0);
+            digest.update(data, i * LEAF_SIZE, Math.min(LEAF_SIZE, data.length - i * LEAF_SIZE));
+            level[i] = digest.digest();
+        }
+        final List<byte[][]> levels = new ArrayList<>();
+        levels.add(level);
+        while (level.length > 1) {
+            final byte[][] above = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < above.length; i++) {
+                if (2 * i + 1 < level.length) {
+                    digest.update((byte) 1);
+                    digest.update(level[2 * i]);
+                    digest.update(level[2 * i + 1]);
+                    above[i] = digest.digest();
+                } else {
+                    above[i] = level[2 * i];
+                }
+            }
+            levels.add(above);
+            level = above;
+        }
+        return levels;
+    }
+
+    private static byte[] root(List<byte[][]> tree) {
+        return tree.get(tree.size() - 1)[0];
+    }
+
+    private static ByteString proof(List<byte[][]> tree, int level, long index) {
+        final ByteArrayOutputStream proof = new ByteArrayOutputStream();
+        for (int l = level; l < tree.size() - 1; l++, index >>= 1) {
+            final long sibling = index ^ 1;
+            if (sibling < tree.get(l).length)
+                proof.write(tree.get(l)[(int) sibling], 0, HASH_SIZE);
+        }
+        return ByteString.copyFrom(proof.toByteArray());
+    }
+
+    private static byte[] randomData(int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static ByteBuffer chunk(byte[] data, int chunkSize, long chunkId) {
+        final int offset = (int) (chunkId * chunkSize);
+        return ByteBuffer.wrap(data, offset, Math.min(chunkSize, data.length - offset));
+    }
+
+    private static long numChunks(int size, int chunkSize) {
+        return Math.max(1, (size + chunkSize - 1) / chunkSize);
+    }
+
+    @Test
+    public void shape() {
+        assertEquals(1, MerkleTree.numLeaves(0));
+        assertEquals(1, MerkleTree.numLeaves(LEAF_SIZE));
+        assertEquals(2, MerkleTree.numLeaves(LEAF_SIZE + 1));
+        assertEquals(0, MerkleTree.height(1));
+        assertEquals(1, MerkleTree.height(2));
+        assertEquals(3, MerkleTree.height(5));
+        assertEquals(3, MerkleTree.height(8));
+        assertEquals(4, MerkleTree.height(9));
+        assertEquals(5, MerkleTree.width(5, 0));
+        assertEquals(3, MerkleTree.width(5, 1));
+        assertEquals(2, MerkleTree.width(5, 2));
+        assertEquals(1, MerkleTree.width(5, 3));
+        assertEquals(0, MerkleTree.levelFor(LEAF_SIZE));
+        assertEquals(4, MerkleTree.levelFor(16 * LEAF_SIZE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chunksSmallerThanALeafHaveNoNode() {
+        MerkleTree.levelFor(LEAF_SIZE / 2);
+    }
+
+    @Test
+    public void hashOfAWholeFileIsItsRoot() {
+        for (int size : SIZES) {
+            final byte[] data = randomData(size);
+            final byte[] hash = MerkleTree.hashChunk(MerkleTree.newDigest(), ByteBuffer.wrap(data));
+            assertArrayEquals(root(buildTree(data)), hash);
+        }
+    }
+
+    @Test
+    public void proofLengths() {
+        for (int size : SIZES) {
+            final List<byte[][]> tree = buildTree(randomData(size));
+            for (int chunkSize : CHUNK_SIZES) {
+                final int level = MerkleTree.levelFor(chunkSize);
+                for (long id = 0; id < numChunks(size, chunkSize); id++) {
+                    assertEquals("size " + size + " chunk " + chunkSize + " id " + id,
+                            proof(tree, level, id).size(), MerkleTree.proofLength(size, level, id) * HASH_SIZE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void everyChunkVerifies() {
+        for (int size : SIZES) {
+            final byte[] data = randomData(size);
+            final List<byte[][]> tree = buildTree(data);
+            for (int chunkSize : CHUNK_SIZES) {
+                final int level = MerkleTree.levelFor(chunkSize);
+                for (long id = 0; id < numChunks(size, chunkSize); id++) {
+                    assertTrue("size " + size + " chunk " + chunkSize + " id " + id, MerkleTree.verify(root(tree),
+                            size, chunkSize, id, chunk(data, chunkSize, id), proof(tree, level, id)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void corruptChunksAreRejected() {
+        final int size = 5 * LEAF_SIZE + 7;
+        final byte[] data = randomData(size);
+        final List<byte[][]> tree = buildTree(data);
+        for (long id = 0; id < numChunks(size, LEAF_SIZE); id++) {
+            final ByteString proof = proof(tree, 0, id);
+            final byte[] corrupt = data.clone();
+            corrupt[(int) (id * LEAF_SIZE)] ^= 1;
+            assertFalse(MerkleTree.verify(root(tree), size, LEAF_SIZE, id, chunk(corrupt, LEAF_SIZE, id), proof));
+        }
+    }
+
+    @Test
+    public void corruptProofsAreRejected() {
+        final int size = 7 * LEAF_SIZE;
+        final byte[] data = randomData(size);
+        final List<byte[][]> tree = buildTree(data);
+        final byte[] proof = proof(tree, 0, 3).toByteArray();
+        for (int i = 0; i < proof.length; i += HASH_SIZE) {
+            final byte[] corrupt = proof.clone();
+            corrupt[i] ^= 1;
+            assertFalse(MerkleTree.verify(root(tree), size, LEAF_SIZE, 3, chunk(data, LEAF_SIZE, 3),
+                    ByteString.copyFrom(corrupt)));
+        }
+        // Too short or too long, even if what's there is right.
+        assertFalse(MerkleTree.verify(root(tree), size, LEAF_SIZE, 3, chunk(data, LEAF_SIZE, 3),
+                ByteString.copyFrom(Arrays.copyOf(proof, proof.length - HASH_SIZE))));
+        assertFalse(MerkleTree.verify(root(tree), size, LEAF_SIZE, 3, chunk(data, LEAF_SIZE, 3),
+                ByteString.copyFrom(Arrays.copyOf(proof, proof.length + HASH_SIZE))));
+    }
+
+    @Test
+    public void chunksInTheWrongPlaceAreRejected() {
+        final int size = 5 * LEAF_SIZE + 7;
+        final byte[] data = randomData(size);
+        final List<byte[][]> tree = buildTree(data);
+        final byte[] root = root(tree);
+        // A good chunk and proof, claimed to be some other chunk.
+        assertFalse(MerkleTree.verify(root, size, LEAF_SIZE, 2, chunk(data, LEAF_SIZE, 1), proof(tree, 0, 1)));
+        // Past the end of the file.
+        assertFalse(MerkleTree.verify(root, size, LEAF_SIZE, 6, chunk(data, LEAF_SIZE, 5), proof(tree, 0, 5)));
+        assertFalse(MerkleTree.verify(root, size, LEAF_SIZE, -1, chunk(data, LEAF_SIZE, 0), proof(tree, 0, 0)));
+        // Truncated, including the short last chunk.
+        assertFalse(MerkleTree.verify(root, size, LEAF_SIZE, 1, ByteBuffer.wrap(data, LEAF_SIZE, LEAF_SIZE - 1),
+                proof(tree, 0, 1)));
+        assertFalse(MerkleTree.verify(root, size, LEAF_SIZE, 5, ByteBuffer.wrap(data, 5 * LEAF_SIZE, 6),
+                proof(tree, 0, 5)));
+    }
+
+    @Test
+    public void aDifferentFileIsRejected() {
+        final int size = 3 * LEAF_SIZE;
+        final byte[] data = randomData(size);
+        final List<byte[][]> tree = buildTree(data);
+        final byte[] otherRoot = root(buildTree(randomData(size + 1)));
+        assertFalse(MerkleTree.verify(otherRoot, size, LEAF_SIZE, 0, chunk(data, LEAF_SIZE, 0), proof(tree, 0, 0)));
+    }
+}
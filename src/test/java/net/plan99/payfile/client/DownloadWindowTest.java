@@ -0,0 +1,74 @@
+package net.plan99.payfile.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DownloadWindowTest {
+    private static final long KB = 1024, MB = 1024 * KB;
+    private static final long FAST = 10_000_000L, SLOW = 100_000_000L;
+
+    // A time after the window was made, or after it last shrank.
+    private static long now() {
+        return System.nanoTime() + 1;
+    }
+
+    @Test
+    public void fixedSizeNeverChanges() {
+        final DownloadWindow window = new DownloadWindow(100 * KB);
+        assertEquals(100 * KB, window.getSize());
+        window.completed(64 * KB, now(), FAST);
+        window.completed(64 * KB, now(), SLOW);
+        assertEquals(100 * KB, window.getSize());
+        assertTrue(window.hasRoom(100 * KB - 1));
+        assertFalse(window.hasRoom(100 * KB));
+    }
+
+    @Test
+    public void slowStartGrowsByEveryCompletedRequest() {
+        final DownloadWindow window = new DownloadWindow(0);
+        final long initial = window.getSize();
+        window.completed(64 * KB, now(), FAST);
+        assertEquals(initial + 64 * KB, window.getSize());
+        window.completed(64 * KB, now(), FAST);
+        assertEquals(initial + 128 * KB, window.getSize());
+    }
+
+    @Test
+    public void queueingHalvesTheWindowThenGrowsSlowly() {
+        final DownloadWindow window = new DownloadWindow(0);
+        for (int i = 0; i < 12; i++)
+            window.completed(256 * KB, now(), FAST);
+        final long grown = window.getSize();
+        window.completed(256 * KB, now(), SLOW);
+        final long halved = window.getSize();
+        assertEquals(grown / 2, halved);
+        // Past the slow start threshold, so it only grows by about one request per window's worth.
+        window.completed(256 * KB, now(), FAST);
+        assertEquals(halved + 256 * KB * 256 * KB / halved, window.getSize());
+    }
+
+    @Test
+    public void requestsSentBeforeAShrinkDoNotShrinkItAgain() {
+        final DownloadWindow window = new DownloadWindow(0);
+        for (int i = 0; i < 12; i++)
+            window.completed(256 * KB, now(), FAST);
+        final long sentBefore = System.nanoTime();
+        window.completed(256 * KB, now(), SLOW);
+        final long halved = window.getSize();
+        window.completed(256 * KB, sentBefore, SLOW);
+        window.completed(256 * KB, sentBefore, SLOW);
+        assertEquals(halved, window.getSize());
+    }
+
+    @Test
+    public void sizeStaysWithinBounds() {
+        final DownloadWindow window = new DownloadWindow(0);
+        for (int i = 0; i < 1000; i++)
+            window.completed(MB, now(), FAST);
+        assertEquals(16 * MB, window.getSize());
+        for (int i = 0; i < 100; i++)
+            window.completed(MB, now(), SLOW);
+        assertEquals(64 * KB, window.getSize());
+    }
+}
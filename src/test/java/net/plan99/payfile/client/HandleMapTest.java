@@ -0,0 +1,79 @@
+package net.plan99.payfile.client;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HandleMapTest {
+    @Test
+    public void putGetRemove() {
+        final HandleMap<String> map = new HandleMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertNull(map.put(1, "one"));
+        assertEquals("one", map.get(1));
+        assertEquals("one", map.put(1, "uno"));
+        assertEquals("uno", map.get(1));
+        assertEquals(1, map.size());
+        assertEquals("uno", map.remove(1));
+        assertNull(map.remove(1));
+        assertNull(map.get(1));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void oddHandles() {
+        final HandleMap<String> map = new HandleMap<>();
+        for (int handle : new int[] {0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE})
+            map.put(handle, "h" + handle);
+        for (int handle : new int[] {0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE})
+            assertEquals("h" + handle, map.get(handle));
+        assertEquals(4, map.size());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullValuesAreRefused() {
+        new HandleMap<String>().put(1, null);
+    }
+
+    @Test
+    public void growsAndClears() {
+        final HandleMap<Integer> map = new HandleMap<>();
+        for (int i = 0; i < 1000; i++)
+            map.put(i, i);
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++)
+            assertEquals(Integer.valueOf(i), map.get(i));
+        assertEquals(1000, new HashSet<>(map.values()).size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(5));
+        assertTrue(map.values().isEmpty());
+    }
+
+    @Test
+    public void matchesAHashMapUnderRandomChurn() {
+        // Lots of removals from a small table, so that entries often have to be moved back over the gaps.
+        final Random random = new Random(1);
+        final HandleMap<Integer> map = new HandleMap<>();
+        final Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            final int handle = random.nextInt(64) * (random.nextBoolean() ? 1 : 1 << 20);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(handle), map.remove(handle));
+            } else {
+                assertEquals(expected.put(handle, i), map.put(handle, i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet())
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        final List<Integer> values = map.values();
+        Collections.sort(values);
+        final List<Integer> expectedValues = new ArrayList<>(expected.values());
+        Collections.sort(expectedValues);
+        assertEquals(expectedValues, values);
+    }
+}
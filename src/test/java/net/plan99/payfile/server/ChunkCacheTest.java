@@ -0,0 +1,124 @@
+package net.plan99.payfile.server;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ChunkCacheTest {
+    private static final int CHUNK_SIZE = 1024;
+
+    private static ByteBuffer frame(int size, int fill) {
+        final ByteBuffer frame = ByteBuffer.allocateDirect(size);
+        while (frame.hasRemaining())
+            frame.put((byte) fill);
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    public void missThenHit() {
+        final ChunkCache cache = new ChunkCache(10 * CHUNK_SIZE, CHUNK_SIZE);
+        assertNull(cache.get(1, CHUNK_SIZE, 0));
+        cache.put(1, CHUNK_SIZE, 0, frame(CHUNK_SIZE, 7));
+        final ByteBuffer hit = cache.get(1, CHUNK_SIZE, 0);
+        assertNotNull(hit);
+        assertTrue(hit.isReadOnly());
+        assertEquals(CHUNK_SIZE, hit.remaining());
+        assertEquals(7, hit.get(0));
+        // Keys take in the handle, the chunk size and the chunk id.
+        assertNull(cache.get(2, CHUNK_SIZE, 0));
+        assertNull(cache.get(1, CHUNK_SIZE * 2, 0));
+        assertNull(cache.get(1, CHUNK_SIZE, 1));
+    }
+
+    @Test
+    public void readersDoNotDisturbEachOther() {
+        final ChunkCache cache = new ChunkCache(10 * CHUNK_SIZE, CHUNK_SIZE);
+        cache.put(1, CHUNK_SIZE, 0, frame(CHUNK_SIZE, 7));
+        final ByteBuffer first = cache.get(1, CHUNK_SIZE, 0);
+        first.position(first.limit());
+        assertEquals(CHUNK_SIZE, cache.get(1, CHUNK_SIZE, 0).remaining());
+    }
+
+    @Test
+    public void framesBiggerThanTheBudgetAreNeverAdmitted() {
+        final ChunkCache cache = new ChunkCache(CHUNK_SIZE, CHUNK_SIZE);
+        assertFalse(cache.wouldAdmit(1, CHUNK_SIZE * 2, 0, CHUNK_SIZE * 2));
+        cache.put(1, CHUNK_SIZE * 2, 0, frame(CHUNK_SIZE * 2, 0));
+        assertNull(cache.get(1, CHUNK_SIZE * 2, 0));
+    }
+
+    @Test
+    public void oneOffChunksDoNotDisplacePopularOnes() {
+        final ChunkCache cache = new ChunkCache(4 * CHUNK_SIZE, CHUNK_SIZE);
+        for (int id = 0; id < 4; id++) {
+            for (int i = 0; i < 5; i++)
+                cache.get(1, CHUNK_SIZE, id);
+            cache.put(1, CHUNK_SIZE, id, frame(CHUNK_SIZE, id));
+        }
+        // A big sequential download asks for each of its chunks once, which isn't enough to get any of them in.
+        for (int id = 0; id < 100; id++) {
+            assertNull(cache.get(2, CHUNK_SIZE, id));
+            assertFalse(cache.wouldAdmit(2, CHUNK_SIZE, id, CHUNK_SIZE));
+            cache.put(2, CHUNK_SIZE, id, frame(CHUNK_SIZE, 0));
+        }
+        for (int id = 0; id < 4; id++)
+            assertNotNull(cache.get(1, CHUNK_SIZE, id));
+    }
+
+    @Test
+    public void popularChunksEvictTheLeastRecentlyUsed() {
+        final ChunkCache cache = new ChunkCache(2 * CHUNK_SIZE, CHUNK_SIZE);
+        cache.put(1, CHUNK_SIZE, 0, frame(CHUNK_SIZE, 0));
+        cache.put(1, CHUNK_SIZE, 1, frame(CHUNK_SIZE, 1));
+        // Chunk 0 is now the most recently used, so chunk 1 is the one to go.
+        cache.get(1, CHUNK_SIZE, 0);
+        for (int i = 0; i < 5; i++)
+            cache.get(1, CHUNK_SIZE, 2);
+        assertTrue(cache.wouldAdmit(1, CHUNK_SIZE, 2, CHUNK_SIZE));
+        cache.put(1, CHUNK_SIZE, 2, frame(CHUNK_SIZE, 2));
+        assertNotNull(cache.get(1, CHUNK_SIZE, 0));
+        assertNull(cache.get(1, CHUNK_SIZE, 1));
+        assertNotNull(cache.get(1, CHUNK_SIZE, 2));
+    }
+
+    @Test
+    public void invalidateDropsOnlyThatFile() {
+        final ChunkCache cache = new ChunkCache(10 * CHUNK_SIZE, CHUNK_SIZE);
+        cache.put(1, CHUNK_SIZE, 0, frame(CHUNK_SIZE, 0));
+        cache.put(1, CHUNK_SIZE * 2, 3, frame(CHUNK_SIZE * 2, 0));
+        cache.put(2, CHUNK_SIZE, 0, frame(CHUNK_SIZE, 0));
+        cache.invalidate(1);
+        assertNull(cache.get(1, CHUNK_SIZE, 0));
+        assertNull(cache.get(1, CHUNK_SIZE * 2, 3));
+        assertNotNull(cache.get(2, CHUNK_SIZE, 0));
+        // What the invalidated chunks used is free again, so this fits without having to beat anything.
+        assertTrue(cache.wouldAdmit(3, CHUNK_SIZE, 0, 9 * CHUNK_SIZE));
+    }
+
+    @Test
+    public void bigHandlesDoNotShareEntries() {
+        final ChunkCache cache = new ChunkCache(10 * CHUNK_SIZE, CHUNK_SIZE);
+        final int big = 1 + (1 << 24);
+        cache.put(1, CHUNK_SIZE, 0, frame(CHUNK_SIZE, 1));
+        assertNull(cache.get(big, CHUNK_SIZE, 0));
+        cache.put(big, CHUNK_SIZE, 0, frame(CHUNK_SIZE, 2));
+        assertEquals(1, cache.get(1, CHUNK_SIZE, 0).get(0));
+        assertEquals(2, cache.get(big, CHUNK_SIZE, 0).get(0));
+        cache.invalidate(big);
+        assertNull(cache.get(big, CHUNK_SIZE, 0));
+        assertNotNull(cache.get(1, CHUNK_SIZE, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chunkSizesMustBePowersOfTwo() {
+        new ChunkCache(10 * CHUNK_SIZE, CHUNK_SIZE).get(1, 1000, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeChunkIdsAreRefused() {
+        new ChunkCache(10 * CHUNK_SIZE, CHUNK_SIZE).get(1, CHUNK_SIZE, -1);
+    }
+}
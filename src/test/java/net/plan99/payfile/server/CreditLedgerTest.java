@@ -0,0 +1,81 @@
+package net.plan99.payfile.server;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CreditLedgerTest {
+    private static final int CHUNK_SIZE = 1024;
+    private CreditLedger ledger;
+
+    @Before
+    public void setUp() {
+        ledger = new CreditLedger(CHUNK_SIZE);
+    }
+
+    @Test
+    public void nothingPaidNothingServed() {
+        assertFalse(ledger.trySpend(1, 1));
+        assertEquals(0, ledger.getSpent());
+    }
+
+    @Test
+    public void freeFilesNeedNoCredit() {
+        assertTrue(ledger.trySpend(0, 10 * CHUNK_SIZE));
+        assertEquals(0, ledger.getSpent());
+    }
+
+    @Test
+    public void spendUpToTheCreditBoundary() {
+        assertTrue(ledger.paid(10));
+        // 10 satoshis at 2 per chunk buys exactly 5 chunks.
+        assertTrue(ledger.trySpend(2, 5 * CHUNK_SIZE));
+        assertEquals(10, ledger.getSpent());
+        assertFalse(ledger.trySpend(2, 1));
+        assertEquals(10, ledger.getSpent());
+    }
+
+    @Test
+    public void partialChunksRoundUpOnTheTotal() {
+        assertTrue(ledger.paid(10));
+        // 10238 priced bytes is 9.998 satoshis, which rounds up to 10.
+        assertTrue(ledger.trySpend(2, 5 * CHUNK_SIZE - 1));
+        assertEquals(10, ledger.getSpent());
+        // Rounding is done on the running total rather than per request, so the last byte still fits.
+        assertTrue(ledger.trySpend(2, 1));
+        assertEquals(10, ledger.getSpent());
+        assertFalse(ledger.trySpend(2, 1));
+    }
+
+    @Test
+    public void refusedRequestsChargeNothing() {
+        assertTrue(ledger.paid(3));
+        assertFalse(ledger.trySpend(1, 4 * CHUNK_SIZE));
+        assertEquals(0, ledger.getSpent());
+        assertTrue(ledger.trySpend(1, 3 * CHUNK_SIZE));
+    }
+
+    @Test
+    public void paymentsOnlyGoUp() {
+        assertTrue(ledger.paid(10));
+        assertFalse(ledger.paid(5));
+        assertFalse(ledger.paid(10));
+        assertEquals(10, ledger.getPaid());
+        assertTrue(ledger.paid(11));
+        assertEquals(11, ledger.getPaid());
+    }
+
+    @Test
+    public void resumedChannelValueIsNotCredit() {
+        // The channel was paid 100 on earlier connections, for data they were sent.
+        ledger.opened(100);
+        assertFalse(ledger.paid(100));
+        assertEquals(0, ledger.getPaid());
+        assertFalse(ledger.trySpend(1, 1));
+        assertTrue(ledger.paid(104));
+        assertEquals(4, ledger.getPaid());
+        assertTrue(ledger.trySpend(1, 4 * CHUNK_SIZE));
+        assertFalse(ledger.trySpend(1, 1));
+    }
+}
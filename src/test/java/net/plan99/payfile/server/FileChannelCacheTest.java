@@ -0,0 +1,120 @@
+package net.plan99.payfile.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileChannelCacheTest {
+    private Path a, b, c;
+
+    @Before
+    public void setUp() throws IOException {
+        a = Files.createTempFile("payfile", ".a");
+        b = Files.createTempFile("payfile", ".b");
+        c = Files.createTempFile("payfile", ".c");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path path : new Path[] {a, b, c})
+            Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void leasesShareOneChannel() throws IOException {
+        final FileChannelCache cache = new FileChannelCache(2);
+        final FileChannelCache.Lease first = cache.acquire(1, a);
+        final FileChannelCache.Lease second = cache.acquire(1, a);
+        assertSame(first.channel(), second.channel());
+        assertEquals(1, cache.getOpenChannels());
+        assertEquals(0.5, cache.getHitRate(), 0);
+        first.close();
+        second.close();
+        // The cache still holds its own reference.
+        assertTrue(first.channel().isOpen());
+        assertEquals(1, cache.getOpenChannels());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() throws IOException {
+        final FileChannelCache cache = new FileChannelCache(2);
+        final FileChannelCache.Lease leaseA = cache.acquire(1, a);
+        leaseA.close();
+        cache.acquire(2, b).close();
+        cache.acquire(1, a).close();
+        final FileChannelCache.Lease leaseB = cache.acquire(2, b);
+        leaseB.close();
+        // Both are cached, and a was used before b, so c pushes a out.
+        cache.acquire(3, c).close();
+        assertFalse(leaseA.channel().isOpen());
+        assertTrue(leaseB.channel().isOpen());
+        assertEquals(2, cache.getOpenChannels());
+    }
+
+    @Test
+    public void evictionWaitsForTheLastLease() throws IOException {
+        final FileChannelCache cache = new FileChannelCache(1);
+        final FileChannelCache.Lease lease = cache.acquire(1, a);
+        final FileChannelCache.Lease retained = lease.retain();
+        cache.acquire(2, b).close();
+        assertTrue(lease.channel().isOpen());
+        assertEquals(2, cache.getOpenChannels());
+        lease.close();
+        assertTrue(retained.channel().isOpen());
+        retained.close();
+        assertFalse(lease.channel().isOpen());
+        assertEquals(1, cache.getOpenChannels());
+    }
+
+    @Test
+    public void invalidateReopens() throws IOException {
+        final FileChannelCache cache = new FileChannelCache(2);
+        final FileChannelCache.Lease old = cache.acquire(1, a);
+        old.close();
+        cache.invalidate(1);
+        assertFalse(old.channel().isOpen());
+        final FileChannelCache.Lease fresh = cache.acquire(1, a);
+        assertNotSame(old.channel(), fresh.channel());
+        fresh.close();
+    }
+
+    @Test
+    public void invalidateDuringOpenIsNotLost() throws IOException {
+        final List<FileChannel> opened = new ArrayList<>();
+        final FileChannelCache cache = new FileChannelCache(2) {
+            @Override
+            FileChannel open(Path path) throws IOException {
+                final FileChannel channel = super.open(path);
+                opened.add(channel);
+                // The file changes whilst the first open is in progress.
+                if (opened.size() == 1)
+                    invalidate(1);
+                return channel;
+            }
+        };
+        final FileChannelCache.Lease lease = cache.acquire(1, a);
+        assertEquals(2, opened.size());
+        assertFalse(opened.get(0).isOpen());
+        assertSame(opened.get(1), lease.channel());
+        assertEquals(1, cache.getOpenChannels());
+        lease.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void leasesCanOnlyBeClosedOnce() throws IOException {
+        final FileChannelCache cache = new FileChannelCache(1);
+        final FileChannelCache.Lease lease = cache.acquire(1, a);
+        cache.invalidate(1);
+        lease.close();
+        lease.close();
+    }
+}